@@ -1,8 +1,12 @@
 package se.sics.ace;
 
+import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -13,6 +17,76 @@ public class Hkdf {
 
 	private static final int hashLen = 32;
 	
+	private static final String HMAC_ALG_NAME = "HmacSHA256";
+	
+	/**
+	 * The maximum number of pseudorandom keys kept by extractExpandCached()
+	 */
+	private static final int PRK_CACHE_SIZE = 64;
+	
+	/**
+	 * One HMAC instance per thread, Mac.getInstance() is much more 
+	 * expensive than initializing an existing instance with a new key
+	 */
+	private static final ThreadLocal<Mac> macs = new ThreadLocal<>();
+	
+	/**
+	 * One SHA-256 instance per thread, to hash the keys of the cache
+	 */
+	private static final ThreadLocal<MessageDigest> digests = new ThreadLocal<>();
+	
+	/**
+	 * The pseudorandom keys of recent (salt, input keying material) pairs, 
+	 * least recently used first. The keys are SHA-256 hashes of the pairs, 
+	 * so that no input keying material is kept in memory.
+	 */
+	private static final Map<ByteBuffer, byte[]> prks 
+		= new LinkedHashMap<ByteBuffer, byte[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<ByteBuffer, byte[]> eldest) {
+				return size() > PRK_CACHE_SIZE;
+			}
+		};
+	
+	/**
+	 * @return  the HMAC instance of this thread
+	 * 
+	 * @throws NoSuchAlgorithmException if an unknown HMAC is used
+	 */
+	private static Mac mac() throws NoSuchAlgorithmException {
+		Mac hmac = macs.get();
+		if (hmac == null) {
+			hmac = Mac.getInstance(HMAC_ALG_NAME);
+			macs.set(hmac);
+		}
+		return hmac;
+	}
+	
+	/**
+	 * @param salt  the salt, null is the same as empty like in extract()
+	 * @param ikm  the input keying material
+	 * @return  the SHA-256 hash of the length of the salt, the salt and 
+	 *     the input keying material
+	 * 
+	 * @throws NoSuchAlgorithmException if SHA-256 is not available
+	 */
+	private static ByteBuffer cacheKey(byte[] salt, byte[] ikm)
+			throws NoSuchAlgorithmException {
+		MessageDigest md = digests.get();
+		if (md == null) {
+			md = MessageDigest.getInstance("SHA-256");
+			digests.set(md);
+		}
+		if (salt == null) {
+			salt = new byte[0];
+		}
+		md.update(ByteBuffer.allocate(4).putInt(salt.length).array());
+		md.update(salt);
+		md.update(ikm);
+		return ByteBuffer.wrap(md.digest());
+	}
+	
 	/**
 	 * HMAC-based Extract-and-Expand Key Derivation Function.
 	 * https://tools.ietf.org/html/rfc5869
@@ -28,33 +102,85 @@ public class Hkdf {
 	 */
 	public static byte[] extractExpand(byte[] salt, byte[] ikm, byte[] info, int len)
 			throws InvalidKeyException, NoSuchAlgorithmException {
-
-		final String digest = "SHA256"; // Hash to use
-
-		String HMAC_ALG_NAME = "Hmac" + digest;
-		Mac hmac = Mac.getInstance(HMAC_ALG_NAME);
-		int hashLen = hmac.getMacLength();
-
-		// Perform extract
+		return expand(extract(salt, ikm), info, len);
+	}
+	
+	/**
+	 * Like extractExpand(), but reuses the pseudorandom key if the same 
+	 * salt and input keying material were used recently. Use this when 
+	 * several keys are derived from the same secret, e.g. with a fixed 
+	 * key derivation key.
+	 * 
+	 * @param salt optional salt value
+	 * @param ikm input keying material
+	 * @param info context and application specific information
+	 * @param len length of output keying material in octets
+	 * @return output keying material
+	 * 
+	 * @throws InvalidKeyException if the HMAC procedure fails
+	 * @throws NoSuchAlgorithmException if an unknown HMAC is used
+	 */
+	public static byte[] extractExpandCached(byte[] salt, byte[] ikm, byte[] info, int len)
+			throws InvalidKeyException, NoSuchAlgorithmException {
+		ByteBuffer key = cacheKey(salt, ikm);
+		byte[] prk;
+		synchronized (prks) {
+			prk = prks.get(key);
+		}
+		if (prk == null) {
+			prk = extract(salt, ikm);
+			synchronized (prks) {
+				prks.put(key, prk);
+			}
+		}
+		return expand(prk, info, len);
+	}
+	
+	/**
+	 * The HKDF-Extract step.
+	 * 
+	 * @param salt optional salt value
+	 * @param ikm input keying material
+	 * @return the pseudorandom key
+	 * 
+	 * @throws InvalidKeyException if the HMAC procedure fails
+	 * @throws NoSuchAlgorithmException if an unknown HMAC is used
+	 */
+	public static byte[] extract(byte[] salt, byte[] ikm)
+			throws InvalidKeyException, NoSuchAlgorithmException {
+		Mac hmac = mac();
+		// An absent salt is a string of hashLen zeros, SecretKeySpec rejects empty keys
+		if (salt == null || salt.length == 0) {
+			salt = new byte[hashLen];
+		}
 		hmac.init(new SecretKeySpec(salt, HMAC_ALG_NAME));
-		byte[] rgbExtract = hmac.doFinal(ikm);
-
-		// Perform expand
-		hmac.init(new SecretKeySpec(rgbExtract, HMAC_ALG_NAME));
-		int c = (len / hashLen) + 1;
+		return hmac.doFinal(ikm);
+	}
+	
+	/**
+	 * The HKDF-Expand step.
+	 * 
+	 * @param prk the pseudorandom key
+	 * @param info context and application specific information
+	 * @param len length of output keying material in octets
+	 * @return output keying material
+	 * 
+	 * @throws InvalidKeyException if the HMAC procedure fails
+	 * @throws NoSuchAlgorithmException if an unknown HMAC is used
+	 */
+	public static byte[] expand(byte[] prk, byte[] info, int len)
+			throws InvalidKeyException, NoSuchAlgorithmException {
+		Mac hmac = mac();
+		hmac.init(new SecretKeySpec(prk, HMAC_ALG_NAME));
 		byte[] okm = new byte[len];
-		int maxLen = (hashLen * c > len) ? hashLen * c : len;
-		byte[] T = new byte[maxLen];
 		byte[] last = new byte[0];
-		for (int i = 0; i < c; i++) {
-			hmac.reset();
+		for (int i = 0, off = 0; off < len; i++, off += hashLen) {
 			hmac.update(last);
 			hmac.update(info);
 			hmac.update((byte) (i + 1));
 			last = hmac.doFinal();
-			System.arraycopy(last, 0, T, i * hashLen, hashLen);
+			System.arraycopy(last, 0, okm, off, Math.min(hashLen, len - off));
 		}
-		System.arraycopy(T, 0, okm, 0, len);
 		return okm;
 	}
 	
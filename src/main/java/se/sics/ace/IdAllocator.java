@@ -0,0 +1,357 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Allocates OSCORE Sender and Recipient IDs of 1 to 4 bytes.
+ * 
+ * The allocated IDs of each size are kept in a bitmap split in pages of 
+ * 65536 IDs, and a page is only created once one of its IDs is allocated. 
+ * A hint to the lowest ID that may be free makes allocating the lowest 
+ * free ID O(1) amortized, pages that are full are skipped.
+ * 
+ * IDs of 4 bytes are restricted to the positive integers, like in 
+ * Util.intToBytes().
+ *
+ */
+public class IdAllocator {
+    
+    /**
+     * The number of bits of the ID within a page
+     */
+    private static final int PAGE_BITS = 16;
+    
+    /**
+     * The allocated IDs of a range of 65536 IDs
+     */
+    private static final class Page {
+        
+        /**
+         * The bitmap
+         */
+        private final long[] words;
+        
+        /**
+         * The number of allocated IDs
+         */
+        private int used = 0;
+        
+        /**
+         * Constructor.
+         * 
+         * @param ids  the number of IDs in the page
+         */
+        Page(int ids) {
+            this.words = new long[(ids + 63) >>> 6];
+        }
+    }
+    
+    /**
+     * The allocated IDs of one size
+     */
+    private static final class Bitmap {
+        
+        /**
+         * The largest ID
+         */
+        private final int max;
+        
+        /**
+         * The pages, created when first used
+         */
+        private final Page[] pages;
+        
+        /**
+         * The number of allocated IDs, a long since there are 2^31 IDs of 
+         * 4 bytes
+         */
+        private long used = 0;
+        
+        /**
+         * All IDs lower than this are allocated
+         */
+        private int hint = 0;
+        
+        /**
+         * Constructor.
+         * 
+         * @param max  the largest ID
+         */
+        Bitmap(int max) {
+            this.max = max;
+            this.pages = new Page[(max >>> PAGE_BITS) + 1];
+        }
+        
+        /**
+         * @param p  the index of a page
+         * @return  the number of IDs in the page
+         */
+        private int pageSize(int p) {
+            return (int)Math.min(1L << PAGE_BITS, 
+                    (long)this.max + 1 - ((long)p << PAGE_BITS));
+        }
+        
+        /**
+         * @param id  an ID in the range
+         * @return  true if the ID is allocated
+         */
+        boolean get(int id) {
+            Page page = this.pages[id >>> PAGE_BITS];
+            if (page == null) {
+                return false;
+            }
+            int bit = id & ((1 << PAGE_BITS) - 1);
+            return (page.words[bit >>> 6] & (1L << bit)) != 0;
+        }
+        
+        /**
+         * Mark an ID as allocated.
+         * 
+         * @param id  an ID in the range that is not allocated
+         */
+        void set(int id) {
+            int p = id >>> PAGE_BITS;
+            if (this.pages[p] == null) {
+                this.pages[p] = new Page(pageSize(p));
+            }
+            Page page = this.pages[p];
+            int bit = id & ((1 << PAGE_BITS) - 1);
+            page.words[bit >>> 6] |= 1L << bit;
+            page.used++;
+            this.used++;
+        }
+        
+        /**
+         * Mark an ID as free, dropping its page once it is empty.
+         * 
+         * @param id  an ID in the range that is allocated
+         */
+        void clear(int id) {
+            int p = id >>> PAGE_BITS;
+            Page page = this.pages[p];
+            int bit = id & ((1 << PAGE_BITS) - 1);
+            page.words[bit >>> 6] &= ~(1L << bit);
+            if (--page.used == 0) {
+                this.pages[p] = null;
+            }
+            this.used--;
+            this.hint = Math.min(this.hint, id);
+        }
+        
+        /**
+         * Find the lowest free ID, starting at the hint.
+         * 
+         * @return  the lowest free ID or -1 if all are allocated
+         */
+        int firstFree() {
+            if (this.used > this.max) {
+                return -1;
+            }
+            for (int p = this.hint >>> PAGE_BITS; p < this.pages.length; p++) {
+                int base = p << PAGE_BITS;
+                int from = Math.max(this.hint - base, 0);
+                Page page = this.pages[p];
+                if (page == null) {
+                    return base + from;
+                }
+                int size = pageSize(p);
+                if (page.used == size) {
+                    continue;
+                }
+                for (int w = from >>> 6; w < page.words.length; w++) {
+                    long free = ~page.words[w];
+                    if (w == from >>> 6) {
+                        free &= -1L << (from & 63);
+                    }
+                    if (free != 0) {
+                        int bit = (w << 6) + Long.numberOfTrailingZeros(free);
+                        if (bit < size) {
+                            return base + bit;
+                        }
+                    }
+                }
+            }
+            return -1;
+        }
+    }
+    
+    /**
+     * The bitmaps, index 0 is for IDs of 1 byte
+     */
+    private final Bitmap[] bitmaps = new Bitmap[4];
+    
+    /**
+     * Get the largest ID of a size.
+     * 
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  the largest ID
+     */
+    public static int maxValue(int size) {
+        if (size < 1 || size > 4) {
+            throw new IllegalArgumentException("ID size must be 1 to 4");
+        }
+        return (size == 4) ? Integer.MAX_VALUE : (1 << (size * 8)) - 1;
+    }
+    
+    /**
+     * Get the bitmap of a size, creating it if needed.
+     * 
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  the bitmap
+     */
+    private Bitmap bitmap(int size) {
+        int max = maxValue(size);
+        if (this.bitmaps[size - 1] == null) {
+            this.bitmaps[size - 1] = new Bitmap(max);
+        }
+        return this.bitmaps[size - 1];
+    }
+    
+    /**
+     * Allocate the lowest free ID of a size.
+     * 
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  the ID or -1 if all IDs of this size are allocated
+     */
+    public synchronized int allocate(int size) {
+        Bitmap b = bitmap(size);
+        int id = b.firstFree();
+        if (id < 0) {
+            b.hint = b.max;
+            return -1;
+        }
+        b.set(id);
+        b.hint = id;
+        return id;
+    }
+    
+    /**
+     * Allocate a given ID.
+     * 
+     * @param id  the ID
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  true if the ID was free, false if it is allocated already
+     *     or out of range
+     */
+    public synchronized boolean allocate(int id, int size) {
+        Bitmap b = bitmap(size);
+        if (id < 0 || id > b.max || b.get(id)) {
+            return false;
+        }
+        b.set(id);
+        return true;
+    }
+    
+    /**
+     * Release an allocated ID.
+     * 
+     * @param id  the ID
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  true if the ID was allocated, false otherwise
+     */
+    public synchronized boolean release(int id, int size) {
+        Bitmap b = bitmap(size);
+        if (id < 0 || id > b.max || !b.get(id)) {
+            return false;
+        }
+        b.clear(id);
+        return true;
+    }
+    
+    /**
+     * Check if an ID is allocated.
+     * 
+     * @param id  the ID
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  true if the ID is allocated
+     */
+    public synchronized boolean isAllocated(int id, int size) {
+        Bitmap b = bitmap(size);
+        return id >= 0 && id <= b.max && b.get(id);
+    }
+    
+    /**
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  the number of allocated IDs of this size
+     */
+    public synchronized long count(int size) {
+        return bitmap(size).used;
+    }
+    
+    /**
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  true if all IDs of this size are allocated
+     */
+    public synchronized boolean isFull(int size) {
+        Bitmap b = bitmap(size);
+        return b.used > b.max;
+    }
+    
+    /**
+     * Get the allocated IDs of a size, this is linear in the number of 
+     * pages in use.
+     * 
+     * @param size  the size in bytes, 1 to 4
+     * 
+     * @return  a copy of the allocated IDs
+     */
+    public synchronized Set<Integer> getAllocated(int size) {
+        Bitmap b = bitmap(size);
+        Set<Integer> ids = new HashSet<>();
+        for (int p = 0; p < b.pages.length; p++) {
+            Page page = b.pages[p];
+            if (page == null) {
+                continue;
+            }
+            for (int w = 0; w < page.words.length; w++) {
+                long word = page.words[w];
+                while (word != 0) {
+                    int bit = Long.numberOfTrailingZeros(word);
+                    ids.add((p << PAGE_BITS) + (w << 6) + bit);
+                    word &= word - 1;
+                }
+            }
+        }
+        return ids;
+    }
+}
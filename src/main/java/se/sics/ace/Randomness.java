@@ -0,0 +1,191 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.logging.Logger;
+
+import javax.crypto.KeyGenerator;
+
+/**
+ * The source of random nonces, identifiers and symmetric keys.
+ * 
+ * Each thread uses its own SecureRandom and KeyGenerator, created on first
+ * use, so the cost of seeding them is paid once per thread and not for 
+ * each request. The default SecureRandom is used, which does not block 
+ * waiting for entropy once seeded.
+ * 
+ * Optionally, a pool of AES keys can be filled by a background thread, so
+ * that issuing a token does not need to generate a key at all.
+ *
+ */
+public class Randomness {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(Randomness.class.getName());
+    
+    /**
+     * The SecureRandom of each thread
+     */
+    private static final ThreadLocal<SecureRandom> random 
+        = ThreadLocal.withInitial(SecureRandom::new);
+    
+    /**
+     * The size in bits of the generated AES keys
+     */
+    public static final int AES_KEY_BITS = 128;
+    
+    /**
+     * The AES KeyGenerator of each thread
+     */
+    private static final ThreadLocal<KeyGenerator> aes = new ThreadLocal<>();
+    
+    /**
+     * The pre-generated AES keys, null if there is no pool
+     */
+    private static volatile BlockingQueue<byte[]> keyPool = null;
+    
+    /**
+     * The thread filling the pool of AES keys
+     */
+    private static Thread filler = null;
+    
+    private Randomness() {
+        //Not meant to be instantiated
+    }
+    
+    /**
+     * @return  the SecureRandom of the calling thread
+     */
+    public static SecureRandom get() {
+        return random.get();
+    }
+    
+    /**
+     * Fill an array with random bytes.
+     * 
+     * @param bytes  the array
+     */
+    public static void nextBytes(byte[] bytes) {
+        random.get().nextBytes(bytes);
+    }
+    
+    /**
+     * Generate a new AES key of AES_KEY_BITS bits. The key is taken 
+     * from the pool if there is one and it is not empty.
+     * 
+     * @return  the encoded key
+     * 
+     * @throws NoSuchAlgorithmException  if AES is not supported
+     */
+    public static byte[] aesKey() throws NoSuchAlgorithmException {
+        BlockingQueue<byte[]> pool = keyPool;
+        if (pool != null) {
+            byte[] key = pool.poll();
+            if (key != null) {
+                return key;
+            }
+        }
+        return generateAesKey();
+    }
+    
+    /**
+     * @return  a new encoded AES key from the KeyGenerator of this thread
+     * 
+     * @throws NoSuchAlgorithmException  if AES is not supported
+     */
+    private static byte[] generateAesKey() throws NoSuchAlgorithmException {
+        KeyGenerator kg = aes.get();
+        if (kg == null) {
+            kg = KeyGenerator.getInstance("AES");
+            // The default key size depends on the provider
+            kg.init(AES_KEY_BITS, random.get());
+            aes.set(kg);
+        }
+        return kg.generateKey().getEncoded();
+    }
+    
+    /**
+     * Start filling a pool of AES keys in the background. Keys taken from 
+     * the pool are replaced as soon as possible. Does nothing if the pool 
+     * was started already.
+     * 
+     * @param size  the number of keys to keep ready
+     * 
+     * @return  true if the pool was started, false if it was running
+     * 
+     * @throws NoSuchAlgorithmException  if AES is not supported
+     */
+    public static synchronized boolean startKeyPool(int size) 
+            throws NoSuchAlgorithmException {
+        if (keyPool != null) {
+            return false;
+        }
+        // Fail here rather than in the background thread
+        generateAesKey();
+        final BlockingQueue<byte[]> pool = new ArrayBlockingQueue<>(size);
+        filler = new Thread(() -> {
+            try {
+                while (!Thread.currentThread().isInterrupted()) {
+                    pool.put(generateAesKey());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (NoSuchAlgorithmException e) {
+                LOGGER.severe("Cannot generate AES keys: " + e.getMessage());
+            }
+        }, "Randomness-keypool");
+        filler.setDaemon(true);
+        filler.start();
+        keyPool = pool;
+        return true;
+    }
+    
+    /**
+     * Stop filling the pool of AES keys and drop the keys in it.
+     */
+    public static synchronized void stopKeyPool() {
+        if (keyPool == null) {
+            return;
+        }
+        filler.interrupt();
+        filler = null;
+        keyPool.clear();
+        keyPool = null;
+    }
+}
@@ -31,7 +31,6 @@
  *******************************************************************************/
 package se.sics.ace;
 
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.Map;
 
@@ -71,7 +70,7 @@ public class ReferenceToken implements AccessToken {
 	 */
 	public ReferenceToken(int length) {		
 		this.ref = new byte[length];
-		new SecureRandom().nextBytes(this.ref);
+		Randomness.nextBytes(this.ref);
 		this.refS = Base64.getEncoder().encodeToString(this.ref);
 	}
 	
@@ -81,7 +80,7 @@ public class ReferenceToken implements AccessToken {
 	 */
 	public ReferenceToken() {
 	    this.ref = new byte[128/8];
-	    new SecureRandom().nextBytes(this.ref);
+	    Randomness.nextBytes(this.ref);
 	    this.refS = Base64.getEncoder().encodeToString(this.ref);
 	}
 	
@@ -33,7 +33,6 @@ package se.sics.ace.as;
 
 import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
@@ -43,9 +42,6 @@ import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.crypto.KeyGenerator;
-import javax.crypto.SecretKey;
-
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
 
@@ -63,6 +59,7 @@ import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.Endpoint;
 import se.sics.ace.Message;
+import se.sics.ace.Randomness;
 import se.sics.ace.TimeProvider;
 import se.sics.ace.Util;
 import se.sics.ace.cwt.CWT;
@@ -94,6 +91,11 @@ public class Token implements Endpoint, AutoCloseable {
      */
     private static final Logger LOGGER 
         = Logger.getLogger(Token.class.getName());
+    
+    /**
+     * The number of AES keys generated ahead of the token requests
+     */
+    private static final int KEY_POOL_SIZE = 32;
 
     /**
      * Boolean for not verify
@@ -229,6 +231,11 @@ public class Token implements Endpoint, AutoCloseable {
 	  */
 	 private boolean provideIdContext;
 	 
+	 /**
+	  * True if this endpoint started the pool of AES keys
+	  */
+	 private boolean keyPoolStarted = false;
+	 
 	 /**
 	  * Relevant only when the OSCORE profile is used
 	  * 
@@ -355,7 +362,24 @@ public class Token implements Endpoint, AutoCloseable {
         this.masterSaltSize = masterSaltSize;
         this.provideIdContext = provideIdContext;
         this.peerIdentitiesToNames = peerIdentitiesToNames;
-        
+	}
+	
+	/**
+	 * Keep PSKs and OSCORE Master Secrets ready for the tokens, generated 
+	 * by a background thread until this endpoint is closed. Without this, 
+	 * the keys are generated when the tokens are requested.
+	 * 
+	 * @throws AceException  if AES keys cannot be generated
+	 */
+	public synchronized void startKeyPool() throws AceException {
+	    try {
+	        if (Randomness.startKeyPool(KEY_POOL_SIZE)) {
+	            this.keyPoolStarted = true;
+	        }
+	    } catch (NoSuchAlgorithmException e) {
+	        LOGGER.severe("Cannot generate AES keys: " + e.getMessage());
+	        throw new AceException(e.getMessage());
+	    }
 	}
 
 	@Override
@@ -811,13 +835,10 @@ public class Token implements Endpoint, AutoCloseable {
  
 		            // Audience supports PSK, make a new PSK
                     try {
-                        KeyGenerator kg = KeyGenerator.getInstance("AES");
-
                         // OSCORE profile
                         if (profile == Constants.COAP_OSCORE) {
                             //Generate OSCORE cnf
-                        	SecretKey key = kg.generateKey();
-                            byte[] masterSecret = key.getEncoded();
+                            byte[] masterSecret = Randomness.aesKey();
                             CBORObject osc = makeOscoreCnf(masterSecret, audStr);
                             claims.put(Constants.CNF, osc);
                         }
@@ -833,9 +854,8 @@ public class Token implements Endpoint, AutoCloseable {
                             byte[] kid = ctiB;
                         	keyData.Add(KeyKeys.KeyId.AsCBOR(), kid);
                             
-                        	SecretKey key = kg.generateKey();
                         	keyData.Add(KeyKeys.Octet_K.AsCBOR(), 
-                                	CBORObject.FromObject(key.getEncoded()));
+                                	CBORObject.FromObject(Randomness.aesKey()));
                             
                         	OneKey psk = new OneKey(keyData);
                             coseKey.Add(Constants.COSE_KEY, psk.AsCBOR());
@@ -1580,7 +1600,7 @@ public class Token implements Endpoint, AutoCloseable {
 	    
 	    if (masterSaltSize != 0) {
 	        byte[] masterSalt = new byte[masterSaltSize];
-	        new SecureRandom().nextBytes(masterSalt);
+	        Randomness.nextBytes(masterSalt);
 	        osc.Add(Constants.OS_SALT, masterSalt);
 	    }
 
@@ -1770,6 +1790,12 @@ public class Token implements Endpoint, AutoCloseable {
 
     @Override
     public void close() throws AceException {
+        synchronized (this) {
+            if (this.keyPoolStarted) {
+                Randomness.stopKeyPool();
+                this.keyPoolStarted = false;
+            }
+        }
         this.db.saveCtiCounter(this.cti);
         
         for (String rs : exiSequenceNumbers.keySet())
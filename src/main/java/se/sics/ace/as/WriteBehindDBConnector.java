@@ -0,0 +1,919 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.as;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.upokecenter.cbor.CBORObject;
+
+import COSE.CoseException;
+import COSE.OneKey;
+
+import se.sics.ace.AceException;
+import se.sics.ace.COSEparams;
+import se.sics.ace.Constants;
+
+/**
+ * A DBConnector wrapping another DBConnector, which stores issued tokens
+ * in a write-behind fashion.
+ *
+ * The records written by the /token endpoint for each issued token, i.e.
+ * the claims, the cti-to-client association, the cti counter and the
+ * Exi Sequence Numbers, are first appended to a local journal file and kept
+ * in memory, and are then flushed to the wrapped DBConnector by a background
+ * thread. This way, issuing a token does not have to wait for the database
+ * to commit. The journal is fsynced outside the lock protecting the pending
+ * records, and concurrent writers share a single fsync.
+ *
+ * Until a record has been flushed, the reading methods such as getClaims(),
+ * getClient4Cti() and getCtis4Client() are served from the pending records,
+ * so that both the /token and the /introspect endpoints see the token as
+ * soon as it has been issued.
+ *
+ * The staleness of the database is bounded: pending records are flushed at
+ * the latest after the configured delay, and a flush is performed by the
+ * writing thread if the number of pending tokens reaches the configured
+ * maximum. On startup, records left in the journal by a previous run are
+ * flushed before the connector is used.
+ *
+ * To use the write-behind mode, build the /token and /introspect endpoints
+ * with the same instance of this class, wrapping the actual DBConnector.
+ * All the other methods are directly passed to the wrapped DBConnector.
+ *
+ */
+public class WriteBehindDBConnector implements DBConnector, AutoCloseable {
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER
+        = Logger.getLogger(WriteBehindDBConnector.class.getName());
+
+    /**
+     * The default maximum delay in milliseconds before pending records
+     * are flushed to the database
+     */
+    public static final long DEFAULT_MAX_DELAY = 1000L;
+
+    /**
+     * The default maximum number of tokens that can be pending
+     */
+    public static final int DEFAULT_MAX_PENDING = 1000;
+
+    /**
+     * The record types used in the journal
+     */
+    private static final String OP_TOKEN = "token";
+    private static final String OP_CLIENT = "client";
+    private static final String OP_CTI_COUNTER = "ctiCounter";
+    private static final String OP_EXI_SN = "exiSeqNum";
+    private static final String OP_DELETE = "delete";
+
+    /**
+     * The wrapped database connector
+     */
+    private DBConnector db;
+
+    /**
+     * The journal file of pending records
+     */
+    private File journalFile;
+
+    /**
+     * The stream appending records to the journal file
+     */
+    private FileOutputStream journal;
+
+    /**
+     * The maximum number of tokens that can be pending
+     */
+    private int maxPending;
+
+    /**
+     * The claims of tokens not yet flushed, indexed by cti
+     */
+    private Map<String, Map<Short, CBORObject>> pendingClaims
+        = new LinkedHashMap<>();
+
+    /**
+     * The cti-to-client associations not yet flushed
+     */
+    private Map<String, String> pendingCti2Client = new LinkedHashMap<>();
+
+    /**
+     * The latest cti counter not yet flushed, or null if there is none
+     */
+    private Long pendingCtiCounter = null;
+
+    /**
+     * The latest Exi Sequence Numbers not yet flushed, indexed by RS
+     */
+    private Map<String, Integer> pendingExiSeqNums = new HashMap<>();
+
+    /**
+     * The number of records written to the current journal stream
+     */
+    private long journalRecords = 0;
+
+    /**
+     * The number of records of the current journal stream known to be
+     * on disk
+     */
+    private long durableRecords = 0;
+
+    /**
+     * Serializes the fsyncs of the journal, so that one fsync covers
+     * all the records written by concurrent threads before it started
+     */
+    private final Object syncLock = new Object();
+
+    /**
+     * Serializes the flushes and the writes to the database
+     * that have to be ordered with respect to them
+     */
+    private final Object flushLock = new Object();
+
+    /**
+     * The thread performing the periodic flushes
+     */
+    private ScheduledExecutorService flusher;
+
+
+    /**
+     * Constructor using the default maximum delay and maximum number of
+     * pending tokens.
+     *
+     * @param db  the wrapped database connector
+     * @param journalFile  the path of the journal file, if the file exists
+     *     its records are flushed to the database first
+     *
+     * @throws AceException  if the journal cannot be recovered
+     */
+    public WriteBehindDBConnector(DBConnector db, String journalFile)
+            throws AceException {
+        this(db, journalFile, DEFAULT_MAX_DELAY, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param db  the wrapped database connector
+     * @param journalFile  the path of the journal file, if the file exists
+     *     its records are flushed to the database first
+     * @param maxDelay  the maximum delay in milliseconds before pending
+     *     records are flushed to the database
+     * @param maxPending  the maximum number of tokens that can be pending
+     *     before a flush is performed by the writing thread
+     *
+     * @throws AceException  if the journal cannot be recovered
+     */
+    public WriteBehindDBConnector(DBConnector db, String journalFile,
+            long maxDelay, int maxPending) throws AceException {
+        if (db == null) {
+            throw new AceException("Wrapped DBConnector must be non-null");
+        }
+        if (journalFile == null) {
+            throw new AceException("Must provide a journal file path");
+        }
+        if (maxDelay <= 0 || maxPending <= 0) {
+            throw new AceException(
+                    "Maximum delay and pending tokens must be positive");
+        }
+        this.db = db;
+        this.journalFile = new File(journalFile);
+        this.maxPending = maxPending;
+
+        recover();
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "WriteBehindDBConnector-flusher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (AceException e) {
+                LOGGER.severe("Flushing pending tokens failed, "
+                        + "retrying later: " + e.getMessage());
+            }
+        }, maxDelay, maxDelay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Load the records left in the journal file by a previous run
+     * and flush them to the database.
+     *
+     * @throws AceException
+     */
+    private void recover() throws AceException {
+        if (this.journalFile.exists()) {
+            String journalStr;
+            try (FileInputStream fis = new FileInputStream(this.journalFile);
+                    Scanner scanner = new Scanner(fis, "UTF-8")) {
+                Scanner s = scanner.useDelimiter("\\A");
+                journalStr = s.hasNext() ? s.next() : "";
+            } catch (IOException e) {
+                throw new AceException(e.getMessage());
+            }
+            for (String line : journalStr.split("\n")) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                try {
+                    replay(new JSONObject(line));
+                } catch (JSONException e) {
+                    // A partially written last record, drop it
+                    LOGGER.warning("Ignoring malformed journal record: "
+                            + e.getMessage());
+                }
+            }
+            LOGGER.info("Recovered " + this.pendingClaims.size()
+                    + " pending tokens from the journal");
+        }
+        try {
+            this.journal = new FileOutputStream(this.journalFile, true);
+        } catch (IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        flush(true);
+    }
+
+    /**
+     * Apply a journal record to the pending records.
+     *
+     * @param record  the journal record
+     */
+    private void replay(JSONObject record) {
+        String op = record.getString("op");
+        switch (op) {
+        case OP_TOKEN:
+            Map<Short, CBORObject> claims = new HashMap<>();
+            JSONObject jsonClaims = record.getJSONObject("claims");
+            Iterator<String> keys = jsonClaims.keys();
+            while (keys.hasNext()) {
+                String key = keys.next();
+                claims.put(Short.parseShort(key),
+                        CBORObject.DecodeFromBytes(Base64.getDecoder().decode(
+                                jsonClaims.getString(key))));
+            }
+            this.pendingClaims.put(record.getString("cti"), claims);
+            break;
+        case OP_CLIENT:
+            this.pendingCti2Client.put(record.getString("cti"),
+                    record.getString("client"));
+            break;
+        case OP_CTI_COUNTER:
+            this.pendingCtiCounter = record.getLong("value");
+            break;
+        case OP_EXI_SN:
+            this.pendingExiSeqNums.put(record.getString("rs"),
+                    record.getInt("value"));
+            break;
+        case OP_DELETE:
+            this.pendingClaims.remove(record.getString("cti"));
+            this.pendingCti2Client.remove(record.getString("cti"));
+            break;
+        default:
+            LOGGER.warning("Ignoring unknown journal record: " + op);
+        }
+    }
+
+    /**
+     * Build the journal record for a token.
+     *
+     * @param cti  the token identifier encoded Base64
+     * @param claims  the claims of the token
+     * @return  the journal record
+     */
+    private static JSONObject tokenRecord(String cti,
+            Map<Short, CBORObject> claims) {
+        JSONObject jsonClaims = new JSONObject();
+        for (Map.Entry<Short, CBORObject> claim : claims.entrySet()) {
+            jsonClaims.put(claim.getKey().toString(),
+                    Base64.getEncoder().encodeToString(
+                            claim.getValue().EncodeToBytes()));
+        }
+        JSONObject record = new JSONObject();
+        record.put("op", OP_TOKEN);
+        record.put("cti", cti);
+        record.put("claims", jsonClaims);
+        return record;
+    }
+
+    /**
+     * Append a record to the journal file. The record is durable only
+     * after sync() has been called with the returned sequence number,
+     * which should be done without holding the lock of this object.
+     *
+     * @param record  the journal record
+     * @return  the sequence number of the record in the journal
+     * @throws AceException
+     */
+    private synchronized long append(JSONObject record) throws AceException {
+        try {
+            this.journal.write((record.toString() + "\n").getBytes(
+                    Constants.charset));
+        } catch (IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        return ++this.journalRecords;
+    }
+
+    /**
+     * Wait until a record appended to the journal is on disk. Concurrent
+     * callers share the fsyncs: a thread whose record was covered by the
+     * fsync of another thread returns without doing its own.
+     *
+     * @param seq  the sequence number returned by append()
+     * @throws AceException
+     */
+    private void sync(long seq) throws AceException {
+        synchronized (this.syncLock) {
+            FileOutputStream out;
+            long target;
+            synchronized (this) {
+                if (this.durableRecords >= seq) {
+                    return;
+                }
+                out = this.journal;
+                target = this.journalRecords;
+            }
+            try {
+                out.getFD().sync();
+            } catch (IOException e) {
+                synchronized (this) {
+                    // The journal was compacted and synced in the meantime
+                    if (this.durableRecords >= seq) {
+                        return;
+                    }
+                }
+                throw new AceException(e.getMessage());
+            }
+            synchronized (this) {
+                if (out == this.journal) {
+                    this.durableRecords
+                        = Math.max(this.durableRecords, target);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the journal file, so that it only contains the records
+     * still pending. The new file replaces the old one atomically.
+     *
+     * @throws AceException
+     */
+    private synchronized void compactJournal() throws AceException {
+        File tmp = new File(this.journalFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false)) {
+            StringBuilder sb = new StringBuilder();
+            for (Map.Entry<String, Map<Short, CBORObject>> e
+                    : this.pendingClaims.entrySet()) {
+                sb.append(tokenRecord(e.getKey(), e.getValue()).toString());
+                sb.append("\n");
+            }
+            for (Map.Entry<String, String> e
+                    : this.pendingCti2Client.entrySet()) {
+                JSONObject record = new JSONObject();
+                record.put("op", OP_CLIENT);
+                record.put("cti", e.getKey());
+                record.put("client", e.getValue());
+                sb.append(record.toString()).append("\n");
+            }
+            if (this.pendingCtiCounter != null) {
+                JSONObject record = new JSONObject();
+                record.put("op", OP_CTI_COUNTER);
+                record.put("value", this.pendingCtiCounter.longValue());
+                sb.append(record.toString()).append("\n");
+            }
+            for (Map.Entry<String, Integer> e
+                    : this.pendingExiSeqNums.entrySet()) {
+                JSONObject record = new JSONObject();
+                record.put("op", OP_EXI_SN);
+                record.put("rs", e.getKey());
+                record.put("value", e.getValue().intValue());
+                sb.append(record.toString()).append("\n");
+            }
+            fos.write(sb.toString().getBytes(Constants.charset));
+            fos.getFD().sync();
+        } catch (IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        try {
+            this.journal.close();
+            Files.move(tmp.toPath(), this.journalFile.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            this.journal = new FileOutputStream(this.journalFile, true);
+        } catch (IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        // The new journal holds all the pending records and is on disk
+        this.durableRecords = this.journalRecords;
+    }
+
+    /**
+     * Flush all the pending records to the wrapped database connector.
+     *
+     * @throws AceException  if writing to the database fails, in which case
+     *     the records not written are still pending
+     */
+    public void flush() throws AceException {
+        flush(false);
+    }
+
+    /**
+     * Flush all the pending records to the wrapped database connector.
+     *
+     * @param recovering  true if the records come from the journal of a
+     *     previous run, and may have already been written to the database
+     *
+     * @throws AceException
+     */
+    private void flush(boolean recovering) throws AceException {
+        synchronized (this.flushLock) {
+            Map<String, Map<Short, CBORObject>> claims;
+            Map<String, String> cti2client;
+            Long ctiCounter;
+            Map<String, Integer> exiSeqNums;
+            synchronized (this) {
+                if (this.pendingClaims.isEmpty()
+                        && this.pendingCti2Client.isEmpty()
+                        && this.pendingCtiCounter == null
+                        && this.pendingExiSeqNums.isEmpty()) {
+                    return;
+                }
+                claims = new LinkedHashMap<>(this.pendingClaims);
+                cti2client = new LinkedHashMap<>(this.pendingCti2Client);
+                ctiCounter = this.pendingCtiCounter;
+                exiSeqNums = new HashMap<>(this.pendingExiSeqNums);
+            }
+
+            // Records are removed from the pending ones only after having
+            // been written, so that readers can always find them somewhere
+            try {
+                for (Map.Entry<String, Map<Short, CBORObject>> e
+                        : claims.entrySet()) {
+                    if (!recovering
+                            || this.db.getClaims(e.getKey()).isEmpty()) {
+                        this.db.addToken(e.getKey(), e.getValue());
+                    }
+                    synchronized (this) {
+                        this.pendingClaims.remove(e.getKey(), e.getValue());
+                    }
+                }
+                for (Map.Entry<String, String> e : cti2client.entrySet()) {
+                    if (!recovering
+                            || this.db.getClient4Cti(e.getKey()) == null) {
+                        this.db.addCti2Client(e.getKey(), e.getValue());
+                    }
+                    synchronized (this) {
+                        this.pendingCti2Client.remove(
+                                e.getKey(), e.getValue());
+                    }
+                }
+                if (ctiCounter != null) {
+                    this.db.saveCtiCounter(ctiCounter);
+                    synchronized (this) {
+                        if (ctiCounter.equals(this.pendingCtiCounter)) {
+                            this.pendingCtiCounter = null;
+                        }
+                    }
+                }
+                for (Map.Entry<String, Integer> e : exiSeqNums.entrySet()) {
+                    this.db.saveExiSequenceNumber(
+                            e.getValue().intValue(), e.getKey());
+                    synchronized (this) {
+                        this.pendingExiSeqNums.remove(
+                                e.getKey(), e.getValue());
+                    }
+                }
+            } finally {
+                compactJournal();
+            }
+        }
+    }
+
+    @Override
+    public void addToken(String cti, Map<Short, CBORObject> claims)
+            throws AceException {
+        if (cti == null || cti.isEmpty()) {
+            throw new AceException(
+                    "addToken() requires non-null, non-empty cti");
+        }
+        if (claims == null || claims.isEmpty()) {
+            throw new AceException(
+                    "addToken() requires at least one claim");
+        }
+        Map<Short, CBORObject> copy = new HashMap<>(claims);
+        int pending;
+        long seq;
+        synchronized (this) {
+            seq = append(tokenRecord(cti, copy));
+            this.pendingClaims.put(cti, copy);
+            pending = this.pendingClaims.size();
+        }
+        sync(seq);
+        if (pending >= this.maxPending) {
+            flush();
+        }
+    }
+
+    @Override
+    public void addCti2Client(String cti, String clientId)
+            throws AceException {
+        if (cti == null || clientId == null) {
+            throw new AceException(
+                    "addCti2Client() requires non-null parameters");
+        }
+        JSONObject record = new JSONObject();
+        record.put("op", OP_CLIENT);
+        record.put("cti", cti);
+        record.put("client", clientId);
+        long seq;
+        synchronized (this) {
+            seq = append(record);
+            this.pendingCti2Client.put(cti, clientId);
+        }
+        sync(seq);
+    }
+
+    @Override
+    public void saveCtiCounter(Long cti) throws AceException {
+        JSONObject record = new JSONObject();
+        record.put("op", OP_CTI_COUNTER);
+        record.put("value", cti.longValue());
+        long seq;
+        synchronized (this) {
+            seq = append(record);
+            this.pendingCtiCounter = cti;
+        }
+        sync(seq);
+    }
+
+    @Override
+    public void saveExiSequenceNumber(int sn, String rsId)
+            throws AceException {
+        JSONObject record = new JSONObject();
+        record.put("op", OP_EXI_SN);
+        record.put("rs", rsId);
+        record.put("value", sn);
+        long seq;
+        synchronized (this) {
+            seq = append(record);
+            this.pendingExiSeqNums.put(rsId, sn);
+        }
+        sync(seq);
+    }
+
+    @Override
+    public void deleteToken(String cti) throws AceException {
+        if (cti == null) {
+            throw new AceException("deleteToken() requires non-null cti");
+        }
+        // Wait for an ongoing flush, which may be writing this token
+        synchronized (this.flushLock) {
+            long seq = 0;
+            synchronized (this) {
+                boolean pendingToken = this.pendingClaims.remove(cti) != null;
+                // Do not leave a cti-to-client association to be flushed
+                boolean pendingClient 
+                    = this.pendingCti2Client.remove(cti) != null;
+                if (pendingToken || pendingClient) {
+                    JSONObject record = new JSONObject();
+                    record.put("op", OP_DELETE);
+                    record.put("cti", cti);
+                    seq = append(record);
+                }
+            }
+            if (seq > 0) {
+                sync(seq);
+            }
+            this.db.deleteToken(cti);
+        }
+    }
+
+    @Override
+    public void purgeExpiredTokens(long now) throws AceException {
+        List<String> expired = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Map<Short, CBORObject>> e
+                    : this.pendingClaims.entrySet()) {
+                CBORObject exp = e.getValue().get(Constants.EXP);
+                if (exp != null && now > exp.AsNumber().ToInt64Checked()) {
+                    expired.add(e.getKey());
+                }
+            }
+        }
+        for (String cti : expired) {
+            deleteToken(cti);
+        }
+        // Do not purge between the claims and the clients of a flush
+        synchronized (this.flushLock) {
+            this.db.purgeExpiredTokens(now);
+        }
+    }
+
+    @Override
+    public Map<Short, CBORObject> getClaims(String cti) throws AceException {
+        if (cti == null) {
+            throw new AceException("getClaims() requires non-null cti");
+        }
+        synchronized (this) {
+            Map<Short, CBORObject> claims = this.pendingClaims.get(cti);
+            if (claims != null) {
+                return new HashMap<>(claims);
+            }
+        }
+        return this.db.getClaims(cti);
+    }
+
+    @Override
+    public Long getCtiCounter() throws AceException {
+        synchronized (this) {
+            if (this.pendingCtiCounter != null) {
+                return this.pendingCtiCounter;
+            }
+        }
+        return this.db.getCtiCounter();
+    }
+
+    @Override
+    public int getExiSequenceNumber(String rsId) throws AceException {
+        synchronized (this) {
+            Integer sn = this.pendingExiSeqNums.get(rsId);
+            if (sn != null) {
+                return sn.intValue();
+            }
+        }
+        return this.db.getExiSequenceNumber(rsId);
+    }
+
+    @Override
+    public String getClient4Cti(String cti) throws AceException {
+        if (cti == null) {
+            throw new AceException("getClient4Cti() requires non-null cti");
+        }
+        synchronized (this) {
+            String clientId = this.pendingCti2Client.get(cti);
+            if (clientId != null) {
+                return clientId;
+            }
+        }
+        return this.db.getClient4Cti(cti);
+    }
+
+    @Override
+    public Set<String> getCtis4Client(String clientId) throws AceException {
+        if (clientId == null) {
+            throw new AceException(
+                    "getCtis4Client() requires non-null clientId");
+        }
+        Set<String> ctis = new HashSet<>();
+        synchronized (this) {
+            for (Map.Entry<String, String> e
+                    : this.pendingCti2Client.entrySet()) {
+                if (e.getValue().equals(clientId)) {
+                    ctis.add(e.getKey());
+                }
+            }
+        }
+        ctis.addAll(this.db.getCtis4Client(clientId));
+        return ctis;
+    }
+
+    @Override
+    public String getSupportedProfile(String clientId, Set<String> aud)
+            throws AceException {
+        return this.db.getSupportedProfile(clientId, aud);
+    }
+
+    @Override
+    public boolean hasDefaultProfile(String clientId) throws AceException {
+        return this.db.hasDefaultProfile(clientId);
+    }
+
+    @Override
+    public Set<String> getSupportedPopKeyTypes(Set<String> aud)
+            throws AceException {
+        return this.db.getSupportedPopKeyTypes(aud);
+    }
+
+    @Override
+    public Short getSupportedTokenType(Set<String> aud) throws AceException {
+        return this.db.getSupportedTokenType(aud);
+    }
+
+    @Override
+    public COSEparams getSupportedCoseParams(Set<String> aud)
+            throws AceException, CoseException {
+        return this.db.getSupportedCoseParams(aud);
+    }
+
+    @Override
+    public boolean isScopeSupported(String aud, String scope)
+            throws AceException {
+        return this.db.isScopeSupported(aud, scope);
+    }
+
+    @Override
+    public String getDefaultScope(String clientId) throws AceException {
+        return this.db.getDefaultScope(clientId);
+    }
+
+    @Override
+    public String getDefaultAudience(String clientId) throws AceException {
+        return this.db.getDefaultAudience(clientId);
+    }
+
+    @Override
+    public Set<String> getRSS(String aud) throws AceException {
+        return this.db.getRSS(aud);
+    }
+
+    @Override
+    public Set<String> getRSS() throws AceException {
+        return this.db.getRSS();
+    }
+
+    @Override
+    public long getExpTime(Set<String> aud) throws AceException {
+        return this.db.getExpTime(aud);
+    }
+
+    @Override
+    public Set<String> getAudiences(String rsId) throws AceException {
+        return this.db.getAudiences(rsId);
+    }
+
+    @Override
+    public Set<String> getOSCOREGroupManagers(String rsId)
+            throws AceException {
+        return this.db.getOSCOREGroupManagers(rsId);
+    }
+
+    @Override
+    public Set<String> getScopes(String rsId) throws AceException {
+        return this.db.getScopes(rsId);
+    }
+
+    @Override
+    public OneKey getRsTokenPSK(String rsId) throws AceException {
+        return this.db.getRsTokenPSK(rsId);
+    }
+
+    @Override
+    public OneKey getRsAuthPSK(String rsId) throws AceException {
+        return this.db.getRsAuthPSK(rsId);
+    }
+
+    @Override
+    public OneKey getRsRPK(String rsId) throws AceException {
+        return this.db.getRsRPK(rsId);
+    }
+
+    @Override
+    public OneKey getCPSK(String clientId) throws AceException {
+        return this.db.getCPSK(clientId);
+    }
+
+    @Override
+    public OneKey getCRPK(String clientId) throws AceException {
+        return this.db.getCRPK(clientId);
+    }
+
+    @Override
+    public void addRS(String rsId, Set<String> profiles, Set<String> scopes,
+            Set<String> auds, Set<String> keyTypes, Set<Short> tokenTypes,
+            Set<COSEparams> cose, long expiration, OneKey tokenPsk,
+            OneKey authPsk, OneKey publicKey) throws AceException {
+        this.db.addRS(rsId, profiles, scopes, auds, keyTypes, tokenTypes,
+                cose, expiration, tokenPsk, authPsk, publicKey);
+    }
+
+    @Override
+    public void addOSCOREGroupManagers(String rsId, Set<String> auds)
+            throws AceException {
+        this.db.addOSCOREGroupManagers(rsId, auds);
+    }
+
+    @Override
+    public void deleteRS(String rsId) throws AceException {
+        this.db.deleteRS(rsId);
+    }
+
+    @Override
+    public void addClient(String clientId, Set<String> profiles,
+            String defaultScope, String defaultAud, Set<String> keyTypes,
+            OneKey sharedKey, OneKey publicKey) throws AceException {
+        this.db.addClient(clientId, profiles, defaultScope, defaultAud,
+                keyTypes, sharedKey, publicKey);
+    }
+
+    @Override
+    public void deleteClient(String clientId) throws AceException {
+        this.db.deleteClient(clientId);
+    }
+
+    @Override
+    public Set<String> getClients() throws AceException {
+        return this.db.getClients();
+    }
+
+    @Override
+    public String getCti4Grant(String code) throws AceException {
+        return this.db.getCti4Grant(code);
+    }
+
+    @Override
+    public void addGrant(String code, String cti,
+            Map<Short, CBORObject> claims, Map<Short, CBORObject> rsInfo)
+                    throws AceException {
+        this.db.addGrant(code, cti, claims, rsInfo);
+    }
+
+    @Override
+    public void useGrant(String code) throws AceException {
+        this.db.useGrant(code);
+    }
+
+    @Override
+    public Map<Short, CBORObject> getRsInfo(String code) throws AceException {
+        return this.db.getRsInfo(code);
+    }
+
+    @Override
+    public boolean isGrantValid(String code) throws AceException {
+        return this.db.isGrantValid(code);
+    }
+
+    @Override
+    public void close() throws AceException {
+        this.flusher.shutdown();
+        try {
+            this.flusher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        flush();
+        try {
+            this.journal.close();
+        } catch (IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        this.db.close();
+    }
+}
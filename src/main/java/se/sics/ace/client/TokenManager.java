@@ -0,0 +1,340 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.client;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.TimeProvider;
+
+/**
+ * Caches the access tokens of a client per audience and scope, together 
+ * with the rest of the AS response (e.g. the PoP key in 'cnf' or 'rs_cnf').
+ * 
+ * The lifetime of a token is taken from the 'expires_in' parameter of the
+ * AS response. Tokens that have been used since they were obtained are 
+ * refreshed in the background before they expire, so that requests for a 
+ * token in use do not wait for the AS.
+ *
+ */
+public class TokenManager implements AutoCloseable {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(TokenManager.class.getName());
+    
+    /**
+     * Requests a token from the AS.
+     */
+    public interface TokenFetcher {
+        
+        /**
+         * Request a token from the AS.
+         * 
+         * @param aud  the audience, can be null
+         * @param scope  the scope, can be null
+         * 
+         * @return  the payload of the successful AS response
+         * @throws AceException  if no token could be obtained
+         */
+        CBORObject fetch(CBORObject aud, CBORObject scope) throws AceException;
+    }
+    
+    /**
+     * A cached AS response
+     */
+    private static class Entry {
+        
+        /**
+         * The AS response
+         */
+        final CBORObject response;
+        
+        /**
+         * The time the token expires, in milliseconds
+         */
+        final long expires;
+        
+        /**
+         * True if the token was used since it was obtained
+         */
+        volatile boolean used = false;
+        
+        /**
+         * Constructor.
+         * 
+         * @param response  the AS response
+         * @param expires  the time the token expires, in milliseconds
+         */
+        Entry(CBORObject response, long expires) {
+            this.response = response;
+            this.expires = expires;
+        }
+    }
+    
+    /**
+     * The default lifetime of tokens, if the AS response has no 
+     * 'expires_in', in seconds
+     */
+    public static final long DEFAULT_LIFETIME = 3600L;
+    
+    /**
+     * The default part of the lifetime after which a token is refreshed
+     */
+    public static final double DEFAULT_REFRESH_RATIO = 0.8;
+    
+    /**
+     * Requests the tokens from the AS
+     */
+    private final TokenFetcher fetcher;
+    
+    /**
+     * The time provider
+     */
+    private final TimeProvider time;
+    
+    /**
+     * The lifetime of tokens without 'expires_in', in seconds
+     */
+    private final long defaultLifetime;
+    
+    /**
+     * The part of the lifetime after which a token is refreshed
+     */
+    private final double refreshRatio;
+    
+    /**
+     * The cached tokens by audience and scope
+     */
+    private final Map<List<CBORObject>, Entry> tokens 
+        = new ConcurrentHashMap<>();
+    
+    /**
+     * The pending token requests by audience and scope
+     */
+    private final Map<List<CBORObject>, CompletableFuture<Entry>> pending 
+        = new ConcurrentHashMap<>();
+    
+    /**
+     * The thread refreshing tokens
+     */
+    private final ScheduledExecutorService refresher;
+    
+    /**
+     * Constructor using the default lifetime and refresh ratio.
+     * 
+     * @param fetcher  requests the tokens from the AS
+     * @param time  the time provider
+     */
+    public TokenManager(TokenFetcher fetcher, TimeProvider time) {
+        this(fetcher, time, DEFAULT_LIFETIME, DEFAULT_REFRESH_RATIO);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param fetcher  requests the tokens from the AS
+     * @param time  the time provider
+     * @param defaultLifetime  the lifetime of tokens if the AS response 
+     *     has no 'expires_in', in seconds
+     * @param refreshRatio  the part of the lifetime after which a token 
+     *     in use is refreshed, between 0 and 1
+     */
+    public TokenManager(TokenFetcher fetcher, TimeProvider time, 
+            long defaultLifetime, double refreshRatio) {
+        if (fetcher == null || time == null) {
+            throw new IllegalArgumentException(
+                    "Fetcher and time provider must be non-null");
+        }
+        if (defaultLifetime <= 0 || refreshRatio <= 0 || refreshRatio >= 1) {
+            throw new IllegalArgumentException("Lifetime must be positive and"
+                    + " refresh ratio between 0 and 1");
+        }
+        this.fetcher = fetcher;
+        this.time = time;
+        this.defaultLifetime = defaultLifetime;
+        this.refreshRatio = refreshRatio;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "TokenManager-refresher");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Get a token for an audience and scope, requesting it from the AS only
+     * if there is no valid cached token.
+     * 
+     * @param aud  the audience, can be null
+     * @param scope  the scope, can be null
+     * 
+     * @return  the AS response containing the token
+     * @throws AceException  if no token could be obtained
+     */
+    public CBORObject getToken(CBORObject aud, CBORObject scope) 
+            throws AceException {
+        List<CBORObject> key = Arrays.asList(aud, scope);
+        Entry entry = this.tokens.get(key);
+        if (entry != null && entry.expires > this.time.getCurrentTime()) {
+            entry.used = true;
+            return entry.response;
+        }
+        entry = fetch(key);
+        entry.used = true;
+        return entry.response;
+    }
+    
+    /**
+     * Remove the cached token for an audience and scope, e.g. because the 
+     * RS has rejected it.
+     * 
+     * @param aud  the audience, can be null
+     * @param scope  the scope, can be null
+     */
+    public void invalidate(CBORObject aud, CBORObject scope) {
+        this.tokens.remove(Arrays.asList(aud, scope));
+    }
+    
+    /**
+     * Request a token from the AS, joining a request already pending for
+     * the same audience and scope.
+     * 
+     * @param key  the audience and scope
+     * 
+     * @return  the new cache entry
+     * @throws AceException  if no token could be obtained
+     */
+    private Entry fetch(List<CBORObject> key) throws AceException {
+        CompletableFuture<Entry> f = new CompletableFuture<>();
+        CompletableFuture<Entry> other = this.pending.putIfAbsent(key, f);
+        if (other != null) {
+            try {
+                return other.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new AceException("Interrupted while requesting token");
+            } catch (ExecutionException e) {
+                throw e.getCause() instanceof AceException 
+                    ? (AceException)e.getCause() 
+                    : new AceException(e.getCause().getMessage());
+            }
+        }
+        try {
+            long now = this.time.getCurrentTime();
+            CBORObject response = this.fetcher.fetch(key.get(0), key.get(1));
+            if (response == null || response.getType() != CBORType.Map
+                    || !response.ContainsKey(
+                            CBORObject.FromObject(Constants.ACCESS_TOKEN))) {
+                throw new AceException("AS response did not contain a token");
+            }
+            long lifetime = this.defaultLifetime * 1000L;
+            CBORObject expiresIn = response.get(
+                    CBORObject.FromObject(Constants.EXPIRES_IN));
+            if (expiresIn != null && expiresIn.isNumber()) {
+                lifetime = expiresIn.AsInt64Value() * 1000L;
+            }
+            Entry entry = new Entry(response, now + lifetime);
+            this.tokens.put(key, entry);
+            scheduleRefresh(key, entry, (long)(lifetime * this.refreshRatio));
+            f.complete(entry);
+            return entry;
+        } catch (AceException | RuntimeException e) {
+            f.completeExceptionally(e);
+            throw e;
+        } finally {
+            this.pending.remove(key, f);
+        }
+    }
+    
+    /**
+     * Schedule the refresh of a token, which happens only if the token was
+     * used since it was obtained.
+     * 
+     * @param key  the audience and scope
+     * @param entry  the cache entry of the token
+     * @param delay  the delay before the refresh in milliseconds
+     */
+    private void scheduleRefresh(List<CBORObject> key, Entry entry, 
+            long delay) {
+        try {
+            this.refresher.schedule(() -> {
+                if (this.tokens.get(key) != entry || !entry.used) {
+                    // Replaced, invalidated or unused, let it expire
+                    return;
+                }
+                try {
+                    fetch(key);
+                } catch (AceException | RuntimeException e) {
+                    long remaining = entry.expires - this.time.getCurrentTime();
+                    LOGGER.warning("Refreshing token failed: " 
+                            + e.getMessage());
+                    if (remaining > 1000L) {
+                        scheduleRefresh(key, entry, remaining / 2);
+                    }
+                }
+            }, Math.max(0L, delay), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed
+        }
+    }
+    
+    /**
+     * @return  the number of cached tokens
+     */
+    public int size() {
+        return this.tokens.size();
+    }
+    
+    /**
+     * Stop refreshing tokens.
+     */
+    @Override
+    public void close() {
+        this.refresher.shutdownNow();
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.elements.config.Configuration;
+import org.eclipse.californium.scandium.config.DtlsConfig;
+
+/**
+ * The DTLS Connection ID and session resumption settings of a DTLS 
+ * endpoint of the AS or of an RS.
+ * 
+ * With a Connection ID, a client whose address changes (e.g. because of a
+ * NAT rebinding) keeps using its DTLS connection. With session resumption, 
+ * a client that lost its connection state can do an abbreviated handshake
+ * instead of a full PSK or RPK handshake.
+ *
+ */
+public class DtlsSessionConfig {
+    
+    /**
+     * The default length of the Connection IDs issued by the endpoint
+     */
+    public static final int DEFAULT_CID_LENGTH = 6;
+    
+    /**
+     * The default lifetime of a session that can be resumed, in seconds
+     */
+    public static final long DEFAULT_SESSION_TIMEOUT = 24 * 60 * 60;
+    
+    /**
+     * The length of the Connection IDs issued by the endpoint, 0 to only 
+     * support the Connection IDs of the peer, null to disable Connection IDs
+     */
+    private Integer cidLength;
+    
+    /**
+     * True if the server issues session IDs, so that sessions can be resumed
+     */
+    private boolean resumption;
+    
+    /**
+     * The lifetime of a session that can be resumed, in seconds
+     */
+    private long sessionTimeout;
+    
+    /**
+     * Constructor using the default Connection ID length and session 
+     * lifetime, with session resumption enabled.
+     */
+    public DtlsSessionConfig() {
+        this(DEFAULT_CID_LENGTH, true, DEFAULT_SESSION_TIMEOUT);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param cidLength  the length of the Connection IDs issued by the 
+     *     endpoint, 0 to only support the Connection IDs of the peer, 
+     *     null to disable Connection IDs
+     * @param resumption  true if sessions can be resumed
+     * @param sessionTimeout  the lifetime of a session that can be resumed,
+     *     in seconds
+     */
+    public DtlsSessionConfig(Integer cidLength, boolean resumption, 
+            long sessionTimeout) {
+        if (cidLength != null && (cidLength < 0 || cidLength > 255)) {
+            throw new IllegalArgumentException(
+                    "Connection ID length must be between 0 and 255");
+        }
+        if (sessionTimeout <= 0) {
+            throw new IllegalArgumentException(
+                    "Session timeout must be positive");
+        }
+        this.cidLength = cidLength;
+        this.resumption = resumption;
+        this.sessionTimeout = sessionTimeout;
+    }
+    
+    /**
+     * @return  the length of the Connection IDs issued by the endpoint, 
+     *     0 if only the Connection IDs of the peer are supported, null if 
+     *     Connection IDs are disabled
+     */
+    public Integer getCidLength() {
+        return this.cidLength;
+    }
+    
+    /**
+     * @return  true if sessions can be resumed
+     */
+    public boolean isResumption() {
+        return this.resumption;
+    }
+    
+    /**
+     * @return  the lifetime of a session that can be resumed, in seconds
+     */
+    public long getSessionTimeout() {
+        return this.sessionTimeout;
+    }
+    
+    /**
+     * Apply these settings to a DTLS configuration.
+     * 
+     * @param dtlsConfig  the DTLS configuration
+     */
+    public void apply(Configuration dtlsConfig) {
+        dtlsConfig.set(DtlsConfig.DTLS_CONNECTION_ID_LENGTH, this.cidLength);
+        dtlsConfig.set(DtlsConfig.DTLS_SERVER_USE_SESSION_ID, this.resumption);
+        dtlsConfig.set(DtlsConfig.DTLS_SESSION_TIMEOUT, 
+                this.sessionTimeout, TimeUnit.SECONDS);
+    }
+}
@@ -33,6 +33,14 @@ package se.sics.ace.coap.as;
 
 import java.net.InetSocketAddress;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.crypto.SecretKey;
@@ -51,12 +59,19 @@ import com.upokecenter.cbor.CBORType;
 import COSE.KeyKeys;
 import COSE.OneKey;
 import se.sics.ace.AceException;
+import se.sics.ace.COSEparams;
 import se.sics.ace.examples.SQLConnector;
 import se.sics.ace.examples.SQLDBAdapter;
 
 /**
  * A SQLConnector for CoAP, implementing the PskStore interface.
  * 
+ * The PSKs found for an identity are cached until the client or RS with 
+ * that identity is added or deleted. Identities that are not in the cache
+ * are looked up in the database on a separate thread, and the result is 
+ * returned through the HandshakeResultHandler set by the DTLS connector.
+ * Lookups still pending when the connector is closed fail their handshake.
+ * 
  * @author Ludwig Seitz
  *
  */
@@ -72,6 +87,32 @@ public class CoapDBConnector extends SQLConnector implements AdvancedPskStore {
      * The singleton instance
      */
     private static CoapDBConnector connector;
+    
+    /**
+     * The maximum number of key lookups waiting for the database
+     */
+    private static final int MAX_PENDING = 1000;
+    
+    /**
+     * The cached PSKs by identity
+     */
+    private Map<String, SecretKey> keyCache = new ConcurrentHashMap<>();
+    
+    /**
+     * Incremented each time the cache is invalidated, to avoid caching
+     * keys that were read before the invalidation
+     */
+    private long cacheGeneration = 0L;
+    
+    /**
+     * The thread looking up keys that are not cached
+     */
+    private ExecutorService executor;
+    
+    /**
+     * The handler to return asynchronous results to the DTLS connector
+     */
+    private volatile HandshakeResultHandler resultHandler = null;
 
     /**
      * Constructor.
@@ -83,13 +124,92 @@ public class CoapDBConnector extends SQLConnector implements AdvancedPskStore {
     protected CoapDBConnector(SQLDBAdapter dbAdapter)
             throws SQLException {
         super(dbAdapter);
+        // The database lookups are serialized anyway, one thread is enough
+        this.executor = new ThreadPoolExecutor(1, 1, 0L, 
+                TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(MAX_PENDING),
+                r -> {
+                    Thread t = new Thread(r, "CoapDBConnector-psk");
+                    t.setDaemon(true);
+                    return t;
+                });
     }
 
     @Override
     public PskSecretResult requestPskSecretResult(ConnectionId cid, ServerNames serverName,
             PskPublicInformation identity, String hmacAlgorithm, SecretKey otherSecret, byte[] seed,
             boolean useExtendedMasterSecret) {
-        return new PskSecretResult(cid, identity, getKey(identity.getPublicInfoAsString()));
+        String id = identity.getPublicInfoAsString();
+        SecretKey key = this.keyCache.get(id);
+        HandshakeResultHandler handler = this.resultHandler;
+        if (key != null || handler == null) {
+            return new PskSecretResult(cid, identity, 
+                    key != null ? key : getKey(id));
+        }
+        try {
+            this.executor.execute(new PskLookup(cid, identity, handler));
+        } catch (RejectedExecutionException e) {
+            LOGGER.warning((this.executor.isShutdown() 
+                    ? "Connector closed" : "Too many pending PSK lookups")
+                    + ", rejecting " + id);
+            return new PskSecretResult(cid, identity, null);
+        }
+        return null;
+    }
+    
+    /**
+     * A PSK lookup for a handshake, whose result is returned through the 
+     * handler of the DTLS connector.
+     */
+    private final class PskLookup implements Runnable {
+        
+        /**
+         * The connection ID of the handshake
+         */
+        private final ConnectionId cid;
+        
+        /**
+         * The identity of the key
+         */
+        private final PskPublicInformation identity;
+        
+        /**
+         * The handler to return the result to
+         */
+        private final HandshakeResultHandler handler;
+        
+        /**
+         * Constructor.
+         * 
+         * @param cid  the connection ID of the handshake
+         * @param identity  the identity of the key
+         * @param handler  the handler to return the result to
+         */
+        PskLookup(ConnectionId cid, PskPublicInformation identity, 
+                HandshakeResultHandler handler) {
+            this.cid = cid;
+            this.identity = identity;
+            this.handler = handler;
+        }
+        
+        @Override
+        public void run() {
+            SecretKey key = null;
+            try {
+                key = getKey(this.identity.getPublicInfoAsString());
+            } catch (RuntimeException e) {
+                LOGGER.severe("PSK lookup failed: " + e.getMessage());
+            }
+            this.handler.apply(new PskSecretResult(
+                    this.cid, this.identity, key));
+        }
+        
+        /**
+         * Fail the handshake without looking up the key.
+         */
+        void reject() {
+            this.handler.apply(new PskSecretResult(
+                    this.cid, this.identity, null));
+        }
     }
 
     public SecretKey getKey(PskPublicInformation info) {
@@ -103,6 +223,32 @@ public class CoapDBConnector extends SQLConnector implements AdvancedPskStore {
      * @return  the key
      */
     private SecretKey getKey(String identity) {
+        SecretKey cached = this.keyCache.get(identity);
+        if (cached != null) {
+            return cached;
+        }
+        long generation;
+        synchronized (this.keyCache) {
+            generation = this.cacheGeneration;
+        }
+        SecretKey psk = lookupKey(identity);
+        if (psk != null) {
+            synchronized (this.keyCache) {
+                if (generation == this.cacheGeneration) {
+                    this.keyCache.put(identity, psk);
+                }
+            }
+        }
+        return psk;
+    }
+    
+    /**
+     * Look up the PSK of a client or RS in the database.
+     * 
+     * @param identity  the identity of the key
+     * @return  the key or null if there is no such PSK
+     */
+    private SecretKey lookupKey(String identity) {
         OneKey key = null;
         try {
             key = super.getCPSK(identity);
@@ -133,6 +279,63 @@ public class CoapDBConnector extends SQLConnector implements AdvancedPskStore {
           
         
     }
+    
+    /**
+     * Remove the cached PSK of a client or RS.
+     * 
+     * @param identity  the identity of the client or RS
+     */
+    private void invalidate(String identity) {
+        synchronized (this.keyCache) {
+            this.cacheGeneration++;
+            this.keyCache.remove(identity);
+        }
+    }
+    
+    @Override
+    public synchronized void addRS(String rsId, Set<String> profiles, 
+            Set<String> scopes, Set<String> auds, Set<String> keyTypes, 
+            Set<Short> tokenTypes, Set<COSEparams> cose, long expiration, 
+            OneKey authPsk, OneKey tokenPsk, OneKey publicKey)
+                    throws AceException {
+        try {
+            super.addRS(rsId, profiles, scopes, auds, keyTypes, tokenTypes, cose,
+                    expiration, authPsk, tokenPsk, publicKey);
+        } finally {
+            invalidate(rsId);
+        }
+    }
+    
+    @Override
+    public synchronized void deleteRS(String rsId) throws AceException {
+        try {
+            super.deleteRS(rsId);
+        } finally {
+            invalidate(rsId);
+        }
+    }
+    
+    @Override
+    public synchronized void addClient(String clientId, Set<String> profiles,
+            String defaultScope, String defaultAud, Set<String> keyTypes,
+            OneKey sharedKey, OneKey publicKey) 
+                    throws AceException {
+        try {
+            super.addClient(clientId, profiles, defaultScope, defaultAud, 
+                    keyTypes, sharedKey, publicKey);
+        } finally {
+            invalidate(clientId);
+        }
+    }
+    
+    @Override
+    public synchronized void deleteClient(String clientId) throws AceException {
+        try {
+            super.deleteClient(clientId);
+        } finally {
+            invalidate(clientId);
+        }
+    }
 
    /**
     * Gets the singleton instance of this connector.
@@ -164,6 +367,14 @@ public class CoapDBConnector extends SQLConnector implements AdvancedPskStore {
      */
     @Override
     public synchronized void close() throws AceException {
+       // Do not leave the handshakes of queued lookups waiting
+       for (Runnable lookup : this.executor.shutdownNow()) {
+           ((PskLookup)lookup).reject();
+       }
+       synchronized (this.keyCache) {
+           this.keyCache.clear();
+           this.cacheGeneration++;
+       }
        super.close();
        CoapDBConnector.connector = null;
     }
@@ -176,8 +387,7 @@ public class CoapDBConnector extends SQLConnector implements AdvancedPskStore {
 
     @Override
     public void setResultHandler(HandshakeResultHandler resultHandler) {
-        // TODO Auto-generated method stub
-
+        this.resultHandler = resultHandler;
     }
 
 }
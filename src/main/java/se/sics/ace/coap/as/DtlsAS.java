@@ -64,6 +64,7 @@ import se.sics.ace.TimeProvider;
 import se.sics.ace.as.Introspect;
 import se.sics.ace.as.PDP;
 import se.sics.ace.as.Token;
+import se.sics.ace.coap.DtlsSessionConfig;
 
 /**
  * An authorization server listening to CoAP requests
@@ -172,6 +173,40 @@ public class DtlsAS extends CoapServer implements AutoCloseable {
             String introspectName, int port, Set<Short> claims, 
             boolean setAudHeader) 
                     throws AceException, CoseException {
+        this(asId, db, pdp, time, asymmetricKey, tokenName, introspectName,
+                port, claims, setAudHeader, null);
+    }
+    
+    /**
+     * Constructor with endpoint names and DTLS session settings
+     * 
+     * @param asId  identifier of the AS
+     * @param db    database connector of the AS
+     * @param pdp   PDP for deciding who gets which token
+     * @param time  time provider, must not be null
+     * @param asymmetricKey  asymmetric key pair of the AS for RPK handshakes,
+     *   can be null if the AS only ever does PSK handshakes
+     * @param tokenName  the name of the token endpoint 
+     *  (will be converted into the address as well)
+     * @param introspectName  the name of the introspect endpoint 
+     *  (will be converted into the address as well), if this is null,
+     *  no introspection endpoint will be offered
+     * @param port  the port number to run the server on
+     * @param claims  the claim types to include in tokens issued by this 
+     *                AS, can be null to use default set.
+     * @param setAudHeader  insert the AUD as header in the CWT. 
+     * See {@link se.sics.ace.as.Token} for details.
+     * @param sessions  the DTLS Connection ID and session resumption 
+     *  settings, can be null to use the standard configuration
+     * @throws AceException 
+     * @throws CoseException 
+     * 
+     */
+    public DtlsAS(String asId, CoapDBConnector db, PDP pdp, 
+            TimeProvider time, OneKey asymmetricKey, String tokenName,
+            String introspectName, int port, Set<Short> claims, 
+            boolean setAudHeader, DtlsSessionConfig sessions) 
+                    throws AceException, CoseException {
         this.t = new Token(asId, pdp, db, time, asymmetricKey, claims, setAudHeader, null);
         this.token = new CoapDtlsEndpoint(tokenName, this.t);
         add(this.token);
@@ -187,6 +222,11 @@ public class DtlsAS extends CoapServer implements AutoCloseable {
         }
 
        Configuration dtlsConfig = Configuration.getStandard();
+       if (sessions != null) {
+           // Do not change the settings of the other endpoints
+           dtlsConfig = new Configuration(dtlsConfig);
+           sessions.apply(dtlsConfig);
+       }
        dtlsConfig.set(DtlsConfig.DTLS_USE_SERVER_NAME_INDICATION, false);
        dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, CertificateAuthenticationMode.NEEDED);
 
@@ -252,7 +252,7 @@ public class OscoreAS extends CoapServer implements AutoCloseable {
             
             OSCoreCtx ctx = new OSCoreCtx(key, false, null, senderId, 
             		recipientId, null, null, null, contextId, MAX_UNFRAGMENTED_SIZE);
-            OscoreCtxDbSingleton.getInstance().addContext(ctx);
+            OscoreCtxDbSingleton.getInstance().addPinnedContext(ctx);
             
         }
         LOGGER.finest("Loaded OSCORE contexts");
@@ -0,0 +1,416 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.client;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.coap.Response;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.oscore.OSCoreCtx;
+import org.eclipse.californium.oscore.OSCoreCtxDB;
+import org.eclipse.californium.oscore.OSException;
+
+import com.upokecenter.cbor.CBORObject;
+
+import COSE.OneKey;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+
+/**
+ * Non-blocking versions of the client requests of the DTLS profile, of the
+ * OSCORE profile and of joining an OSCORE group.
+ * 
+ * The requests are sent with the asynchronous request handling of 
+ * Californium over the endpoints kept by a ConnectionManager, so that many
+ * requests can be outstanding over the same endpoint. Each request fails
+ * with an AceException if no response arrives within the timeout.
+ *
+ */
+public class AsyncProfileRequests implements AutoCloseable {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(AsyncProfileRequests.class.getName());
+    
+    /**
+     * The default request timeout in milliseconds
+     */
+    public static final long DEFAULT_TIMEOUT = 30000L;
+    
+    /**
+     * The manager keeping the endpoints
+     */
+    private final ConnectionManager manager;
+    
+    /**
+     * True if the connection manager was created by this object
+     */
+    private final boolean ownManager;
+    
+    /**
+     * The request timeout in milliseconds
+     */
+    private final long timeout;
+    
+    /**
+     * The thread enforcing the request timeouts
+     */
+    private final ScheduledExecutorService timer;
+    
+    /**
+     * Constructor using its own connection manager and the default timeout.
+     */
+    public AsyncProfileRequests() {
+        this(new ConnectionManager(), true, DEFAULT_TIMEOUT);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param manager  the manager keeping the endpoints, it is not closed 
+     *  when this object is closed
+     * @param timeout  the request timeout in milliseconds
+     */
+    public AsyncProfileRequests(ConnectionManager manager, long timeout) {
+        this(manager, false, timeout);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param manager  the manager keeping the endpoints
+     * @param ownManager  true if the manager is closed with this object
+     * @param timeout  the request timeout in milliseconds
+     */
+    private AsyncProfileRequests(ConnectionManager manager, 
+            boolean ownManager, long timeout) {
+        if (manager == null) {
+            throw new IllegalArgumentException(
+                    "Connection manager must be non-null");
+        }
+        if (timeout <= 0) {
+            throw new IllegalArgumentException("Timeout must be positive");
+        }
+        this.manager = manager;
+        this.ownManager = ownManager;
+        this.timeout = timeout;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AsyncProfileRequests-timer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+    
+    /**
+     * Sends a POST request to the /token endpoint of the AS to request an
+     * access token using the DTLS profile. 
+     * See {@link DTLSProfileRequests#getToken(String, CBORObject, OneKey)}.
+     * 
+     * @param asAddr  the full address of the /token endpoint
+     *  (including scheme and hostname, and port if not default)
+     * @param payload  the payload of the request.  Use the GetToken 
+     *  class to construct this payload
+     * @param key  the key to be used to secure the connection to the AS. 
+     *  This MUST have a kid.
+     * 
+     * @return  the future response 
+     */
+    public CompletableFuture<CoapResponse> getToken(String asAddr, 
+            CBORObject payload, OneKey key) {
+        return sendDtls(asAddr, key, Constants.APPLICATION_ACE_CBOR, payload,
+                () -> DTLSProfileRequests.buildTokenEndpoint(key));
+    }
+    
+    /**
+     * Sends a POST request to the /authz-info endpoint of the RS to submit an
+     * access token.
+     * See {@link DTLSProfileRequests#postToken(String, CBORObject, int, OneKey)}.
+     * 
+     * @param rsAddr  the full address of the /authz-info endpoint
+     *  (including scheme and hostname, and port if not default)
+     * @param payload  the token received from the getToken() method
+     * @param contentFormat  the CoAP content format to use for this message
+     * @param key  an asymmetric key-pair to use with DTLS in a raw-public 
+     *  key handshake, null to use CoAP without DTLS
+     * 
+     * @return  the future response 
+     */
+    public CompletableFuture<CoapResponse> postToken(String rsAddr, 
+            CBORObject payload, int contentFormat, OneKey key) {
+        return sendDtls(rsAddr, key, contentFormat, payload,
+                () -> DTLSProfileRequests.buildAuthzInfoEndpoint(key));
+    }
+    
+    /**
+     * Sends a POST request to the /authz-info endpoint of the RS to submit an
+     * access token for updating access rights, over an existing connection.
+     * See {@link DTLSProfileRequests#postTokenUpdate(String, CBORObject, int, CoapClient)}.
+     * 
+     * @param rsAddr  the full address of the /authz-info endpoint
+     *  (including scheme and hostname, and port if not default)
+     * @param payload  the token received from the getToken() method
+     * @param contentFormat  the CoAP content format to use for this message
+     * @param c  the client used for the existing DTLS connection
+     * 
+     * @return  the future response 
+     */
+    public CompletableFuture<CoapResponse> postTokenUpdate(String rsAddr, 
+            CBORObject payload, int contentFormat, CoapClient c) {
+        if (payload == null) {
+            return failed(new AceException(
+                    "Payload cannot be null when POSTing to authz-info"));
+        }
+        Request r = Request.newPost();
+        r.setURI(rsAddr);
+        r.getOptions().setContentFormat(contentFormat);
+        r.setPayload(payload.EncodeToBytes());
+        return send(c, r);
+    }
+    
+    /**
+     * Sends a POST request to the /token endpoint of the AS to request an
+     * access token using the OSCORE profile.
+     * See {@link OSCOREProfileRequests#getToken(String, CBORObject, OSCoreCtx, OSCoreCtxDB)}.
+     * 
+     * @param asAddr  the full address of the /token endpoint
+     *  (including scheme and hostname, and port if not default)
+     * @param payload  the payload of the request.  Use the GetToken 
+     *  class to construct this payload
+     * @param ctx  the OSCORE context shared with the AS
+     * @param db the database of the OSCORE contexts
+     * 
+     * @return  the future response 
+     */
+    public CompletableFuture<Response> getToken(String asAddr, 
+            CBORObject payload, OSCoreCtx ctx, OSCoreCtxDB db) {
+        CoapClient client = new CoapClient(asAddr);
+        try {
+            db.addContext(asAddr, ctx);
+            client.setEndpoint(this.manager.getEndpoint(
+                    ConnectionManager.getPeer(asAddr), db, 
+                    () -> OSCOREProfileRequests.buildEndpoint(db)));
+        } catch (AceException | OSException e) {
+            return failed(e);
+        }
+        Request r = new Request(Code.POST);
+        r.getOptions().setOscore(new byte[0]);
+        r.setPayload(payload.EncodeToBytes());
+        return send(client, r).thenApply(CoapResponse::advanced);
+    }
+    
+    /**
+     * Sends a POST request to the /authz-info endpoint of the RS to submit an
+     * access token using the OSCORE profile, and installs the resulting 
+     * OSCORE Security Context.
+     * See {@link OSCOREProfileRequests#postToken(String, Response, OSCoreCtxDB, List)}.
+     * 
+     * @param rsAddr   the full address of the /authz-info endpoint
+     *  (including scheme and hostname, and port if not default)
+     * @param asResp   the response from the AS containing the token
+     *      and the access information
+     * @param db   the database of OSCORE Security Contexts
+     * @param usedRecipientIds   the collection of already in use OSCORE Recipient IDs
+     * 
+     * @return  the future response 
+     */
+    public CompletableFuture<Response> postToken(String rsAddr, 
+            Response asResp, OSCoreCtxDB db, 
+            List<Set<Integer>> usedRecipientIds) {
+        OSCOREProfileRequests.TokenPost post;
+        try {
+            post = OSCOREProfileRequests.preparePostToken(
+                    rsAddr, asResp, db, usedRecipientIds);
+        } catch (AceException e) {
+            return failed(e);
+        }
+        Request r = Request.newPost();
+        r.setURI(rsAddr);
+        r.getOptions().setContentFormat(Constants.APPLICATION_ACE_CBOR);
+        r.setPayload(post.payload.EncodeToBytes());
+        return send(new CoapClient(rsAddr), r).handle((resp, e) -> {
+            if (e != null) {
+                post.release();
+                throw e instanceof CompletionException 
+                    ? (CompletionException)e : new CompletionException(e);
+            }
+            try {
+                return OSCOREProfileRequests.finishPostToken(
+                        post, resp.advanced());
+            } catch (AceException | OSException ex) {
+                throw new CompletionException(ex);
+            }
+        });
+    }
+    
+    /**
+     * Sends a Join Request to the group-membership resource at a Group 
+     * Manager, protected with the OSCORE Security Context established 
+     * when posting the token.
+     * 
+     * @param joinAddr  the full address of the group-membership resource
+     * @param joinRequest  the Join Request
+     * @param db  the database of OSCORE Security Contexts
+     * 
+     * @return  the future response 
+     */
+    public CompletableFuture<CoapResponse> postJoinRequest(String joinAddr, 
+            CBORObject joinRequest, OSCoreCtxDB db) {
+        CoapClient client = new CoapClient(joinAddr);
+        try {
+            client.setEndpoint(this.manager.getEndpoint(
+                    ConnectionManager.getPeer(joinAddr), db, 
+                    () -> OSCOREProfileRequests.buildEndpoint(db)));
+        } catch (AceException e) {
+            return failed(e);
+        }
+        Request r = Request.newPost();
+        r.setURI(joinAddr);
+        r.getOptions().setOscore(new byte[0]);
+        r.getOptions().setContentFormat(
+                Constants.APPLICATION_ACE_GROUPCOMM_CBOR);
+        r.setPayload(joinRequest.EncodeToBytes());
+        return send(client, r);
+    }
+    
+    /**
+     * POST a payload over a DTLS endpoint kept by the connection manager.
+     * The endpoint is dropped if the request fails, so that the next 
+     * request does a new handshake.
+     * 
+     * @param uri  the full address of the resource
+     * @param key  the key used by the endpoint, null if it uses none
+     * @param contentFormat  the content format of the payload
+     * @param payload  the payload
+     * @param factory  creates the endpoint if needed
+     * 
+     * @return  the future response
+     */
+    private CompletableFuture<CoapResponse> sendDtls(String uri, OneKey key,
+            int contentFormat, CBORObject payload, 
+            ConnectionManager.EndpointFactory factory) {
+        if (payload == null) {
+            return failed(new AceException("Payload cannot be null"));
+        }
+        Endpoint endpoint;
+        CoapClient client = new CoapClient(uri);
+        try {
+            endpoint = this.manager.getEndpoint(ConnectionManager.getPeer(uri),
+                    ConnectionManager.getCredential(key), factory);
+            client.setEndpoint(endpoint);
+        } catch (AceException e) {
+            return failed(e);
+        }
+        Request r = Request.newPost();
+        r.setURI(uri);
+        r.getOptions().setContentFormat(contentFormat);
+        r.setPayload(payload.EncodeToBytes());
+        CompletableFuture<CoapResponse> f = send(client, r);
+        f.whenComplete((resp, e) -> {
+            if (e != null) { // The session may be stale, resume it next time
+                ConnectionManager.resumeSessions(endpoint);
+            }
+        });
+        return f;
+    }
+    
+    /**
+     * Send a request without blocking.
+     * 
+     * @param client  the client to send the request with
+     * @param r  the request
+     * 
+     * @return  the future response, completed with an AceException if the 
+     *  request fails or times out
+     */
+    private CompletableFuture<CoapResponse> send(CoapClient client, Request r) {
+        CompletableFuture<CoapResponse> f = new CompletableFuture<>();
+        client.advanced(new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                f.complete(response);
+            }
+
+            @Override
+            public void onError() {
+                f.completeExceptionally(new AceException(
+                        "Request to " + r.getURI() + " failed"));
+            }
+        }, r);
+        ScheduledFuture<?> timeoutTask = this.timer.schedule(() -> {
+            if (f.completeExceptionally(new AceException(
+                    "Request to " + r.getURI() + " timed out"))) {
+                LOGGER.fine("Request to " + r.getURI() + " timed out");
+                r.cancel();
+            }
+        }, this.timeout, TimeUnit.MILLISECONDS);
+        f.whenComplete((resp, e) -> timeoutTask.cancel(false));
+        return f;
+    }
+    
+    /**
+     * @param e  the exception
+     * @return  a future completed with the exception
+     */
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        f.completeExceptionally(e);
+        return f;
+    }
+    
+    /**
+     * Stop the timeouts, and destroy the endpoints if the connection 
+     * manager was created by this object.
+     */
+    @Override
+    public void close() {
+        this.timer.shutdownNow();
+        if (this.ownManager) {
+            this.manager.close();
+        }
+    }
+}
@@ -0,0 +1,437 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.client;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.scandium.DTLSConnector;
+
+import COSE.OneKey;
+
+import se.sics.ace.AceException;
+
+/**
+ * Keeps the client endpoints used to talk to the AS and to the RSs, so that
+ * requests to the same peer with the same credential reuse the endpoint, 
+ * and with it the DTLS session or the OSCORE stack.
+ * 
+ * The number of endpoints is bounded, the least recently used endpoint is
+ * destroyed when a new one is needed. Endpoints that have not been used 
+ * for longer than the idle timeout are destroyed as well, by a background
+ * thread that runs until the manager is closed.
+ *
+ */
+public class ConnectionManager implements AutoCloseable {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(ConnectionManager.class.getName());
+    
+    /**
+     * The default maximum number of endpoints
+     */
+    public static final int DEFAULT_MAX_ENDPOINTS = 256;
+    
+    /**
+     * The default idle timeout in milliseconds
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 5 * 60 * 1000L;
+    
+    /**
+     * Creates an endpoint when there is none for a peer and credential.
+     */
+    public interface EndpointFactory {
+        
+        /**
+         * @return  a new endpoint, that is not necessarily started
+         * @throws AceException  if the endpoint cannot be created
+         */
+        Endpoint create() throws AceException;
+    }
+    
+    /**
+     * An endpoint and the time it was last used
+     */
+    private static class Entry {
+        
+        /**
+         * The endpoint
+         */
+        private final Endpoint endpoint;
+        
+        /**
+         * The time of the last use in milliseconds
+         */
+        private long lastUsed;
+        
+        /**
+         * Constructor.
+         * 
+         * @param endpoint  the endpoint
+         * @param now  the current time in milliseconds
+         */
+        Entry(Endpoint endpoint, long now) {
+            this.endpoint = endpoint;
+            this.lastUsed = now;
+        }
+    }
+    
+    /**
+     * The maximum number of endpoints
+     */
+    private final int maxEndpoints;
+    
+    /**
+     * The idle timeout in milliseconds
+     */
+    private final long idleTimeout;
+    
+    /**
+     * The endpoints by peer and credential, in the order of their last use
+     */
+    private final LinkedHashMap<List<Object>, Entry> endpoints 
+        = new LinkedHashMap<>(16, 0.75f, true);
+    
+    /**
+     * Destroys the idle endpoints
+     */
+    private final ScheduledExecutorService evictor;
+    
+    /**
+     * True once the manager has been closed
+     */
+    private boolean closed = false;
+    
+    /**
+     * Constructor using the default bounds.
+     */
+    public ConnectionManager() {
+        this(DEFAULT_MAX_ENDPOINTS, DEFAULT_IDLE_TIMEOUT);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param maxEndpoints  the maximum number of endpoints kept
+     * @param idleTimeout  the time in milliseconds after which an unused 
+     *     endpoint is destroyed
+     */
+    public ConnectionManager(int maxEndpoints, long idleTimeout) {
+        if (maxEndpoints <= 0 || idleTimeout <= 0) {
+            throw new IllegalArgumentException(
+                    "Maximum endpoints and idle timeout must be positive");
+        }
+        this.maxEndpoints = maxEndpoints;
+        this.idleTimeout = idleTimeout;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "ConnectionManager-evict");
+            t.setDaemon(true);
+            return t;
+        });
+        long period = Math.max(idleTimeout / 2, 1L);
+        this.evictor.scheduleWithFixedDelay(this::evictIdle, 
+                period, period, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Get the endpoint for a peer and credential, creating and starting it
+     * if there is none. The endpoint is created without holding the lock of
+     * the manager, so that a slow factory does not block the other peers.
+     * 
+     * @param peer  the address of the peer, see <code>getPeer()</code>
+     * @param credential  identifies the credential the endpoint uses, 
+     *     null if it uses none
+     * @param factory  creates the endpoint if needed
+     * 
+     * @return  the started endpoint
+     * @throws AceException  if the endpoint cannot be created or started,
+     *     or if the manager is closed
+     */
+    public Endpoint getEndpoint(String peer, Object credential, 
+            EndpointFactory factory) throws AceException {
+        List<Object> key = Arrays.asList(peer, credential);
+        List<Endpoint> evicted = new ArrayList<>();
+        try {
+            synchronized (this) {
+                if (this.closed) {
+                    throw new AceException("Connection manager closed");
+                }
+                long now = System.currentTimeMillis();
+                evictIdle(now, evicted);
+                Entry entry = this.endpoints.get(key);
+                if (entry != null) {
+                    entry.lastUsed = now;
+                    return entry.endpoint;
+                }
+            }
+            
+            Endpoint endpoint = factory.create();
+            try {
+                endpoint.start();
+            } catch (IOException e) {
+                endpoint.destroy();
+                LOGGER.severe("Failed to start endpoint: " + e.getMessage());
+                throw new AceException(e.getMessage());
+            }
+            
+            synchronized (this) {
+                if (this.closed) {
+                    evicted.add(endpoint);
+                    throw new AceException("Connection manager closed");
+                }
+                long now = System.currentTimeMillis();
+                Entry entry = this.endpoints.get(key);
+                if (entry != null) { 
+                    // Another thread created one meanwhile, use that one
+                    evicted.add(endpoint);
+                    entry.lastUsed = now;
+                    return entry.endpoint;
+                }
+                this.endpoints.put(key, new Entry(endpoint, now));
+                if (this.endpoints.size() > this.maxEndpoints) {
+                    Iterator<Entry> it = this.endpoints.values().iterator();
+                    evicted.add(it.next().endpoint);
+                    it.remove();
+                }
+                return endpoint;
+            }
+        } finally {
+            for (Endpoint e : evicted) {
+                e.destroy();
+            }
+        }
+    }
+    
+    /**
+     * Destroy the endpoints that have been idle for too long, run 
+     * periodically by the evictor thread.
+     */
+    private void evictIdle() {
+        List<Endpoint> evicted = new ArrayList<>();
+        synchronized (this) {
+            evictIdle(System.currentTimeMillis(), evicted);
+        }
+        for (Endpoint e : evicted) {
+            e.destroy();
+        }
+    }
+    
+    /**
+     * Destroy the endpoints that have been idle for too long.
+     * 
+     * @param now  the current time in milliseconds
+     * @param evicted  the list to add the evicted endpoints to
+     */
+    private void evictIdle(long now, List<Endpoint> evicted) {
+        Iterator<Entry> it = this.endpoints.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (now - entry.lastUsed < this.idleTimeout) {
+                // The rest has been used more recently
+                break;
+            }
+            evicted.add(entry.endpoint);
+            it.remove();
+        }
+    }
+    
+    /**
+     * Destroy the endpoint for a peer and credential, e.g. because the 
+     * peer did not respond and the session needs to be established again.
+     * 
+     * @param peer  the address of the peer, see <code>getPeer()</code>
+     * @param credential  identifies the credential the endpoint uses, 
+     *     null if it uses none
+     */
+    public void remove(String peer, Object credential) {
+        Entry entry;
+        synchronized (this) {
+            entry = this.endpoints.remove(Arrays.asList(peer, credential));
+        }
+        if (entry != null) {
+            entry.endpoint.destroy();
+        }
+    }
+    
+    /**
+     * Destroy a failed endpoint for a peer and credential, unless it has 
+     * already been replaced by a new one.
+     * 
+     * @param peer  the address of the peer, see <code>getPeer()</code>
+     * @param credential  identifies the credential the endpoint uses, 
+     *     null if it uses none
+     * @param endpoint  the endpoint that failed
+     */
+    public void remove(String peer, Object credential, Endpoint endpoint) {
+        List<Object> key = Arrays.asList(peer, credential);
+        synchronized (this) {
+            Entry entry = this.endpoints.get(key);
+            if (entry == null || entry.endpoint != endpoint) {
+                return;
+            }
+            this.endpoints.remove(key);
+        }
+        endpoint.destroy();
+    }
+    
+    /**
+     * Make the next request over an endpoint do a DTLS session resumption 
+     * handshake, e.g. because the peer did not respond and may have lost 
+     * the session. Unlike <code>remove()</code> this does not disturb the 
+     * other requests using the endpoint.
+     * 
+     * @param endpoint  the endpoint, nothing is done if it does not use DTLS
+     */
+    public static void resumeSessions(Endpoint endpoint) {
+        if (endpoint instanceof CoapEndpoint && ((CoapEndpoint)endpoint)
+                .getConnector() instanceof DTLSConnector) {
+            ((DTLSConnector)((CoapEndpoint)endpoint).getConnector())
+                .forceResumeAllSessions();
+        }
+    }
+    
+    /**
+     * @return  the number of endpoints currently kept
+     */
+    public synchronized int size() {
+        return this.endpoints.size();
+    }
+    
+    /**
+     * Get the peer part of a URI, i.e. the scheme, host and port. The 
+     * default port of the scheme is used if the URI has no port.
+     * 
+     * @param uri  the URI
+     * 
+     * @return  the peer part of the URI
+     * @throws AceException  if the URI is malformed or its scheme is not 
+     *     a CoAP scheme
+     */
+    public static String getPeer(String uri) throws AceException {
+        try {
+            URI u = new URI(uri);
+            if (u.getHost() == null) {
+                throw new AceException("URI without host: " + uri);
+            }
+            String scheme = u.getScheme().toLowerCase(Locale.ROOT);
+            if (!CoAP.isSupportedScheme(scheme)) {
+                throw new AceException("Unsupported URI scheme: " + uri);
+            }
+            int port = u.getPort() == -1 
+                    ? CoAP.getDefaultPort(scheme) : u.getPort();
+            return scheme + "://" + u.getHost() + ":" + port;
+        } catch (URISyntaxException e) {
+            throw new AceException("Malformed URI: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Get the peer part for a scheme and a socket address, in the same 
+     * form as for a URI.
+     * 
+     * @param scheme  the URI scheme
+     * @param address  the address of the peer
+     * 
+     * @return  the peer part of a URI with that scheme and address
+     * @throws AceException  if the scheme or the address are invalid
+     */
+    public static String getPeer(String scheme, InetSocketAddress address) 
+            throws AceException {
+        try {
+            return getPeer(new URI(scheme, null, address.getHostString(), 
+                    address.getPort(), null, null, null).toString());
+        } catch (URISyntaxException e) {
+            throw new AceException("Malformed address: " + e.getMessage());
+        }
+    }
+    
+    /**
+     * Get an identifier for the credential of an endpoint, that does not 
+     * reveal the key itself.
+     * 
+     * @param key  the key used by the endpoint, can be null
+     * 
+     * @return  the SHA-256 hash of the encoded key, null if the key is null
+     * @throws AceException  if SHA-256 is not available
+     */
+    public static String getCredential(OneKey key) throws AceException {
+        if (key == null) {
+            return null;
+        }
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return Base64.getEncoder().encodeToString(
+                    md.digest(key.EncodeToBytes()));
+        } catch (NoSuchAlgorithmException e) {
+            throw new AceException(e.getMessage());
+        }
+    }
+    
+    /**
+     * Destroy all endpoints and stop the evictor thread. The manager 
+     * cannot be used afterwards.
+     */
+    @Override
+    public void close() {
+        this.evictor.shutdownNow();
+        List<Entry> all;
+        synchronized (this) {
+            this.closed = true;
+            all = new ArrayList<>(this.endpoints.values());
+            this.endpoints.clear();
+        }
+        for (Entry entry : all) {
+            entry.endpoint.destroy();
+        }
+    }
+}
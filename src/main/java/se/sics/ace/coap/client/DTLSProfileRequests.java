@@ -43,6 +43,7 @@ import java.util.logging.Logger;
 import org.eclipse.californium.core.CoapClient;
 import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
 import org.eclipse.californium.elements.Connector;
 import org.eclipse.californium.elements.UDPConnector;
 import org.eclipse.californium.scandium.DTLSConnector;
@@ -88,6 +89,23 @@ public class DTLSProfileRequests {
      */
     private static final Logger LOGGER 
         = Logger.getLogger(DTLSProfileRequests.class.getName() ); 
+    
+    /**
+     * The manager keeping the endpoints used for getToken() and postToken(),
+     * null to use a new endpoint for each request
+     */
+    private static volatile ConnectionManager connectionManager = null;
+    
+    /**
+     * Set the manager keeping the endpoints for getToken() and postToken(),
+     * so that the DTLS sessions with the AS and the RSs are reused.
+     * 
+     * @param manager  the connection manager, null to use a new endpoint 
+     *  for each request
+     */
+    public static void setConnectionManager(ConnectionManager manager) {
+        connectionManager = manager;
+    }
 
     /**
      * Sends a POST request to the /token endpoint of the AS to request an
@@ -107,6 +125,56 @@ public class DTLSProfileRequests {
      */
     public static CoapResponse getToken(String asAddr, CBORObject payload, 
             OneKey key) throws AceException {
+        ConnectionManager manager = connectionManager;
+        CoapClient client = new CoapClient(asAddr);
+        if (manager == null) {
+            CoapEndpoint ep = buildTokenEndpoint(key);
+            client.setEndpoint(ep);
+            try {
+                ep.getConnector().start();
+            } catch (IOException e) {
+                LOGGER.severe("Failed to start DTLSConnector: " + e.getMessage());
+                throw new AceException(e.getMessage());
+            }
+            try {
+                return client.post(payload.EncodeToBytes(), Constants.APPLICATION_ACE_CBOR);
+            } catch (ConnectorException | IOException e) {
+                LOGGER.severe("DTLSConnector error: " + e.getMessage());
+                throw new AceException(e.getMessage());
+            }
+        }
+        
+        String peer = ConnectionManager.getPeer(asAddr);
+        String credential = ConnectionManager.getCredential(key);
+        Endpoint ep = manager.getEndpoint(peer, credential, 
+                () -> buildTokenEndpoint(key));
+        client.setEndpoint(ep);
+        CoapResponse r = null;
+        try {
+            r = client.post(payload.EncodeToBytes(), Constants.APPLICATION_ACE_CBOR);
+        } catch (ConnectorException | IOException e) {
+            LOGGER.severe("DTLSConnector error: " + e.getMessage());
+            manager.remove(peer, credential, ep);
+            throw new AceException(e.getMessage());
+        }
+        if (r == null) { // The session may be stale, resume it next time
+            ConnectionManager.resumeSessions(ep);
+        }
+        return r;
+    }
+    
+    /**
+     * Build the DTLS endpoint for requesting tokens from the AS.
+     * 
+     * @param key  the key to be used to secure the connection to the AS. 
+     *  This MUST have a kid.
+     *  
+     * @return  the endpoint, not started yet
+     * 
+     * @throws AceException 
+     */
+    static CoapEndpoint buildTokenEndpoint(OneKey key) 
+            throws AceException {
     	Configuration dtlsConfig = Configuration.getStandard();
     	dtlsConfig.set(DtlsConfig.DTLS_USE_SERVER_NAME_INDICATION,  false);
     	dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, CertificateAuthenticationMode.NEEDED);
@@ -143,24 +211,10 @@ public class DTLSProfileRequests {
         }
 
         DTLSConnector dtlsConnector = new DTLSConnector(builder.build());      
-        CoapEndpoint ep = new CoapEndpoint.Builder()
+        return new CoapEndpoint.Builder()
                 .setConnector(dtlsConnector)
                 .setConfiguration(Configuration.getStandard())
                 .build();
-        CoapClient client = new CoapClient(asAddr);
-        client.setEndpoint(ep);
-        try {
-            dtlsConnector.start();
-        } catch (IOException e) {
-            LOGGER.severe("Failed to start DTLSConnector: " + e.getMessage());
-            throw new AceException(e.getMessage());
-        }
-        try {
-            return client.post(payload.EncodeToBytes(), Constants.APPLICATION_ACE_CBOR);
-        } catch (ConnectorException | IOException e) {
-            LOGGER.severe("DTLSConnector error: " + e.getMessage());
-            throw new AceException(e.getMessage());
-        }
     }
     
     /**
@@ -201,6 +255,62 @@ public class DTLSProfileRequests {
             throw new AceException(
                     "Payload cannot be null when POSTing to authz-info");
         }
+        ConnectionManager manager = connectionManager;
+        if (manager != null) {
+            String peer = ConnectionManager.getPeer(rsAddr);
+            String credential = ConnectionManager.getCredential(key);
+            CoapClient client = new CoapClient(rsAddr);
+            Endpoint ep = manager.getEndpoint(peer, credential, 
+                    () -> buildAuthzInfoEndpoint(key));
+            client.setEndpoint(ep);
+            LOGGER.finest("Sending request payload: " + payload);
+            CoapResponse r = null;
+            try {
+                r = client.post(payload.EncodeToBytes(), contentFormat);
+            } catch (ConnectorException | IOException ex) {
+                LOGGER.severe("DTLSConnector error: " + ex.getMessage());
+                manager.remove(peer, credential, ep);
+                throw new AceException(ex.getMessage());
+            }
+            if (r == null) { // The session may be stale, resume it next time
+                ConnectionManager.resumeSessions(ep);
+            }
+            return r;
+        }
+        
+        CoapEndpoint e = buildAuthzInfoEndpoint(key);
+        CoapClient client = new CoapClient(rsAddr);
+        client.setEndpoint(e);   
+        try {
+            e.start();
+        } catch (IOException ex) {
+            LOGGER.severe("Failed to start DTLSConnector: " + ex.getMessage());
+            throw new AceException(ex.getMessage());
+        }
+               LOGGER.finest("Sending request payload: " + payload);
+        CoapResponse r = null;
+        try {
+            r = client.post(payload.EncodeToBytes(), contentFormat);
+        } catch (ConnectorException | IOException ex) {
+            LOGGER.severe("DTLSConnector error: " + ex.getMessage());
+            throw new AceException(ex.getMessage());
+        }
+        e.stop();
+        return r;
+    }
+    
+    /**
+     * Build the endpoint for POSTing tokens to the /authz-info endpoint.
+     * 
+     * @param key  an asymmetric key-pair to use with DTLS in a raw-public 
+     *  key handshake, null to use CoAP without DTLS
+     *  
+     * @return  the endpoint, not started yet
+     * 
+     * @throws AceException 
+     */
+    static CoapEndpoint buildAuthzInfoEndpoint(OneKey key) 
+            throws AceException {
         Connector c = null;
         if (key != null) {
         	Configuration dtlsConfig = Configuration.getStandard();
@@ -230,26 +340,8 @@ public class DTLSProfileRequests {
         } else {
             c = new UDPConnector(new InetSocketAddress(0), Configuration.getStandard());
         }
-        CoapEndpoint e = new CoapEndpoint.Builder().setConnector(c)
+        return new CoapEndpoint.Builder().setConnector(c)
                 .setConfiguration(Configuration.getStandard()).build();
-        CoapClient client = new CoapClient(rsAddr);
-        client.setEndpoint(e);   
-        try {
-            e.start();
-        } catch (IOException ex) {
-            LOGGER.severe("Failed to start DTLSConnector: " + ex.getMessage());
-            throw new AceException(ex.getMessage());
-        }
-               LOGGER.finest("Sending request payload: " + payload);
-        CoapResponse r = null;
-        try {
-            r = client.post(payload.EncodeToBytes(), contentFormat);
-        } catch (ConnectorException | IOException ex) {
-            LOGGER.severe("DTLSConnector error: " + ex.getMessage());
-            throw new AceException(ex.getMessage());
-        }
-        e.stop();
-        return r;
     }
     
     /**
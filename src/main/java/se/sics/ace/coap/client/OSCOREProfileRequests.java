@@ -33,7 +33,6 @@ package se.sics.ace.coap.client;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -60,6 +59,7 @@ import com.upokecenter.cbor.CBORType;
 
 import se.sics.ace.AceException;
 import se.sics.ace.Constants;
+import se.sics.ace.Randomness;
 import se.sics.ace.Util;
 import se.sics.ace.coap.rs.oscoreProfile.OscoreSecurityContext;
 
@@ -84,6 +84,57 @@ public class OSCOREProfileRequests {
      */
     private static final Logger LOGGER 
         = Logger.getLogger(OSCOREProfileRequests.class.getName());
+    
+    /**
+     * The manager keeping the endpoints used for getToken() and getClient(),
+     * null to use a new endpoint for each call
+     */
+    private static volatile ConnectionManager connectionManager = null;
+    
+    /**
+     * Set the manager keeping the endpoints for getToken() and getClient(),
+     * so that an OSCORE endpoint is reused for each peer and database of 
+     * OSCORE contexts.
+     * 
+     * @param manager  the connection manager, null to use a new endpoint 
+     *  for each call
+     */
+    public static void setConnectionManager(ConnectionManager manager) {
+        connectionManager = manager;
+    }
+    
+    /**
+     * Get the endpoint for talking to a peer with OSCORE.
+     * 
+     * @param peer  the address of the peer, see 
+     *  <code>ConnectionManager.getPeer()</code>
+     * @param db  the database of the OSCORE contexts
+     * 
+     * @return  the endpoint
+     * @throws AceException 
+     */
+    private static Endpoint getEndpoint(String peer, OSCoreCtxDB db) 
+            throws AceException {
+        ConnectionManager manager = connectionManager;
+        if (manager == null) {
+            return buildEndpoint(db);
+        }
+        return manager.getEndpoint(peer, db, () -> buildEndpoint(db));
+    }
+    
+    /**
+     * Build an endpoint using OSCORE.
+     * 
+     * @param db  the database of the OSCORE contexts
+     * 
+     * @return  the endpoint, not started yet
+     */
+    static Endpoint buildEndpoint(OSCoreCtxDB db) {
+        CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
+        builder.setCoapStackFactory(new OSCoreCoapStackFactory());
+        builder.setCustomCoapStackArgument(db);
+        return builder.build();
+    }
 
     /**
      * Sends a POST request to the /token endpoint of the AS to request an
@@ -110,10 +161,8 @@ public class OSCOREProfileRequests {
         
         db.addContext(asAddr, ctx);
         
-        CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
-        builder.setCoapStackFactory(new OSCoreCoapStackFactory());
-        builder.setCustomCoapStackArgument(db);
-        Endpoint clientEndpoint = builder.build();
+        Endpoint clientEndpoint = getEndpoint(
+                ConnectionManager.getPeer(asAddr), db);
         CoapClient client = new CoapClient(asAddr);
         client.setEndpoint(clientEndpoint);  
         try {        	
@@ -142,6 +191,135 @@ public class OSCOREProfileRequests {
      */
     public static Response postToken(String rsAddr, Response asResp, OSCoreCtxDB db, List<Set<Integer>> usedRecipientIds) 
             throws AceException, OSException {
+        TokenPost post = preparePostToken(rsAddr, asResp, db, usedRecipientIds);
+               
+    	Response resp = null;
+    	CoapClient client = new CoapClient(rsAddr);
+
+        try {
+        	LOGGER.finest("Sending request payload: " + post.payload);
+        	resp = client.post(
+                    post.payload.EncodeToBytes(), 
+                    Constants.APPLICATION_ACE_CBOR).advanced();
+        } catch (ConnectorException | IOException ex) {
+        	post.release();
+            LOGGER.severe("Connector error: " + ex.getMessage());
+            throw new AceException(ex.getMessage());
+        }
+        
+        return finishPostToken(post, resp);
+    }
+    
+    /**
+     * The state of a token POST to the /authz-info endpoint of the RS, 
+     * between preparing the request and processing the response.
+     */
+    static class TokenPost {
+        
+        /**
+         * The full address of the /authz-info endpoint
+         */
+        final String rsAddr;
+        
+        /**
+         * The database of OSCORE Security Contexts
+         */
+        final OSCoreCtxDB db;
+        
+        /**
+         * The collection of already in use OSCORE Recipient IDs
+         */
+        final List<Set<Integer>> usedRecipientIds;
+        
+        /**
+         * The cnf received from the AS
+         */
+        final CBORObject cnf;
+        
+        /**
+         * The payload of the request
+         */
+        final CBORObject payload;
+        
+        /**
+         * The nonce N1 sent to the RS
+         */
+        final byte[] n1;
+        
+        /**
+         * The Recipient ID offered to the RS
+         */
+        final byte[] recipientId;
+        
+        /**
+         * The Recipient ID offered to the RS as integer
+         */
+        final int recipientIdAsInt;
+        
+        /**
+         * The OSCORE ID Context
+         */
+        final byte[] contextId;
+        
+        /**
+         * Constructor.
+         * 
+         * @param rsAddr  the full address of the /authz-info endpoint
+         * @param db  the database of OSCORE Security Contexts
+         * @param usedRecipientIds  the collection of already in use OSCORE Recipient IDs
+         * @param cnf  the cnf received from the AS
+         * @param payload  the payload of the request
+         * @param n1  the nonce N1 sent to the RS
+         * @param recipientId  the Recipient ID offered to the RS
+         * @param recipientIdAsInt  the Recipient ID offered to the RS as integer
+         * @param contextId  the OSCORE ID Context
+         */
+        TokenPost(String rsAddr, OSCoreCtxDB db, 
+                List<Set<Integer>> usedRecipientIds, CBORObject cnf, 
+                CBORObject payload, byte[] n1, byte[] recipientId, 
+                int recipientIdAsInt, byte[] contextId) {
+            this.rsAddr = rsAddr;
+            this.db = db;
+            this.usedRecipientIds = usedRecipientIds;
+            this.cnf = cnf;
+            this.payload = payload;
+            this.n1 = n1;
+            this.recipientId = recipientId;
+            this.recipientIdAsInt = recipientIdAsInt;
+            this.contextId = contextId;
+        }
+        
+        /**
+         * Make the offered Recipient ID available again, after the request 
+         * could not be sent.
+         */
+        void release() {
+            if (this.recipientIdAsInt != -1) {
+                synchronized (this.usedRecipientIds) {
+                    this.usedRecipientIds.get(this.recipientId.length - 1)
+                        .remove(this.recipientIdAsInt);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Prepare the POST of an access token to the /authz-info endpoint of 
+     * the RS, reserving the Recipient ID offered to the RS.
+     * 
+     * @param rsAddr   the full address of the /authz-info endpoint
+     *  (including scheme and hostname, and port if not default)
+     * @param asResp   the response from the AS containing the token
+     *      and the access information
+     * @param db   the database of OSCORE Security Contexts
+     * @param usedRecipientIds   the collection of already in use OSCORE Recipient IDs
+     * 
+     * @return  the state of the token POST
+     *
+     * @throws AceException 
+     */
+    static TokenPost preparePostToken(String rsAddr, Response asResp, OSCoreCtxDB db, List<Set<Integer>> usedRecipientIds) 
+            throws AceException {
         if (asResp == null) {
             throw new AceException(
                     "asResp cannot be null when POSTing to authz-info");
@@ -182,7 +360,7 @@ public class OSCOREProfileRequests {
         payload.Add(Constants.ACCESS_TOKEN, token);
         
         byte[] n1 = new byte[8];
-        new SecureRandom().nextBytes(n1);
+        Randomness.nextBytes(n1);
         payload.Add(Constants.NONCE1, n1);
         
         byte[] recipientId = null;
@@ -260,24 +438,32 @@ public class OSCOREProfileRequests {
             throw new AceException("No Recipient ID available to use");
         }
         payload.Add(Constants.ACE_CLIENT_RECIPIENTID, recipientId);
-               
-        CoapClient client = null;
+        
+        return new TokenPost(rsAddr, db, usedRecipientIds, cnf, payload, n1,
+                recipientId, recipientIdAsInt, contextId);
+    }
+    
+    /**
+     * Process the response of the RS to a token POST and install the 
+     * OSCORE Security Context derived from it.
+     * 
+     * @param post  the state of the token POST
+     * @param resp  the response from the RS
+     * 
+     * @return  the response 
+     *
+     * @throws AceException 
+     * @throws OSException 
+     */
+    static Response finishPostToken(TokenPost post, Response resp) 
+            throws AceException, OSException {
+        String rsAddr = post.rsAddr;
+        OSCoreCtxDB db = post.db;
+        CBORObject cnf = post.cnf;
+        byte[] n1 = post.n1;
+        byte[] recipientId = post.recipientId;
+        byte[] contextId = post.contextId;
         CBORObject rsPayload;
-    	Response resp = null;
-    	client = new CoapClient(rsAddr);
-
-        try {
-        	LOGGER.finest("Sending request payload: " + payload);
-        	resp = client.post(
-                    payload.EncodeToBytes(), 
-                    Constants.APPLICATION_ACE_CBOR).advanced();
-        } catch (ConnectorException | IOException ex) {
-        	if (recipientIdAsInt != -1) {
-        		usedRecipientIds.get(recipientId.length - 1).remove(recipientIdAsInt);
-        	}
-            LOGGER.severe("Connector error: " + ex.getMessage());
-            throw new AceException(ex.getMessage());
-        }
         
         if (resp == null) {
             throw new AceException("RS did not respond");
@@ -451,10 +637,8 @@ public class OSCOREProfileRequests {
             throw new AceException("OSCORE context not set for address: " 
                     + serverAddress);
         }
-        CoapEndpoint.Builder builder = new CoapEndpoint.Builder();
-        builder.setCoapStackFactory(new OSCoreCoapStackFactory());
-        builder.setCustomCoapStackArgument(db);
-        Endpoint clientEndpoint = builder.build();
+        Endpoint clientEndpoint = getEndpoint(
+                ConnectionManager.getPeer("coap", serverAddress), db);
         CoapClient client = new CoapClient(serverAddress.getHostString());
         client.setEndpoint(clientEndpoint);
         return client;    
@@ -33,7 +33,6 @@ package se.sics.ace.coap.client;
 
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
@@ -60,6 +59,7 @@ import com.upokecenter.cbor.CBORType;
 
 import se.sics.ace.AceException;
 import se.sics.ace.Constants;
+import se.sics.ace.Randomness;
 import se.sics.ace.Util;
 import se.sics.ace.coap.rs.oscoreProfile.OscoreSecurityContext;
 
@@ -188,7 +188,7 @@ public class OSCOREProfileRequestsGroupOSCORE {
         	payload.Add(Constants.ECDH_INFO, CBORObject.Null);
         
         byte[] n1 = new byte[8];
-        new SecureRandom().nextBytes(n1);
+        Randomness.nextBytes(n1);
         payload.Add(Constants.NONCE1, n1);
         
         byte[] recipientId = null;
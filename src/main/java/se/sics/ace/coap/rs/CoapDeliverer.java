@@ -50,6 +50,7 @@ import org.eclipse.californium.core.server.resources.Resource;
 import org.eclipse.californium.elements.Connector;
 import org.eclipse.californium.elements.DtlsEndpointContext;
 import org.eclipse.californium.elements.EndpointContext;
+import org.eclipse.californium.elements.util.Bytes;
 import org.eclipse.californium.scandium.DTLSConnector;
 
 import com.upokecenter.cbor.CBORException;
@@ -186,6 +187,10 @@ public class CoapDeliverer implements MessageDeliverer {
                     ResponseCode.INTERNAL_SERVER_ERROR));
         }
         String kid = TokenRepository.getInstance().getKid(subject);
+        String sessionId = getSessionId(request.getSourceContext());
+        if (kid == null && sessionId != null) { // A resumed DTLS session
+            kid = tr.getKidBySession(sessionId);
+        }
        
         if (kid == null) { // Check if this was the Base64 encoded kid map
             try {
@@ -219,6 +224,11 @@ public class CoapDeliverer implements MessageDeliverer {
            
         }
                
+        if (sessionId != null 
+                && !kid.equals(tr.getKidBySession(sessionId))) {
+            tr.addSession(sessionId, kid);
+        }
+               
         String resource = request.getOptions().getUriPathString();
         short action = (short) request.getCode().value;
       
@@ -273,8 +283,8 @@ public class CoapDeliverer implements MessageDeliverer {
             case TokenRepository.FORBID :
                 r = new Response(ResponseCode.FORBIDDEN);
                 try {
-                    r.setPayload(this.asRCH.getHints(ex.getCurrentRequest(), 
-                            kid).EncodeToBytes());
+                    r.setPayload(this.asRCH.getEncodedHints(
+                            ex.getCurrentRequest(), kid));
                     r.getOptions().setContentFormat(Constants.APPLICATION_ACE_CBOR);
                 } catch (InvalidKeyException | NoSuchAlgorithmException e) {
                     LOGGER.severe("cnonce creation failed: " + e.getMessage());
@@ -285,8 +295,8 @@ public class CoapDeliverer implements MessageDeliverer {
             case TokenRepository.METHODNA :
                 r = new Response(ResponseCode.METHOD_NOT_ALLOWED);
                 try {
-                    r.setPayload(this.asRCH.getHints(ex.getCurrentRequest(),
-                            kid).EncodeToBytes());
+                    r.setPayload(this.asRCH.getEncodedHints(
+                            ex.getCurrentRequest(), kid));
                     r.getOptions().setContentFormat(Constants.APPLICATION_ACE_CBOR);
                 } catch (InvalidKeyException | NoSuchAlgorithmException e) {
                     LOGGER.severe("cnonce creation failed: " + e.getMessage());
@@ -320,6 +330,25 @@ public class CoapDeliverer implements MessageDeliverer {
         }
     }
     
+    /**
+     * Get the DTLS session ID of a request.
+     * 
+     * @param ctx  the source context of the request
+     * 
+     * @return  the session ID as hex string, or null if the request was 
+     *  not received over DTLS or the session has no ID
+     */
+    private static String getSessionId(EndpointContext ctx) {
+        if (ctx == null) {
+            return null;
+        }
+        Bytes sessionId = ctx.get(DtlsEndpointContext.KEY_SESSION_ID);
+        if (sessionId == null || sessionId.isEmpty()) {
+            return null;
+        }
+        return sessionId.getAsString();
+    }
+    
     /**
      * Fail a request with 4.01 Unauthorized.
      * 
@@ -327,8 +356,8 @@ public class CoapDeliverer implements MessageDeliverer {
     private void failUnauthz(Exchange ex) {
         Response r = new Response(ResponseCode.UNAUTHORIZED);
         try {
-            r.setPayload(this.asRCH.getHints(
-                    ex.getCurrentRequest(), null).EncodeToBytes());
+            r.setPayload(this.asRCH.getEncodedHints(
+                    ex.getCurrentRequest(), null));
             r.getOptions().setContentFormat(Constants.APPLICATION_ACE_CBOR);
             ex.sendResponse(r);
         } catch (InvalidKeyException | NoSuchAlgorithmException 
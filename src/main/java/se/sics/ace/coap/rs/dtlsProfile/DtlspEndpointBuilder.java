@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.rs.dtlsProfile;
+
+import java.net.InetSocketAddress;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.californium.core.coap.CoAP;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.core.network.EndpointObserver;
+import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
+import org.eclipse.californium.elements.config.CertificateAuthenticationMode;
+import org.eclipse.californium.elements.config.Configuration;
+import org.eclipse.californium.scandium.DTLSConnector;
+import org.eclipse.californium.scandium.config.DtlsConfig;
+import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
+import org.eclipse.californium.scandium.dtls.CertificateType;
+import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
+import org.eclipse.californium.scandium.dtls.pskstore.AdvancedPskStore;
+import org.eclipse.californium.scandium.dtls.x509.AsyncNewAdvancedCertificateVerifier;
+import org.eclipse.californium.scandium.dtls.x509.SingleCertificateProvider;
+
+import COSE.CoseException;
+import COSE.OneKey;
+
+import se.sics.ace.AceException;
+import se.sics.ace.coap.DtlsSessionConfig;
+
+/**
+ * Builds the CoAP over DTLS endpoint of an RS using the DTLS profile.
+ * 
+ * The endpoint does PSK handshakes with the keys provided by a 
+ * DtlspPskStore, and RPK handshakes if the RS has an asymmetric key.
+ * The DTLS Connection ID and session resumption settings can be 
+ * configured with a DtlsSessionConfig.
+ *
+ */
+public class DtlspEndpointBuilder {
+    
+    static {
+        DtlsConfig.register();
+    }
+    
+    /**
+     * The port to listen on
+     */
+    private int port = CoAP.DEFAULT_COAP_SECURE_PORT;
+    
+    /**
+     * The store providing the PSKs
+     */
+    private AdvancedPskStore pskStore = null;
+    
+    /**
+     * The asymmetric key of the RS for RPK handshakes
+     */
+    private OneKey asymmetricKey = null;
+    
+    /**
+     * The DTLS Connection ID and session resumption settings
+     */
+    private DtlsSessionConfig sessions = null;
+    
+    /**
+     * The certificate types accepted from clients doing RPK handshakes
+     */
+    private List<CertificateType> certTypes 
+        = Collections.singletonList(CertificateType.RAW_PUBLIC_KEY);
+    
+    /**
+     * @param port  the port to listen on
+     * @return  this builder
+     */
+    public DtlspEndpointBuilder setPort(int port) {
+        this.port = port;
+        return this;
+    }
+    
+    /**
+     * @param pskStore  the store providing the PSKs, usually a 
+     *     DtlspPskStore, null if the endpoint does no PSK handshakes. 
+     *     A DtlspPskStore is closed when the endpoint is destroyed.
+     * @return  this builder
+     */
+    public DtlspEndpointBuilder setPskStore(AdvancedPskStore pskStore) {
+        this.pskStore = pskStore;
+        return this;
+    }
+    
+    /**
+     * @param asymmetricKey  the asymmetric key pair of the RS, null if the
+     *     endpoint does no RPK handshakes
+     * @return  this builder
+     */
+    public DtlspEndpointBuilder setAsymmetricKey(OneKey asymmetricKey) {
+        this.asymmetricKey = asymmetricKey;
+        return this;
+    }
+    
+    /**
+     * @param certTypes  the certificate types accepted from clients doing 
+     *     RPK handshakes, by default only raw public keys
+     * @return  this builder
+     */
+    public DtlspEndpointBuilder setCertificateTypes(
+            List<CertificateType> certTypes) {
+        this.certTypes = certTypes;
+        return this;
+    }
+    
+    /**
+     * @param sessions  the DTLS Connection ID and session resumption 
+     *     settings, null to use the standard configuration
+     * @return  this builder
+     */
+    public DtlspEndpointBuilder setSessionConfig(DtlsSessionConfig sessions) {
+        this.sessions = sessions;
+        return this;
+    }
+    
+    /**
+     * Build the endpoint.
+     * 
+     * @return  the CoAP endpoint using a DTLS connector
+     * 
+     * @throws AceException  if neither a PSK store nor an asymmetric key 
+     *     were set
+     * @throws CoseException  if the asymmetric key cannot be used
+     */
+    public CoapEndpoint build() throws AceException, CoseException {
+        List<CipherSuite> suites = new ArrayList<>();
+        if (this.asymmetricKey != null) {
+            suites.add(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8);
+        }
+        if (this.pskStore != null) {
+            suites.add(CipherSuite.TLS_PSK_WITH_AES_128_CCM_8);
+        }
+        if (suites.isEmpty()) {
+            throw new AceException(
+                    "DTLS endpoint needs a PSK store or an asymmetric key");
+        }
+        
+        Configuration dtlsConfig 
+            = new Configuration(Configuration.getStandard());
+        if (this.sessions != null) {
+            this.sessions.apply(dtlsConfig);
+        }
+        dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, 
+                CertificateAuthenticationMode.NEEDED);
+        dtlsConfig.set(DtlsConfig.DTLS_CIPHER_SUITES, suites);
+        
+        DtlsConnectorConfig.Builder config 
+            = new DtlsConnectorConfig.Builder(dtlsConfig)
+                .setAddress(new InetSocketAddress(this.port));
+        if (this.pskStore != null) {
+            config.setAdvancedPskStore(this.pskStore);
+        }
+        if (this.asymmetricKey != null) {
+            config.setCertificateIdentityProvider(new SingleCertificateProvider(
+                    this.asymmetricKey.AsPrivateKey(), 
+                    this.asymmetricKey.AsPublicKey()));
+            AsyncNewAdvancedCertificateVerifier verifier 
+                = new AsyncNewAdvancedCertificateVerifier(
+                        new X509Certificate[0], new RawPublicKeyIdentity[0],
+                        this.certTypes);
+            config.setAdvancedCertificateVerifier(verifier);
+        }
+        
+        DTLSConnector connector = new DTLSConnector(config.build());
+        CoapEndpoint endpoint = new CoapEndpoint.Builder()
+                .setConnector(connector)
+                .setConfiguration(Configuration.getStandard()).build();
+        if (this.pskStore instanceof DtlspPskStore) {
+            // Stop the token processing threads with the endpoint
+            final DtlspPskStore store = (DtlspPskStore)this.pskStore;
+            endpoint.addObserver(new EndpointObserver() {
+                @Override
+                public void started(Endpoint e) {
+                    // Threads are started on demand
+                }
+                @Override
+                public void stopped(Endpoint e) {
+                    // The endpoint may be started again
+                }
+                @Override
+                public void destroyed(Endpoint e) {
+                    store.close();
+                }
+            });
+        }
+        return endpoint;
+    }
+}
@@ -33,6 +33,11 @@ package se.sics.ace.coap.rs.dtlsProfile;
 
 import java.net.InetSocketAddress;
 import java.util.Base64;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Logger;
 
 import javax.crypto.SecretKey;
@@ -64,6 +69,12 @@ import se.sics.ace.rs.TokenRepository;
  * 
  * Implements the retrieval of the access token as defined in section 3.3.2 of RFC 9202.
  * 
+ * Access tokens in the psk_identity are processed asynchronously on a 
+ * dedicated executor, so that the DTLS handshake threads are not blocked
+ * by the token validation. The result is returned through the 
+ * HandshakeResultHandler set by the DTLS connector. Identities that only
+ * contain the kid of a known key are resolved synchronously.
+ * 
  * @author Ludwig Seitz and Marco Tiloca
  *
  */
@@ -76,26 +87,120 @@ public class DtlspPskStore implements AdvancedPskStore {
         = Logger.getLogger(DtlspPskStore.class.getName());
     
     
+    /**
+     * The default maximum number of access tokens waiting to be processed
+     */
+    public static final int DEFAULT_MAX_PENDING = 1000;
+    
+    /**
+     * The time after which an idle token processing thread stops, 
+     * in milliseconds
+     */
+    private static final long THREAD_KEEP_ALIVE = 60000L;
+    
     /**
      * This component needs to access the authz-info endpoint.
      */
     private AuthzInfo authzInfo;
+    
+    /**
+     * The executor processing the access tokens, null if they are 
+     * processed synchronously
+     */
+    private ExecutorService executor;
+    
+    /**
+     * The handler to return asynchronous results to the DTLS connector
+     */
+    private volatile HandshakeResultHandler resultHandler = null;
         
     
     /**
-     * Constructor.
+     * Constructor using one token processing thread per available processor
+     * and the default maximum number of pending tokens.
      * 
      * @param authzInfo  the authz-info used by this RS
      */
     public DtlspPskStore(AuthzInfo authzInfo) {
+        this(authzInfo, Runtime.getRuntime().availableProcessors(),
+                DEFAULT_MAX_PENDING);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * The token processing threads are only started when tokens arrive 
+     * and stop again after being idle for a minute. close() stops them
+     * right away, endpoints built with DtlspEndpointBuilder call it when 
+     * they are destroyed.
+     * 
+     * @param authzInfo  the authz-info used by this RS
+     * @param threads  the number of threads processing access tokens, 
+     *     0 to process them synchronously on the handshake thread
+     * @param maxPending  the maximum number of access tokens waiting to be 
+     *     processed, the handshakes of further tokens fail
+     */
+    public DtlspPskStore(AuthzInfo authzInfo, int threads, int maxPending) {
         this.authzInfo = authzInfo;
+        if (threads > 0) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 
+                    THREAD_KEEP_ALIVE, TimeUnit.MILLISECONDS, 
+                    new ArrayBlockingQueue<>(Math.max(1, maxPending)), r -> {
+                        Thread t = new Thread(r, "DtlspPskStore-token");
+                        t.setDaemon(true);
+                        return t;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            this.executor = pool;
+        } else {
+            this.executor = null;
+        }
     }
     
     @Override
     public PskSecretResult requestPskSecretResult(ConnectionId cid, ServerNames serverName,
             PskPublicInformation identity, String hmacAlgorithm, SecretKey otherSecret, byte[] seed,
             boolean useExtendedMasterSecret) {
-        return new PskSecretResult(cid, identity, getKey(identity));
+        HandshakeResultHandler handler = this.resultHandler;
+        if (this.executor == null || handler == null) {
+            return new PskSecretResult(cid, identity, getKey(identity));
+        }
+        
+        if (TokenRepository.getInstance() == null) {
+            LOGGER.severe("TokenRepository not initialized");
+            return new PskSecretResult(cid, identity, null);
+        }
+        byte[] rawIdentity = identity.getBytes();
+        try {
+            SecretKey key = getKnownKey(rawIdentity, identity);
+            if (key != null) {
+                return new PskSecretResult(cid, identity, key);
+            }
+        } catch (AceException e) {
+            LOGGER.severe("Error: " + e.getMessage());
+            return new PskSecretResult(cid, identity, null);
+        }
+        
+        // This may be an access token, process it without blocking the handshake
+        try {
+            this.executor.execute(() -> {
+                SecretKey key = null;
+                try {
+                    key = processToken(rawIdentity, identity);
+                } catch (RuntimeException e) {
+                    LOGGER.severe("Error processing the psk_identity: " 
+                            + e.getMessage());
+                }
+                handler.apply(new PskSecretResult(cid, identity, key));
+            });
+        } catch (RejectedExecutionException e) {
+            LOGGER.warning(this.executor.isShutdown() 
+                    ? "PSK store closed, rejecting the psk_identity"
+                    : "Too many pending access tokens, "
+                        + "rejecting the psk_identity");
+            return new PskSecretResult(cid, identity, null);
+        }
+        return null;
     }
 
     public SecretKey getKey(PskPublicInformation identity) {
@@ -122,42 +227,66 @@ public class DtlspPskStore implements AdvancedPskStore {
             return null;
         }
         // First try if we have that key
-        OneKey key = null;
         try {
-
-            CBORObject identityStructure;
-
-            try {
-                identityStructure = CBORObject.DecodeFromBytes(rawIdentity);
-            } catch (CBORException e) {
-                LOGGER.severe("Error: " + e.getMessage());
-                return null;
+            SecretKey key = getKnownKey(rawIdentity, originalIdentity);
+            if (key != null) {
+                return key;
             }
+        } catch (AceException e) {
+            LOGGER.severe("Error: " + e.getMessage());
+            return null;
+        }
+        
+        //We don't have that key, try if the identity is an access token
+        return processToken(rawIdentity, originalIdentity);
+    }
+    
+    /**
+     * Look up the key if the psk_identity contains the kid of a key that 
+     * is already in the token repository.
+     * 
+     * @param rawIdentity  the psk_identity received on the wire
+     * @param originalIdentity  the psk_identity, normalized to the kid
+     *     if the key is found
+     *     
+     * @return  the key or null if the psk_identity does not identify a 
+     *     known key
+     * @throws AceException  if the psk_identity cannot be parsed or the
+     *     key cannot be retrieved
+     */
+    private static SecretKey getKnownKey(byte[] rawIdentity, 
+            PskPublicInformation originalIdentity) throws AceException {
+        OneKey key = null;
+        CBORObject identityStructure;
 
-            if (identityStructure != null && identityStructure.getType() == CBORType.Map
-                    && identityStructure.size() == 1) {
+        try {
+            identityStructure = CBORObject.DecodeFromBytes(rawIdentity);
+        } catch (CBORException e) {
+            throw new AceException(e.getMessage());
+        }
 
-                CBORObject cnfStructure = identityStructure.get(Constants.CNF);
-                if (cnfStructure != null && cnfStructure.getType() == CBORType.Map && cnfStructure.size() == 1) {
+        if (identityStructure != null && identityStructure.getType() == CBORType.Map
+                && identityStructure.size() == 1) {
 
-                    CBORObject COSEKeyStructure = cnfStructure.get(Constants.COSE_KEY_CBOR);
-                    if (COSEKeyStructure != null && COSEKeyStructure.getType() == CBORType.Map
-                            && COSEKeyStructure.size() == 2) {
+            CBORObject cnfStructure = identityStructure.get(Constants.CNF);
+            if (cnfStructure != null && cnfStructure.getType() == CBORType.Map && cnfStructure.size() == 1) {
 
-                        if (COSEKeyStructure
-                                .get(CBORObject.FromObject(KeyKeys.KeyType.AsCBOR())) == KeyKeys.KeyType_Octet
-                                && COSEKeyStructure.get(CBORObject.FromObject(KeyKeys.KeyId.AsCBOR())) != null) {
+                CBORObject COSEKeyStructure = cnfStructure.get(Constants.COSE_KEY_CBOR);
+                if (COSEKeyStructure != null && COSEKeyStructure.getType() == CBORType.Map
+                        && COSEKeyStructure.size() == 2) {
 
-                            byte[] kid = COSEKeyStructure.get(CBORObject.FromObject(KeyKeys.KeyId)).GetByteString();
+                    if (COSEKeyStructure
+                            .get(CBORObject.FromObject(KeyKeys.KeyType.AsCBOR())) == KeyKeys.KeyType_Octet
+                            && COSEKeyStructure.get(CBORObject.FromObject(KeyKeys.KeyId.AsCBOR())) != null) {
 
-                            String kidString = Base64.getEncoder().encodeToString(kid);
-                            key = TokenRepository.getInstance().getKey(kidString);
+                        byte[] kid = COSEKeyStructure.get(CBORObject.FromObject(KeyKeys.KeyId)).GetByteString();
 
-                            // For correct storage in the DTLS Key Store, change the originally received
-                            // key identity from the "psk_identity" on the wire to only the "kid" included in it
-                            originalIdentity.normalize(kidString);
+                        String kidString = Base64.getEncoder().encodeToString(kid);
+                        key = TokenRepository.getInstance().getKey(kidString);
 
-                        }
+                        // For correct storage in the DTLS Key Store, change the originally received
+                        // key identity from the "psk_identity" on the wire to only the "kid" included in it
+                        originalIdentity.normalize(kidString);
 
                     }
 
@@ -165,15 +294,27 @@ public class DtlspPskStore implements AdvancedPskStore {
 
             }
 
-            if (key != null) {
-                return new SecretKeySpec(key.get(KeyKeys.Octet_K).GetByteString(), "PSK");
-            }
-        } catch (AceException e) {
-            LOGGER.severe("Error: " + e.getMessage());
-            return null;
         }
 
-        //We don't have that key, try if the identity is an access token
+        if (key != null) {
+            return new SecretKeySpec(key.get(KeyKeys.Octet_K).GetByteString(), "PSK");
+        }
+        return null;
+    }
+    
+    /**
+     * Process an access token received as psk_identity through the 
+     * authz-info endpoint.
+     * 
+     * @param rawIdentity  the psk_identity received on the wire
+     * @param originalIdentity  the psk_identity, normalized if the token 
+     *     is valid
+     *     
+     * @return  the PoP key of the token or null if the token is not valid
+     */
+    private SecretKey processToken(byte[] rawIdentity, 
+            PskPublicInformation originalIdentity) {
+        OneKey key = null;
         CBORObject payload = null;
         try {
             payload = CBORObject.DecodeFromBytes(rawIdentity);       	
@@ -238,8 +379,16 @@ public class DtlspPskStore implements AdvancedPskStore {
 
     @Override
     public void setResultHandler(HandshakeResultHandler resultHandler) {
-        // TODO Auto-generated method stub
-
+        this.resultHandler = resultHandler;
+    }
+    
+    /**
+     * Stop the threads processing access tokens.
+     */
+    public void close() {
+        if (this.executor != null) {
+            this.executor.shutdownNow();
+        }
     }
 
 }
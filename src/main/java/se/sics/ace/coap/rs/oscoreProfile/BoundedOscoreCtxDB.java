@@ -0,0 +1,542 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.rs.oscoreProfile;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.core.coap.Token;
+import org.eclipse.californium.oscore.CoapOSException;
+import org.eclipse.californium.oscore.HashMapCtxDB;
+import org.eclipse.californium.oscore.OSCoreCtx;
+import org.eclipse.californium.oscore.OSCoreCtxDB;
+import org.eclipse.californium.oscore.OSException;
+
+import se.sics.ace.TimeProvider;
+
+/**
+ * An OSCORE context database with a bounded number of contexts.
+ * 
+ * Contexts are removed when the access token they were established with
+ * expires (see setExpiry()), when they have not been used for longer than
+ * the idle timeout, and, least recently used first, when the capacity is 
+ * exceeded. Pinned contexts, e.g. the ones the AS has with its configured 
+ * peers, are never removed this way and do not count towards the capacity.
+ * 
+ * Expired and idle contexts are removed by scans that run at most once 
+ * per second, driven by the lookups and additions, so no extra thread is
+ * needed. A lookup never returns a context that has expired or been idle 
+ * for too long, even between two scans.
+ * 
+ * The actual storage is delegated to a Californium HashMapCtxDB. Lookups
+ * only take the lock of the tracking map briefly to record the use.
+ *
+ */
+public class BoundedOscoreCtxDB implements OSCoreCtxDB {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(BoundedOscoreCtxDB.class.getName());
+    
+    /**
+     * The default maximum number of contexts
+     */
+    public static final int DEFAULT_CAPACITY = 10000;
+    
+    /**
+     * The default idle timeout in milliseconds, 0 disables idle eviction
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 0L;
+    
+    /**
+     * The minimum time between two scans for expired contexts 
+     * in milliseconds
+     */
+    private static final long SWEEP_INTERVAL = 1000L;
+    
+    /**
+     * The number of locks to check and install contexts with
+     */
+    private static final int STRIPES = 64;
+    
+    /**
+     * The identifier of a context: its ID Context and Recipient ID
+     */
+    private static final class CtxKey {
+        
+        /**
+         * The ID Context, can be null
+         */
+        private final byte[] idContext;
+        
+        /**
+         * The Recipient ID
+         */
+        private final byte[] recipientId;
+        
+        /**
+         * Constructor.
+         * 
+         * @param ctx  the context
+         */
+        CtxKey(OSCoreCtx ctx) {
+            this.idContext = ctx.getIdContext();
+            this.recipientId = ctx.getRecipientId();
+        }
+        
+        @Override
+        public int hashCode() {
+            return 31 * Arrays.hashCode(this.idContext) 
+                    + Arrays.hashCode(this.recipientId);
+        }
+        
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof CtxKey)) {
+                return false;
+            }
+            CtxKey other = (CtxKey)o;
+            return Arrays.equals(this.idContext, other.idContext)
+                    && Arrays.equals(this.recipientId, other.recipientId);
+        }
+    }
+    
+    /**
+     * A tracked context
+     */
+    private static final class Entry {
+        
+        /**
+         * The context
+         */
+        private final OSCoreCtx ctx;
+        
+        /**
+         * The time of the last use in milliseconds
+         */
+        private long lastUsed;
+        
+        /**
+         * The time the context expires in milliseconds
+         */
+        private long expires = Long.MAX_VALUE;
+        
+        /**
+         * Constructor.
+         * 
+         * @param ctx  the context
+         * @param now  the current time in milliseconds
+         */
+        Entry(OSCoreCtx ctx, long now) {
+            this.ctx = ctx;
+            this.lastUsed = now;
+        }
+    }
+    
+    /**
+     * The actual context storage
+     */
+    private final HashMapCtxDB db = new HashMapCtxDB();
+    
+    /**
+     * The evictable contexts, in access order
+     */
+    private final LinkedHashMap<CtxKey, Entry> lru 
+        = new LinkedHashMap<>(16, 0.75f, true);
+    
+    /**
+     * The locks to check and install contexts with, by Recipient ID
+     */
+    private final Lock[] locks = new Lock[STRIPES];
+    
+    /**
+     * The maximum number of evictable contexts
+     */
+    private final int capacity;
+    
+    /**
+     * The idle timeout in milliseconds, 0 if disabled
+     */
+    private final long idleTimeout;
+    
+    /**
+     * The time provider
+     */
+    private final TimeProvider time;
+    
+    /**
+     * The time of the next scan for expired contexts
+     */
+    private long nextSweep = 0L;
+    
+    /**
+     * The number of contexts removed because their token expired
+     */
+    private final AtomicLong expiredEvictions = new AtomicLong();
+    
+    /**
+     * The number of contexts removed because they were idle
+     */
+    private final AtomicLong idleEvictions = new AtomicLong();
+    
+    /**
+     * The number of contexts removed because of the capacity
+     */
+    private final AtomicLong capacityEvictions = new AtomicLong();
+    
+    /**
+     * Constructor.
+     * 
+     * @param capacity  the maximum number of contexts that are not pinned
+     * @param idleTimeout  the time after which an unused context is 
+     *     removed in milliseconds, 0 to keep unused contexts
+     * @param time  the time provider
+     */
+    public BoundedOscoreCtxDB(int capacity, long idleTimeout, 
+            TimeProvider time) {
+        if (capacity <= 0 || idleTimeout < 0 || time == null) {
+            throw new IllegalArgumentException("Capacity must be positive,"
+                    + " idle timeout non-negative and time provider non-null");
+        }
+        this.capacity = capacity;
+        this.idleTimeout = idleTimeout;
+        this.time = time;
+        for (int i = 0; i < STRIPES; i++) {
+            this.locks[i] = new ReentrantLock();
+        }
+    }
+    
+    /**
+     * Get the lock that serializes checking for and installing contexts 
+     * with a given Recipient ID, whatever their ID Context.
+     * 
+     * @param recipientId  the Recipient ID
+     * 
+     * @return  the lock
+     */
+    public Lock getLock(byte[] recipientId) {
+        return this.locks[Math.floorMod(
+                Arrays.hashCode(recipientId), STRIPES)];
+    }
+    
+    /**
+     * Add a context that is never evicted.
+     * 
+     * @param ctx  the context
+     */
+    public void addPinnedContext(OSCoreCtx ctx) {
+        synchronized (this.lru) {
+            this.lru.remove(new CtxKey(ctx));
+            this.db.addContext(ctx);
+        }
+    }
+    
+    /**
+     * Set the time at which a context is removed, usually the expiration
+     * time of the access token it was established with.
+     * 
+     * @param ctx  the context
+     * @param expires  the expiration time in milliseconds
+     */
+    public void setExpiry(OSCoreCtx ctx, long expires) {
+        synchronized (this.lru) {
+            Entry e = this.lru.get(new CtxKey(ctx));
+            if (e != null && e.ctx == ctx) {
+                e.expires = expires;
+            }
+        }
+    }
+    
+    /**
+     * @return  a snapshot of the contexts that are not pinned with their
+     *     expiration time in milliseconds, least recently used first
+     */
+    public List<Map.Entry<OSCoreCtx, Long>> getContexts() {
+        synchronized (this.lru) {
+            List<Map.Entry<OSCoreCtx, Long>> contexts 
+                = new ArrayList<>(this.lru.size());
+            for (Entry e : this.lru.values()) {
+                contexts.add(new AbstractMap.SimpleImmutableEntry<>(
+                        e.ctx, e.expires));
+            }
+            return contexts;
+        }
+    }
+    
+    /**
+     * Remove the contexts that have expired or have been idle for too long.
+     * This is also done by the lookups and additions, at most once per 
+     * second.
+     */
+    public void purgeExpired() {
+        synchronized (this.lru) {
+            sweep(this.time.getCurrentTime());
+        }
+    }
+    
+    /**
+     * @return  the number of contexts that are not pinned
+     */
+    public int size() {
+        synchronized (this.lru) {
+            return this.lru.size();
+        }
+    }
+    
+    /**
+     * @return  the maximum number of contexts that are not pinned
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+    
+    /**
+     * @return  the number of contexts removed because their token expired
+     */
+    public long getExpiredEvictions() {
+        return this.expiredEvictions.get();
+    }
+    
+    /**
+     * @return  the number of contexts removed because they were idle
+     */
+    public long getIdleEvictions() {
+        return this.idleEvictions.get();
+    }
+    
+    /**
+     * @return  the number of contexts removed because of the capacity
+     */
+    public long getCapacityEvictions() {
+        return this.capacityEvictions.get();
+    }
+    
+    /**
+     * Remove the expired and idle contexts, the caller must hold the lock 
+     * on the tracking map.
+     * 
+     * @param now  the current time in milliseconds
+     */
+    private void sweep(long now) {
+        this.nextSweep = now + SWEEP_INTERVAL;
+        Iterator<Entry> it = this.lru.values().iterator();
+        while (it.hasNext()) {
+            Entry e = it.next();
+            if (!isStale(e, now)) {
+                continue;
+            }
+            it.remove();
+            this.db.removeContext(e.ctx);
+            LOGGER.fine("Evicted expired or idle OSCORE context");
+        }
+    }
+    
+    /**
+     * Check if a context has expired or has been idle for too long, and 
+     * count its eviction if so.
+     * 
+     * @param e  the tracked context
+     * @param now  the current time in milliseconds
+     * 
+     * @return  true if the context must be evicted
+     */
+    private boolean isStale(Entry e, long now) {
+        if (e.expires <= now) {
+            this.expiredEvictions.incrementAndGet();
+            return true;
+        }
+        if (this.idleTimeout > 0 && e.lastUsed + this.idleTimeout <= now) {
+            this.idleEvictions.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+    
+    /**
+     * Start tracking a newly added context and evict contexts if needed,
+     * the caller must hold the lock on the tracking map.
+     * 
+     * @param ctx  the context
+     */
+    private void track(OSCoreCtx ctx) {
+        long now = this.time.getCurrentTime();
+        this.lru.put(new CtxKey(ctx), new Entry(ctx, now));
+        if (now >= this.nextSweep || this.lru.size() > this.capacity) {
+            sweep(now);
+        }
+        Iterator<Entry> it = this.lru.values().iterator();
+        while (this.lru.size() > this.capacity && it.hasNext()) {
+            Entry e = it.next();
+            if (e.ctx == ctx) {
+                continue;
+            }
+            it.remove();
+            this.db.removeContext(e.ctx);
+            this.capacityEvictions.incrementAndGet();
+            LOGGER.fine("Evicted least recently used OSCORE context");
+        }
+    }
+    
+    /**
+     * Mark a context as used, and scan for expired contexts if it is time.
+     * 
+     * @param ctx  the context, can be null
+     * 
+     * @return  the context, or null if it has expired or has been idle 
+     *     for too long and was removed
+     */
+    private OSCoreCtx touch(OSCoreCtx ctx) {
+        synchronized (this.lru) {
+            long now = this.time.getCurrentTime();
+            Entry e = null;
+            if (ctx != null) {
+                CtxKey key = new CtxKey(ctx);
+                e = this.lru.get(key);
+                if (e != null && e.ctx == ctx && isStale(e, now)) {
+                    this.lru.remove(key);
+                    this.db.removeContext(ctx);
+                    LOGGER.fine("Evicted expired or idle OSCORE context");
+                    e = null;
+                    ctx = null;
+                }
+            }
+            if (now >= this.nextSweep) {
+                sweep(now);
+            }
+            if (e != null) {
+                e.lastUsed = now;
+            }
+        }
+        return ctx;
+    }
+
+    @Override
+    public OSCoreCtx getContext(byte[] cid) {
+        return touch(this.db.getContext(cid));
+    }
+
+    @Override
+    public OSCoreCtx getContext(byte[] cid, byte[] IDContext)
+            throws CoapOSException {
+        return touch(this.db.getContext(cid, IDContext));
+    }
+
+    @Override
+    public OSCoreCtx getContextByToken(Token token) {
+        return touch(this.db.getContextByToken(token));
+    }
+
+    @Override
+    public OSCoreCtx getContext(String uri) throws OSException {
+        return touch(this.db.getContext(uri));
+    }
+
+    @Override
+    public void addContext(Token token, OSCoreCtx ctx) {
+        this.db.addContext(token, ctx);
+    }
+
+    @Override
+    public void addContext(String uri, OSCoreCtx ctx) throws OSException {
+        synchronized (this.lru) {
+            this.db.addContext(uri, ctx);
+            if (ctx != null) {
+                track(ctx);
+            }
+        }
+    }
+
+    @Override
+    public void addContext(OSCoreCtx ctx) {
+        synchronized (this.lru) {
+            this.db.addContext(ctx);
+            if (ctx != null) {
+                track(ctx);
+            }
+        }
+    }
+
+    @Override
+    public void removeContext(OSCoreCtx ctx) {
+        if (ctx == null) {
+            // Already evicted
+            return;
+        }
+        synchronized (this.lru) {
+            // The storage removes by identifiers, so does the tracking
+            this.lru.remove(new CtxKey(ctx));
+            this.db.removeContext(ctx);
+        }
+    }
+
+    @Override
+    public boolean tokenExist(Token token) {
+        return this.db.tokenExist(token);
+    }
+
+    @Override
+    public void purge() {
+        synchronized (this.lru) {
+            this.lru.clear();
+        }
+        this.db.purge();
+    }
+
+    @Override
+    public void removeToken(Token token) {
+        this.db.removeToken(token);
+    }
+    
+    /**
+     * @return  a summary of the occupancy and evictions, for logging
+     */
+    public Map<String, Long> getMetrics() {
+        Map<String, Long> metrics = new LinkedHashMap<>();
+        metrics.put("size", (long)size());
+        metrics.put("capacity", (long)this.capacity);
+        metrics.put("expiredEvictions", getExpiredEvictions());
+        metrics.put("idleEvictions", getIdleEvictions());
+        metrics.put("capacityEvictions", getCapacityEvictions());
+        return metrics;
+    }
+}
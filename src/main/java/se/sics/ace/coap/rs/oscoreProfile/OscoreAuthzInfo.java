@@ -32,15 +32,14 @@
 package se.sics.ace.coap.rs.oscoreProfile;
 
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.oscore.OSCoreCtx;
-import org.eclipse.californium.oscore.OSCoreCtxDB;
 import org.eclipse.californium.oscore.OSException;
 
 import com.upokecenter.cbor.CBORObject;
@@ -49,6 +48,7 @@ import com.upokecenter.cbor.CBORType;
 import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.Message;
+import se.sics.ace.Randomness;
 import se.sics.ace.TimeProvider;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.cwt.CwtCryptoCtx;
@@ -78,9 +78,9 @@ public class OscoreAuthzInfo extends AuthzInfo {
         = Logger.getLogger(OscoreAuthzInfo.class.getName());
 
     /**
-     * Temporary storage for the CNF claim
+     * The store of the OSCORE Security Contexts, null if they are not saved
      */
-    private CBORObject cnf;
+    private final OscoreCtxStore ctxStore;
 
 	/**
 	 * Constructor.
@@ -104,12 +104,45 @@ public class OscoreAuthzInfo extends AuthzInfo {
 			ScopeValidator scopeValidator, boolean checkCnonce) 
 			        throws AceException, IOException {
 		
+		this(issuers, time, intro, rsId, audience, ctx, tokenFile, 
+		        scopeValidator, checkCnonce, null);
+	}
+	
+	/**
+	 * Constructor restoring the OSCORE Security Contexts of the stored 
+	 * access tokens.
+	 * 
+	 * @param tr  a token repository
+	 * @param issuers  the list of acceptable issuer of access tokens
+	 * @param time  the time provider
+	 * @param intro  the introspection handler (can be null)
+	 * @param rsId  the identifier of the Resource Server
+	 * @param audience  the audience validator
+	 * @param ctx  the crypto context to use with the As
+	 * @param tokenFile  the file where to save tokens when persisting
+     * @param scopeValidator  the application specific scope validator 
+	 * @param checkCnonce  true if this RS uses cnonces for freshness validation
+	 * @param ctxStore  the store of the OSCORE Security Contexts (can be null)
+	 * @throws IOException 
+	 * @throws AceException 
+	 */
+	public OscoreAuthzInfo(List<String> issuers, 
+			TimeProvider time, IntrospectionHandler intro, String rsId, 
+			AudienceValidator audience, CwtCryptoCtx ctx, String tokenFile,
+			ScopeValidator scopeValidator, boolean checkCnonce,
+			OscoreCtxStore ctxStore) throws AceException, IOException {
+		
 		super(issuers, time, intro, rsId, audience, ctx, null, 0, tokenFile, 
 		        scopeValidator, checkCnonce);
+		this.ctxStore = ctxStore;
+		if (ctxStore != null) {
+			ctxStore.load(OscoreCtxStore::hasToken);
+			ctxStore.start(OscoreCtxStore.DEFAULT_INTERVAL);
+		}
 	}
 
 	@Override
-	public synchronized Message processMessage(Message msg) {
+	public Message processMessage(Message msg) {
 	    LOGGER.log(Level.INFO, "received message: " + msg);
 	    CBORObject cbor = null;
 	    
@@ -206,7 +239,8 @@ public class OscoreAuthzInfo extends AuthzInfo {
             return reply;
         }
         
-        if (this.cnf == null) {//Should never happen, caught in TokenRepository
+        CBORObject cnf = getStoredCnf(reply);
+        if (cnf == null) {//Should never happen, caught in TokenRepository
             LOGGER.info("Missing required parameter 'cnf'");
             CBORObject map = CBORObject.NewMap();
             map.Add(Constants.ERROR, Constants.INVALID_REQUEST);
@@ -234,11 +268,11 @@ public class OscoreAuthzInfo extends AuthzInfo {
 	        
 	        byte[] n1 = nonce.GetByteString();
 	        byte[] n2 = new byte[8];
-	        new SecureRandom().nextBytes(n2);
+	        Randomness.nextBytes(n2);
 	   
 	        OscoreSecurityContext osc;
 	        try {
-	            osc = new OscoreSecurityContext(this.cnf);
+	            osc = new OscoreSecurityContext(cnf);
 	            
 	        } catch (AceException e) {
 	            CBORObject map = CBORObject.NewMap();
@@ -250,10 +284,19 @@ public class OscoreAuthzInfo extends AuthzInfo {
 	        OSCoreCtx ctx;
 	        try {
 	            ctx = osc.getContext(false, n1, n2);
+	            if (this.ctxStore != null) {
+	                // Let the context reserve its Sender Sequence Numbers
+	                ctx = this.ctxStore.track(ctx);
+	            }
+	            
+	            BoundedOscoreCtxDB db = OscoreCtxDbSingleton.getInstance();
 	            
-	            OSCoreCtxDB db = OscoreCtxDbSingleton.getInstance();
+	            long expires = Long.MAX_VALUE;
 	            
-	            synchronized(db) {
+	            // Only installs of the same Recipient ID need to be serialized
+	            Lock lock = db.getLock(recipientId);
+	            lock.lock();
+	            try {
 	            	
 	            	boolean install = true;
 					byte[] idContext = null;
@@ -288,8 +331,18 @@ public class OscoreAuthzInfo extends AuthzInfo {
 	    				install = false;
 	        		}
 	            	
-	    			if (install)
+	    			if (install) {
 	    				db.addContext(ctx);
+	    				// Remove the context when the Access Token expires
+	    				String cti = Base64.getEncoder().encodeToString(
+	    				        responseMap.get(Constants.CTI).GetByteString());
+	    				Map<Short, CBORObject> claims = TokenRepository.getInstance().getClaims(cti);
+	    				CBORObject exp = (claims == null) ? null : claims.get(Constants.EXP);
+	    				if (exp != null && exp.isNumber()) {
+	    				    expires = exp.AsNumber().ToInt64Checked();
+	    				    db.setExpiry(ctx, expires);
+	    				}
+	    			}
 	    			else {
 	    	            LOGGER.info("An OSCORE Security Context with the same Recipient ID"
 					               + " has been installed while running the OSCORE profile");
@@ -305,6 +358,19 @@ public class OscoreAuthzInfo extends AuthzInfo {
 	    	    	    }
 	    	            return msg.failReply(Message.FAIL_INTERNAL_SERVER_ERROR, null);
 	    			}
+	            } finally {
+	                lock.unlock();
+	            }
+	            
+	            // Only journal the new context, and outside the lock, the 
+	            // periodic checkpoints save the rest
+	            if (this.ctxStore != null) {
+	                try {
+	                    this.ctxStore.add(ctx, expires);
+	                } catch (AceException e) {
+	                    LOGGER.severe("Error while saving OSCORE context: " 
+	                            + e.getMessage());
+	                }
 	            }
 	            
 	        } catch (OSException e) {
@@ -327,14 +393,11 @@ public class OscoreAuthzInfo extends AuthzInfo {
         return msg.successReply(reply.getMessageCode(), payload);
 	}
 
-	@Override
-	protected synchronized void processOther(Map<Short, CBORObject> claims) {
-	    this.cnf = claims.get(Constants.CNF);
-	}
-
     @Override
     public void close() throws AceException {
-       super.close();
-        
+        if (this.ctxStore != null) {
+            this.ctxStore.close();
+        }
+        super.close();
     }	
 }
@@ -31,12 +31,14 @@
  *******************************************************************************/
 package se.sics.ace.coap.rs.oscoreProfile;
 
-import org.eclipse.californium.oscore.HashMapCtxDB;
-import org.eclipse.californium.oscore.OSCoreCtxDB;
+import se.sics.ace.examples.KissTime;
 
 /**
  * Defines an application-wide singleton for the OSCORE context database.
  * 
+ * The database is bounded, see BoundedOscoreCtxDB. Its capacity and idle
+ * timeout can be changed with configure() before it is first used.
+ * 
  * @author Ludwig Seitz
  *
  */
@@ -45,15 +47,43 @@ public class OscoreCtxDbSingleton {
     /**
      * the singleton
      */
-    private static OSCoreCtxDB singleton;
+    private static BoundedOscoreCtxDB singleton;
+    
+    /**
+     * The maximum number of contexts that are not pinned
+     */
+    private static int capacity = BoundedOscoreCtxDB.DEFAULT_CAPACITY;
     
+    /**
+     * The idle timeout of contexts in milliseconds
+     */
+    private static long idleTimeout = BoundedOscoreCtxDB.DEFAULT_IDLE_TIMEOUT;
+    
+    /**
+     * Set the bounds of the database, must be called before the first
+     * call to getInstance().
+     * 
+     * @param maxContexts  the maximum number of contexts that are not pinned
+     * @param idleMillis  the time after which an unused context is 
+     *     removed in milliseconds, 0 to keep unused contexts
+     */
+    public static synchronized void configure(int maxContexts, 
+            long idleMillis) {
+        if (singleton != null) {
+            throw new IllegalStateException(
+                    "OSCORE context database already created");
+        }
+        capacity = maxContexts;
+        idleTimeout = idleMillis;
+    }
     
     /**
      * @return  the singleton instance of the OSCORE context database
      */
-    public static OSCoreCtxDB getInstance() {
+    public static synchronized BoundedOscoreCtxDB getInstance() {
         if (singleton == null) {
-            singleton = new HashMapCtxDB();
+            singleton = new BoundedOscoreCtxDB(capacity, idleTimeout, 
+                    new KissTime());
         }
         return singleton;
     }
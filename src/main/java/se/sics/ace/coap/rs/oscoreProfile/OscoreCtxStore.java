@@ -0,0 +1,688 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.rs.oscoreProfile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+import java.util.logging.Logger;
+
+import org.eclipse.californium.cose.AlgorithmID;
+import org.eclipse.californium.oscore.OSCoreCtx;
+import org.eclipse.californium.oscore.OSException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.TimeProvider;
+import se.sics.ace.rs.TokenRepository;
+
+/**
+ * Saves the OSCORE contexts of a BoundedOscoreCtxDB in a JSON file, so 
+ * that they can be restored together with the access tokens when the RS
+ * restarts, instead of every client having to post its token again.
+ * 
+ * The file stores the input of the key derivation, the replay window and
+ * the Sender Sequence Number of each context. The Sender Sequence Number
+ * is saved ahead of its current value by the sequence number skip, and 
+ * a restored context starts from that reserved value. The replay window 
+ * is restored as of the last checkpoint or close().
+ * 
+ * A new context is appended to a journal file with add(), which is cheap 
+ * enough to do for each installed context. The next checkpoint that 
+ * writes the file includes the journaled contexts and deletes the journal.
+ * 
+ * Contexts created with track() or restored by load() also reserve more 
+ * Sender Sequence Numbers by themselves: when half of the reserved ones 
+ * are used, sending the next message first appends a new reservation to 
+ * the journal. So no nonce is reused after a crash, however many 
+ * messages are sent between two checkpoints.
+ * 
+ * NOTE: The file contains the OSCORE Master Secrets, like the token file.
+ *
+ */
+public class OscoreCtxStore implements AutoCloseable {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(OscoreCtxStore.class.getName());
+    
+    /**
+     * The default number of Sender Sequence Numbers reserved at a 
+     * checkpoint
+     */
+    public static final int DEFAULT_SEQ_SKIP = 1000;
+    
+    /**
+     * The default time between two checkpoints in milliseconds
+     */
+    public static final long DEFAULT_INTERVAL = 10000L;
+    
+    /**
+     * The state of a context at the last checkpoint
+     */
+    private static class Saved {
+        
+        /**
+         * The reserved Sender Sequence Number
+         */
+        private final int senderSeq;
+        
+        /**
+         * The lowest Recipient Sequence Number of the replay window
+         */
+        private final int lowestSeq;
+        
+        /**
+         * The replay window
+         */
+        private final int window;
+        
+        /**
+         * The expiration time of the context in milliseconds
+         */
+        private final long exp;
+        
+        /**
+         * Constructor.
+         * 
+         * @param senderSeq  the reserved Sender Sequence Number
+         * @param lowestSeq  the lowest Recipient Sequence Number
+         * @param window  the replay window
+         * @param exp  the expiration time of the context in milliseconds
+         */
+        Saved(int senderSeq, int lowestSeq, int window, long exp) {
+            this.senderSeq = senderSeq;
+            this.lowestSeq = lowestSeq;
+            this.window = window;
+            this.exp = exp;
+        }
+    }
+    
+    /**
+     * A context that reserves more Sender Sequence Numbers in its store 
+     * before it uses the ones reserved last
+     */
+    private static final class ReservingCtx extends OSCoreCtx {
+        
+        /**
+         * The store
+         */
+        private final OscoreCtxStore store;
+        
+        /**
+         * The reserved Sender Sequence Number, no number from this one 
+         * on is used before a new reservation
+         */
+        private volatile int reserved = 0;
+        
+        /**
+         * Constructor.
+         * 
+         * @param store  the store
+         * @param ms  the Master Secret
+         * @param alg  the AEAD algorithm, can be null
+         * @param sid  the Sender ID
+         * @param rid  the Recipient ID
+         * @param kdf  the key derivation function, can be null
+         * @param replaySize  the size of the replay window
+         * @param salt  the Master Salt, can be null
+         * @param idContext  the ID Context, can be null
+         * @param mus  the maximum unfragmented size
+         * 
+         * @throws OSException  if the context cannot be derived
+         */
+        ReservingCtx(OscoreCtxStore store, byte[] ms, AlgorithmID alg, 
+                byte[] sid, byte[] rid, AlgorithmID kdf, int replaySize, 
+                byte[] salt, byte[] idContext, int mus) throws OSException {
+            super(ms, false, alg, sid, rid, kdf, replaySize, salt, 
+                    idContext, mus);
+            this.store = store;
+        }
+        
+        @Override
+        public void increaseSenderSeq() throws OSException {
+            // Keep half of the skip as margin for concurrent senders
+            if (getSenderSeq() + 1 + this.store.seqSkip / 2 
+                    >= this.reserved) {
+                try {
+                    this.store.reserve(this);
+                } catch (AceException e) {
+                    throw new OSException("Cannot reserve Sender Sequence "
+                            + "Numbers: " + e.getMessage());
+                }
+            }
+            super.increaseSenderSeq();
+        }
+    }
+    
+    /**
+     * The file storing the contexts
+     */
+    private final String file;
+    
+    /**
+     * The journal of the contexts added since the last checkpoint
+     */
+    private final File journal;
+    
+    /**
+     * The context database
+     */
+    private final BoundedOscoreCtxDB db;
+    
+    /**
+     * The time provider
+     */
+    private final TimeProvider time;
+    
+    /**
+     * The number of Sender Sequence Numbers reserved at a checkpoint
+     */
+    private final int seqSkip;
+    
+    /**
+     * The state of the contexts at the last checkpoint
+     */
+    private Map<OSCoreCtx, Saved> saved = new IdentityHashMap<>();
+    
+    /**
+     * The thread running the checkpoints, null if not started
+     */
+    private ScheduledExecutorService checkpointer = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param file  the file storing the contexts, created if needed
+     * @param db  the context database
+     * @param time  the time provider
+     * @param seqSkip  the number of Sender Sequence Numbers reserved at a 
+     *     checkpoint, must be larger than the number of messages a context
+     *     sends between two checkpoints
+     */
+    public OscoreCtxStore(String file, BoundedOscoreCtxDB db, 
+            TimeProvider time, int seqSkip) {
+        if (file == null || db == null || time == null || seqSkip <= 0) {
+            throw new IllegalArgumentException("File, database and time "
+                    + "provider must be non-null, skip must be positive");
+        }
+        this.file = file;
+        this.journal = new File(file + ".journal");
+        this.db = db;
+        this.time = time;
+        this.seqSkip = seqSkip;
+    }
+    
+    /**
+     * Restore the saved contexts into the database, followed by the 
+     * journaled ones that are not in the file. Contexts that have expired 
+     * or that are rejected by the filter are dropped.
+     * 
+     * @param keep  returns true for the contexts to restore, e.g. the ones
+     *     that still have an access token, can be null to restore all
+     * 
+     * @return  the number of restored contexts
+     * @throws AceException  if the file is malformed
+     */
+    public synchronized int load(Predicate<OSCoreCtx> keep) 
+            throws AceException {
+        long now = this.time.getCurrentTime();
+        Map<String, OSCoreCtx> restored = new HashMap<>();
+        int count = 0;
+        String str = read(new File(this.file));
+        if (!str.isEmpty()) {
+            JSONArray contexts;
+            try {
+                contexts = new JSONArray(str);
+            } catch (JSONException e) {
+                throw new AceException("Cannot read OSCORE context file: " 
+                        + e.getMessage());
+            }
+            for (Object o : contexts) {
+                if (!(o instanceof JSONObject)) {
+                    throw new AceException("OSCORE context file is malformed");
+                }
+                if (restore((JSONObject)o, now, keep, restored)) {
+                    count++;
+                }
+            }
+        }
+        
+        // The journal has the contexts added since the last checkpoint and
+        // the later reservations of the restored ones. It may also still 
+        // hold entries that made it into the file, if we crashed before 
+        // deleting it, the highest reservation is the one to keep.
+        String[] lines = read(this.journal).split("\n");
+        for (int i = 0; i < lines.length; i++) {
+            if (lines[i].isEmpty()) {
+                continue;
+            }
+            JSONObject json;
+            try {
+                json = new JSONObject(lines[i]);
+                OSCoreCtx ctx = restored.get(getKey(json));
+                if (ctx != null) {
+                    reserveRestored(ctx, json.getInt("seq"));
+                    continue;
+                }
+            } catch (JSONException e) {
+                if (i == lines.length - 1) {
+                    // Torn write of the last entry, it was never confirmed
+                    LOGGER.warning("Ignoring incomplete OSCORE context "
+                            + "journal entry");
+                    continue;
+                }
+                throw new AceException("OSCORE context journal is malformed: "
+                        + e.getMessage());
+            }
+            if (restore(json, now, keep, restored)) {
+                count++;
+            }
+        }
+        LOGGER.info("Restored " + count + " OSCORE contexts");
+        
+        // The restored contexts start from their reserved numbers, reserve
+        // the next ones before any is used
+        checkpoint();
+        return count;
+    }
+    
+    /**
+     * Raise the Sender Sequence Number of a restored context to a later 
+     * reservation found in the journal.
+     * 
+     * @param ctx  the restored context
+     * @param seq  the reserved Sender Sequence Number in the journal
+     */
+    private void reserveRestored(OSCoreCtx ctx, int seq) {
+        if (seq <= ctx.getSenderSeq()) {
+            return;
+        }
+        ctx.setSenderSeq(seq);
+        Saved s = this.saved.get(ctx);
+        this.saved.put(ctx, new Saved(seq, s.lowestSeq, s.window, s.exp));
+        ((ReservingCtx)ctx).reserved = seq;
+    }
+    
+    /**
+     * Read a file of this store.
+     * 
+     * @param f  the file
+     * 
+     * @return  the content of the file, empty if it does not exist
+     * @throws AceException  if the file cannot be read
+     */
+    private static String read(File f) throws AceException {
+        if (!f.exists()) {
+            return "";
+        }
+        try {
+            return new String(Files.readAllBytes(f.toPath()), 
+                    Constants.charset);
+        } catch (IOException e) {
+            throw new AceException("Cannot read OSCORE context file: " 
+                    + e.getMessage());
+        }
+    }
+    
+    /**
+     * Restore a saved context into the database, unless it has expired or
+     * is rejected by the filter.
+     * 
+     * @param json  the JSON representation of the context
+     * @param now  the current time in milliseconds
+     * @param keep  returns true for the contexts to restore, can be null
+     * @param restored  the restored contexts by identifier, the context 
+     *     is added if it is restored
+     * 
+     * @return  true if the context was restored
+     * @throws AceException  if the context is malformed
+     */
+    private boolean restore(JSONObject json, long now, 
+            Predicate<OSCoreCtx> keep, Map<String, OSCoreCtx> restored) 
+                    throws AceException {
+        try {
+            long exp = json.getLong("exp");
+            if (exp <= now) {
+                return false;
+            }
+            ReservingCtx ctx = fromJson(json);
+            if (keep != null && !keep.test(ctx)) {
+                return false;
+            }
+            this.db.addContext(ctx);
+            this.db.setExpiry(ctx, exp);
+            this.saved.put(ctx, new Saved(ctx.getSenderSeq(),
+                    ctx.getLowestRecipientSeq(),
+                    ctx.getRecipientReplayWindow(), exp));
+            ctx.reserved = ctx.getSenderSeq();
+            restored.put(getKey(json), ctx);
+            return true;
+        } catch (JSONException | IllegalArgumentException | OSException e) {
+            throw new AceException("OSCORE context file is malformed: " 
+                    + e.getMessage());
+        }
+    }
+    
+    /**
+     * Get the identifier of a saved context.
+     * 
+     * @param json  the JSON representation of the context
+     * 
+     * @return  the ID Context and Recipient ID of the context
+     */
+    private static String getKey(JSONObject json) {
+        return json.optString("idctx") + ":" + json.getString("rid");
+    }
+    
+    /**
+     * Get a context with the same keys as a new one, that reserves more 
+     * Sender Sequence Numbers in this store before it uses the ones 
+     * reserved last. Install the returned context instead of the new one,
+     * and then add() it.
+     * 
+     * @param ctx  the new context, for the server side
+     * 
+     * @return  the context to install
+     * @throws OSException  if the context cannot be derived
+     */
+    public OSCoreCtx track(OSCoreCtx ctx) throws OSException {
+        return new ReservingCtx(this, ctx.getMasterSecret(), ctx.getAlg(),
+                ctx.getSenderId(), ctx.getRecipientId(), ctx.getKdf(), 
+                ctx.getRecipientReplaySize(), ctx.getSalt(), 
+                ctx.getIdContext(), ctx.getMaxUnfragmentedSize());
+    }
+    
+    /**
+     * Journal a newly installed context, so that it survives a crash 
+     * before the next checkpoint, without rewriting the whole file.
+     * 
+     * @param ctx  the context
+     * @param exp  the expiration time of the context in milliseconds
+     * 
+     * @throws AceException  if the journal cannot be written
+     */
+    public synchronized void add(OSCoreCtx ctx, long exp) 
+            throws AceException {
+        journal(ctx, new Saved(ctx.getSenderSeq() + this.seqSkip, 
+                ctx.getLowestRecipientSeq(), ctx.getRecipientReplayWindow(),
+                exp));
+    }
+    
+    /**
+     * Journal a new reservation of Sender Sequence Numbers for a context,
+     * if the context is saved in this store. A context that is not saved 
+     * yet is not restored after a crash, so its numbers cannot be reused.
+     * 
+     * @param ctx  the context
+     * 
+     * @throws AceException  if the journal cannot be written
+     */
+    private synchronized void reserve(ReservingCtx ctx) throws AceException {
+        Saved s = this.saved.get(ctx);
+        if (s == null) {
+            ctx.reserved = ctx.getSenderSeq() + this.seqSkip;
+            return;
+        }
+        if (ctx.getSenderSeq() + 1 + this.seqSkip / 2 < s.senderSeq) {
+            // Another thread reserved meanwhile
+            ctx.reserved = s.senderSeq;
+            return;
+        }
+        journal(ctx, new Saved(ctx.getSenderSeq() + this.seqSkip, 
+                s.lowestSeq, s.window, s.exp));
+    }
+    
+    /**
+     * Durably append the state of a context to the journal.
+     * 
+     * @param ctx  the context
+     * @param s  the state to save
+     * 
+     * @throws AceException  if the journal cannot be written
+     */
+    private void journal(OSCoreCtx ctx, Saved s) throws AceException {
+        try (FileOutputStream fos = new FileOutputStream(this.journal, true)) {
+            fos.write((toJson(ctx, s, s.exp).toString() + "\n")
+                    .getBytes(Constants.charset));
+            fos.getFD().sync();
+        } catch (JSONException | IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        this.saved.put(ctx, s);
+        if (ctx instanceof ReservingCtx) {
+            ((ReservingCtx)ctx).reserved = s.senderSeq;
+        }
+    }
+    
+    /**
+     * Check if the access token of an OSCORE Security Context is still 
+     * stored, the subject ID of the token has format IdContext:SenderID
+     * or SenderID. Use this as filter for load() on an RS.
+     * 
+     * @param ctx  the OSCORE Security Context
+     * 
+     * @return  true if the token is stored
+     */
+    public static boolean hasToken(OSCoreCtx ctx) {
+        String sid = Base64.getEncoder().encodeToString(ctx.getRecipientId());
+        byte[] idContext = ctx.getIdContext();
+        if (idContext != null && idContext.length != 0) {
+            sid = Base64.getEncoder().encodeToString(idContext) + ":" + sid;
+        }
+        return TokenRepository.getInstance().getCti(sid) != null;
+    }
+    
+    /**
+     * Save the contexts of the database, if any of them changed since the
+     * last checkpoint.
+     * 
+     * @return  true if the file was written
+     * @throws AceException  if the file cannot be written
+     */
+    public synchronized boolean checkpoint() throws AceException {
+        List<Map.Entry<OSCoreCtx, Long>> contexts = this.db.getContexts();
+        boolean dirty = contexts.size() != this.saved.size();
+        for (int i = 0; !dirty && i < contexts.size(); i++) {
+            OSCoreCtx ctx = contexts.get(i).getKey();
+            Saved s = this.saved.get(ctx);
+            dirty = s == null 
+                    || ctx.getSenderSeq() + this.seqSkip / 2 > s.senderSeq
+                    || ctx.getLowestRecipientSeq() != s.lowestSeq
+                    || ctx.getRecipientReplayWindow() != s.window;
+        }
+        if (!dirty) {
+            return false;
+        }
+        
+        Map<OSCoreCtx, Saved> newSaved = new IdentityHashMap<>();
+        JSONArray array = new JSONArray();
+        for (Map.Entry<OSCoreCtx, Long> e : contexts) {
+            OSCoreCtx ctx = e.getKey();
+            Saved s = new Saved(ctx.getSenderSeq() + this.seqSkip, 
+                    ctx.getLowestRecipientSeq(), 
+                    ctx.getRecipientReplayWindow(), e.getValue());
+            array.put(toJson(ctx, s, e.getValue()));
+            newSaved.put(ctx, s);
+        }
+        
+        // Write a temporary file first, so a crash keeps the old state
+        File tmp = new File(this.file + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false)) {
+            fos.write(array.toString().getBytes(Constants.charset));
+            fos.getFD().sync();
+        } catch (JSONException | IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), new File(this.file).toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+            // The file now has the journaled contexts
+            Files.deleteIfExists(this.journal.toPath());
+        } catch (IOException e) {
+            throw new AceException(e.getMessage());
+        }
+        this.saved = newSaved;
+        for (Map.Entry<OSCoreCtx, Saved> e : newSaved.entrySet()) {
+            if (e.getKey() instanceof ReservingCtx) {
+                ((ReservingCtx)e.getKey()).reserved = e.getValue().senderSeq;
+            }
+        }
+        return true;
+    }
+    
+    /**
+     * Start saving the contexts periodically.
+     * 
+     * @param interval  the time between two checkpoints in milliseconds
+     */
+    public synchronized void start(long interval) {
+        if (this.checkpointer != null) {
+            return;
+        }
+        this.checkpointer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "OscoreCtxStore-checkpoint");
+            t.setDaemon(true);
+            return t;
+        });
+        this.checkpointer.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (AceException e) {
+                LOGGER.severe("Saving OSCORE contexts failed: " 
+                        + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Stop the checkpoints and save the contexts a last time.
+     * 
+     * @throws AceException  if the file cannot be written
+     */
+    @Override
+    public void close() throws AceException {
+        synchronized (this) {
+            if (this.checkpointer != null) {
+                this.checkpointer.shutdownNow();
+                this.checkpointer = null;
+            }
+        }
+        checkpoint();
+    }
+    
+    /**
+     * Encode a context.
+     * 
+     * @param ctx  the context
+     * @param s  the state to save
+     * @param exp  the expiration time of the context in milliseconds
+     * 
+     * @return  the JSON representation of the context
+     */
+    private static JSONObject toJson(OSCoreCtx ctx, Saved s, long exp) {
+        Base64.Encoder enc = Base64.getEncoder();
+        JSONObject json = new JSONObject();
+        json.put("ms", enc.encodeToString(ctx.getMasterSecret()));
+        if (ctx.getSalt() != null) {
+            json.put("salt", enc.encodeToString(ctx.getSalt()));
+        }
+        if (ctx.getIdContext() != null) {
+            json.put("idctx", enc.encodeToString(ctx.getIdContext()));
+        }
+        json.put("sid", enc.encodeToString(ctx.getSenderId()));
+        json.put("rid", enc.encodeToString(ctx.getRecipientId()));
+        json.put("alg", ctx.getAlg().name());
+        if (ctx.getKdf() != null) {
+            json.put("kdf", ctx.getKdf().name());
+        }
+        json.put("replaySize", ctx.getRecipientReplaySize());
+        json.put("mus", ctx.getMaxUnfragmentedSize());
+        json.put("seq", s.senderSeq);
+        json.put("low", s.lowestSeq);
+        json.put("win", s.window);
+        json.put("exp", exp);
+        return json;
+    }
+    
+    /**
+     * Decode a context, restoring its Sender Sequence Number and its
+     * replay window.
+     * 
+     * @param json  the JSON representation of the context
+     * 
+     * @return  the context
+     * @throws OSException  if the context cannot be derived
+     */
+    private ReservingCtx fromJson(JSONObject json) throws OSException {
+        Base64.Decoder dec = Base64.getDecoder();
+        ReservingCtx ctx = new ReservingCtx(this, 
+                dec.decode(json.getString("ms")), 
+                AlgorithmID.valueOf(json.getString("alg")),
+                dec.decode(json.getString("sid")),
+                dec.decode(json.getString("rid")),
+                json.has("kdf") ? AlgorithmID.valueOf(json.getString("kdf")) 
+                        : null,
+                json.getInt("replaySize"),
+                json.has("salt") ? dec.decode(json.getString("salt")) : null,
+                json.has("idctx") ? dec.decode(json.getString("idctx")) : null,
+                json.getInt("mus"));
+        ctx.setSenderSeq(json.getInt("seq"));
+        
+        // Replaying the received numbers in order rebuilds the window
+        int low = json.getInt("low");
+        int win = json.getInt("win");
+        for (int i = 0; i < ctx.getRecipientReplaySize(); i++) {
+            if ((win >>> i & 1) != 0) {
+                ctx.checkIncomingSeq(low + i);
+            }
+        }
+        return ctx;
+    }
+}
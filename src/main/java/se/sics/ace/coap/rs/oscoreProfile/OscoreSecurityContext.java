@@ -103,6 +103,21 @@ public class OscoreSecurityContext {
      */
     private Integer replaySize;
     
+    /**
+     * The encryption algorithm as used by the OSCORE library, can be null
+     */
+    private org.eclipse.californium.cose.AlgorithmID algId;
+    
+    /**
+     * The key derivation function as used by the OSCORE library, can be null
+     */
+    private org.eclipse.californium.cose.AlgorithmID hkdfId;
+    
+    /**
+     * The Master Salt as CBOR byte string, can be null
+     */
+    private byte[] saltEncoded;
+    
     /**
      * Max unfragmented size parameter for OSCORE
      */
@@ -211,6 +226,24 @@ public class OscoreSecurityContext {
         }
         this.serverId = serverIdC.GetByteString();
         
+        // Done once here, since a context is derived for each Token POST
+        if (this.salt != null) {
+            this.saltEncoded = CBORObject.FromObject(this.salt).EncodeToBytes();
+        }
+        try {
+            if (this.alg != null) {
+                this.algId = org.eclipse.californium.cose.AlgorithmID.FromCBOR(
+                        this.alg.AsCBOR());
+            }
+            if (this.hkdf != null) {
+                this.hkdfId = org.eclipse.californium.cose.AlgorithmID.FromCBOR(
+                        this.hkdf.AsCBOR());
+            }
+        } catch (org.eclipse.californium.cose.CoseException e) {
+            LOGGER.severe("Failed conversion of alg or hkdf to create "
+                    + "OSCORE Context: " + e.getMessage());
+        }
+        
     }
     
     /**
@@ -228,27 +261,15 @@ public class OscoreSecurityContext {
         byte[] finalSalt;
         
         // The final Master Salt is the concatenation of whole CBOR byte strings
-        byte[] saltEncoded = null;
-        byte[] n1Encoded = null;
-        byte[] n2Encoded = null;
-        if (this.salt != null) {
-            CBORObject saltCBOR = CBORObject.FromObject(this.salt);
-        	saltEncoded  = saltCBOR.EncodeToBytes();
-        }
-        CBORObject n1CBOR = CBORObject.FromObject(n1);
-        CBORObject n2CBOR = CBORObject.FromObject(n2);
-        n1Encoded = n1CBOR.EncodeToBytes();
-        n2Encoded = n2CBOR.EncodeToBytes();
-        if (saltEncoded != null) {
-            finalSalt = new byte[saltEncoded.length + n1Encoded.length + n2Encoded.length];
-            System.arraycopy(saltEncoded, 0, finalSalt, 0, saltEncoded.length);
-            System.arraycopy(n1Encoded, 0, finalSalt, saltEncoded.length, n1Encoded.length);
-            System.arraycopy(n2Encoded, 0, finalSalt, saltEncoded.length + n1Encoded.length, n2Encoded.length);
-        } else {
-            finalSalt = new byte[n1Encoded.length + n2Encoded.length];
-            System.arraycopy(n1Encoded, 0, finalSalt, 0, n1Encoded.length);
-            System.arraycopy(n2Encoded, 0, finalSalt, n1Encoded.length, n2Encoded.length);
+        byte[] n1Encoded = CBORObject.FromObject(n1).EncodeToBytes();
+        byte[] n2Encoded = CBORObject.FromObject(n2).EncodeToBytes();
+        int saltLen = (this.saltEncoded != null) ? this.saltEncoded.length : 0;
+        finalSalt = new byte[saltLen + n1Encoded.length + n2Encoded.length];
+        if (this.saltEncoded != null) {
+            System.arraycopy(this.saltEncoded, 0, finalSalt, 0, saltLen);
         }
+        System.arraycopy(n1Encoded, 0, finalSalt, saltLen, n1Encoded.length);
+        System.arraycopy(n2Encoded, 0, finalSalt, saltLen + n1Encoded.length, n2Encoded.length);
                 
         if (isClient) {
         	/*
@@ -267,23 +288,8 @@ public class OscoreSecurityContext {
             recipientId = this.clientId;
         }
         
-        org.eclipse.californium.cose.AlgorithmID algId = null;
-        org.eclipse.californium.cose.AlgorithmID hkdfId = null;
-        try {
-            if(this.alg != null) {
-                algId = org.eclipse.californium.cose.AlgorithmID.FromCBOR(this.alg.AsCBOR());
-            }
-            
-            if(this.hkdf != null) {
-                hkdfId = org.eclipse.californium.cose.AlgorithmID.FromCBOR(this.hkdf.AsCBOR());
-            }
-        } catch (org.eclipse.californium.cose.CoseException e) {
-            System.err.println("Failed conversion of alg or hkdf to create OSCORE Context!");
-            e.printStackTrace();
-        }
-        
-        return new OSCoreCtx(this.ms, isClient, algId, senderId, 
-                recipientId, hkdfId, this.replaySize, finalSalt, 
+        return new OSCoreCtx(this.ms, isClient, this.algId, senderId, 
+                recipientId, this.hkdfId, this.replaySize, finalSalt, 
                 this.contextId, MAX_UNFRAGMENTED_SIZE);
     }
     
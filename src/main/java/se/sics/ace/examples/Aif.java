@@ -31,13 +31,17 @@
  *******************************************************************************/
 package se.sics.ace.examples;
 
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
 
 import se.sics.ace.AceException;
+import se.sics.ace.rs.CompiledScope;
+import se.sics.ace.rs.ScopeMatcher;
 import se.sics.ace.rs.ScopeValidator;
 
 /**
@@ -188,4 +192,22 @@ public class Aif implements ScopeValidator {
     	return isScopeMeaningful(scope);
     }
     
+    @Override
+    public ScopeMatcher compile(CBORObject scope) throws AceException {
+        if (!scope.getType().equals(CBORType.Array)) {
+            throw new AceException("scope must be a CBOR array in Aif");
+        }
+        // The AIF action set already is a bitmask of the action codes
+        Map<String, Long> actions = new HashMap<>();
+        for (int i=0; i<scope.size();i++) {
+            CBORObject scopeElement = scope.get(i);
+            if (!scopeElement.getType().equals(CBORType.Array)) {
+                throw new AceException("Invalid scope format");
+            }
+            String resource = scopeElement.get(0).AsString();
+            short action = scopeElement.get(1).AsNumber().ToInt16Checked();
+            CompiledScope.addActions(actions, resource, action & 0xFFFFL);
+        }
+        return new CompiledScope(actions);
+    }
 }
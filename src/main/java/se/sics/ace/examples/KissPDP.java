@@ -37,6 +37,8 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
 
 import se.sics.ace.AceException;
 import se.sics.ace.as.DBConnector;
@@ -46,6 +48,11 @@ import se.sics.ace.as.PDP;
  * A simple PDP implementation for test purposes. Uses static ACLs for everything.
  * This PDP backs up it's ACL's in the database.
  * 
+ * The ACLs are loaded into an in-memory index when the PDP is created and 
+ * kept up to date by the methods changing them, so that access decisions 
+ * do not need to query the database. Changes made to the ACL tables by 
+ * other means than this PDP are therefore only seen after a restart.
+ * 
  * NOTE: This PDP needs a SQL connector it won't work with other DBConnectors.
  * 
  * @author Ludwig Seitz
@@ -53,6 +60,12 @@ import se.sics.ace.as.PDP;
  */
 public class KissPDP implements PDP, AutoCloseable {
 
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(KissPDP.class.getName());
+
     private SQLConnector db = null;
     
     /**
@@ -75,10 +88,20 @@ public class KissPDP implements PDP, AutoCloseable {
      */
     public static String introspectClaimsColumn = "claimsAccess";
     
-    private PreparedStatement canToken;    
-    private PreparedStatement canIntrospect;
-    private PreparedStatement canAccess;
-    
+    /**
+     * The secondary indexes on the tables of this PDP. Access decisions are
+     * served from the in-memory ACLs, so these only cover the columns the
+     * remaining SQL paths filter on, i.e. the revocations and 
+     * getAllAccess(). Each entry lists a table followed by the indexed
+     * columns.
+     */
+    public static final String[][] indexes = {
+        {tokenTable, DBConnector.idColumn},
+        {introspectTable, DBConnector.idColumn},
+        {accessTable, DBConnector.idColumn, DBConnector.rsIdColumn,
+            DBConnector.scopeColumn},
+    };
+
     private PreparedStatement addTokenAccess;
     private PreparedStatement addIntrospectAccess;
     private PreparedStatement addAccess;
@@ -91,6 +114,34 @@ public class KissPDP implements PDP, AutoCloseable {
 
     private PreparedStatement getAllAccess;
 
+    /**
+     * The identifiers that can access the token endpoint
+     */
+    private final Set<String> tokenAcl = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The identifiers that can access the introspect endpoint, mapped to
+     * true if they also have access to the claims
+     */
+    private final Map<String, Boolean> introspectAcl 
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The client identifiers, mapped to the RS identifiers, mapped to
+     * the set of scopes the client can access on that RS. 
+     * 
+     * The bitsets are never modified once they have been put into the map, 
+     * changes replace them with a new bitset. All changes, including the
+     * matching database update, are made holding the lock of this object.
+     */
+    private final Map<String, Map<String, BitSet>> accessAcl 
+        = new ConcurrentHashMap<>();
+
+    /**
+     * The scopes mapped to their bit index in the access bitsets
+     */
+    private final Map<String, Integer> scopeBits = new ConcurrentHashMap<>();
+
 	/**
 	 * Constructor, can supply an initial configuration.
 	 * All configuration parameters that are null are expected
@@ -130,27 +181,20 @@ public class KissPDP implements PDP, AutoCloseable {
 	        throw new AceException(e.getMessage());
 	    }
 	    
-	    this.canToken = this.db.prepareStatement(
-                this.db.getAdapter().updateEngineSpecificSQL("SELECT * FROM "
-                        + tokenTable
-                        + " WHERE " + DBConnector.idColumn + "=?;"));
-	    
+	    // Indexes are only needed for performance, do not fail without them
+	    try (Connection conn = this.db.getAdapter().getDBConnection()) {
+	        for (String[] index : indexes) {
+	            String[] columns = Arrays.copyOfRange(index, 1, index.length);
+	            this.db.getAdapter().createIndex(conn, 
+	                    SQLConnector.indexName(index[0], columns), 
+	                    index[0], columns);
+	        }
+	    } catch (SQLException e) {
+	        LOGGER.warning("Could not create the PDP indexes: " 
+	                + e.getMessage());
+	    }
 	    
-        this.canIntrospect = this.db.prepareStatement(
-                this.db.getAdapter().updateEngineSpecificSQL("SELECT * FROM "
-                        + introspectTable
-                        + " WHERE " + DBConnector.idColumn + "=?;"));
-        
-        //Gets only the access of the client, the PDP sorts out the audiences
-        //and scopes
-        this.canAccess = this.db.prepareStatement(
-                this.db.getAdapter().updateEngineSpecificSQL("SELECT * FROM "
-                        + accessTable
-                        + " WHERE " + DBConnector.idColumn + "=?"
-                        + " AND " + DBConnector.rsIdColumn + "=?;"));
-        
-        
-        this.addTokenAccess = this.db.prepareStatement(
+	    this.addTokenAccess = this.db.prepareStatement(
                 this.db.getAdapter().updateEngineSpecificSQL("INSERT INTO "
                       + tokenTable + " VALUES (?);"));
         
@@ -194,6 +238,90 @@ public class KissPDP implements PDP, AutoCloseable {
                 this.db.getAdapter().updateEngineSpecificSQL("SELECT * FROM "
                         + accessTable + " WHERE "
                         + DBConnector.idColumn + "=?;"));
+        
+        loadAcls();
+	}
+	
+	/**
+	 * Load the ACLs from the database into the in-memory index.
+	 * 
+	 * @throws AceException
+	 */
+	private void loadAcls() throws AceException {
+	    try (Connection conn = this.db.getAdapter().getDBConnection();
+	         Statement stmt = conn.createStatement()) {
+	        try (ResultSet result = stmt.executeQuery(
+	                this.db.getAdapter().updateEngineSpecificSQL(
+	                        "SELECT * FROM " + tokenTable + ";"))) {
+	            while (result.next()) {
+	                this.tokenAcl.add(
+	                        result.getString(DBConnector.idColumn));
+	            }
+	        }
+	        try (ResultSet result = stmt.executeQuery(
+	                this.db.getAdapter().updateEngineSpecificSQL(
+	                        "SELECT * FROM " + introspectTable + ";"))) {
+	            while (result.next()) {
+	                this.introspectAcl.put(
+	                        result.getString(DBConnector.idColumn),
+	                        result.getBoolean(introspectClaimsColumn));
+	            }
+	        }
+	        try (ResultSet result = stmt.executeQuery(
+	                this.db.getAdapter().updateEngineSpecificSQL(
+	                        "SELECT * FROM " + accessTable + ";"))) {
+	            while (result.next()) {
+	                grant(result.getString(DBConnector.idColumn),
+	                        result.getString(DBConnector.rsIdColumn),
+	                        result.getString(DBConnector.scopeColumn));
+	            }
+	        }
+	    } catch (SQLException e) {
+	        throw new AceException(e.getMessage());
+	    }
+	}
+	
+	/**
+	 * Add a scope to the in-memory access index.
+	 * 
+	 * @param cid  the client identifier
+	 * @param rid  the RS identifier
+	 * @param scope  the scope
+	 */
+	private synchronized void grant(String cid, String rid, String scope) {
+	    Integer bit = this.scopeBits.get(scope);
+	    if (bit == null) {
+	        bit = this.scopeBits.size();
+	        this.scopeBits.put(scope, bit);
+	    }
+	    Map<String, BitSet> rsAcl = this.accessAcl.computeIfAbsent(
+	            cid, k -> new ConcurrentHashMap<>());
+	    BitSet old = rsAcl.get(rid);
+	    BitSet scopes = old == null ? new BitSet() : (BitSet)old.clone();
+	    scopes.set(bit);
+	    rsAcl.put(rid, scopes);
+	}
+	
+	/**
+	 * Remove a scope from the in-memory access index.
+	 * 
+	 * @param cid  the client identifier
+	 * @param rid  the RS identifier
+	 * @param scope  the scope
+	 */
+	private synchronized void revoke(String cid, String rid, String scope) {
+	    Integer bit = this.scopeBits.get(scope);
+	    Map<String, BitSet> rsAcl = this.accessAcl.get(cid);
+	    if (bit == null || rsAcl == null || !rsAcl.containsKey(rid)) {
+	        return;
+	    }
+	    BitSet scopes = (BitSet)rsAcl.get(rid).clone();
+	    scopes.clear(bit);
+	    if (scopes.isEmpty()) {
+	        rsAcl.remove(rid);
+	    } else {
+	        rsAcl.put(rid, scopes);
+	    }
 	}
 	
 	@Override
@@ -203,19 +331,7 @@ public class KissPDP implements PDP, AutoCloseable {
                     "canAccessToken() requires non-null clientId");
         }
 	    
-        try {
-            this.canToken.setString(1, clientId);
-            ResultSet result = this.canToken.executeQuery();
-            this.canToken.clearParameters();
-            if (result.next()) {
-                result.close();
-                return true;
-            }
-            result.close();
-        } catch (SQLException e) {
-            throw new AceException(e.getMessage());
-        }
-        return false;
+        return this.tokenAcl.contains(clientId);
 	}
 
 	@Override
@@ -224,24 +340,14 @@ public class KissPDP implements PDP, AutoCloseable {
 	            throw new AceException(
 	                    "getIntrospectAccessLevel() requires non-null rsId");
 	        }
-	        try {
-	            this.canIntrospect.setString(1, rsId);
-	            ResultSet result = this.canIntrospect.executeQuery();
-	            this.canIntrospect.clearParameters();
-	            if (result.next()) {
-	                boolean canAccessClaims = result.getBoolean(introspectClaimsColumn);
-	                result.close();
-	                if (canAccessClaims)
-                    {
-                        return IntrospectAccessLevel.ACTIVE_AND_CLAIMS;
-                    }
-                    return IntrospectAccessLevel.ACTIVE_ONLY;
-	            }
-	            result.close();
-	        } catch (SQLException e) {
-	            throw new AceException(e.getMessage());
+	        Boolean canAccessClaims = this.introspectAcl.get(rsId);
+	        if (canAccessClaims == null) {
+	            return IntrospectAccessLevel.NONE;
 	        }
-	        return IntrospectAccessLevel.NONE;
+	        if (canAccessClaims) {
+	            return IntrospectAccessLevel.ACTIVE_AND_CLAIMS;
+	        }
+	        return IntrospectAccessLevel.ACTIVE_ONLY;
 	}
 
 	@Override
@@ -262,6 +368,12 @@ public class KissPDP implements PDP, AutoCloseable {
 	                "canAccess() requires non-null scope");
 	    }
 	    
+	    Map<String, BitSet> clientACL = this.accessAcl.get(clientId);
+	    if (clientACL == null) {
+	        //The client can access nothing
+	        return null;
+	    }
+	    
 	    Set<String> rss = new HashSet<>();
         for (String audE : aud) {
             rss.addAll(this.db.getRSS(audE));
@@ -269,49 +381,19 @@ public class KissPDP implements PDP, AutoCloseable {
         if (rss.isEmpty()) {
             return null;
         }
-            
-	    Set<Set<String>> clientACL = new HashSet<>();
-	    
-	    for (String rs : rss) {
-	        Set<String> scopes = new HashSet<>();
-	        try {
-	            this.canAccess.setString(1, clientId);
-	            this.canAccess.setString(2, rs);
-	            ResultSet result = this.canAccess.executeQuery();
-	            this.canAccess.clearParameters();
-	            while (result.next()) {
-	                scopes.add(result.getString(DBConnector.scopeColumn));
-	            }
-	            result.close();
-	        } catch (SQLException e) {
-	            throw new AceException(e.getMessage());
-	        }
-	        if (scopes.isEmpty()) {
-	            //The client can access nothing on this RS
-	            return null;
-	        }
-	        clientACL.add(scopes);
-	    }
-	          
-        Set<String> scopes = null;
-        for (Set<String> rs : clientACL) {
+        
+        BitSet scopes = null;
+        for (String rs : rss) {
+            BitSet rsScopes = clientACL.get(rs);
+            if (rsScopes == null) {
+                //The client can access nothing on this RS
+                return null;
+            }
             if (scopes == null) {
-                scopes = new HashSet<>();
-                if (rs != null) {
-                    scopes.addAll(rs);
-                }
+                scopes = rsScopes;
             } else {
-                Set<String> remains = new HashSet<>(scopes);
-                for (String foo : scopes) {
-                    if (rs == null ) { 
-                        //The client can access nothing on this RS
-                        return null;
-                    }
-                    if (!rs.contains(foo)) {
-                        remains.remove(foo);
-                    }
-                }
-                scopes = remains;
+                scopes = (BitSet)scopes.clone();
+                scopes.and(rsScopes);
             }
         }
            
@@ -328,7 +410,8 @@ public class KissPDP implements PDP, AutoCloseable {
         String[] requestedScopes = scopeStr.split(" ");
         String grantedScopes = "";
         for (int i=0; i<requestedScopes.length; i++) {
-            if (scopes.contains(requestedScopes[i])) {
+            Integer bit = this.scopeBits.get(requestedScopes[i]);
+            if (bit != null && scopes.get(bit)) {
                 if (!grantedScopes.isEmpty()) {
                     grantedScopes += " ";
                 }
@@ -354,7 +437,7 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void addTokenAccess(String id) throws AceException {
+    public synchronized void addTokenAccess(String id) throws AceException {
         if (id == null) {
             throw new AceException(
                     "addTokenAccess() requires non-null id");
@@ -363,6 +446,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.addTokenAccess.setString(1, id);
             this.addTokenAccess.execute();
             this.addTokenAccess.clearParameters();
+            this.tokenAcl.add(id);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -387,7 +471,7 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void addIntrospectAccess(String id, IntrospectAccessLevel accessLevel) throws AceException {
+    public synchronized void addIntrospectAccess(String id, IntrospectAccessLevel accessLevel) throws AceException {
         if (id == null) {
             throw new AceException(
                     "addIntrospectAccess() requires non-null id");
@@ -402,6 +486,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.addIntrospectAccess.setBoolean(2, hasClaimsAccess);
             this.addIntrospectAccess.execute();
             this.addIntrospectAccess.clearParameters();
+            this.introspectAcl.put(id, hasClaimsAccess);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -416,7 +501,7 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void addAccess(String cid, String rid, String scope) 
+    public synchronized void addAccess(String cid, String rid, String scope) 
             throws AceException {
         if (cid == null) {
             throw new AceException(
@@ -438,6 +523,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.addAccess.setString(3, scope);
             this.addAccess.execute();
             this.addAccess.clearParameters();
+            grant(cid, rid, scope);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -450,7 +536,7 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void revokeTokenAccess(String id) throws AceException {
+    public synchronized void revokeTokenAccess(String id) throws AceException {
         if (id == null) {
             throw new AceException(
                     "revokeTokenAccess() requires non-null id");
@@ -459,6 +545,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.deleteTokenAccess.setString(1, id);
             this.deleteTokenAccess.execute();
             this.deleteTokenAccess.clearParameters();
+            this.tokenAcl.remove(id);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -471,7 +558,7 @@ public class KissPDP implements PDP, AutoCloseable {
      *
      * @throws AceException
      */
-    public void revokeIntrospectAccess(String id) throws AceException {
+    public synchronized void revokeIntrospectAccess(String id) throws AceException {
         if (id == null) {
             throw new AceException(
                     "revokeIntrospectAccess() requires non-null id");
@@ -480,6 +567,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.deleteIntrospectAccess.setString(1, id);
             this.deleteIntrospectAccess.execute();
             this.deleteIntrospectAccess.clearParameters();
+            this.introspectAcl.remove(id);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -494,7 +582,8 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void revokeAccess(String cid, String rid, String scope) 
+    public synchronized void revokeAccess(String cid, String rid, 
+            String scope) 
                 throws AceException {
         if (cid == null) {
             throw new AceException(
@@ -516,6 +605,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.deleteAccess.setString(3, scope);
             this.deleteAccess.execute();
             this.deleteAccess.clearParameters();
+            revoke(cid, rid, scope);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -528,7 +618,8 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void revokeAllAccess(String id) throws AceException {
+    public synchronized void revokeAllAccess(String id) 
+            throws AceException {
         if (id == null) {
             throw new AceException(
                     "revokeAllAccess() requires non-null id");
@@ -537,6 +628,7 @@ public class KissPDP implements PDP, AutoCloseable {
             this.deleteAllAccess.setString(1, id);
             this.deleteAllAccess.execute();
             this.deleteAllAccess.clearParameters();
+            this.accessAcl.remove(id);
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -550,7 +642,7 @@ public class KissPDP implements PDP, AutoCloseable {
      * 
      * @throws AceException
      */
-    public void revokeAllRsAccess(String cid, String rid) 
+    public synchronized void revokeAllRsAccess(String cid, String rid) 
             throws AceException {
         if (cid == null) {
             throw new AceException(
@@ -567,6 +659,10 @@ public class KissPDP implements PDP, AutoCloseable {
             this.deleteAllRsAccess.setString(2, rid);
             this.deleteAllRsAccess.execute();
             this.deleteAllRsAccess.clearParameters();
+            Map<String, BitSet> rsAcl = this.accessAcl.get(cid);
+            if (rsAcl != null) {
+                rsAcl.remove(rid);
+            }
         } catch (SQLException e) {
             throw new AceException(e.getMessage());
         }
@@ -44,6 +44,8 @@ import com.upokecenter.cbor.CBORType;
 
 import se.sics.ace.AceException;
 import se.sics.ace.rs.AudienceValidator;
+import se.sics.ace.rs.CompiledScope;
+import se.sics.ace.rs.ScopeMatcher;
 import se.sics.ace.rs.ScopeValidator;
 
 /**
@@ -170,4 +172,26 @@ public class KissValidator implements AudienceValidator, ScopeValidator {
     public boolean isScopeMeaningful(CBORObject scope, String aud) throws AceException {
         return isScopeMeaningful(scope);
     }
+    
+    @Override
+    public ScopeMatcher compile(CBORObject scope) throws AceException {
+        if (!scope.getType().equals(CBORType.TextString)) {
+            throw new AceException("Scope must be a String in KissValidator");
+        }
+        Map<String, Long> actions = new HashMap<>();
+        for (String subscope : scope.AsString().split(" ")) {
+            Map<String, Set<Short>> resources = this.myScopes.get(subscope);
+            if (resources == null) {
+                continue;
+            }
+            for (Map.Entry<String, Set<Short>> e : resources.entrySet()) {
+                long mask = 0L;
+                for (Short action : e.getValue()) {
+                    mask |= CompiledScope.actionBit(action);
+                }
+                CompiledScope.addActions(actions, e.getKey(), mask);
+            }
+        }
+        return new CompiledScope(actions);
+    }
 }
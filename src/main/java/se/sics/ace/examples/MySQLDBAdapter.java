@@ -33,6 +33,8 @@ package se.sics.ace.examples;
 
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.Properties;
@@ -108,7 +110,7 @@ public class MySQLDBAdapter implements SQLDBAdapter {
         String cUser = "CREATE USER IF NOT EXISTS'" + this.user
                 + "'@'localhost' IDENTIFIED BY '" + this.password
                 + "';";
-        String authzUser = "GRANT DELETE, INSERT, SELECT, UPDATE, CREATE ON "
+        String authzUser = "GRANT DELETE, INSERT, SELECT, UPDATE, CREATE, INDEX ON "
                 + this.dbName + ".* TO '" + this.user + "'@'localhost';";
 
         try (Connection adminConn = getAdminConnection(adminUser, adminPwd);
@@ -255,6 +257,7 @@ public class MySQLDBAdapter implements SQLDBAdapter {
             stmt.execute(createTokenLog);
             stmt.execute(createGrant2Cti);
             stmt.execute(createGrant2RSInfo);
+            SQLConnector.createIndexes(this, adminConn);
             adminConn.close();
             stmt.close();
         } catch (SQLException e) {
@@ -262,6 +265,40 @@ public class MySQLDBAdapter implements SQLDBAdapter {
         }
     }
 
+    @Override
+    public void createIndex(Connection conn, String index, String table,
+            String... columns) throws SQLException {
+        // MySQL does not support CREATE INDEX IF NOT EXISTS
+        String checkIndex = "SELECT 1 FROM information_schema.statistics"
+                + " WHERE table_schema=? AND table_name=? AND index_name=?;";
+        try (PreparedStatement stmt = conn.prepareStatement(checkIndex)) {
+            stmt.setString(1, this.dbName);
+            stmt.setString(2, table);
+            stmt.setString(3, index);
+            try (ResultSet result = stmt.executeQuery()) {
+                if (result.next()) {
+                    return;
+                }
+            }
+        }
+        String createIndex = "CREATE INDEX " + index + " ON "
+                + this.dbName + "." + table
+                + "(" + String.join(", ", columns) + ");";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createIndex);
+        }
+    }
+
+    @Override
+    public synchronized void createIndexes(String adminUser, String adminPwd)
+            throws AceException {
+        try (Connection adminConn = getAdminConnection(adminUser, adminPwd)) {
+            SQLConnector.createIndexes(this, adminConn);
+        } catch (SQLException e) {
+            throw new AceException(e.getMessage());
+        }
+    }
+
     @Override
     public String updateEngineSpecificSQL(String sqlQuery)
     {
@@ -0,0 +1,143 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.examples;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.upokecenter.cbor.CBORObject;
+import com.upokecenter.cbor.CBORType;
+
+import se.sics.ace.AceException;
+import se.sics.ace.rs.ResourceTrie;
+import se.sics.ace.rs.ScopeValidator;
+
+/**
+ * A scope validator for RSs with many hierarchical resources.
+ * 
+ * Scopes use the AIF format of <code>Aif</code>, a CBOR array of 
+ * [resource, actions] pairs, where the resource can be a pattern as 
+ * described in <code>ResourceTrie</code>, e.g. 
+ * <code>sensors/{@literal *}/temp</code> or <code>sensors/**</code>. 
+ * The actions are a bitmask with bit <code>n-1</code> set for the 
+ * RESTful action with the code <code>n</code> in <code>Constants</code>,
+ * i.e. GET = 1, POST = 2, PUT = 4.
+ * 
+ * Scopes are compiled into a <code>ResourceTrie</code>, so that matching
+ * takes time proportional to the depth of the resource path, regardless
+ * of the number of resources.
+ *
+ */
+public class PathScopeValidator implements ScopeValidator {
+
+    /**
+     * The resources served by the RS
+     */
+    private ResourceTrie resources;
+    
+    /**
+     * Constructor.
+     * 
+     * @param resources  the resources served by the RS
+     */
+    public PathScopeValidator(Set<String> resources) {
+        Map<String, Long> paths = new HashMap<>();
+        for (String resource : resources) {
+            paths.put(resource, 0L);
+        }
+        this.resources = new ResourceTrie(paths);
+    }
+    
+    @Override
+    public ResourceTrie compile(CBORObject scope) throws AceException {
+        if (!scope.getType().equals(CBORType.Array)) {
+            throw new AceException("Scope must be a CBOR array in PathScopeValidator");
+        }
+        Map<String, Long> patterns = new HashMap<>();
+        for (int i=0; i<scope.size();i++) {
+            CBORObject scopeElement = scope.get(i);
+            if (!scopeElement.getType().equals(CBORType.Array) 
+                    || scopeElement.size() != 2
+                    || !scopeElement.get(0).getType().equals(
+                            CBORType.TextString)
+                    || !scopeElement.get(1).isNumber()) {
+                throw new AceException("Invalid scope format");
+            }
+            String resource = scopeElement.get(0).AsString();
+            long actions = scopeElement.get(1).AsNumber().ToInt64Checked();
+            // Shift so that bit n stands for the action code n
+            Long old = patterns.get(resource);
+            patterns.put(resource, (old == null ? 0L : old) | (actions << 1));
+        }
+        return new ResourceTrie(patterns);
+    }
+    
+    @Override
+    public boolean scopeMatch(CBORObject scope, String resourceId, 
+            Object actionId) throws AceException {
+        if (!(actionId instanceof Short)) {
+            throw new AceException("actionId must be a short");
+        }
+        return compile(scope).match(resourceId, (Short)actionId);
+    }
+
+    @Override
+    public boolean scopeMatchResource(CBORObject scope, String resourceId)
+            throws AceException {
+        return compile(scope).matchResource(resourceId);
+    }
+
+    @Override
+    public boolean isScopeMeaningful(CBORObject scope) throws AceException {
+        return compile(scope).matchesAny(this.resources);
+    }
+
+    @Override
+    public boolean isScopeMeaningful(CBORObject scope, String aud)
+            throws AceException {
+        return isScopeMeaningful(scope);
+    }
+
+    @Override
+    public CBORObject getScope(String resource, short action) {
+        if (action < 1 || action > Long.SIZE) {
+            return null;
+        }
+        CBORObject scope = CBORObject.NewArray();
+        CBORObject scopeElement = CBORObject.NewArray();
+        scopeElement.Add(resource);
+        scopeElement.Add(1L << (action-1));
+        scope.Add(scopeElement);
+        return scope;
+    }
+}
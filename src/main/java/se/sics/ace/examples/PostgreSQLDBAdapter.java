@@ -217,6 +217,11 @@ public class PostgreSQLDBAdapter implements SQLDBAdapter {
                 + DBConnector.rsIdColumn + " varchar(255) NOT NULL, "
                 + DBConnector.audColumn + " varchar(255) NOT NULL);";
 
+        String createOSCOREGroupManagers = "CREATE TABLE "
+                + DBConnector.oscoreGroupManagersTable + "("
+                + DBConnector.rsIdColumn + " varchar(255) NOT NULL, "
+                + DBConnector.audColumn + " varchar(255) NOT NULL);";
+
         String createCose =  "CREATE TABLE "
                 + DBConnector.coseTable + "("
                 + DBConnector.rsIdColumn + " varchar(255) NOT NULL, "
@@ -277,6 +282,7 @@ public class PostgreSQLDBAdapter implements SQLDBAdapter {
             stmt.execute(tokenType);
             stmt.execute(createTokenTypes);
             stmt.execute(createAudiences);
+            stmt.execute(createOSCOREGroupManagers);
             stmt.execute(createCose);
             stmt.execute(createClaims);
             stmt.execute(createOldTokens);
@@ -285,6 +291,30 @@ public class PostgreSQLDBAdapter implements SQLDBAdapter {
             stmt.execute(createTokenLog);
             stmt.execute(createGrant2Cti);
             stmt.execute(createGrant2RSInfo);
+            SQLConnector.createIndexes(this, adminConn);
+        } catch (SQLException e) {
+            e.printStackTrace();
+            throw new AceException(e.getMessage());
+        }
+    }
+
+    @Override
+    public void createIndex(Connection conn, String index, String table,
+            String... columns) throws SQLException {
+        String createIndex = "CREATE INDEX IF NOT EXISTS " + index 
+                + " ON " + table + "(" + String.join(", ", columns) + ");";
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createIndex);
+        }
+    }
+
+    @Override
+    public synchronized void createIndexes(String adminUser, String adminPwd)
+            throws AceException {
+        // Like the tables, the indexes are created by the local user, 
+        // since the admin connection is not to this database.
+        try (Connection conn = getDBConnection()) {
+            SQLConnector.createIndexes(this, conn);
         } catch (SQLException e) {
             e.printStackTrace();
             throw new AceException(e.getMessage());
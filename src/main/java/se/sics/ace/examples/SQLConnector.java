@@ -35,6 +35,7 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -482,6 +483,40 @@ public class SQLConnector implements DBConnector, AutoCloseable {
      */
     protected PreparedStatement selectGrantValid;
     
+    /**
+     * The secondary indexes on the tables of this connector. Each entry
+     * lists a table followed by the indexed columns, so that the prepared
+     * SELECT statements can be answered from the index alone.
+     * Note that the tables with a primary key on the looked up columns
+     * (RSs, Clients, TokenLog by cti and AuthzGrants) need no further index.
+     */
+    public static final String[][] indexes = {
+        {DBConnector.audiencesTable, DBConnector.audColumn,
+            DBConnector.rsIdColumn},
+        {DBConnector.audiencesTable, DBConnector.rsIdColumn,
+            DBConnector.audColumn},
+        {DBConnector.oscoreGroupManagersTable, DBConnector.rsIdColumn,
+            DBConnector.audColumn},
+        {DBConnector.profilesTable, DBConnector.idColumn,
+            DBConnector.profileColumn},
+        {DBConnector.keyTypesTable, DBConnector.idColumn,
+            DBConnector.keyTypeColumn},
+        {DBConnector.scopesTable, DBConnector.rsIdColumn,
+            DBConnector.scopeColumn},
+        {DBConnector.tokenTypesTable, DBConnector.rsIdColumn,
+            DBConnector.tokenTypeColumn},
+        {DBConnector.coseTable, DBConnector.rsIdColumn,
+            DBConnector.coseColumn},
+        {DBConnector.claimsTable, DBConnector.ctiColumn,
+            DBConnector.claimNameColumn, DBConnector.claimValueColumn},
+        {DBConnector.claimsTable, DBConnector.claimNameColumn,
+            DBConnector.ctiColumn, DBConnector.claimValueColumn},
+        {DBConnector.cti2clientTable, DBConnector.clientIdColumn,
+            DBConnector.ctiColumn},
+        {DBConnector.grant2RSInfoTable, DBConnector.grantColumn,
+            DBConnector.claimNameColumn, DBConnector.claimValueColumn}
+    };
+
     /**
      * The singleton instance of this connector
      */
@@ -913,6 +948,49 @@ public class SQLConnector implements DBConnector, AutoCloseable {
         dbAdapter.createDBAndTables(adminUser, adminPwd);
 	}
 
+	/**
+	 * Create the secondary indexes missing in an existing database.
+	 * Requires the admin user password.
+	 * 
+	 * @param dbAdapter handler for engine-db specific commands
+	 * @param adminUser  the admin user name
+	 * @param adminPwd  the admin user password
+	 * @throws AceException
+	 */
+	public static void createIndexes(SQLDBAdapter dbAdapter, String adminUser, String adminPwd) throws AceException {
+		if (adminPwd == null) {
+			throw new AceException(
+					"Cannot migrate the database without the password");
+		}
+		dbAdapter.createIndexes(adminUser, adminPwd);
+	}
+
+	/**
+	 * Create the indexes listed in <code>SQLConnector.indexes</code>.
+	 * 
+	 * @param dbAdapter handler for engine-db specific commands
+	 * @param conn  the connection to use, with the privilege to create indexes
+	 * @throws SQLException
+	 */
+	public static void createIndexes(SQLDBAdapter dbAdapter, Connection conn) throws SQLException {
+		for (String[] index : SQLConnector.indexes) {
+			String[] columns = Arrays.copyOfRange(index, 1, index.length);
+			dbAdapter.createIndex(conn, indexName(index[0], columns),
+					index[0], columns);
+		}
+	}
+
+	/**
+	 * Build the name of an index from the table and the indexed columns.
+	 * 
+	 * @param table  the table name
+	 * @param columns  the indexed columns
+	 * @return  the index name
+	 */
+	public static String indexName(String table, String... columns) {
+		return "idx_" + table + "_" + String.join("_", columns);
+	}
+
 	/**
 	 * Deletes the whole database.
 	 * 
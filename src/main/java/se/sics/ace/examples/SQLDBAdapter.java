@@ -96,6 +96,28 @@ public interface SQLDBAdapter {
      */
     void wipeDB(String adminUser, String adminPwd) throws AceException;
 
+    /**
+     * Creates an index on a table, unless an index with the same name
+     * already exists.
+     * @param conn  the connection to use, with the privilege to create indexes
+     * @param index  the index name
+     * @param table  the table name
+     * @param columns  the indexed columns, in order
+     * @throws SQLException
+     */
+    void createIndex(Connection conn, String index, String table,
+            String... columns) throws SQLException;
+
+    /**
+     * Creates the secondary indexes of the tables handling authorization
+     * data that do not exist yet. This is called when creating the tables,
+     * and can be called on an existing DB to migrate it.
+     * @param adminUser  the admin user name.
+     * @param adminPwd  the admin or base password to use.
+     * @throws AceException
+     */
+    void createIndexes(String adminUser, String adminPwd) throws AceException;
+
     /**
      * Updates any SQL queries that need to be specific for each DB engine.
      * 
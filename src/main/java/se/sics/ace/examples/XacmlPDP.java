@@ -33,22 +33,55 @@ package se.sics.ace.examples;
 
 import java.io.File;
 import java.io.FilenameFilter;
+import java.io.IOException;
 import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
 
+import javax.xml.XMLConstants;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 import org.wso2.balana.PDPConfig;
+import org.wso2.balana.ParsingException;
+import org.wso2.balana.Policy;
+import org.wso2.balana.PolicySet;
 import org.wso2.balana.attr.StringAttribute;
 import org.wso2.balana.ctx.AbstractResult;
 import org.wso2.balana.ctx.Attribute;
 import org.wso2.balana.ctx.ResponseCtx;
 import org.wso2.balana.ctx.xacml3.RequestCtx;
-import org.wso2.balana.ctx.xacml3.Result;
 import org.wso2.balana.finder.PolicyFinder;
 import org.wso2.balana.finder.impl.FileBasedPolicyFinderModule;
 import org.wso2.balana.xacml3.Attributes;
+import org.xml.sax.SAXException;
 
 import se.sics.ace.AceException;
 import se.sics.ace.as.PDP;
@@ -56,12 +89,41 @@ import se.sics.ace.as.PDP;
 /**
  * A PDP that uses XACML to provide access control decisions.
  * 
+ * Decisions are cached per subject, audience and scope. The policies are
+ * indexed by the audiences their targets match, so that only the policies
+ * that can apply to the requested audience are evaluated. 
+ * 
+ * reload() loads the policies again if the content of the policy files has 
+ * changed. The new policies, their index and an empty cache are built and 
+ * then swapped in, requests in progress finish with the previous policies.
+ * Every policy file is parsed before the swap, if one of them is invalid 
+ * the previous policies stay in use.
+ * 
+ * Optionally, the policy directory is watched for changes by a background 
+ * thread that calls reload(). In that case close() must be called to stop
+ * the thread.
+ * 
  * @author Ludwig Seitz
  *
  */
-public class XacmlPDP implements PDP {
+public class XacmlPDP implements PDP, AutoCloseable {
 
-	private org.wso2.balana.PDP pdp;
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(XacmlPDP.class.getName());
+    
+    /**
+     * The default maximum number of cached decisions
+     */
+    public static final int DEFAULT_CACHE_SIZE = 10000;
+    
+    /**
+     * The time to wait for further changes after a change in the policy
+     * directory before reloading, in milliseconds
+     */
+    private static final long RELOAD_DELAY = 200L;
 
 	/**
 	 * The standard URI for listing a subject's id
@@ -93,6 +155,22 @@ public class XacmlPDP implements PDP {
 	 */
 	private static final URI ACTION_CAT =
 			URI.create("urn:oasis:names:tc:xacml:3.0:attribute-category:action");
+	
+	/**
+	 * The URI for the audience attribute
+	 */
+	private static final URI AUDIENCE_ID = URI.create("oauth2:audience");
+	
+	/**
+	 * The URI for the scope attribute
+	 */
+	private static final URI SCOPE_ID = URI.create("oauth2:scope");
+	
+	/**
+	 * The standard string-equal match function
+	 */
+	private static final String STRING_EQUAL 
+	    = "urn:oasis:names:tc:xacml:1.0:function:string-equal";
 
     /**
      * The resource identifier for the token endpoint
@@ -130,104 +208,254 @@ public class XacmlPDP implements PDP {
 	
 	private String defaultScope;
 	
+	/**
+	 * The directory the policies are loaded from
+	 */
+	private String policyDirectory;
+	
+	/**
+	 * The maximum number of cached decisions
+	 */
+	private int cacheSize;
+	
+	/**
+	 * The currently loaded policies
+	 */
+	private volatile Policies policies;
+	
+	/**
+	 * The service watching the policy directory, null if watching failed
+	 */
+	private WatchService watcher = null;
+	
 	/**
 	 * Constructor, load policy files from a directory.
 	 * 
 	 * @param defaultAud  The defaultAudience, can be null.
 	 * @param defaultScope  The default Scope, can be null.
 	 * @param policyDirectory 
+	 * @throws AceException  if a policy file cannot be loaded
 	 */
-	public XacmlPDP(String policyDirectory, String defaultAud, String defaultScope) {
+	public XacmlPDP(String policyDirectory, String defaultAud, 
+	        String defaultScope) throws AceException {
+	    this(policyDirectory, defaultAud, defaultScope, DEFAULT_CACHE_SIZE);
+	}
+	
+	/**
+	 * Constructor, load policy files from a directory.
+	 * 
+	 * @param defaultAud  The defaultAudience, can be null.
+	 * @param defaultScope  The default Scope, can be null.
+	 * @param policyDirectory 
+	 * @param cacheSize  the maximum number of cached decisions
+	 * @throws AceException  if a policy file cannot be loaded
+	 */
+	public XacmlPDP(String policyDirectory, String defaultAud, 
+	        String defaultScope, int cacheSize) throws AceException {
+	    this(policyDirectory, defaultAud, defaultScope, cacheSize, false);
+	}
+	
+	/**
+	 * Constructor, load policy files from a directory.
+	 * 
+	 * @param defaultAud  The defaultAudience, can be null.
+	 * @param defaultScope  The default Scope, can be null.
+	 * @param policyDirectory 
+	 * @param cacheSize  the maximum number of cached decisions
+	 * @param watch  if true, reload the policies when the policy directory
+	 *     changes, until close() is called
+	 * @throws AceException  if a policy file cannot be loaded
+	 */
+	public XacmlPDP(String policyDirectory, String defaultAud, 
+	        String defaultScope, int cacheSize, boolean watch) 
+	                throws AceException {
 		this.defaultAud = defaultAud == null ? "" : defaultAud;
 		this.defaultScope = defaultScope == null ? "" : defaultScope;
-		Set<String> fileNames 
-			= getFilesInFolder(policyDirectory, ".xml");
-		PolicyFinder pf = new PolicyFinder();
-		FileBasedPolicyFinderModule  pfm 
-			= new FileBasedPolicyFinderModule(fileNames);
-		pf.setModules(Collections.singleton(pfm));
-		pfm.init(pf);
-		this.pdp = new org.wso2.balana.PDP(new PDPConfig(null, pf, null));
+		this.policyDirectory = policyDirectory;
+		this.cacheSize = cacheSize;
+		this.policies = loadPolicies();
+		if (watch) {
+		    startWatcher();
+		}
+	}
+	
+	/**
+	 * Reload the policies from the policy directory if their content has 
+	 * changed. This also clears the decision cache. The current policies 
+	 * stay in use until the new ones are loaded, and are kept if any of 
+	 * the policy files cannot be loaded.
+	 * 
+	 * @return  true if new policies are in use
+	 */
+	public synchronized boolean reload() {
+	    try {
+	        Set<String> fileNames 
+	            = getFilesInFolder(this.policyDirectory, ".xml");
+	        if (fingerprint(fileNames).equals(this.policies.fingerprint)) {
+	            return false;
+	        }
+	        this.policies = loadPolicies();
+	        LOGGER.info("Reloaded policies from " + this.policyDirectory);
+	        return true;
+	    } catch (AceException | RuntimeException e) {
+	        LOGGER.severe("Reloading policies failed, keeping the previous "
+	                + "ones: " + e.getMessage());
+	        return false;
+	    }
+	}
+	
+	/**
+	 * Get the current policies.
+	 * 
+	 * @return  the current policies
+	 */
+	private Policies current() {
+	    return this.policies;
+	}
+	
+	/**
+	 * Start a daemon thread that reloads the policies when the policy
+	 * directory changes.
+	 */
+	private void startWatcher() {
+	    Path dir = Paths.get(this.policyDirectory);
+	    try {
+	        this.watcher = FileSystems.getDefault().newWatchService();
+	        dir.register(this.watcher, 
+	                StandardWatchEventKinds.ENTRY_CREATE,
+	                StandardWatchEventKinds.ENTRY_DELETE,
+	                StandardWatchEventKinds.ENTRY_MODIFY);
+	    } catch (IOException e) {
+	        LOGGER.warning("Cannot watch " + this.policyDirectory 
+	                + ", policies are only reloaded by reload(): " 
+	                + e.getMessage());
+	        this.watcher = null;
+	        return;
+	    }
+	    final WatchService ws = this.watcher;
+	    Thread t = new Thread(new Runnable() {
+	        @Override
+	        public void run() {
+	            watch(ws);
+	        }
+	    }, "XacmlPDP policy watcher");
+	    t.setDaemon(true);
+	    t.start();
+	}
+	
+	/**
+	 * Wait for changes of policy files and reload the policies, until
+	 * the watch service is closed.
+	 * 
+	 * @param ws  the watch service
+	 */
+	private void watch(WatchService ws) {
+	    try {
+	        while (true) {
+	            WatchKey key = ws.take();
+	            boolean changed = isPolicyChange(key);
+	            key.reset();
+	            if (!changed) {
+	                continue;
+	            }
+	            // Collect the further events of an update in progress
+	            while ((key = ws.poll(RELOAD_DELAY, 
+	                    TimeUnit.MILLISECONDS)) 
+	                    != null) {
+	                isPolicyChange(key);
+	                key.reset();
+	            }
+	            reload();
+	        }
+	    } catch (InterruptedException | ClosedWatchServiceException e) {
+	        // Stop watching
+	    }
+	}
+	
+	/**
+	 * Check if the events of a watch key concern a policy file.
+	 * 
+	 * @param key  the watch key
+	 * @return  true if a policy file changed
+	 */
+	private static boolean isPolicyChange(WatchKey key) {
+	    boolean changed = false;
+	    for (WatchEvent<?> event : key.pollEvents()) {
+	        if (event.kind() == StandardWatchEventKinds.OVERFLOW
+	                || event.context().toString().endsWith(".xml")) {
+	            changed = true;
+	        }
+	    }
+	    return changed;
+	}
+	
+	@Override
+	public void close() throws IOException {
+	    if (this.watcher != null) {
+	        this.watcher.close();
+	    }
 	}
 	
 	@Override
 	public boolean canAccessToken(String clientId) {
-		Set<Attributes> attributes = new HashSet<>();
-		attributes.add(tokenResource);
-		StringAttribute subjectAV = new StringAttribute(clientId);
-		Attribute subject = new Attribute(SUBJECT_ID, null, null, subjectAV, 0);
-		Attributes subjectCat = new Attributes(
-				SUBJECT_CAT, Collections.singleton(subject));
-		attributes.add(subjectCat);
-		RequestCtx req = new RequestCtx(attributes, null);
-		ResponseCtx res = this.pdp.evaluate(req);
-		Iterator<AbstractResult> results = res.getResults().iterator();
-        while (results.hasNext()) {
-        	AbstractResult result = results.next();
-        	if (result.getDecision() != AbstractResult.DECISION_PERMIT) {
-        		return false;
-        	}
-        }
-        return true;
+	    Policies p = current();
+	    List<Object> key = Arrays.asList("token", clientId);
+	    Integer decision = p.decisions.get(key);
+	    if (decision == null) {
+	        Set<Attributes> attributes = new HashSet<>();
+	        attributes.add(tokenResource);
+	        StringAttribute subjectAV = new StringAttribute(clientId);
+	        Attribute subject = new Attribute(SUBJECT_ID, null, null, subjectAV, 0);
+	        Attributes subjectCat = new Attributes(
+	                SUBJECT_CAT, Collections.singleton(subject));
+	        attributes.add(subjectCat);
+	        decision = evaluate(p.unscoped, attributes);
+	        p.decisions.put(key, decision);
+	    }
+	    return decision == AbstractResult.DECISION_PERMIT;
 	}
 
 	@Override
 	public IntrospectAccessLevel getIntrospectAccessLevel(String rsId) {
-		Set<Attributes> attributes = new HashSet<>();
-		attributes.add(introspectResource);
-		StringAttribute subjectAV = new StringAttribute(rsId);
-		Attribute subject = new Attribute(SUBJECT_ID, null, null, subjectAV, 0);
-		Attributes subjectCat = new Attributes(
-				SUBJECT_CAT, Collections.singleton(subject));
-		attributes.add(subjectCat);
-		RequestCtx req = new RequestCtx(attributes, null);
-		ResponseCtx res = this.pdp.evaluate(req);
-		Iterator<AbstractResult> results = res.getResults().iterator();
-        while (results.hasNext()) {
-        	AbstractResult result = results.next();
-        	if (result.getDecision() != AbstractResult.DECISION_PERMIT) {
-        		return IntrospectAccessLevel.NONE;
-        	}
-        }
-        return IntrospectAccessLevel.ACTIVE_AND_CLAIMS;
+	    Policies p = current();
+	    List<Object> key = Arrays.asList("introspect", rsId);
+	    Integer decision = p.decisions.get(key);
+	    if (decision == null) {
+	        Set<Attributes> attributes = new HashSet<>();
+	        attributes.add(introspectResource);
+	        StringAttribute subjectAV = new StringAttribute(rsId);
+	        Attribute subject = new Attribute(SUBJECT_ID, null, null, subjectAV, 0);
+	        Attributes subjectCat = new Attributes(
+	                SUBJECT_CAT, Collections.singleton(subject));
+	        attributes.add(subjectCat);
+	        decision = evaluate(p.unscoped, attributes);
+	        p.decisions.put(key, decision);
+	    }
+	    if (decision != AbstractResult.DECISION_PERMIT) {
+	        return IntrospectAccessLevel.NONE;
+	    }
+	    return IntrospectAccessLevel.ACTIVE_AND_CLAIMS;
 	}
 
 	@Override
 	public String canAccess(String clientId, Set<String> aud, Object scopes) 
 			throws AceException {
-		Set<Attributes> attributes = new HashSet<>();
-		StringAttribute subjectAV = new StringAttribute(clientId);
-		Attribute subject 
-			= new Attribute(SUBJECT_ID, null, null, subjectAV, false, 0);
-		Attributes subjectCat = new Attributes(
-				SUBJECT_CAT, Collections.singleton(subject));
-		attributes.add(subjectCat);
-		
-		Set<String> audSet = new HashSet<>();
+		Set<String> audSet = new TreeSet<>();
 		if (aud == null || aud.isEmpty()) {
 			if (this.defaultAud.isEmpty()) {
 				return null;
 			}
 			audSet.add(this.defaultAud);
+		} else {
+		    audSet.addAll(aud);
 		}
-		
-		HashSet<Attribute> resources = new HashSet<>();
-		for (String audE : audSet) {
-		    StringAttribute audAV = new StringAttribute(audE);
-		    Attribute audA = new Attribute(URI.create("oauth2:audience"), 
-		            null, null, audAV, false, 0);
-		    resources.add(audA);
-		}
-		Attributes resourceCat = new Attributes(
-				RESOURCE_CAT, resources);
-		attributes.add(resourceCat);
       
 		String scopeStr;
         if (scopes instanceof String) {
             scopeStr = (String)scopes;
         } else {
             throw new AceException(
-                    "KissPDP does not support non-String scopes");
+                    "XacmlPDP does not support non-String scopes");
         }
 		if (scopeStr.isEmpty()) {
 			if (this.defaultScope.isEmpty()) {
@@ -236,54 +464,279 @@ public class XacmlPDP implements PDP {
 			scopeStr = this.defaultScope;
 		}
 		
+		Policies p = current();
+		org.wso2.balana.PDP pdp = p.all;
+		if (audSet.size() == 1) {
+		    pdp = p.byAudience.getOrDefault(
+		            audSet.iterator().next(), p.unscoped);
+		}
+		// The audiences themselves, not a string of them that two different
+		// sets can share
+		List<String> audKey = Collections.unmodifiableList(
+		        new ArrayList<>(audSet));
 		
+		Attributes subjectCat = null;
+		Attributes resourceCat = null;
+		String allowedScopes = "";
 		String[] scopeArray = scopeStr.split(" ");
 		for (int i=0; i<scopeArray.length; i++) {
-			String scope = scopeArray[i];			
-			StringAttribute scopeAV = new StringAttribute(scope);
-			Attribute scopeA = new Attribute(
-					URI.create("oauth2:scope"), null, null, scopeAV, 
-					true, 0);
-			Attributes actionCat = new Attributes(
-					ACTION_CAT, Collections.singleton(scopeA));
-			attributes.add(actionCat);
+			String scope = scopeArray[i];
+			List<Object> key = Arrays.asList("scope", clientId, audKey, scope);
+			Integer decision = p.decisions.get(key);
+			if (decision == null) {
+			    if (subjectCat == null) {
+			        StringAttribute subjectAV = new StringAttribute(clientId);
+			        Attribute subject = new Attribute(
+			                SUBJECT_ID, null, null, subjectAV, false, 0);
+			        subjectCat = new Attributes(
+			                SUBJECT_CAT, Collections.singleton(subject));
+			        Set<Attribute> resources = new HashSet<>();
+			        for (String audE : audSet) {
+			            StringAttribute audAV = new StringAttribute(audE);
+			            resources.add(new Attribute(AUDIENCE_ID, 
+			                    null, null, audAV, false, 0));
+			        }
+			        resourceCat = new Attributes(RESOURCE_CAT, resources);
+			    }
+			    Set<Attributes> attributes = new HashSet<>();
+			    attributes.add(subjectCat);
+			    attributes.add(resourceCat);
+			    StringAttribute scopeAV = new StringAttribute(scope);
+			    Attribute scopeA = new Attribute(
+			            SCOPE_ID, null, null, scopeAV, true, 0);
+			    attributes.add(new Attributes(
+			            ACTION_CAT, Collections.singleton(scopeA)));
+			    decision = evaluate(pdp, attributes);
+			    p.decisions.put(key, decision);
+			}
+			if (decision == AbstractResult.DECISION_PERMIT) {
+			    if (!allowedScopes.isEmpty()) {
+			        allowedScopes += " "; //Add delimiter
+			    }
+			    allowedScopes += scope;
+			}
 		}
-		
-		RequestCtx req = new RequestCtx(attributes, null);
-		ResponseCtx res = this.pdp.evaluate(req);
-		Iterator<AbstractResult> results = res.getResults().iterator();
-	
-		String allowedScopes = "";
-        while (results.hasNext()) {
-        	AbstractResult aResult = results.next();
-        	if (!(aResult instanceof Result)) {
-        		throw new AceException(
-        				"Received XAML 2 Result when expecting XACML 3");		
-        	}
-        	Result result = (Result)aResult;
-        	
-        	if (result.getDecision() != AbstractResult.DECISION_PERMIT) {
-        		for (Attributes as : result.getAttributes()) {
-        			//Only interested in the action category
-        			if (as.getCategory().equals(ACTION_CAT)) {
-        				for (Attribute a : as.getAttributes()) {
-        					//Only interested in the scope
-        					if (a.getId().equals(URI.create("oauth2:scope"))) {
-        						if (!allowedScopes.isEmpty()) {
-        							allowedScopes += " "; //Add delimiter
-        						}
-        						allowedScopes += a.getValue().encode();
-        					}
-        				}
-        			}
-        		}
-        	}
-        }
         if (allowedScopes.isEmpty()) {
         	return null;
         }
         return allowedScopes;
 	}
+	
+	/**
+	 * Evaluate a request.
+	 * 
+	 * @param pdp  the Balana PDP to use
+	 * @param attributes  the attributes of the request
+	 * @return  DECISION_PERMIT if all results permit, the decision of the
+	 *     first other result otherwise
+	 */
+	private static int evaluate(org.wso2.balana.PDP pdp, 
+	        Set<Attributes> attributes) {
+	    RequestCtx req = new RequestCtx(attributes, null);
+	    ResponseCtx res = pdp.evaluate(req);
+	    Iterator<AbstractResult> results = res.getResults().iterator();
+	    while (results.hasNext()) {
+	        AbstractResult result = results.next();
+	        if (result.getDecision() != AbstractResult.DECISION_PERMIT) {
+	            return result.getDecision();
+	        }
+	    }
+	    return AbstractResult.DECISION_PERMIT;
+	}
+	
+	/**
+	 * Load the policy files from the policy directory and index them
+	 * by the audiences their targets match.
+	 * 
+	 * @return  the loaded policies
+	 * @throws AceException  if a policy file is not a valid policy, or the
+	 *     policy files changed while they were loaded
+	 */
+	private Policies loadPolicies() throws AceException {
+	    Set<String> fileNames 
+	        = getFilesInFolder(this.policyDirectory, ".xml");
+	    String fingerprint = fingerprint(fileNames);
+	    Set<String> unscopedFiles = new HashSet<>();
+	    Map<String, Set<String>> audienceFiles = new HashMap<>();
+	    for (String fileName : fileNames) {
+	        // Balana skips the files it cannot parse, check them first
+	        Element root = parsePolicy(fileName);
+	        Set<String> auds = getTargetAudiences(root);
+	        if (auds == null) {
+	            unscopedFiles.add(fileName);
+	        } else {
+	            for (String audE : auds) {
+	                audienceFiles.computeIfAbsent(
+	                        audE, k -> new HashSet<>()).add(fileName);
+	            }
+	        }
+	    }
+	    Map<String, org.wso2.balana.PDP> byAudience = new HashMap<>();
+	    for (Map.Entry<String, Set<String>> e : audienceFiles.entrySet()) {
+	        e.getValue().addAll(unscopedFiles);
+	        byAudience.put(e.getKey(), buildPDP(e.getValue()));
+	    }
+	    Policies loaded = new Policies(fingerprint, buildPDP(fileNames), 
+	            buildPDP(unscopedFiles), byAudience, this.cacheSize);
+	    // Balana reads the files again, make sure it read the checked ones
+	    if (!fingerprint.equals(fingerprint(fileNames))) {
+	        throw new AceException("Policy files in " + this.policyDirectory 
+	                + " changed while loading");
+	    }
+	    return loaded;
+	}
+	
+	/**
+	 * Parse a policy file and check that it is a valid XACML policy or 
+	 * policy set.
+	 * 
+	 * @param fileName  the policy file
+	 * @return  the root element of the policy
+	 * @throws AceException  if the file is not a valid policy
+	 */
+	private static Element parsePolicy(String fileName) throws AceException {
+	    try {
+	        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+	        dbf.setNamespaceAware(true);
+	        dbf.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+	        Element root = dbf.newDocumentBuilder().parse(
+	                new File(fileName)).getDocumentElement();
+	        if ("Policy".equals(root.getLocalName())) {
+	            Policy.getInstance(root);
+	        } else if ("PolicySet".equals(root.getLocalName())) {
+	            PolicySet.getInstance(root, new PolicyFinder());
+	        } else {
+	            throw new AceException("Unknown root element " 
+	                    + root.getLocalName() + " in policy " + fileName);
+	        }
+	        return root;
+	    } catch (ParserConfigurationException | SAXException | IOException 
+	            | ParsingException e) {
+	        throw new AceException("Invalid policy " + fileName + ": " 
+	                + e.getMessage());
+	    } catch (RuntimeException e) {
+	        // Balana fails this way on some missing attributes
+	        throw new AceException("Invalid policy " + fileName + ": " 
+	                + e.toString());
+	    }
+	}
+	
+	/**
+	 * Create a Balana PDP for a set of policy files.
+	 * 
+	 * @param fileNames  the policy files
+	 * @return  the Balana PDP
+	 */
+	private static org.wso2.balana.PDP buildPDP(Set<String> fileNames) {
+	    PolicyFinder pf = new PolicyFinder();
+	    FileBasedPolicyFinderModule  pfm 
+	        = new FileBasedPolicyFinderModule(fileNames);
+	    pf.setModules(Collections.singleton(pfm));
+	    pfm.init(pf);
+	    return new org.wso2.balana.PDP(new PDPConfig(null, pf, null));
+	}
+	
+	/**
+	 * Get the audiences a policy is restricted to by its target. 
+	 * A policy is restricted if one AnyOf element of its target only 
+	 * contains AllOf elements that require the audience to be equal to 
+	 * a given value.
+	 * 
+	 * @param root  the root element of the policy
+	 * @return  the audiences or null if the policy is not restricted
+	 */
+	private static Set<String> getTargetAudiences(Element root) {
+	    for (Element target : getChildren(root, "Target")) {
+	        for (Element anyOf : getChildren(target, "AnyOf")) {
+	            Set<String> auds = new HashSet<>();
+	            for (Element allOf : getChildren(anyOf, "AllOf")) {
+	                String audE = getAudienceMatch(allOf);
+	                if (audE == null) {
+	                    auds = null;
+	                    break;
+	                }
+	                auds.add(audE);
+	            }
+	            if (auds != null && !auds.isEmpty()) {
+	                return auds;
+	            }
+	        }
+	    }
+	    return null;
+	}
+	
+	/**
+	 * Get the audience an AllOf element requires.
+	 * 
+	 * @param allOf  the AllOf element
+	 * @return  the audience or null if the AllOf does not require one
+	 */
+	private static String getAudienceMatch(Element allOf) {
+	    for (Element match : getChildren(allOf, "Match")) {
+	        if (!STRING_EQUAL.equals(match.getAttribute("MatchId"))) {
+	            continue;
+	        }
+	        List<Element> values = getChildren(match, "AttributeValue");
+	        List<Element> designators 
+	            = getChildren(match, "AttributeDesignator");
+	        if (values.size() != 1 || designators.size() != 1) {
+	            continue;
+	        }
+	        Element designator = designators.get(0);
+	        if (AUDIENCE_ID.toString().equals(
+	                designator.getAttribute("AttributeId"))
+	            && RESOURCE_CAT.toString().equals(
+	                    designator.getAttribute("Category"))) {
+	            return values.get(0).getTextContent().trim();
+	        }
+	    }
+	    return null;
+	}
+	
+	/**
+	 * Get the child elements with a given local name.
+	 * 
+	 * @param parent  the parent element
+	 * @param localName  the local name
+	 * @return  the child elements
+	 */
+	private static List<Element> getChildren(Element parent, 
+	        String localName) {
+	    List<Element> children = new ArrayList<>();
+	    for (Node n = parent.getFirstChild(); n != null; 
+	            n = n.getNextSibling()) {
+	        if (n instanceof Element && localName.equals(n.getLocalName())) {
+	            children.add((Element)n);
+	        }
+	    }
+	    return children;
+	}
+	
+	/**
+	 * Compute a hash over the names and the content of the policy files.
+	 * 
+	 * @param fileNames  the policy files
+	 * @return  the fingerprint
+	 * @throws AceException  if a policy file cannot be read
+	 */
+	private static String fingerprint(Set<String> fileNames) 
+	        throws AceException {
+	    try {
+	        MessageDigest md = MessageDigest.getInstance("SHA-256");
+	        for (String fileName : new TreeSet<>(fileNames)) {
+	            md.update(fileName.getBytes(StandardCharsets.UTF_8));
+	            md.update((byte)0);
+	            byte[] content = Files.readAllBytes(Paths.get(fileName));
+	            md.update(ByteBuffer.allocate(8).putLong(
+	                    content.length).array());
+	            md.update(content);
+	        }
+	        return Base64.getEncoder().encodeToString(md.digest());
+	    } catch (NoSuchAlgorithmException | IOException e) {
+	        throw new AceException("Cannot read the policies in " 
+	                + fileNames + ": " + e.getMessage());
+	    }
+	}
 
 	/**
 	 * Get the files from a directory (optionally specifying the desired
@@ -314,4 +767,55 @@ public class XacmlPDP implements PDP {
 		}
 		return result;
 	}
+	
+	/**
+	 * A set of loaded policies, indexed by audience, together with 
+	 * the decisions cached for them.
+	 */
+	private static final class Policies {
+	    
+	    /**
+	     * The fingerprint of the policy files
+	     */
+	    final String fingerprint;
+	    
+	    /**
+	     * The PDP evaluating all policies
+	     */
+	    final org.wso2.balana.PDP all;
+	    
+	    /**
+	     * The PDP evaluating the policies not restricted to an audience
+	     */
+	    final org.wso2.balana.PDP unscoped;
+	    
+	    /**
+	     * The PDPs evaluating the policies that apply to an audience
+	     */
+	    final Map<String, org.wso2.balana.PDP> byAudience;
+	    
+	    /**
+	     * The cached decisions, least recently used are evicted first
+	     */
+	    final Map<List<Object>, Integer> decisions;
+	    
+	    Policies(String fingerprint, org.wso2.balana.PDP all, 
+	            org.wso2.balana.PDP unscoped, 
+	            Map<String, org.wso2.balana.PDP> byAudience, 
+	            final int cacheSize) {
+	        this.fingerprint = fingerprint;
+	        this.all = all;
+	        this.unscoped = unscoped;
+	        this.byAudience = byAudience;
+	        this.decisions = Collections.synchronizedMap(
+	                new LinkedHashMap<List<Object>, Integer>(16, 0.75f, true) {
+	                    private static final long serialVersionUID = 1L;
+	                    @Override
+	                    protected boolean removeEldestEntry(
+	                            Map.Entry<List<Object>, Integer> eldest) {
+	                        return size() > cacheSize;
+	                    }
+	                });
+	    }
+	}
 }
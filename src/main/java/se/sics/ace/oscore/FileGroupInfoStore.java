@@ -0,0 +1,498 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+
+/**
+ * A GroupInfoStore keeping the groups in a snapshot file and a journal.
+ * 
+ * Each flush appends the full status of the groups changed since the last
+ * flush to the journal, so the cost of a write depends on the groups that
+ * changed and not on the number of groups. When the journal has more 
+ * records than the compaction threshold and than there are groups, the 
+ * last saved status of each group is written to a new snapshot, which 
+ * atomically replaces the old one, and the journal is emptied. On startup 
+ * the snapshot is read and then the journal is replayed on top of it.
+ * 
+ * By default changes are saved on flush(), periodically after start() and 
+ * on close(), and changes made after the last flush are lost on a crash. 
+ * In write-through mode each change, e.g. a member joining or leaving or 
+ * a rekeying, is instead durably appended to the journal before the 
+ * changing method of GroupInfo returns. This costs an encoding of the 
+ * group and a sync of the journal for every change, and it delays other 
+ * threads using the same group meanwhile.
+ * 
+ * NOTE: The files contain the OSCORE Master Secrets and the private key
+ * of the Group Manager.
+ *
+ */
+public class FileGroupInfoStore implements GroupInfoStore {
+    
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(FileGroupInfoStore.class.getName());
+    
+    /**
+     * The default number of journal records that triggers a compaction
+     */
+    public static final int DEFAULT_COMPACT_RECORDS = 1000;
+    
+    /**
+     * The record types used in the snapshot and the journal
+     */
+    private static final String OP_GROUP = "group";
+    private static final String OP_REMOVE = "remove";
+    
+    /**
+     * The snapshot file
+     */
+    private final File snapshotFile;
+    
+    /**
+     * The journal file
+     */
+    private final File journalFile;
+    
+    /**
+     * The number of journal records that triggers a compaction
+     */
+    private final int compactRecords;
+    
+    /**
+     * True if each change is saved by changed() right away
+     */
+    private final boolean writeThrough;
+    
+    /**
+     * The stream appending records to the journal file
+     */
+    private FileOutputStream journal = null;
+    
+    /**
+     * The number of records in the journal file
+     */
+    private int journalRecords = 0;
+    
+    /**
+     * The last saved status of each group, encoded Base64
+     */
+    private final Map<String, String> saved = new HashMap<>();
+    
+    /**
+     * The encoded status of the groups that write-through could not save,
+     * retried at the next flush
+     */
+    private final Map<String, String> pending = new LinkedHashMap<>();
+    
+    /**
+     * The groups changed since the last flush, guarded by itself
+     */
+    private Map<String, GroupInfo> dirty = new LinkedHashMap<>();
+    
+    /**
+     * The restored groups, null before load()
+     */
+    private GroupInfoMap groups = null;
+    
+    /**
+     * The executor running the periodic flushes, null if not started
+     */
+    private ScheduledExecutorService flusher = null;
+    
+    /**
+     * Constructor.
+     * 
+     * @param file  the path of the snapshot file, the journal is this 
+     *     path with the suffix .journal
+     */
+    public FileGroupInfoStore(String file) {
+        this(file, DEFAULT_COMPACT_RECORDS);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param file  the path of the snapshot file, the journal is this 
+     *     path with the suffix .journal
+     * @param compactRecords  the number of journal records that triggers 
+     *     a compaction
+     */
+    public FileGroupInfoStore(String file, int compactRecords) {
+        this(file, compactRecords, false);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param file  the path of the snapshot file, the journal is this 
+     *     path with the suffix .journal
+     * @param compactRecords  the number of journal records that triggers 
+     *     a compaction
+     * @param writeThrough  true to save each change right away, false to 
+     *     save the changed groups on flush()
+     */
+    public FileGroupInfoStore(String file, int compactRecords, 
+            boolean writeThrough) {
+        if (file == null || compactRecords <= 0) {
+            throw new IllegalArgumentException("File must be non-null, "
+                    + "compaction threshold must be positive");
+        }
+        this.snapshotFile = new File(file);
+        this.journalFile = new File(file + ".journal");
+        this.compactRecords = compactRecords;
+        this.writeThrough = writeThrough;
+    }
+    
+    @Override
+    public synchronized Map<String, GroupInfo> load() throws AceException {
+        if (this.groups != null) {
+            return this.groups;
+        }
+        replay(this.snapshotFile);
+        replay(this.journalFile);
+        
+        GroupInfoMap map = new GroupInfoMap(this);
+        for (String state : this.saved.values()) {
+            map.restore(GroupInfo.fromCBOR(CBORObject.DecodeFromBytes(
+                    Base64.getDecoder().decode(state))));
+        }
+        // Start from a compact snapshot and an empty journal
+        compact();
+        this.groups = map;
+        LOGGER.info("Restored " + map.size() + " OSCORE groups");
+        return map;
+    }
+    
+    /**
+     * Apply the records of a file to the saved status of the groups.
+     * 
+     * @param file  the snapshot or the journal file
+     * 
+     * @throws AceException  if the file cannot be read
+     */
+    private void replay(File file) throws AceException {
+        if (!file.exists()) {
+            return;
+        }
+        String str;
+        try {
+            str = new String(Files.readAllBytes(file.toPath()), 
+                    Constants.charset);
+        } catch (IOException e) {
+            throw new AceException("Cannot read OSCORE group file: " 
+                    + e.getMessage());
+        }
+        for (String line : str.split("\n")) {
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            try {
+                JSONObject record = new JSONObject(line);
+                String op = record.getString("op");
+                if (OP_GROUP.equals(op)) {
+                    this.saved.put(record.getString("name"), 
+                            record.getString("state"));
+                } else if (OP_REMOVE.equals(op)) {
+                    this.saved.remove(record.getString("name"));
+                } else {
+                    LOGGER.warning("Ignoring unknown OSCORE group record: " 
+                            + op);
+                }
+            } catch (JSONException e) {
+                // A partially written last record, drop it
+                LOGGER.warning("Ignoring malformed OSCORE group record: "
+                        + e.getMessage());
+            }
+        }
+    }
+    
+    @Override
+    public void changed(GroupInfo group) {
+        String name = group.getGroupName();
+        if (!this.writeThrough) {
+            synchronized (this.dirty) {
+                this.dirty.put(name, group);
+            }
+            return;
+        }
+        // Encode before taking the lock of the store, the caller usually 
+        // holds the lock of the group already
+        String state = encode(group);
+        synchronized (this) {
+            this.pending.put(name, state);
+            try {
+                savePending();
+            } catch (AceException e) {
+                LOGGER.severe("Saving OSCORE group " + name 
+                        + " failed, retrying at the next flush: " 
+                        + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * @param group  the group
+     * 
+     * @return  the status of the group, encoded Base64
+     */
+    private static String encode(GroupInfo group) {
+        return Base64.getEncoder().encodeToString(
+                group.toCBOR().EncodeToBytes());
+    }
+    
+    @Override
+    public synchronized void removed(String groupName) throws AceException {
+        synchronized (this.dirty) {
+            this.dirty.remove(groupName);
+        }
+        this.pending.remove(groupName);
+        if (!this.saved.containsKey(groupName)) {
+            return;
+        }
+        JSONObject record = new JSONObject();
+        record.put("op", OP_REMOVE);
+        record.put("name", groupName);
+        append(record.toString() + "\n", 1);
+        this.saved.remove(groupName);
+    }
+    
+    @Override
+    public synchronized void flush() throws AceException {
+        savePending();
+        
+        Map<String, GroupInfo> toWrite;
+        synchronized (this.dirty) {
+            if (this.dirty.isEmpty()) {
+                return;
+            }
+            toWrite = this.dirty;
+            this.dirty = new LinkedHashMap<>();
+        }
+        
+        Map<String, String> states = new LinkedHashMap<>();
+        for (Map.Entry<String, GroupInfo> e : toWrite.entrySet()) {
+            states.put(e.getKey(), encode(e.getValue()));
+        }
+        try {
+            save(states);
+        } catch (AceException e) {
+            // Try again at the next flush
+            synchronized (this.dirty) {
+                for (Map.Entry<String, GroupInfo> g : toWrite.entrySet()) {
+                    this.dirty.putIfAbsent(g.getKey(), g.getValue());
+                }
+            }
+            throw e;
+        }
+    }
+    
+    /**
+     * Save the groups that write-through could not save yet.
+     * 
+     * @throws AceException  if the journal cannot be written
+     */
+    private void savePending() throws AceException {
+        if (this.pending.isEmpty()) {
+            return;
+        }
+        save(this.pending);
+        this.pending.clear();
+    }
+    
+    /**
+     * Append the status of the groups that differs from the last saved 
+     * one to the journal, and compact it if it has grown too much.
+     * 
+     * @param states  the status of the groups encoded Base64, group names
+     *     are the keys
+     * 
+     * @throws AceException  if the journal cannot be written
+     */
+    private void save(Map<String, String> states) throws AceException {
+        StringBuilder sb = new StringBuilder();
+        Map<String, String> written = new HashMap<>();
+        for (Map.Entry<String, String> e : states.entrySet()) {
+            if (e.getValue().equals(this.saved.get(e.getKey()))) {
+                continue;
+            }
+            JSONObject record = new JSONObject();
+            record.put("op", OP_GROUP);
+            record.put("name", e.getKey());
+            record.put("state", e.getValue());
+            sb.append(record.toString()).append("\n");
+            written.put(e.getKey(), e.getValue());
+        }
+        if (written.isEmpty()) {
+            return;
+        }
+        append(sb.toString(), written.size());
+        this.saved.putAll(written);
+        
+        if (this.journalRecords > this.compactRecords 
+                && this.journalRecords > this.saved.size()) {
+            compact();
+        }
+    }
+    
+    /**
+     * Durably append records to the journal file.
+     * 
+     * @param records  the records, one per line
+     * @param count  the number of records
+     * 
+     * @throws AceException  if the journal cannot be written
+     */
+    private void append(String records, int count) throws AceException {
+        try {
+            if (this.journal == null) {
+                this.journal = new FileOutputStream(this.journalFile, true);
+            }
+            this.journal.write(records.getBytes(Constants.charset));
+            this.journal.getFD().sync();
+        } catch (IOException e) {
+            throw new AceException("Cannot write OSCORE group journal: " 
+                    + e.getMessage());
+        }
+        this.journalRecords += count;
+    }
+    
+    /**
+     * Write the last saved status of each group to a new snapshot and 
+     * empty the journal. If this is interrupted, the journal is replayed
+     * on the new snapshot at the next startup, which gives the same result.
+     * 
+     * @throws AceException  if the files cannot be written
+     */
+    private void compact() throws AceException {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, String> e : this.saved.entrySet()) {
+            JSONObject record = new JSONObject();
+            record.put("op", OP_GROUP);
+            record.put("name", e.getKey());
+            record.put("state", e.getValue());
+            sb.append(record.toString()).append("\n");
+        }
+        
+        // Write a temporary file first, so a crash keeps the old snapshot
+        File tmp = new File(this.snapshotFile.getPath() + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp, false)) {
+            fos.write(sb.toString().getBytes(Constants.charset));
+            fos.getFD().sync();
+        } catch (IOException e) {
+            throw new AceException("Cannot write OSCORE group snapshot: " 
+                    + e.getMessage());
+        }
+        try {
+            Files.move(tmp.toPath(), this.snapshotFile.toPath(), 
+                    StandardCopyOption.REPLACE_EXISTING, 
+                    StandardCopyOption.ATOMIC_MOVE);
+            if (this.journal != null) {
+                this.journal.close();
+            }
+            this.journal = new FileOutputStream(this.journalFile, false);
+            this.journal.getFD().sync();
+        } catch (IOException e) {
+            this.journal = null;
+            throw new AceException("Cannot compact OSCORE group journal: " 
+                    + e.getMessage());
+        }
+        this.journalRecords = 0;
+    }
+    
+    /**
+     * Start saving the changed groups periodically.
+     * 
+     * @param interval  the time between two flushes in milliseconds
+     */
+    public synchronized void start(long interval) {
+        if (this.flusher != null) {
+            return;
+        }
+        this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "FileGroupInfoStore-flush");
+            t.setDaemon(true);
+            return t;
+        });
+        this.flusher.scheduleWithFixedDelay(() -> {
+            try {
+                flush();
+            } catch (AceException e) {
+                LOGGER.severe("Saving OSCORE groups failed: " 
+                        + e.getMessage());
+            }
+        }, interval, interval, TimeUnit.MILLISECONDS);
+    }
+    
+    @Override
+    public void close() throws AceException {
+        synchronized (this) {
+            if (this.flusher != null) {
+                this.flusher.shutdownNow();
+                this.flusher = null;
+            }
+        }
+        flush();
+        synchronized (this) {
+            if (this.journal != null) {
+                try {
+                    this.journal.close();
+                } catch (IOException e) {
+                    throw new AceException(e.getMessage());
+                }
+                this.journal = null;
+            }
+        }
+    }
+}
@@ -36,20 +36,26 @@ import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Supplier;
 
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
 
 import COSE.AlgorithmID;
+import COSE.CoseException;
 import COSE.OneKey;
 import net.i2p.crypto.eddsa.Utils;
+import se.sics.ace.AceException;
 import se.sics.ace.Util;
 import se.sics.ace.GroupcommParameters;
 import se.sics.ace.GroupcommPolicies;
 import se.sics.ace.Hkdf;
+import se.sics.ace.IdAllocator;
 
 /**
  * A class implementing the status of an OSCORE Group at its Group ManagerOSCORE
@@ -71,9 +77,8 @@ public class GroupInfo {
 	private AlgorithmID hkdf = null;
 	private int authCredFormat; // the format of authentication credentials used in the group
 	
-	// Each set of the list refers to a different size of Sender IDs.
-	// The element with index 0 includes as elements Sender IDs with size 1 byte.
-	private List<Set<Integer>> usedSenderIds = new ArrayList<Set<Integer>>();
+	// The assigned Sender IDs, tracked separately for each size of Sender IDs.
+	private final IdAllocator usedSenderIds = new IdAllocator();
 	
 	private int senderIdSize; // Size in bytes of the byte array representation of Sender IDs 
 	private int maxSenderIdValue;
@@ -145,6 +150,23 @@ public class GroupInfo {
 	private OneKey gmKeyPair;   // The asymmetric key pair of the Group Manager, as a OneKey object
 	private byte[] gmAuthCred;  // The serialization of the authentication credential of the Group Manager, in the format used in the group
 	
+	private GroupInfoStore store = null; // The store to notify of changes, or null if the group is not persisted
+	
+	private final List<GroupInfoListener> listeners = new CopyOnWriteArrayList<GroupInfoListener>(); // Notified of changes of keys, credentials and status
+	
+	private static final int MAX_ENCODED_RESPONSES = 32; // Bound on the cached responses, as filters come from requests
+	
+	// The encoded responses of the Group Manager resources for the current status of the group.
+	// The map key (label) identifies the resource and any filter from the request.
+	// Cleared whenever the status of the group changes.
+	private final Map<String, byte[]> encodedResponses = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+			return size() > MAX_ENCODED_RESPONSES;
+		}
+	};
+	
 	/**
 	 * Creates a new GroupInfo object tracking the current status of an OSCORE group.
 	 * 
@@ -234,10 +256,6 @@ public class GroupInfo {
     	staleSenderIds.put(Integer.valueOf(version), new HashSet<CBORObject>());
     	
     	for (int i = 0; i < 4; i++) {
-        	// Empty sets of assigned Sender IDs; one set for each possible Sender ID size in bytes.
-        	// The set with index 0 refers to Sender IDs with size 1 byte
-    		usedSenderIds.add(new HashSet<Integer>());
-    		
         	// Empty sets of stored authentication credentials; one set for each possible Sender ID size in bytes.
         	// The set with index 0 refers to Sender IDs with size 1 byte
     		authCredRepo.add(new HashMap<CBORObject, CBORObject>());
@@ -290,6 +308,8 @@ public class GroupInfo {
     synchronized public void setStatus(final boolean status) {
     	
     	this.status = status;
+    	changed();
+    	fire(GroupInfoListener.Event.STATUS);
     	
     }
     
@@ -310,6 +330,7 @@ public class GroupInfo {
     synchronized public void setGmKeyPair(OneKey gmKeyPair) {
     	
     	this.gmKeyPair = gmKeyPair;
+    	changed();
     	
     }
     
@@ -330,6 +351,7 @@ public class GroupInfo {
     synchronized public void setGmAuthCred(byte[] gmAuthCred) {
     	
     	this.gmAuthCred = gmAuthCred;
+    	changed();
     	
     }
     
@@ -353,6 +375,7 @@ public class GroupInfo {
     	
     	this.masterSecret = new byte[masterSecret.length];
     	System.arraycopy(masterSecret, 0, this.masterSecret, 0, masterSecret.length);
+    	changed();
     	
     }
     
@@ -372,6 +395,7 @@ public class GroupInfo {
     synchronized public void setGroupName(final String groupName) {
     	
     	this.groupName = new String(groupName);
+    	changed();
     	
     }
     
@@ -400,6 +424,7 @@ public class GroupInfo {
     		this.masterSalt = new byte[masterSalt.length];
     		System.arraycopy(masterSalt, 0, this.masterSalt, 0, masterSalt.length);
     	}
+    	changed();
     	
     }
     
@@ -480,6 +505,7 @@ public class GroupInfo {
     	
     	this.groupIdPrefix = new byte[groupIdPrefix.length];
     	System.arraycopy(groupIdPrefix, 0, this.groupIdPrefix, 0, groupIdPrefix.length);
+    	changed();
     	return true;
     	
     }
@@ -531,6 +557,7 @@ public class GroupInfo {
             return false;
 
         this.groupIdEpoch = groupIdEpoch;
+        changed();
         return true;
 
     }
@@ -543,7 +570,7 @@ public class GroupInfo {
 
         boolean ret = false;
 
-        // This should trigger a group rekeying
+        // The Group ID is reused from now on, so the group must be rekeyed, see rekey()
         if (this.groupIdEpoch == this.maxGroupIdEpochValue)
             this.groupIdEpoch = 0;
 
@@ -552,6 +579,7 @@ public class GroupInfo {
             ret = true;
         }
     	
+    	changed();
     	return ret;
     	
     }
@@ -597,6 +625,7 @@ public class GroupInfo {
     		this.hkdf = AlgorithmID.HMAC_SHA_256;
     	else
     		this.hkdf = hkdf;
+    	changed();
     	
     }
     
@@ -619,6 +648,7 @@ public class GroupInfo {
 			this.gpEncAlg = AlgorithmID.AES_CCM_16_64_128;
     	else
     		this.gpEncAlg = gpEncAlg;
+    	changed();
     	
     }
     
@@ -641,6 +671,7 @@ public class GroupInfo {
     		this.signAlg = AlgorithmID.EDDSA;
     	else
     		this.signAlg = signAlg;
+    	changed();
     	
     }    
     
@@ -665,6 +696,7 @@ public class GroupInfo {
     		return false;
     	
     	this.signParams = signParams;
+    	changed();
     	
     	return true;
     	
@@ -689,6 +721,7 @@ public class GroupInfo {
 			this.alg = AlgorithmID.AES_CCM_16_64_128;
     	else
     		this.alg = alg;
+    	changed();
     	
     }
     
@@ -711,6 +744,7 @@ public class GroupInfo {
 			this.ecdhAlg = AlgorithmID.ECDH_SS_HKDF_256;
     	else
     		this.ecdhAlg = ecdhAlg;
+    	changed();
     	
     }
     
@@ -735,6 +769,7 @@ public class GroupInfo {
     		return false;
     	
     	this.ecdhParams = ecdhParams;
+    	changed();
     	
     	return true;
     	
@@ -753,11 +788,15 @@ public class GroupInfo {
      *  Return the whole collection of Sender IDs assigned so far.
      *  Note that this includes also Sender IDs of members that have left the group.
      *  On top of uniqueness, there is not re-cycling of previously assigned Sender IDs.
-     * @return   The whole collection of assigned Sender IDs.
+     * @return   A copy of the whole collection of assigned Sender IDs.
      */
     synchronized public List<Set<Integer>> getUsedSenderIds() {
     	
-    	return this.usedSenderIds;
+    	List<Set<Integer>> ids = new ArrayList<Set<Integer>>();
+    	for (int size = 1; size <= 4; size++) {
+    		ids.add(this.usedSenderIds.getAllocated(size));
+    	}
+    	return ids;
     	
     }
     
@@ -769,31 +808,22 @@ public class GroupInfo {
     	
     	// All the possible values for the Sender IDs with this size have been allocated.
     	// Switch to the next size, up to 4 bytes, and update the maximum Sender ID value.
-    	if (this.usedSenderIds.get(this.senderIdSize - 1).size() == (this.maxSenderIdValue + 1)) {
+    	if (this.usedSenderIds.isFull(this.senderIdSize)) {
 	    		this.senderIdSize++;
 	    
         	// All Sender IDs with all possible sizes have been assigned already
         	if (this.senderIdSize > 4)
         		return null;
         	
-        	if (this.senderIdSize == 4)
-        		this.maxSenderIdValue = (1 << 31) - 1;
-        	else
-        		this.maxSenderIdValue = (1 << (this.senderIdSize * 8)) - 1;
+        	this.maxSenderIdValue = IdAllocator.maxValue(this.senderIdSize);
     	}
     	
-    	byte[] senderIdByteArray = null;
-    	for (int i = 0; i <= this.maxSenderIdValue; i++) {
-    		if (!this.usedSenderIds.get(this.senderIdSize - 1).contains(i)) {
-    			this.usedSenderIds.get(this.senderIdSize - 1).add(i);
-    			
-    			senderIdByteArray = new byte[this.senderIdSize];
-    			senderIdByteArray = Util.intToBytes(i, this.senderIdSize);
-    			break;
-    		}
-    	}
+    	int id = this.usedSenderIds.allocate(this.senderIdSize);
+    	changed();
+    	if (id < 0)
+    		return null;
     	
-    	return senderIdByteArray;
+    	return Util.intToBytes(id, this.senderIdSize);
     	
     }
     
@@ -808,11 +838,11 @@ public class GroupInfo {
     		return false;
     	
     	// All the possible values for the Sender IDs with this size have been assigned already
-    	if (this.usedSenderIds.get(this.senderIdSize - 1).size() == (this.maxSenderIdValue + 1))
+    	if (this.usedSenderIds.isFull(this.senderIdSize))
     		return false;
     	
     	// The specified Sender ID has been already assigned - And no recycling is admitted
-    	if (this.usedSenderIds.get(this.senderIdSize - 1).contains(Util.bytesToInt(id)))
+    	if (this.usedSenderIds.isAllocated(Util.bytesToInt(id), this.senderIdSize))
     		return false;
     	
     	// In case the input array is 4 bytes in size and encoding a negative integer, this will return false
@@ -830,12 +860,8 @@ public class GroupInfo {
     	if (id < 0 || id > this.maxSenderIdValue)
     		return false;
     	
-    	if (!this.usedSenderIds.get(senderIdSize - 1).contains(id)) {
-    		this.usedSenderIds.get(senderIdSize - 1).add(id);
-    		return true;
-    	}
-    	
-    	return false;
+    	changed();
+    	return this.usedSenderIds.allocate(id, this.senderIdSize);
     	
     }
     
@@ -870,25 +896,12 @@ public class GroupInfo {
      */
     synchronized private boolean deallocateSenderId(final int id, final int size) {
 
-    	if (size < 0 || size > 4)
+    	if (size < 1 || size > 4)
     		return false;
     	
-    	int maxValue;
-    	
-    	if (size == 4)
-    		maxValue = (1 << 31) - 1;
-    	else
-    		maxValue = (1 << (senderIdSize * 8)) - 1;
-    	
-    	if (id < 0 || id > maxValue)
-    		return false;
-    	
-    	if (this.usedSenderIds.get(size - 1).contains(id)) {
-    		this.usedSenderIds.get(size - 1).remove(id);
-			return true;
-    	}
-    	
-    	return false;
+    	// Out of range values are rejected by the allocator
+    	changed();
+    	return this.usedSenderIds.release(id, size);
     	
     }
     
@@ -921,13 +934,14 @@ public class GroupInfo {
     	// The group member is not a monitor and has already been assigned a Sender ID
     	else {
 	    	// Double-check that the specified Sender ID has been in fact allocated
-	    	if (this.usedSenderIds.get(this.senderIdSize - 1).contains(Util.bytesToInt(id)))
+	    	if (this.usedSenderIds.isAllocated(Util.bytesToInt(id), this.senderIdSize))
 	    		nodeName = new String(Utils.bytesToHex(this.groupIdPrefix) +
 	    				              Utils.bytesToHex(Util.intToBytes(this.groupIdEpoch, this.groupIdEpochSize)) +
 	    				              this.nodeNameSeparator +
 	    				              Utils.bytesToHex(id));
     	}
     	
+    	changed();
     	return nodeName;
     	
     }
@@ -958,6 +972,7 @@ public class GroupInfo {
     	int value = Integer.parseInt(valueStr);
     	
     	suffixMonitorNames.remove(Integer.valueOf(value));
+    	changed();
     	
     }
     
@@ -1002,6 +1017,7 @@ public class GroupInfo {
     	
     	CBORObject gidCbor = CBORObject.FromObject(getGroupId());
     	this.birthGIDs.put(name, gidCbor);
+    	changed();
     	
     	return true;
     	
@@ -1049,6 +1065,7 @@ public class GroupInfo {
     	    	
     	// This overwrites a possible existing entry, if the group member has received a new Sender ID value
     	this.identities2senderIDs.put(subject, CBORObject.FromObject(sid));
+    	changed();
     	
     }    
     
@@ -1082,6 +1099,7 @@ public class GroupInfo {
     synchronized public void deleteBirthGid(final String nodeName) {
     	
     	birthGIDs.remove(nodeName);
+    	changed();
     	
     }
     
@@ -1122,6 +1140,7 @@ public class GroupInfo {
     	// This overwrites a possible existing entry, if the group member has received a new Sender ID value
     	// Consider the inner map related to the size in bytes of the Sender ID
     	this.nodeRoles.get(sid.length - 1).put(Util.bytesToInt(sid), roles);
+    	changed();
     	
     }   
     
@@ -1176,6 +1195,7 @@ public class GroupInfo {
     	
     	this.identities2nodeNames.remove(subject);
     	this.identities2senderIDs.remove(subject);
+    	changed();
     	
     	return true;
     	
@@ -1238,6 +1258,8 @@ public class GroupInfo {
     		return false;
     	
     	this.authCredRepo.get(sid.length - 1).put(CBORObject.FromObject(sid), cred);
+    	changed();
+    	fire(GroupInfoListener.Event.CREDS);
     	
     	return true;
     	
@@ -1259,6 +1281,8 @@ public class GroupInfo {
     		return false;
     	
     	this.authCredRepo.get(sid.length - 1).remove(CBORObject.FromObject(sid));
+    	changed();
+    	fire(GroupInfoListener.Event.CREDS);
     	
     	return true;
     	
@@ -1282,6 +1306,8 @@ public class GroupInfo {
     synchronized public void incrementVersion() {
     	
     	this.version++;
+    	changed();
+    	fire(GroupInfoListener.Event.VERSION);
     	
     }
     
@@ -1378,6 +1404,7 @@ public class GroupInfo {
     	}
     	
     	this.staleSenderIds.get(Integer.valueOf(version)).add(CBORObject.FromObject(senderId));
+    	changed();
     	return true;
     	
     }
@@ -1395,8 +1422,10 @@ public class GroupInfo {
     		return false;
     	}
     	
-    	if (this.staleSenderIds.put(Integer.valueOf(version), new HashSet<CBORObject>()) == null)
+    	if (this.staleSenderIds.put(Integer.valueOf(version), new HashSet<CBORObject>()) == null) {
+    		changed();
     		return true;
+    	}
     	
     	return false;
 
@@ -1416,10 +1445,330 @@ public class GroupInfo {
     	}
     	
     	int index = this.version - this.maxStaleIdsSets + 1;
-    	if (this.staleSenderIds.remove(Integer.valueOf(index)) != null)
+    	if (this.staleSenderIds.remove(Integer.valueOf(index)) != null) {
+    		changed();
     		return true;
+    	}
     	
     	return false;
+
+    }
+
+    /**
+     *  Rekey the group, i.e. install new symmetric keying material, increment the Epoch of
+     *  the Group ID and the version of the symmetric keying material, and start a new set
+     *  of stale Sender IDs. The oldest set of stale Sender IDs is removed if needed.
+     *
+     *  @param masterSecret   The new OSCORE Master Secret
+     *  @param masterSalt     The new OSCORE Master Salt
+     *  @return  True if the Epoch was incremented, false if it wrapped around to 0
+     */
+    synchronized public boolean rekey(final byte[] masterSecret, final byte[] masterSalt) {
+
+    	if (this.staleSenderIds.size() == this.maxStaleIdsSets) {
+    		removeStaleSenderIdOldestSet();
+    	}
+
+    	setMasterSecret(masterSecret);
+    	setMasterSalt(masterSalt);
+    	boolean ret = incrementGroupIdEpoch();
+    	this.version++;
+    	addStaleSenderIdSet();
+
+    	// The Signature Encryption Key depends on the Master Secret, the Master Salt and the Group ID
+    	if (this.mode != GroupcommParameters.GROUP_OSCORE_PAIRWISE_MODE_ONLY) {
+    		setSignatureEncryptionKey();
+    	}
+
+    	// Listeners are notified only once the new keying material is complete
+    	changed();
+    	fire(GroupInfoListener.Event.VERSION);
+    	return ret;
+
+    }
+
+    /**
+     *  Return the node names of the current group members
+     *
+     *  @return  The set of node names of the current group members
+     */
+    synchronized public Set<String> getGroupMemberNames() {
+
+    	return new HashSet<String>(this.identities2nodeNames.values());
+
+    }
+
+    /**
+     *  Return an encoded response of a Group Manager resource, encoding it only if it was not
+     *  encoded yet for the current status of the group. The response is encoded while holding
+     *  the lock of the group, so it reflects a consistent status of the group.
+     *
+     * @param key       Identifies the resource and any filter from the request
+     * @param encoder   Builds and encodes the response from the current status of the group
+     * @return  The encoded response, which must not be modified
+     */
+    synchronized public byte[] getEncodedResponse(final String key, final Supplier<byte[]> encoder) {
+
+    	byte[] response = this.encodedResponses.get(key);
+    	if (response == null) {
+    		response = encoder.get();
+    		this.encodedResponses.put(key, response);
+    	}
+    	return response;
+
+    }
+
+    /**
+     *  Add a listener to notify when the keying material, the authentication credentials
+     *  or the status of the group change
+     *
+     * @param listener   The listener
+     */
+    public void addListener(final GroupInfoListener listener) {
+
+    	this.listeners.add(listener);
+
+    }
+
+    /**
+     *  Remove a listener added with addListener()
+     *
+     * @param listener   The listener
+     */
+    public void removeListener(final GroupInfoListener listener) {
+
+    	this.listeners.remove(listener);
+
+    }
+
+    // Notify the listeners, if any, of a change of the group
+    private void fire(final GroupInfoListener.Event event) {
+
+    	for (GroupInfoListener listener : this.listeners) {
+    		listener.groupChanged(this, event);
+    	}
+
+    }
+
+    /**
+     *  Set the store to notify when the status of the group changes
+     *  
+     * @param store   The store, or null to stop persisting the group
+     */
+    synchronized public void setStore(final GroupInfoStore store) {
+    	
+    	this.store = store;
+    	
+    }
+    
+    // Drop the encoded responses and notify the store, if any, that the status of the group
+    // has changed. Depending on the store, the group is marked and encoded later with toCBOR(),
+    // or it is encoded and saved right away.
+    private void changed() {
+    	
+    	this.encodedResponses.clear();
+    	
+    	if (this.store != null)
+    		this.store.changed(this);
+    	
+    }
+    
+    /**
+     *  Encode the whole status of the group, including the keying material and the
+     *  information about current and former group members
+     *  
+     * @return  a CBOR map with the status of the group
+     */
+    synchronized public CBORObject toCBOR() {
+    	
+    	CBORObject map = CBORObject.NewMap();
+    	map.Add("name", this.groupName);
+    	map.Add("ms", this.masterSecret);
+    	map.Add("salt", this.masterSalt);
+    	map.Add("prefixSize", this.groupIdPrefixSize);
+    	map.Add("prefix", this.groupIdPrefix);
+    	map.Add("epochSize", this.groupIdEpochSize);
+    	map.Add("epoch", this.groupIdEpoch);
+    	map.Add("monitorPrefix", this.prefixMonitorNames);
+    	map.Add("separator", this.nodeNameSeparator);
+    	map.Add("hkdf", algToCBOR(this.hkdf));
+    	map.Add("credFmt", this.authCredFormat);
+    	map.Add("mode", this.mode);
+    	map.Add("gpEncAlg", algToCBOR(this.gpEncAlg));
+    	map.Add("signAlg", algToCBOR(this.signAlg));
+    	map.Add("signParams", (this.signParams == null) ? CBORObject.Null : this.signParams);
+    	map.Add("alg", algToCBOR(this.alg));
+    	map.Add("ecdhAlg", algToCBOR(this.ecdhAlg));
+    	map.Add("ecdhParams", (this.ecdhParams == null) ? CBORObject.Null : this.ecdhParams);
+    	map.Add("policies", (this.groupPolicies == null) ? CBORObject.Null : this.groupPolicies);
+    	map.Add("gmKeyPair", (this.gmKeyPair == null) ? CBORObject.Null : this.gmKeyPair.AsCBOR());
+    	map.Add("gmAuthCred", (this.gmAuthCred == null) ? CBORObject.Null : CBORObject.FromObject(this.gmAuthCred));
+    	map.Add("maxStale", this.maxStaleIdsSets);
+    	map.Add("version", this.version);
+    	map.Add("status", this.status);
+    	map.Add("sidSize", this.senderIdSize);
+    	
+    	// One element for each possible Sender ID size in bytes, starting from 1 byte
+    	CBORObject sids = CBORObject.NewArray();
+    	CBORObject creds = CBORObject.NewArray();
+    	CBORObject roles = CBORObject.NewArray();
+    	for (int size = 1; size <= 4; size++) {
+    		CBORObject ids = CBORObject.NewArray();
+    		for (Integer id : this.usedSenderIds.getAllocated(size)) {
+    			ids.Add(id.intValue());
+    		}
+    		sids.Add(ids);
+    		CBORObject credMap = CBORObject.NewMap();
+    		for (Map.Entry<CBORObject, CBORObject> e : this.authCredRepo.get(size - 1).entrySet()) {
+    			credMap.Add(e.getKey(), e.getValue());
+    		}
+    		creds.Add(credMap);
+    		CBORObject roleMap = CBORObject.NewMap();
+    		for (Map.Entry<Integer, Integer> e : this.nodeRoles.get(size - 1).entrySet()) {
+    			roleMap.Add(e.getKey().intValue(), e.getValue().intValue());
+    		}
+    		roles.Add(roleMap);
+    	}
+    	map.Add("sids", sids);
+    	map.Add("creds", creds);
+    	map.Add("roles", roles);
+    	
+    	CBORObject names = CBORObject.NewMap();
+    	for (Map.Entry<String, String> e : this.identities2nodeNames.entrySet()) {
+    		names.Add(e.getKey(), e.getValue());
+    	}
+    	map.Add("names", names);
+    	CBORObject senderIds = CBORObject.NewMap();
+    	for (Map.Entry<String, CBORObject> e : this.identities2senderIDs.entrySet()) {
+    		senderIds.Add(e.getKey(), e.getValue());
+    	}
+    	map.Add("senderIds", senderIds);
+    	CBORObject gids = CBORObject.NewMap();
+    	for (Map.Entry<String, CBORObject> e : this.birthGIDs.entrySet()) {
+    		gids.Add(e.getKey(), e.getValue());
+    	}
+    	map.Add("birthGids", gids);
+    	CBORObject stale = CBORObject.NewMap();
+    	for (Map.Entry<Integer, Set<CBORObject>> e : this.staleSenderIds.entrySet()) {
+    		CBORObject set = CBORObject.NewArray();
+    		for (CBORObject sid : e.getValue()) {
+    			set.Add(sid);
+    		}
+    		stale.Add(e.getKey().intValue(), set);
+    	}
+    	map.Add("stale", stale);
+    	CBORObject monitors = CBORObject.NewArray();
+    	for (Integer suffix : this.suffixMonitorNames) {
+    		monitors.Add(suffix.intValue());
+    	}
+    	map.Add("monitors", monitors);
+    	
+    	return map;
+    	
+    }
+    
+    /**
+     *  Rebuild a group from the encoding of its status
+     *  
+     * @param map   The CBOR map returned by toCBOR()
+     * @return  the group, not attached to any store
+     * 
+     * @throws AceException  if the encoding is malformed
+     */
+    public static GroupInfo fromCBOR(final CBORObject map) throws AceException {
+    	
+    	try {
+	    	GroupInfo group = new GroupInfo(map.get("name").AsString(),
+	    								    map.get("ms").GetByteString(),
+	    								    map.get("salt").GetByteString(),
+	    								    map.get("prefixSize").AsInt32(),
+	    								    map.get("prefix").GetByteString(),
+	    								    map.get("epochSize").AsInt32(),
+	    								    map.get("epoch").AsInt32(),
+	    								    map.get("monitorPrefix").AsString(),
+	    								    map.get("separator").AsString(),
+	    								    algFromCBOR(map.get("hkdf")),
+	    								    map.get("credFmt").AsInt32(),
+	    								    map.get("mode").AsInt32(),
+	    								    algFromCBOR(map.get("gpEncAlg")),
+	    								    algFromCBOR(map.get("signAlg")),
+	    								    nullable(map.get("signParams")),
+	    								    algFromCBOR(map.get("alg")),
+	    								    algFromCBOR(map.get("ecdhAlg")),
+	    								    nullable(map.get("ecdhParams")),
+	    								    nullable(map.get("policies")),
+	    								    map.get("gmKeyPair").isNull() ? null : new OneKey(map.get("gmKeyPair")),
+	    								    map.get("gmAuthCred").isNull() ? null : map.get("gmAuthCred").GetByteString(),
+	    								    map.get("maxStale").AsInt32());
+	    	
+	    	synchronized (group) {
+		    	group.version = map.get("version").AsInt32();
+		    	group.status = map.get("status").AsBoolean();
+		    	group.senderIdSize = map.get("sidSize").AsInt32();
+		    	group.maxSenderIdValue = IdAllocator.maxValue(group.senderIdSize);
+		    	
+		    	for (int size = 1; size <= 4; size++) {
+		    		for (CBORObject id : map.get("sids").get(size - 1).getValues()) {
+		    			group.usedSenderIds.allocate(id.AsInt32(), size);
+		    		}
+		    		CBORObject credMap = map.get("creds").get(size - 1);
+		    		for (CBORObject sid : credMap.getKeys()) {
+		    			group.authCredRepo.get(size - 1).put(sid, credMap.get(sid));
+		    		}
+		    		CBORObject roleMap = map.get("roles").get(size - 1);
+		    		for (CBORObject sid : roleMap.getKeys()) {
+		    			group.nodeRoles.get(size - 1).put(sid.AsInt32(), roleMap.get(sid).AsInt32());
+		    		}
+		    	}
+		    	
+		    	CBORObject names = map.get("names");
+		    	for (CBORObject subject : names.getKeys()) {
+		    		group.identities2nodeNames.put(subject.AsString(), names.get(subject).AsString());
+		    	}
+		    	CBORObject senderIds = map.get("senderIds");
+		    	for (CBORObject subject : senderIds.getKeys()) {
+		    		group.identities2senderIDs.put(subject.AsString(), senderIds.get(subject));
+		    	}
+		    	CBORObject gids = map.get("birthGids");
+		    	for (CBORObject nodeName : gids.getKeys()) {
+		    		group.birthGIDs.put(nodeName.AsString(), gids.get(nodeName));
+		    	}
+		    	group.staleSenderIds.clear();
+		    	CBORObject stale = map.get("stale");
+		    	for (CBORObject v : stale.getKeys()) {
+		    		Set<CBORObject> set = new HashSet<CBORObject>(stale.get(v).getValues());
+		    		group.staleSenderIds.put(Integer.valueOf(v.AsInt32()), set);
+		    	}
+		    	for (CBORObject suffix : map.get("monitors").getValues()) {
+		    		group.suffixMonitorNames.add(Integer.valueOf(suffix.AsInt32()));
+		    	}
+	    	}
+	    	return group;
+	    	
+    	} catch (CoseException | RuntimeException e) {
+    		throw new AceException("Malformed status of OSCORE group: " + e.getMessage());
+    	}
+    	
+    }
+    
+    // Encode an algorithm that can be null
+    private static CBORObject algToCBOR(final AlgorithmID alg) {
+    	
+    	return (alg == null) ? CBORObject.Null : alg.AsCBOR();
+    	
+    }
+    
+    // Decode an algorithm that can be null
+    private static AlgorithmID algFromCBOR(final CBORObject alg) throws CoseException {
+    	
+    	return alg.isNull() ? null : AlgorithmID.FromCBOR(alg);
+    	
+    }
+    
+    // Return null for a CBOR null
+    private static CBORObject nullable(final CBORObject obj) {
+    	
+    	return obj.isNull() ? null : obj;
     	
     }
     
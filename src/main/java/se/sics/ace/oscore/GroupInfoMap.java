@@ -0,0 +1,103 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore;
+
+import java.util.HashMap;
+import java.util.logging.Logger;
+
+import se.sics.ace.AceException;
+
+/**
+ * The map of existing OSCORE groups of a Group Manager that saves the 
+ * groups added to it in a GroupInfoStore, and deletes the removed ones.
+ *
+ */
+public class GroupInfoMap extends HashMap<String, GroupInfo> {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(GroupInfoMap.class.getName());
+    
+    /**
+     * The store
+     */
+    private final transient GroupInfoStore store;
+    
+    /**
+     * Constructor.
+     * 
+     * @param store  the store saving the groups
+     */
+    public GroupInfoMap(GroupInfoStore store) {
+        this.store = store;
+    }
+    
+    /**
+     * Add a group restored from the store, without saving it again.
+     * 
+     * @param group  the group
+     */
+    void restore(GroupInfo group) {
+        group.setStore(this.store);
+        super.put(group.getGroupName(), group);
+    }
+    
+    @Override
+    public GroupInfo put(String groupName, GroupInfo group) {
+        GroupInfo old = super.put(groupName, group);
+        if (old != null && old != group) {
+            old.setStore(null);
+        }
+        group.setStore(this.store);
+        this.store.changed(group);
+        return old;
+    }
+    
+    @Override
+    public GroupInfo remove(Object groupName) {
+        GroupInfo old = super.remove(groupName);
+        if (old != null) {
+            old.setStore(null);
+            try {
+                this.store.removed((String)groupName);
+            } catch (AceException e) {
+                LOGGER.severe("Cannot delete the saved OSCORE group " 
+                        + groupName + ": " + e.getMessage());
+            }
+        }
+        return old;
+    }
+}
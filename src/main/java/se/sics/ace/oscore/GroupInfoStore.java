@@ -0,0 +1,93 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore;
+
+import java.util.Map;
+
+import se.sics.ace.AceException;
+
+/**
+ * A persistent store for the status of the OSCORE groups of a Group 
+ * Manager, so that groups and their members survive a restart.
+ * 
+ * Groups put in the map returned by load() are attached to the store, 
+ * and each GroupInfo notifies the store through changed() when its status 
+ * changes. changed() is called while holding the lock of the GroupInfo.
+ * Implementations either only mark the group there and encode it with 
+ * GroupInfo.toCBOR() when writing, or save it right away, in which case 
+ * they must not take the lock of any other GroupInfo while doing so.
+ *
+ */
+public interface GroupInfoStore extends AutoCloseable {
+    
+    /**
+     * Restore the groups saved by a previous run.
+     * 
+     * @return  the map of existing groups to pass to the Group Manager 
+     *     resources, group names are the keys. Groups added to or removed 
+     *     from this map are saved or deleted in the store.
+     *     
+     * @throws AceException  if the saved groups cannot be read
+     */
+    public Map<String, GroupInfo> load() throws AceException;
+    
+    /**
+     * Mark a group as changed, so that its status is saved, or save it.
+     * 
+     * @param group  the group
+     */
+    public void changed(GroupInfo group);
+    
+    /**
+     * Delete a group from the store.
+     * 
+     * @param groupName  the name of the group
+     * 
+     * @throws AceException  if the deletion cannot be saved
+     */
+    public void removed(String groupName) throws AceException;
+    
+    /**
+     * Save the status of the groups changed since the last flush.
+     * 
+     * @throws AceException  if the groups cannot be saved
+     */
+    public void flush() throws AceException;
+    
+    /**
+     * Save the pending changes and release the store.
+     * 
+     * @throws AceException  if the groups cannot be saved
+     */
+    @Override
+    public void close() throws AceException;
+}
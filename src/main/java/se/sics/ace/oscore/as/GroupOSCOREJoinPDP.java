@@ -36,10 +36,12 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.logging.Logger;
 
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
@@ -63,6 +65,12 @@ import se.sics.ace.examples.SQLConnector;
  */
 public class GroupOSCOREJoinPDP implements PDP, AutoCloseable {
 
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(GroupOSCOREJoinPDP.class.getName());
+
     private SQLConnector db = null;
     
     /**
@@ -90,6 +98,20 @@ public class GroupOSCOREJoinPDP implements PDP, AutoCloseable {
      */
     public static String introspectClaimsColumn = "claimsAccess";
     
+    /**
+     * The secondary indexes on the tables of this PDP, covering the columns
+     * its prepared SELECT statements look up. Each entry lists a table
+     * followed by the indexed columns.
+     */
+    public static final String[][] indexes = {
+        {tokenTable, DBConnector.idColumn},
+        {introspectTable, DBConnector.idColumn, introspectClaimsColumn},
+        {accessTable, DBConnector.idColumn, DBConnector.rsIdColumn,
+            DBConnector.scopeColumn},
+        {oscoreGroupManagersTable, DBConnector.rsIdColumn,
+            DBConnector.audColumn},
+    };
+
     private PreparedStatement canToken;    
     private PreparedStatement canIntrospect;
     private PreparedStatement canAccess;
@@ -160,6 +182,19 @@ public class GroupOSCOREJoinPDP implements PDP, AutoCloseable {
 	        throw new AceException(e.getMessage());
 	    }
 	    
+	    // Indexes are only needed for performance, do not fail without them
+	    try (Connection conn = this.db.getAdapter().getDBConnection()) {
+	        for (String[] index : indexes) {
+	            String[] columns = Arrays.copyOfRange(index, 1, index.length);
+	            this.db.getAdapter().createIndex(conn, 
+	                    SQLConnector.indexName(index[0], columns), 
+	                    index[0], columns);
+	        }
+	    } catch (SQLException e) {
+	        LOGGER.warning("Could not create the PDP indexes: " 
+	                + e.getMessage());
+	    }
+	    
 	    this.canToken = this.db.prepareStatement(
                 this.db.getAdapter().updateEngineSpecificSQL("SELECT * FROM "
                         + tokenTable
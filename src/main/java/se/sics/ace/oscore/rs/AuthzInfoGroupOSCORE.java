@@ -32,7 +32,6 @@
 package se.sics.ace.oscore.rs;
 
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
@@ -48,6 +47,7 @@ import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.GroupcommParameters;
 import se.sics.ace.Message;
+import se.sics.ace.Randomness;
 import se.sics.ace.TimeProvider;
 import se.sics.ace.cwt.CwtCryptoCtx;
 import se.sics.ace.examples.LocalMessage;
@@ -76,12 +76,7 @@ public class AuthzInfoGroupOSCORE extends AuthzInfo {
      */
     private static final Logger LOGGER 
         = Logger.getLogger(AuthzInfo.class.getName());
-	
-    /**
-     * Temporary storage for the CNF claim
-     */
-    private CBORObject cnf;
-    
+
     /**
 	 * Handles audience validation
 	 */
@@ -90,7 +85,7 @@ public class AuthzInfoGroupOSCORE extends AuthzInfo {
     /**
      * Existing OSCORE groups under the Group Manager
      */
-	private Map<String, GroupInfo> existingGroups;
+	private volatile Map<String, GroupInfo> existingGroups;
 	
 	private final String rootGroupMembershipResource;
 	
@@ -128,7 +123,7 @@ public class AuthzInfoGroupOSCORE extends AuthzInfo {
 	}
 
 	@Override
-	public synchronized Message processMessage(Message msg) {
+	public Message processMessage(Message msg) {
 	    LOGGER.log(Level.INFO, "received message: " + msg);
 	    CBORObject token = null;
 	    CBORObject cbor = null;
@@ -200,7 +195,8 @@ public class AuthzInfoGroupOSCORE extends AuthzInfo {
             return reply;
         }
         
-        if (this.cnf == null) {//Should never happen, caught in TokenRepository.
+        CBORObject cnf = getStoredCnf(reply);
+        if (cnf == null) {//Should never happen, caught in TokenRepository.
             LOGGER.info("Missing required parameter 'cnf'");
             CBORObject map = CBORObject.NewMap();
             map.Add(Constants.ERROR, Constants.INVALID_REQUEST);
@@ -285,7 +281,7 @@ public class AuthzInfoGroupOSCORE extends AuthzInfo {
         	
         	// Add the nonce for PoP of the Client's private key in the Join Request
             byte[] rsnonce = new byte[8];
-            new SecureRandom().nextBytes(rsnonce);
+            Randomness.nextBytes(rsnonce);
             rep.Add(Constants.KDCCHALLENGE, rsnonce);
             
     	    CBORObject sid = responseMap.get(CBORObject.FromObject(Constants.SUB));
@@ -405,15 +401,10 @@ public class AuthzInfoGroupOSCORE extends AuthzInfo {
 	/**
 	 * @param existingGroups
 	 */
-	public synchronized void setExistingGroups(Map<String, GroupInfo> existingGroups) {
+	public void setExistingGroups(Map<String, GroupInfo> existingGroups) {
 		this.existingGroups = existingGroups;
 	}
 	
-	@Override
-	protected synchronized void processOther(Map<Short, CBORObject> claims) {
-	    this.cnf = claims.get(Constants.CNF);
-	}
-	
     @Override
     public void close() throws AceException {
        super.close();
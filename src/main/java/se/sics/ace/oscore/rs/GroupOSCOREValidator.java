@@ -31,9 +31,12 @@
  *******************************************************************************/
 package se.sics.ace.oscore.rs;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -44,6 +47,7 @@ import se.sics.ace.AceException;
 import se.sics.ace.GroupcommParameters;
 import se.sics.ace.Util;
 import se.sics.ace.rs.AudienceValidator;
+import se.sics.ace.rs.ScopeMatcher;
 import se.sics.ace.rs.ScopeValidator;
 
 /**
@@ -763,4 +767,159 @@ public class GroupOSCOREValidator implements AudienceValidator, ScopeValidator {
         // TODO Auto-generated method stub
         return null;
     }
+    
+    @Override
+    public ScopeMatcher compile(CBORObject scope) throws AceException {
+    	
+        if (scope.getType().equals(CBORType.TextString)) {
+        	return new GroupScopeMatcher(false, 
+        			Arrays.asList(scope.AsString().split(" ")));
+        }
+        
+        if (!scope.getType().equals(CBORType.ByteString)) {
+            throw new AceException("Scope must be a Text String or a Byte String");
+        }
+        
+    	byte[] rawScope = scope.GetByteString();
+    	CBORObject cborScope = CBORObject.DecodeFromBytes(rawScope);
+    	
+    	if (!cborScope.getType().equals(CBORType.Array)) {
+            throw new AceException("Invalid scope format for the AIF-OSCORE-GROUPCOMM data model");
+        }
+    	
+    	List<String> scopeNames = new ArrayList<>();
+    	for (int entryIndex = 0; entryIndex < cborScope.size(); entryIndex++) {
+    	
+    		CBORObject scopeEntry = cborScope.get(entryIndex);
+        
+      	  	if (!scopeEntry.getType().equals(CBORType.Array)) {
+                throw new AceException("Invalid scope for entry the AIF-OSCORE-GROUPCOMM data model");
+      	  	}
+    		
+        	if (scopeEntry.size() != 2)
+        		throw new AceException("A scope entry must have two elements, i.e., Toid and Tperm");
+        	
+  	  		if (scopeEntry.get(1).getType() != CBORType.Integer) {
+  	  			throw new AceException("Tperm must be a CBOR integer");
+  	  		}
+  	  		
+  	  		int tperm = scopeEntry.get(1).AsInt32();
+      	  	if (tperm <= 0) {
+  	  			throw new AceException("Tperm must have a positive integer value");
+  	  		}
+        	
+        	if ((tperm % 2) == 0) {
+        		// This is a user scope entry
+        		
+	      	  	CBORObject scopeElement = scopeEntry.get(0);
+	      	  	if (!scopeElement.getType().equals(CBORType.TextString)) {
+	      	  		throw new AceException("The group name must be a CBOR Text String");
+	      	  	}
+	        	
+        		Set<Integer> roleIdSet = Util.getGroupOSCORERoles(tperm);
+        		for (Integer elem : roleIdSet) {
+        			if (elem.intValue() >= GroupcommParameters.GROUP_OSCORE_ROLES.length) {
+        				throw new AceException("Unrecognized role");
+        			}
+        		}
+        		
+        		scopeNames.add(rootGroupMembershipResourcePath + "/" + scopeElement.AsString());
+        	}
+        	else {
+        		// This is an admin scope entry
+        		
+  	  			if (scopeEntry.get(0).getType() != CBORType.TextString &&
+  	  				scopeEntry.get(0).equals(CBORObject.True) == false) {
+  	  				throw new AceException("Toid must be a CBOR text string or the CBOR simple value true");
+	      	  	}
+  	  			
+        		Set<Integer> permissionIdSet = Util.getGroupOSCOREAdminPermissions(tperm);
+        		for (Integer elem : permissionIdSet) {
+        			if (elem.intValue() >= GroupcommParameters.GROUP_OSCORE_ADMIN_PERMISSIONS.length) {
+        				throw new AceException("Unrecognized admin permission");
+        			}
+        		}
+        		
+        		scopeNames.add(groupCollectionResourcePath);
+        	}
+    	}
+    	
+    	return new GroupScopeMatcher(true, scopeNames);
+    }
+    
+    /**
+     * A compiled scope of this validator. It holds the keys of the scope 
+     * entries in the scopes of this validator, these are looked up when 
+     * matching since resources and scopes can be added to the validator 
+     * after a token has been stored.
+     */
+    private final class GroupScopeMatcher implements ScopeMatcher {
+    	
+    	/**
+    	 * True if the scope was a byte string
+    	 */
+    	private final boolean binary;
+    	
+    	/**
+    	 * The keys of the scope entries in myScopes
+    	 */
+    	private final List<String> scopeNames;
+    	
+    	/**
+    	 * Constructor.
+    	 * 
+    	 * @param binary  true if the scope was a byte string
+    	 * @param scopeNames  the keys of the scope entries in myScopes
+    	 */
+    	GroupScopeMatcher(boolean binary, List<String> scopeNames) {
+    		this.binary = binary;
+    		this.scopeNames = Collections.unmodifiableList(
+    				new ArrayList<>(scopeNames));
+    	}
+    	
+    	/**
+    	 * Match a resource and optionally an action, after checking that 
+    	 * the scope format fits the resource.
+    	 * 
+    	 * @param resourceId  the resource
+    	 * @param actionId  the action, or null to match any action
+    	 * @return  true if the scope matches
+    	 * @throws AceException
+    	 */
+    	private boolean matches(String resourceId, Short actionId) 
+    			throws AceException {
+    		boolean groupResource 
+    			= myGroupMembershipResources.contains(resourceId) 
+    				|| myGroupAdminResources.contains(resourceId);
+    		if (!this.binary && groupResource) {
+    			return false;
+    		}
+    		if (this.binary && !groupResource) {
+            	throw new AceException("Unknown processing for this byte string scope");
+    		}
+    		for (String scopeName : this.scopeNames) {
+    			Map<String, Set<Short>> resources = myScopes.get(scopeName);
+    			if (resources == null || !resources.containsKey(resourceId)) {
+    				continue;
+    			}
+    			if (actionId == null 
+    					|| resources.get(resourceId).contains(actionId)) {
+    				return true;
+    			}
+    		}
+    		return false;
+    	}
+
+		@Override
+		public boolean match(String resourceId, short actionId) 
+				throws AceException {
+			return matches(resourceId, actionId);
+		}
+
+		@Override
+		public boolean matchResource(String resourceId) 
+				throws AceException {
+			return matches(resourceId, null);
+		}
+    }
 }
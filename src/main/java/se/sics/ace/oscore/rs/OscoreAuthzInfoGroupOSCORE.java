@@ -32,17 +32,16 @@
 package se.sics.ace.oscore.rs;
 
 import java.io.IOException;
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.locks.Lock;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.oscore.OSCoreCtx;
-import org.eclipse.californium.oscore.OSCoreCtxDB;
 import org.eclipse.californium.oscore.OSException;
 
 import com.upokecenter.cbor.CBORObject;
@@ -52,8 +51,11 @@ import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.GroupcommParameters;
 import se.sics.ace.Message;
+import se.sics.ace.Randomness;
 import se.sics.ace.TimeProvider;
 import se.sics.ace.coap.CoapReq;
+import se.sics.ace.coap.rs.oscoreProfile.BoundedOscoreCtxDB;
+import se.sics.ace.coap.rs.oscoreProfile.OscoreCtxStore;
 import se.sics.ace.coap.rs.oscoreProfile.OscoreCtxDbSingleton;
 import se.sics.ace.coap.rs.oscoreProfile.OscoreSecurityContext;
 import se.sics.ace.cwt.CwtCryptoCtx;
@@ -84,11 +86,6 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
     private static final Logger LOGGER 
         = Logger.getLogger(OscoreAuthzInfoGroupOSCORE.class.getName());
 
-    /**
-     * Temporary storage for the CNF claim
-     */
-    private CBORObject cnf;
-    
     /**
 	 * Handles audience validation
 	 */
@@ -97,10 +94,15 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
     /**
      * Existing OSCORE groups under the Group Manager
      */
-	private Map<String, GroupInfo> existingGroups;
+	private volatile Map<String, GroupInfo> existingGroups;
 	
 	private final String rootGroupMembershipResource = "ace-group";
 	
+    /**
+     * The store of the OSCORE Security Contexts, null if they are not saved
+     */
+    private final OscoreCtxStore ctxStore;
+	
 	/**
 	 * Constructor.
 	 * 
@@ -123,15 +125,46 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
 			ScopeValidator scopeValidator, boolean checkCnonce) 
 			        throws AceException, IOException {
 
+		this(issuers, time, intro, rsId, audience, ctx, tokenFile, 
+		        scopeValidator, checkCnonce, null);
+	}
+	
+	/**
+	 * Constructor restoring the OSCORE Security Contexts of the stored 
+	 * access tokens.
+	 * 
+	 * @param issuers  the list of acceptable issuer of access tokens
+	 * @param time  the time provider
+	 * @param intro  the introspection handler (can be null)
+	 * @param rsId  the identifier of the Resource Server
+	 * @param audience  the audience validator
+	 * @param ctx  the crypto context to use with the As
+	 * @param tokenFile  the file where to save tokens when persisting
+     * @param scopeValidator  the application specific scope validator 
+	 * @param checkCnonce  true if this RS uses cnonces for freshness validation
+	 * @param ctxStore  the store of the OSCORE Security Contexts (can be null)
+	 * @throws IOException 
+	 * @throws AceException 
+	 */
+	public OscoreAuthzInfoGroupOSCORE(List<String> issuers, 
+			TimeProvider time, IntrospectionHandler intro, String rsId, 
+			AudienceValidator audience, CwtCryptoCtx ctx, String tokenFile,
+			ScopeValidator scopeValidator, boolean checkCnonce,
+			OscoreCtxStore ctxStore) throws AceException, IOException {
+
 		super(issuers, time, intro, rsId, audience, ctx, null, 0, tokenFile, 
 		        scopeValidator, checkCnonce);
 		
 		this.audience = (GroupOSCOREValidator) audience;
-		
+		this.ctxStore = ctxStore;
+		if (ctxStore != null) {
+			ctxStore.load(OscoreCtxStore::hasToken);
+			ctxStore.start(OscoreCtxStore.DEFAULT_INTERVAL);
+		}
 	}
 
 	@Override
-	public synchronized Message processMessage(Message msg) {
+	public Message processMessage(Message msg) {
 	    LOGGER.log(Level.INFO, "received message: " + msg);
 	    CBORObject token = null;
 	    CBORObject cbor = null;
@@ -253,7 +286,8 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
             return reply;
         }
         
-        if (this.cnf == null) { //Should never happen, caught in TokenRepository
+        CBORObject cnf = getStoredCnf(reply);
+        if (cnf == null) { //Should never happen, caught in TokenRepository
             LOGGER.info("Missing required parameter 'cnf'");
             CBORObject map = CBORObject.NewMap();
             map.Add(Constants.ERROR, Constants.INVALID_REQUEST);
@@ -278,11 +312,11 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
 	        
 	        byte[] n1 = nonce.GetByteString();
 	        byte[] n2 = new byte[8];
-	        new SecureRandom().nextBytes(n2);
+	        Randomness.nextBytes(n2);
 	                
 	        OscoreSecurityContext osc;
 	        try {
-	            osc = new OscoreSecurityContext(this.cnf);
+	            osc = new OscoreSecurityContext(cnf);
 	        } catch (AceException e) {
 	            CBORObject map = CBORObject.NewMap();
 	            map.Add(Constants.ERROR, Constants.INVALID_REQUEST);
@@ -293,10 +327,19 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
 	        OSCoreCtx ctx;
 	        try {
 	            ctx = osc.getContext(false, n1, n2);
+	            if (this.ctxStore != null) {
+	                // Let the context reserve its Sender Sequence Numbers
+	                ctx = this.ctxStore.track(ctx);
+	            }
 	
-	            OSCoreCtxDB db = OscoreCtxDbSingleton.getInstance();
+	            BoundedOscoreCtxDB db = OscoreCtxDbSingleton.getInstance();
+	            
+	            long expires = Long.MAX_VALUE;
 	            
-	            synchronized(db) {
+	            // Only installs of the same Recipient ID need to be serialized
+	            Lock lock = db.getLock(recipientId);
+	            lock.lock();
+	            try {
 	            	
 	            	boolean install = true;
 					byte[] idContext = null;
@@ -331,8 +374,18 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
 	    				install = false;
 	        		}
 	            	
-	    			if (install)
+	    			if (install) {
 	    				db.addContext(ctx);
+	    				// Remove the context when the Access Token expires
+	    				String cti = Base64.getEncoder().encodeToString(
+	    				        responseMap.get(Constants.CTI).GetByteString());
+	    				Map<Short, CBORObject> claims = TokenRepository.getInstance().getClaims(cti);
+	    				CBORObject exp = (claims == null) ? null : claims.get(Constants.EXP);
+	    				if (exp != null && exp.isNumber()) {
+	    				    expires = exp.AsNumber().ToInt64Checked();
+	    				    db.setExpiry(ctx, expires);
+	    				}
+	    			}
 	    			else {
 	    	            LOGGER.info("An OSCORE Security Context with the same Recipient ID"
 					               + " has been installed while running the OSCORE profile");
@@ -348,6 +401,19 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
 	    	    	    }
 	    	            return msg.failReply(Message.FAIL_INTERNAL_SERVER_ERROR, null);
 	    			}
+	            } finally {
+	                lock.unlock();
+	            }
+	            
+	            // Only journal the new context, and outside the lock, the 
+	            // periodic checkpoints save the rest
+	            if (this.ctxStore != null) {
+	                try {
+	                    this.ctxStore.add(ctx, expires);
+	                } catch (AceException e) {
+	                    LOGGER.severe("Error while saving OSCORE context: " 
+	                            + e.getMessage());
+	                }
 	            }
 	
 	        } catch (OSException e) {
@@ -444,7 +510,7 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
     		
         	// Add the nonce for PoP of the Client's private key in the Join Request
             byte[] rsnonce = new byte[8];
-            new SecureRandom().nextBytes(rsnonce);
+            Randomness.nextBytes(rsnonce);
             payload.Add(Constants.KDCCHALLENGE, rsnonce);
             
     	    CBORObject sid = responseMap.get(CBORObject.FromObject(Constants.SUB));
@@ -563,17 +629,15 @@ public class OscoreAuthzInfoGroupOSCORE extends AuthzInfo {
 	/**
 	 * @param existingGroups
 	 */
-	public synchronized void setExistingGroups(Map<String, GroupInfo> existingGroups) {
+	public void setExistingGroups(Map<String, GroupInfo> existingGroups) {
 		this.existingGroups = existingGroups;
 	}
 	
-	@Override
-	protected synchronized void processOther(Map<Short, CBORObject> claims) {
-	    this.cnf = claims.get(Constants.CNF);
-	}
-
     @Override
     public void close() throws AceException {
+        if (this.ctxStore != null) {
+            this.ctxStore.close();
+        }
        super.close();
         
     }	
@@ -0,0 +1,129 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.rs.oscoreGroupManager;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+
+import org.eclipse.californium.core.CoapResource;
+
+import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.GroupInfoListener;
+
+/**
+ * Notifies the observers of a Group Manager resource when its OSCORE group 
+ * changes.
+ * 
+ * The GroupInfo of a group may be created or replaced after the resource,
+ * so the resource attaches the notifier with listenTo() each time it
+ * retrieves the GroupInfo to serve a request. This is enough, since a node 
+ * must send a request to become an observer.
+ *
+ */
+class GroupChangeNotifier implements GroupInfoListener {
+
+    /**
+     * The observable resource
+     */
+    private final CoapResource resource;
+    
+    /**
+     * The changes that trigger a notification
+     */
+    private final Set<Event> events;
+    
+    /**
+     * The rekeyer distributing the new keying material of its own rekeys 
+     * to the observers, or null
+     */
+    private volatile GroupRekeyer rekeyer = null;
+    
+    /**
+     * The group currently listened to
+     */
+    private GroupInfo group = null;
+    
+    /**
+     * Constructor. Makes the resource observable.
+     * 
+     * @param resource  the resource to notify the observers of
+     * @param events  the changes that trigger a notification
+     */
+    GroupChangeNotifier(CoapResource resource, Event... events) {
+        this.resource = resource;
+        this.events = EnumSet.noneOf(Event.class);
+        this.events.addAll(Arrays.asList(events));
+        resource.setObservable(true);
+        resource.getAttributes().setObservable();
+    }
+    
+    /**
+     * Set the rekeyer that notifies the observers of its own rekeys in 
+     * batches. A VERSION change caused by such a rekey does not trigger a
+     * notification, all other VERSION changes still do.
+     * 
+     * @param rekeyer  the rekeyer, or null
+     */
+    void setRekeyer(GroupRekeyer rekeyer) {
+        this.rekeyer = rekeyer;
+    }
+    
+    /**
+     * Listen to the changes of a group, and stop listening to the group
+     * previously listened to, if any.
+     * 
+     * @param group  the group
+     */
+    synchronized void listenTo(GroupInfo group) {
+        if (group == this.group) {
+            return;
+        }
+        if (this.group != null) {
+            this.group.removeListener(this);
+        }
+        group.addListener(this);
+        this.group = group;
+    }
+    
+    @Override
+    public void groupChanged(GroupInfo group, Event event) {
+        if (!this.events.contains(event)) {
+            return;
+        }
+        GroupRekeyer r = this.rekeyer;
+        if (event == Event.VERSION && r != null && r.isDistributing(group)) {
+            return;
+        }
+        this.resource.changed();
+    }
+}
@@ -89,6 +89,8 @@ public class GroupOSCOREGroupCollectionResource extends CoapResource {
 	private Map<String, Map<String, Set<Short>>> myScopes;
 	
 	private GroupOSCOREValidator valid;
+	
+	private GroupRekeyer rekeyer = null; // Rekeys the created groups when members leave, or null for no rekeying
 
     // The map key is the cryptographic curve; the map key is the hex string of the key pair
     private Map<CBORObject, String> gmSigningKeyPairs;
@@ -178,7 +180,16 @@ public class GroupOSCOREGroupCollectionResource extends CoapResource {
         testConf.getConfigurationParameters().Add(GroupcommParameters.GROUP_NAME, CBORObject.FromObject("gp500"));
         this.groupConfigurationResources.put("gp500", testConf);
         // ============
-        
+
+    }
+
+    /**
+     * Set the rekeyer to use when members leave the groups created from now on
+     *
+     * @param rekeyer  the rekeyer, or null for not rekeying the groups
+     */
+    public synchronized void setRekeyer(GroupRekeyer rekeyer) {
+    	this.rekeyer = rekeyer;
     }
 
     @Override
@@ -786,11 +797,13 @@ public class GroupOSCOREGroupCollectionResource extends CoapResource {
     	// Create the actual associated group-membership resource and its sub-resources
 
     	// Group-membership resource - The name of the OSCORE group is used as resource name
-    	Resource groupMembershipResource = new GroupOSCOREGroupMembershipResource(groupName,
-    	                                                                          this.existingGroupInfo,
-    	                                                                          rootGroupMembershipResourcePath,
-    	                                                                          this.myScopes,
-    	                                                                          this.valid);
+    	GroupOSCOREGroupMembershipResource groupMembershipResource =
+    			new GroupOSCOREGroupMembershipResource(groupName,
+    	                                               this.existingGroupInfo,
+    	                                               rootGroupMembershipResourcePath,
+    	                                               this.myScopes,
+    	                                               this.valid);
+    	groupMembershipResource.setRekeyer(this.rekeyer);
     	// Add the /creds sub-resource
     	Resource credsSubResource = new GroupOSCORESubResourceCreds("creds", existingGroupInfo);
     	groupMembershipResource.add(credsSubResource);
@@ -33,12 +33,12 @@ package se.sics.ace.oscore.rs.oscoreGroupManager;
 
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -61,9 +61,11 @@ import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.GroupcommErrors;
 import se.sics.ace.GroupcommParameters;
+import se.sics.ace.Randomness;
 import se.sics.ace.Util;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.GroupInfoListener;
 import se.sics.ace.oscore.GroupOSCOREInputMaterialObjectParameters;
 import se.sics.ace.oscore.OSCOREInputMaterialObjectParameters;
 import se.sics.ace.oscore.rs.GroupOSCOREValidator;
@@ -76,12 +78,18 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
 	
 	private Map<String, GroupInfo> existingGroupInfo = new HashMap<>();
 	
+	private final GroupChangeNotifier notifier; // Notifies the observers of this resource when the group changes
+	
 	private final String rootGroupMembershipResourcePath; 
 	
 	private Map<String, Map<String, Set<Short>>> myScopes;
 	
 	private GroupOSCOREValidator valid;
 	
+	private GroupRekeyer rekeyer = null; // Rekeys the group when members leave, or null for no rekeying
+	
+	private final RekeyListener rekeyListener = this::notifyBatch; // Notifies the observers in each batch of a rekeying
+	
 	/**
      * Constructor
      * @param resId  the resource identifier
@@ -103,10 +111,56 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
         getAttributes().setTitle("Group OSCORE Group-Membership Resource " + resId);
      
         this.existingGroupInfo = existingGroupInfo;
+        this.notifier = new GroupChangeNotifier(this, GroupInfoListener.Event.VERSION, GroupInfoListener.Event.STATUS);
         this.rootGroupMembershipResourcePath = rootGroupMembershipResourcePath;
         this.myScopes = myScopes;
         this.valid = valid;
     }
+    
+    /**
+     * Set the rekeyer to use when members leave the group.
+     * 
+     * The observers of this resource are then notified of the new keying material
+     * of the rekeys run by the rekeyer in the batches of group members it provides,
+     * rather than all at once. They are still notified all at once of any other
+     * new keying material, e.g. from a rekey run directly or when the rekeyer is closed.
+     * 
+     * @param rekeyer  the rekeyer, or null for not rekeying the group
+     */
+    public synchronized void setRekeyer(GroupRekeyer rekeyer) {
+    	if (this.rekeyer != null) {
+    		this.rekeyer.removeListener(this.rekeyListener);
+    	}
+    	this.rekeyer = rekeyer;
+    	if (rekeyer != null) {
+    		rekeyer.addListener(this.rekeyListener);
+    	}
+    	this.notifier.setRekeyer(rekeyer);
+    }
+    
+    /**
+     * Notify the observers of this resource that are in a batch of group members
+     * to distribute new keying material to
+     * 
+     * @param group  the rekeyed group
+     * @param version  the version of the new keying material
+     * @param nodeNames  the node names of the group members in the batch
+     */
+    private void notifyBatch(GroupInfo group, int version, List<String> nodeNames) {
+    	if (!getName().equals(group.getGroupName())) {
+    		// The rekeyer is shared with other groups
+    		return;
+    	}
+    	Set<String> batch = new HashSet<>(nodeNames);
+    	changed(relation -> {
+    		try {
+    			String subject = CoapReq.getInstance(relation.getExchange().getRequest()).getSenderId();
+    			return subject != null && batch.contains(group.getGroupMemberName(subject));
+    		} catch (AceException e) {
+    			return false;
+    		}
+    	});
+    }
 
     @Override
     public void handleGET(CoapExchange exchange) {
@@ -123,6 +177,8 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
         	return;
     	}
     	
+    	notifier.listenTo(targetedGroup);
+    	
     	String groupName = targetedGroup.getGroupName();
     	
     	// This should never happen if active groups are maintained properly
@@ -160,7 +216,26 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
     	}
         
     	// Respond to the Key Distribution Request
-        
+    	
+    	// The encoded response is reused until the group changes
+    	byte[] responsePayload = targetedGroup.getEncodedResponse("key", () -> encodeKeyResponse(targetedGroup));
+    	
+    	Response coapResponse = new Response(CoAP.ResponseCode.CONTENT);
+    	coapResponse.setPayload(responsePayload);
+    	coapResponse.getOptions().setContentFormat(Constants.APPLICATION_ACE_GROUPCOMM_CBOR);
+
+    	exchange.respond(coapResponse);
+
+    }
+    
+    /**
+     * Build and encode the response to a Key Distribution Request
+     * 
+     * @param targetedGroup  the OSCORE group
+     * @return  the encoded response
+     */
+    private static byte[] encodeKeyResponse(final GroupInfo targetedGroup) {
+    	
     	CBORObject myResponse = CBORObject.NewMap();
     	
     	// Key Type Value assigned to the Group_OSCORE_Input_Material object.
@@ -202,14 +277,8 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
     	// derived from the 'k' parameter is not valid anymore.
     	myResponse.Add(GroupcommParameters.EXP, CBORObject.FromObject(2682374400L));
 
-    	byte[] responsePayload = myResponse.EncodeToBytes();
+    	return myResponse.EncodeToBytes();
     	
-    	Response coapResponse = new Response(CoAP.ResponseCode.CONTENT);
-    	coapResponse.setPayload(responsePayload);
-    	coapResponse.getOptions().setContentFormat(Constants.APPLICATION_ACE_GROUPCOMM_CBOR);
-
-    	exchange.respond(coapResponse);
-
     }
     
     @Override
@@ -243,7 +312,7 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
         	// the Client's private key in the next Join Request
     	    CBORObject responseMap = CBORObject.NewMap();
             byte[] rsnonce = new byte[8];
-            new SecureRandom().nextBytes(rsnonce);
+            Randomness.nextBytes(rsnonce);
             responseMap.Add(GroupcommParameters.KDCCHALLENGE, rsnonce);
             TokenRepository.getInstance().setRsnonce(subject, Base64.getEncoder().encodeToString(rsnonce));
             byte[] responsePayload = responseMap.EncodeToBytes();
@@ -893,7 +962,7 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
     	actions.add(Constants.DELETE);
     	myScopes.get(rootGroupMembershipResourcePath + "/" + groupName)
     	        .put(rootGroupMembershipResourcePath + "/" + groupName + "/nodes/" + nodeName, actions);
-    	Resource nodeCoAPResource = new GroupOSCORESubResourceNodename(nodeName, existingGroupInfo);
+    	Resource nodeCoAPResource = new GroupOSCORESubResourceNodename(nodeName, existingGroupInfo, this.rekeyer);
     	this.getChild("nodes").add(nodeCoAPResource);
     	
     	actions = new HashSet<>();
@@ -1031,7 +1100,7 @@ public class GroupOSCOREGroupMembershipResource extends CoapResource {
     	
     	// Authentication Credential of the Group Manager together with proof-of-possession evidence
     	byte[] kdcNonce = new byte[8];
-    	new SecureRandom().nextBytes(kdcNonce);
+    	Randomness.nextBytes(kdcNonce);
     	joinResponse.Add(GroupcommParameters.KDC_NONCE, kdcNonce);
     	
     	CBORObject authCred = CBORObject.FromObject(targetedGroup.getGmAuthCred());
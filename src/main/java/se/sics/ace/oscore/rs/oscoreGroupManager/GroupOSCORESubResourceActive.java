@@ -48,6 +48,7 @@ import se.sics.ace.GroupcommErrors;
 import se.sics.ace.GroupcommParameters;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.GroupInfoListener;
 
 /**
  * Definition of the Group OSCORE group-membership sub-resource /active
@@ -56,6 +57,8 @@ public class GroupOSCORESubResourceActive extends CoapResource {
 	
 	private Map<String, GroupInfo> existingGroupInfo = new HashMap<>();
 	
+	private final GroupChangeNotifier notifier; // Notifies the observers of this resource when the group changes
+	
 	/**
      * Constructor
      * @param resId  the resource identifier
@@ -70,6 +73,7 @@ public class GroupOSCORESubResourceActive extends CoapResource {
         getAttributes().setTitle("Group OSCORE Group-Membership Sub-Resource \"active\" " + resId);
         
         this.existingGroupInfo = existingGroupInfo;
+        this.notifier = new GroupChangeNotifier(this, GroupInfoListener.Event.STATUS);
         
     }
 
@@ -88,6 +92,8 @@ public class GroupOSCORESubResourceActive extends CoapResource {
         	return;
     	}
     	
+    	notifier.listenTo(targetedGroup);
+    	
     	String groupName = targetedGroup.getGroupName();
     	
     	// This should never happen if active groups are maintained properly
@@ -32,6 +32,7 @@
 package se.sics.ace.oscore.rs.oscoreGroupManager;
 
 import java.nio.ByteBuffer;
+import java.util.Base64;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -52,6 +53,7 @@ import se.sics.ace.GroupcommParameters;
 import se.sics.ace.Util;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.GroupInfoListener;
 
 /**
  * Definition of the Group OSCORE group-membership sub-resource /creds
@@ -60,6 +62,8 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
 	
 	private Map<String, GroupInfo> existingGroupInfo = new HashMap<>();
 	
+	private final GroupChangeNotifier notifier; // Notifies the observers of this resource when the group changes
+	
 	/**
      * Constructor
      * @param resId  the resource identifier
@@ -74,6 +78,7 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
         getAttributes().setTitle("Group OSCORE Group-Membership Sub-Resource \"creds\" " + resId);
         
         this.existingGroupInfo = existingGroupInfo;
+        this.notifier = new GroupChangeNotifier(this, GroupInfoListener.Event.CREDS);
         
     }
 
@@ -92,6 +97,8 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
         	return;
     	}
     	
+    	notifier.listenTo(targetedGroup);
+    	
     	String groupName = targetedGroup.getGroupName();
     	
     	// This should never happen if active groups are maintained properly
@@ -155,39 +162,9 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
     	}
         
     	// Respond to the Authentication Credential Request
-        
-    	CBORObject myResponse = CBORObject.NewMap();
     	
-    	CBORObject authCredsArray = CBORObject.NewArray();        	
-		CBORObject peerRoles = CBORObject.NewArray();
-		CBORObject peerIdentifiers = CBORObject.NewArray();
-		
-		Map<CBORObject, CBORObject> authCreds = targetedGroup.getAuthCreds();
-		
-		for (CBORObject sid : authCreds.keySet()) {
-			
-			// This should never happen; silently ignore
-			if (authCreds.get(sid) == null)
-				continue;
-			
-			byte[] peerSenderId = sid.GetByteString();
-			// This should never happen; silently ignore
-			if (peerSenderId == null)
-				continue;
-			
-			authCredsArray.Add(authCreds.get(sid));
-			peerRoles.Add(targetedGroup.getGroupMemberRoles(peerSenderId));
-			peerIdentifiers.Add(peerSenderId);
-			
-		}
-		
-		myResponse.Add(GroupcommParameters.NUM, CBORObject.FromObject(targetedGroup.getVersion()));
-
-		myResponse.Add(GroupcommParameters.CREDS, authCredsArray);			
-		myResponse.Add(GroupcommParameters.PEER_ROLES, peerRoles);
-		myResponse.Add(GroupcommParameters.PEER_IDENTIFIERS, peerIdentifiers);
-
-    	byte[] responsePayload = myResponse.EncodeToBytes();
+    	// The encoded response is reused until the group changes
+    	byte[] responsePayload = targetedGroup.getEncodedResponse("creds", () -> encodeCreds(targetedGroup, CBORObject.Null));
     	
     	Response coapResponse = new Response(CoAP.ResponseCode.CONTENT);
     	coapResponse.setPayload(responsePayload);
@@ -212,6 +189,8 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
         	return;
     	}
     	
+    	notifier.listenTo(targetedGroup);
+    	
     	String groupName = targetedGroup.getGroupName();
     	
     	// This should never happen if active groups are maintained properly
@@ -368,7 +347,30 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
 		
 		
     	// Respond to the Authentication Credential Request
-        
+    	
+    	// The encoded response is reused until the group changes
+    	String key = getCreds.equals(CBORObject.Null) ? "creds" :
+    				 "creds:" + Base64.getEncoder().encodeToString(getCreds.EncodeToBytes());
+    	byte[] responsePayload = targetedGroup.getEncodedResponse(key, () -> encodeCreds(targetedGroup, getCreds));
+    	
+    	Response coapResponse = new Response(CoAP.ResponseCode.CONTENT);
+    	coapResponse.setPayload(responsePayload);
+    	coapResponse.getOptions().setContentFormat(Constants.APPLICATION_ACE_GROUPCOMM_CBOR);
+
+    	exchange.respond(coapResponse);
+
+    }
+    
+    /**
+     * Build and encode the response to an Authentication Credential Request
+     * 
+     * @param targetedGroup  the OSCORE group
+     * @param getCreds  the 'get_creds' parameter of the request, or the CBOR simple value Null
+     *                  for the authentication credentials of all the group members
+     * @return  the encoded response
+     */
+    private static byte[] encodeCreds(final GroupInfo targetedGroup, final CBORObject getCreds) {
+    	
     	CBORObject myResponse = CBORObject.NewMap();
     	
     	CBORObject authCredsArray = CBORObject.NewArray();
@@ -495,14 +497,8 @@ public class GroupOSCORESubResourceCreds extends CoapResource {
 		myResponse.Add(GroupcommParameters.PEER_ROLES, peerRoles);
 		myResponse.Add(GroupcommParameters.PEER_IDENTIFIERS, peerIdentifiers);
     	
-    	byte[] responsePayload = myResponse.EncodeToBytes();
+    	return myResponse.EncodeToBytes();
     	
-    	Response coapResponse = new Response(CoAP.ResponseCode.CONTENT);
-    	coapResponse.setPayload(responsePayload);
-    	coapResponse.getOptions().setContentFormat(Constants.APPLICATION_ACE_GROUPCOMM_CBOR);
-
-    	exchange.respond(coapResponse);
-
     }
     
 }
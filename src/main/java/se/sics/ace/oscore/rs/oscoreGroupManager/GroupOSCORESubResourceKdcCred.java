@@ -32,7 +32,6 @@
 package se.sics.ace.oscore.rs.oscoreGroupManager;
 
 import java.security.PrivateKey;
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
@@ -52,6 +51,7 @@ import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.GroupcommErrors;
 import se.sics.ace.GroupcommParameters;
+import se.sics.ace.Randomness;
 import se.sics.ace.Util;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.oscore.GroupInfo;
@@ -180,7 +180,7 @@ public class GroupOSCORESubResourceKdcCred extends CoapResource {
 		
 		// Authentication Credential of the Group Manager together with proof-of-possession evidence
     	byte[] kdcNonce = new byte[8];
-    	new SecureRandom().nextBytes(kdcNonce);
+    	Randomness.nextBytes(kdcNonce);
     	myResponse.Add(GroupcommParameters.KDC_NONCE, kdcNonce);
     	
     	CBORObject authCred = CBORObject.FromObject(targetedGroup.getGmAuthCred());
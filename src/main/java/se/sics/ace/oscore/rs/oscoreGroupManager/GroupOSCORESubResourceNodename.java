@@ -60,6 +60,8 @@ public class GroupOSCORESubResourceNodename extends CoapResource {
 	
 	private Map<String, GroupInfo> existingGroupInfo = new HashMap<>();
 	
+	private GroupRekeyer rekeyer = null; // Rekeys the group when the member leaves, or null for no rekeying
+	
 	/**
      * Constructor
      * @param resId  the resource identifier
@@ -67,6 +69,19 @@ public class GroupOSCORESubResourceNodename extends CoapResource {
      */
     public GroupOSCORESubResourceNodename(String resId, Map<String, GroupInfo> existingGroupInfo) {
         
+        this(resId, existingGroupInfo, null);
+        
+    }
+    
+	/**
+     * Constructor
+     * @param resId  the resource identifier
+     * @param existingGroupInfo  the set of information of the existing OSCORE groups
+     * @param rekeyer  the rekeyer to use when the member leaves the group, or null for not rekeying the group
+     */
+    public GroupOSCORESubResourceNodename(String resId, Map<String, GroupInfo> existingGroupInfo,
+    									  GroupRekeyer rekeyer) {
+        
         // set resource identifier
         super(resId);
         
@@ -74,6 +89,7 @@ public class GroupOSCORESubResourceNodename extends CoapResource {
         getAttributes().setTitle("Group OSCORE Group-Membership Sub-Resource \"nodes/NODENAME\" " + resId);
         
         this.existingGroupInfo = existingGroupInfo;
+        this.rekeyer = rekeyer;
         
     }
 
@@ -405,6 +421,12 @@ public class GroupOSCORESubResourceNodename extends CoapResource {
     	
     	targetedGroup.removeGroupMemberBySubject(subject);
     	
+    	// Rekey the group, so that the leaving node cannot read future messages.
+    	// Leaves within the same time window are coalesced into a single rekeying.
+    	if (this.rekeyer != null) {
+    		this.rekeyer.scheduleRekey(targetedGroup);
+    	}
+    	
     	// Respond to the Group Leaving Request
         
     	Response coapResponse = new Response(CoAP.ResponseCode.DELETED);
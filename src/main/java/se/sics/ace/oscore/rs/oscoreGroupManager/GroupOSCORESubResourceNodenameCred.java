@@ -32,7 +32,6 @@
 package se.sics.ace.oscore.rs.oscoreGroupManager;
 
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Map;
@@ -55,6 +54,7 @@ import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.GroupcommErrors;
 import se.sics.ace.GroupcommParameters;
+import se.sics.ace.Randomness;
 import se.sics.ace.Util;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.oscore.GroupInfo;
@@ -384,7 +384,7 @@ public class GroupOSCORESubResourceNodenameCred extends CoapResource {
         	// Return an error response, with a new nonce for PoP of the Client's private key
     	    CBORObject responseMap = CBORObject.NewMap();
             byte[] rsnonce = new byte[8];
-            new SecureRandom().nextBytes(rsnonce);
+            Randomness.nextBytes(rsnonce);
             responseMap.Add(GroupcommParameters.KDCCHALLENGE, rsnonce);
             TokenRepository.getInstance().setRsnonce(subject, Base64.getEncoder().encodeToString(rsnonce));
             byte[] responsePayload = responseMap.EncodeToBytes();
@@ -51,6 +51,7 @@ import se.sics.ace.GroupcommErrors;
 import se.sics.ace.GroupcommParameters;
 import se.sics.ace.coap.CoapReq;
 import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.GroupInfoListener;
 
 /**
  * Definition of the Group OSCORE group-membership sub-resource /stale-sids
@@ -59,6 +60,8 @@ public class GroupOSCORESubResourceStaleSids extends CoapResource {
 	
 	private Map<String, GroupInfo> existingGroupInfo = new HashMap<>();
 	
+	private final GroupChangeNotifier notifier; // Notifies the observers of this resource when the group changes
+	
 	/**
      * Constructor
      * @param resId  the resource identifier
@@ -73,6 +76,7 @@ public class GroupOSCORESubResourceStaleSids extends CoapResource {
         getAttributes().setTitle("Group OSCORE Group-Membership Sub-Resource \"stale-sids\" " + resId);
         
         this.existingGroupInfo = existingGroupInfo;
+        this.notifier = new GroupChangeNotifier(this, GroupInfoListener.Event.VERSION, GroupInfoListener.Event.CREDS);
         
     }
 
@@ -91,6 +95,8 @@ public class GroupOSCORESubResourceStaleSids extends CoapResource {
         	return;
     	}
     	
+    	notifier.listenTo(targetedGroup);
+    	
     	String groupName = targetedGroup.getGroupName();
     	
     	// This should never happen if existing groups are maintained properly
@@ -0,0 +1,358 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.rs.oscoreGroupManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import se.sics.ace.Randomness;
+import se.sics.ace.oscore.GroupInfo;
+
+/**
+ * Rekeys OSCORE groups and distributes the new keying material to the
+ * current group members.
+ * 
+ * Rekeying a group generates a new Master Secret and Master Salt, increments
+ * the Epoch of the Group ID and the version of the keying material, and
+ * starts a new set of stale Sender IDs.
+ * 
+ * Rekeys requested with scheduleRekey() are delayed by a time window, and
+ * all the requests for the same group within that window result in a single
+ * rekey. This way a large group is not rekeyed on every departure. 
+ * 
+ * After a rekey the node names of the current group members are handed over 
+ * to the registered RekeyListeners in batches, one batch per batch interval. 
+ * Batches for a version that has been superseded by a newer rekey are 
+ * dropped, since the newer rekey distributes its own keying material.
+ * 
+ * Rekeys made with the static rekey() or run by close() are not 
+ * distributed. GroupInfoListeners are notified of the VERSION change of 
+ * these as for any other change, and can check isDistributing() to skip 
+ * the VERSION change of the rekeys that are distributed.
+ *
+ */
+public class GroupRekeyer implements AutoCloseable {
+
+    /**
+     * The logger
+     */
+    private static final Logger LOGGER 
+        = Logger.getLogger(GroupRekeyer.class.getName());
+    
+    /**
+     * The default time window in milliseconds for coalescing rekeys
+     */
+    public static final long DEFAULT_WINDOW = 5000L;
+    
+    /**
+     * The default number of group members per distribution batch
+     */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    
+    /**
+     * The default time in milliseconds between two distribution batches
+     */
+    public static final long DEFAULT_BATCH_INTERVAL = 100L;
+    
+    /**
+     * The time window in milliseconds for coalescing rekeys
+     */
+    private final long window;
+    
+    /**
+     * The number of group members per distribution batch
+     */
+    private final int batchSize;
+    
+    /**
+     * The time in milliseconds between two distribution batches
+     */
+    private final long batchInterval;
+    
+    /**
+     * The listeners distributing the new keying material
+     */
+    private final List<RekeyListener> listeners 
+        = new CopyOnWriteArrayList<>();
+    
+    /**
+     * The groups with a scheduled rekey, by group name.
+     * Guarded by itself.
+     */
+    private final Map<String, GroupInfo> pending = new HashMap<>();
+    
+    /**
+     * The groups being rekeyed for distributing the new keying material.
+     * A group is only in this set while its lock is held.
+     */
+    private final Set<GroupInfo> distributing = ConcurrentHashMap.newKeySet();
+    
+    /**
+     * The thread running the scheduled rekeys and the distribution batches
+     */
+    private final ScheduledExecutorService executor 
+        = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "GroupRekeyer-rekey");
+            t.setDaemon(true);
+            return t;
+        });
+    
+    /**
+     * Constructor using the default time window and batches.
+     */
+    public GroupRekeyer() {
+        this(DEFAULT_WINDOW, DEFAULT_BATCH_SIZE, DEFAULT_BATCH_INTERVAL);
+    }
+    
+    /**
+     * Constructor.
+     * 
+     * @param window  the time window in milliseconds for coalescing rekeys
+     * @param batchSize  the number of group members per distribution batch
+     * @param batchInterval  the time in milliseconds between two 
+     *     distribution batches
+     */
+    public GroupRekeyer(long window, int batchSize, long batchInterval) {
+        if (window < 0 || batchSize < 1 || batchInterval < 0) {
+            throw new IllegalArgumentException(
+                    "Invalid rekeying window or batch parameters");
+        }
+        this.window = window;
+        this.batchSize = batchSize;
+        this.batchInterval = batchInterval;
+    }
+    
+    /**
+     * Add a listener distributing the new keying material.
+     * 
+     * @param listener  the listener
+     */
+    public void addListener(RekeyListener listener) {
+        this.listeners.add(listener);
+    }
+    
+    /**
+     * Remove a listener distributing the new keying material.
+     * 
+     * @param listener  the listener
+     */
+    public void removeListener(RekeyListener listener) {
+        this.listeners.remove(listener);
+    }
+    
+    /**
+     * Schedule a rekey of a group at the end of the time window. Does 
+     * nothing if a rekey of the group is already scheduled.
+     * 
+     * @param group  the group to rekey
+     */
+    public void scheduleRekey(GroupInfo group) {
+        String name = group.getGroupName();
+        synchronized (this.pending) {
+            if (this.pending.put(name, group) != null) {
+                return;
+            }
+        }
+        try {
+            this.executor.schedule(() -> runPending(name), 
+                    this.window, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed, rekey without distributing the keying material
+            runPending(name);
+        }
+    }
+    
+    /**
+     * Rekey a group now and distribute the new keying material. This 
+     * replaces a scheduled rekey of the group, if any.
+     * 
+     * @param group  the group to rekey
+     */
+    public void rekeyNow(GroupInfo group) {
+        synchronized (this.pending) {
+            this.pending.remove(group.getGroupName(), group);
+        }
+        distribute(group, rekeyForDistribution(group));
+    }
+    
+    /**
+     * Check if a group is being rekeyed by this rekeyer, which distributes
+     * the new keying material to its listeners in batches.
+     * 
+     * @param group  the group
+     * @return  true if the group is being rekeyed for distribution
+     */
+    public boolean isDistributing(GroupInfo group) {
+        return this.distributing.contains(group);
+    }
+    
+    /**
+     * Rekey a group, marking it as rekeyed for distribution meanwhile.
+     * 
+     * @param group  the group to rekey
+     * @return  the version of the new keying material
+     */
+    private int rekeyForDistribution(GroupInfo group) {
+        synchronized (group) {
+            this.distributing.add(group);
+            try {
+                return rekey(group);
+            } finally {
+                this.distributing.remove(group);
+            }
+        }
+    }
+    
+    /**
+     * Rekey a group, without distributing the new keying material.
+     * 
+     * @param group  the group to rekey
+     * @return  the version of the new keying material
+     */
+    public static int rekey(GroupInfo group) {
+        synchronized (group) {
+            byte[] masterSecret 
+                = new byte[group.getMasterSecret().length];
+            Randomness.nextBytes(masterSecret);
+            byte[] masterSalt = new byte[group.getMasterSalt().length];
+            Randomness.nextBytes(masterSalt);
+            if (!group.rekey(masterSecret, masterSalt)) {
+                LOGGER.warning("The Epoch of the Group ID of group " 
+                        + group.getGroupName() + " wrapped around, the "
+                        + "Group ID values are reused from now on");
+            }
+            return group.getVersion();
+        }
+    }
+    
+    /**
+     * Run the scheduled rekey of a group.
+     * 
+     * @param name  the name of the group
+     */
+    private void runPending(String name) {
+        GroupInfo group;
+        synchronized (this.pending) {
+            group = this.pending.remove(name);
+        }
+        if (group == null) {
+            // The group was rekeyed in the meantime
+            return;
+        }
+        try {
+            distribute(group, rekeyForDistribution(group));
+        } catch (RuntimeException e) {
+            LOGGER.severe("Error while rekeying group " + name + ": " 
+                    + e.getMessage());
+        }
+    }
+    
+    /**
+     * Hand over the current group members to the listeners in batches.
+     * 
+     * @param group  the rekeyed group
+     * @param version  the version of the new keying material
+     */
+    private void distribute(GroupInfo group, int version) {
+        if (this.listeners.isEmpty()) {
+            return;
+        }
+        List<String> members = new ArrayList<>(group.getGroupMemberNames());
+        for (int i = 0; i < members.size(); i += this.batchSize) {
+            List<String> batch = members.subList(i, 
+                    Math.min(i + this.batchSize, members.size()));
+            long delay = (i / this.batchSize) * this.batchInterval;
+            if (delay == 0) {
+                sendBatch(group, version, batch);
+                continue;
+            }
+            try {
+                this.executor.schedule(
+                        () -> sendBatch(group, version, batch), 
+                        delay, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // Closed, hand over the remaining members right away
+                sendBatch(group, version, batch);
+            }
+        }
+    }
+    
+    /**
+     * Hand over one batch of group members to the listeners, unless the 
+     * group has been rekeyed again.
+     * 
+     * @param group  the rekeyed group
+     * @param version  the version of the new keying material
+     * @param batch  the node names of the group members in the batch
+     */
+    private void sendBatch(GroupInfo group, int version, List<String> batch) {
+        if (group.getVersion() != version) {
+            return;
+        }
+        for (RekeyListener listener : this.listeners) {
+            try {
+                listener.rekeyed(group, version, batch);
+            } catch (RuntimeException e) {
+                LOGGER.severe("Error while distributing keying material of "
+                        + "group " + group.getGroupName() + ": " 
+                        + e.getMessage());
+            }
+        }
+    }
+    
+    /**
+     * Run the scheduled rekeys now, so that departed members do not keep 
+     * access to the groups, and stop distributing keying material. 
+     */
+    @Override
+    public void close() {
+        List<GroupInfo> groups;
+        synchronized (this.pending) {
+            groups = new ArrayList<>(this.pending.values());
+            this.pending.clear();
+        }
+        this.executor.shutdownNow();
+        for (GroupInfo group : groups) {
+            rekey(group);
+        }
+    }
+}
@@ -31,10 +31,12 @@
  *******************************************************************************/
 package se.sics.ace.rs;
 
+import java.io.ByteArrayOutputStream;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
 import java.util.Base64;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 import org.eclipse.californium.core.coap.Request;
@@ -73,6 +75,50 @@ public class AsRequestCreationHints {
      */
     private boolean createNonce;
     
+    /**
+     * The maximum number of cached hints templates
+     */
+    private static final int MAX_TEMPLATES = 1024;
+    
+    /**
+     * The encoded KID key
+     */
+    private static final byte[] kidKey 
+        = CBORObject.FromObject(Constants.KID).EncodeToBytes();
+    
+    /**
+     * The encoded CNONCE key
+     */
+    private static final byte[] cnonceKey 
+        = CBORObject.FromObject(Constants.CNONCE).EncodeToBytes();
+    
+    /**
+     * The hints entries that are the same for each request, by action and 
+     * resource. The first byte is the number of entries, followed by the 
+     * encoded entries. The least recently used are evicted first.
+     */
+    private final Map<String, byte[]> templates 
+        = new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+            @Override
+            protected boolean removeEldestEntry(
+                    Map.Entry<String, byte[]> eldest) {
+                // Do not let requests to arbitrary resources fill the memory
+                return size() > MAX_TEMPLATES;
+            }
+        };
+    
+    /**
+     * The token repository the cached scopes were taken from
+     */
+    private TokenRepository templatesRepository = null;
+    
+    /**
+     * Incremented each time the cached templates are invalidated, so that
+     * templates built before are not cached
+     */
+    private long templatesGeneration = 0;
+    
 
     /**
      * Constructor. Specifies which parameters are to be included in a AsRequestCreationHints
@@ -149,6 +195,137 @@ public class AsRequestCreationHints {
         return cbor;
     }
 
+    /**
+     * Create the encoded AS Request Creation Hints based on the 
+     * configuration of this class. This gives the same hints as 
+     * <code>getHints()</code>, but only encodes the kid and cnonce per 
+     * request, the other entries are cached per resource and action.
+     * 
+     * Note: The token repository must have been initialized 
+     * before calling this.
+     * 
+     * @param req  the client's request
+     * @param kid  the kid linked to a the key used in the secure connection
+     *  with the client, null if we don't have a secure connection
+     *  
+     * @return  the encoded AS Request Creation Hints
+     * @throws AceException   if the TokenRepository is not initialized
+     * @throws InvalidKeyException  if the nonce creation fails
+     * @throws NoSuchAlgorithmException  if the nonce creation fails
+     */
+    public byte[] getEncodedHints(Request req, String kid) 
+            throws InvalidKeyException, NoSuchAlgorithmException, AceException {
+        byte[] template = getTemplate(req);
+        int count = template[0];
+        byte[] kidB = null;
+        if (kid != null) {
+            kidB = CBORObject.FromObject(
+                    Base64.getDecoder().decode(kid)).EncodeToBytes();
+            count++;
+        }
+        byte[] cnonceB = null;
+        if (this.createNonce) {
+            cnonceB = CBORObject.FromObject(
+                    CnonceHandler.getInstance().createNonce()).EncodeToBytes();
+            count++;
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                template.length + 64 + (kidB == null ? 0 : kidB.length));
+        out.write(0xA0 | count); // Map with less than 24 entries
+        out.write(template, 1, template.length-1);
+        if (kidB != null) {
+            out.write(kidKey, 0, kidKey.length);
+            out.write(kidB, 0, kidB.length);
+        }
+        if (cnonceB != null) {
+            out.write(cnonceKey, 0, cnonceKey.length);
+            out.write(cnonceB, 0, cnonceB.length);
+        }
+        return out.toByteArray();
+    }
+    
+    /**
+     * Drop the cached hints entries. This must be called when the scopes
+     * needed to access the resources change. Replacing the TokenRepository
+     * invalidates the cached entries automatically.
+     */
+    public void invalidate() {
+        synchronized (this.templates) {
+            this.templates.clear();
+            this.templatesGeneration++;
+        }
+    }
+    
+    /**
+     * Get the cached hints entries that are the same for each request to 
+     * the resource and action of this request.
+     * 
+     * @param req  the client's request
+     * 
+     * @return  the number of entries followed by the encoded entries
+     * @throws AceException   if the TokenRepository is not initialized
+     */
+    private byte[] getTemplate(Request req) throws AceException {
+        String key = "";
+        TokenRepository repository = null;
+        if (this.includeScope) {
+            if (req == null) {
+                throw new IllegalArgumentException("Request"
+                        + " must both be non-null for scope creation");
+            }
+            key = req.getCode().value + " " 
+                    + req.getOptions().getUriPathString();
+            repository = TokenRepository.getInstance();
+            if (repository == null) {
+                throw new AceException("TokenRepository not initialized");
+            }
+        }
+        byte[] template;
+        long generation;
+        synchronized (this.templates) {
+            if (this.includeScope 
+                    && repository != this.templatesRepository) {
+                this.templates.clear();
+                this.templatesGeneration++;
+                this.templatesRepository = repository;
+            }
+            template = this.templates.get(key);
+            generation = this.templatesGeneration;
+        }
+        if (template != null) {
+            return template;
+        }
+        
+        CBORObject cbor = CBORObject.NewMap();
+        cbor.Add(Constants.AS, this.asUri);
+        if (this.includeScope) {
+            String resource = req.getOptions().getUriPathString();
+            short action = (short) req.getCode().value;  
+            cbor.Add(Constants.SCOPE, repository.getScope(resource, action));
+        }
+        if (this.aud != null) {
+            cbor.Add(Constants.AUDIENCE, this.aud);
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(cbor.size());
+        for (CBORObject k : cbor.getKeys()) {
+            byte[] kB = k.EncodeToBytes();
+            byte[] vB = cbor.get(k).EncodeToBytes();
+            out.write(kB, 0, kB.length);
+            out.write(vB, 0, vB.length);
+        }
+        template = out.toByteArray();
+        
+        synchronized (this.templates) {
+            if (generation == this.templatesGeneration) {
+                this.templates.put(key, template);
+            }
+        }
+        return template;
+    }
+
     /**
      * Parse a CBOR object containing AS Request Creation Hints to a Map.
      * 
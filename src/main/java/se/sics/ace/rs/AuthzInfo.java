@@ -36,10 +36,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Base64;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -54,6 +52,7 @@ import COSE.CoseException;
 import se.sics.ace.AceException;
 import se.sics.ace.Constants;
 import se.sics.ace.Endpoint;
+import se.sics.ace.IdAllocator;
 import se.sics.ace.Message;
 import se.sics.ace.TimeProvider;
 import se.sics.ace.Util;
@@ -111,10 +110,9 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
 	private boolean checkCnonce;
 	
 	/**
-	 * Each set of the list refers to a different size of Recipient IDs.
-	 * The element with index 0 includes as elements Recipient IDs with size 1 byte.
+	 * The Recipient IDs in use, tracked separately for each size of Recipient IDs.
 	 */
-	private static List<Set<Integer>> usedRecipientIds = new ArrayList<Set<Integer>>();
+	private static final IdAllocator usedRecipientIds = new IdAllocator();
 	
 	/**
 	 * Constructor. Needs an initialized TokenRepository.
@@ -148,17 +146,25 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
 		this.audience = audience;
 		this.ctx = ctx;
 		this.checkCnonce = checkCnonce;
-		
-    	for (int i = 0; i < 4; i++) {
-        	// Empty sets of assigned Sender IDs; one set for each possible Sender ID size in bytes.
-        	// The set with index 0 refers to Sender IDs with size 1 byte
-    		usedRecipientIds.add(new HashSet<Integer>());
-    	}
-    	
+	}
+	
+	/**
+	 * Mark a Recipient ID as available again, after the OSCORE Security 
+	 * Context using it has been removed.
+	 * 
+	 * @param recipientId  the Recipient ID
+	 */
+	static void releaseRecipientId(byte[] recipientId) {
+		if (recipientId == null || recipientId.length < 1 
+				|| recipientId.length > 4) {
+			return;
+		}
+		usedRecipientIds.release(Util.bytesToInt(recipientId), 
+				recipientId.length);
 	}
 
 	@Override
-	public synchronized Message processMessage(Message msg) {
+	public Message processMessage(Message msg) {
 	    LOGGER.log(Level.INFO, "received message: " + msg);
 	    CBORObject token = null;
 	    try {
@@ -188,7 +194,7 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
 
 	}
 	
-	protected synchronized Message processToken(CBORObject token,  Message msg) {
+	protected Message processToken(CBORObject token,  Message msg) {
 	    Map<Short, CBORObject> claims = null;
 	    
         byte[] recipientId = null;
@@ -440,79 +446,62 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
 	    	
 	        OSCoreCtxDB db = OscoreCtxDbSingleton.getInstance();
 	        
-	        // Determine an available Recipient ID to offer to the Client as ID2 (i.e., as Client's Sender ID)
-	        synchronized(usedRecipientIds) {
-	        	synchronized(db) {
+	        // Determine an available Recipient ID to offer to the Client as ID2 (i.e., as Client's Sender ID).
+	        // The database is thread-safe and each allocation of a Recipient ID is atomic, which is what
+	        // keeps concurrent Token POSTs from selecting the same one
+	        byte[] contextId = new byte[0];
+	        if (cnf.get(Constants.OSCORE_Input_Material).ContainsKey(Constants.OS_CONTEXTID)) {
+	        	contextId = cnf.get(Constants.OSCORE_Input_Material).get(Constants.OS_CONTEXTID).GetByteString();
+	        }
+	        
+	        // The identifier offered by the Client, if it was allocated as a candidate
+	        int clientIdValue = -1;
+	        
+	        // Start with 1 byte as size of Recipient ID; try with up to 4 bytes in size
+	        for (int idSize = 1; idSize <= 4 && !recipientIdFound; idSize++) {
 	        	
-		        	int maxIdValue;
-		        	
-	    			byte[] contextId = new byte[0];
-	    			if (cnf.get(Constants.OSCORE_Input_Material).ContainsKey(Constants.OS_CONTEXTID)) {
-	    				contextId = cnf.get(Constants.OSCORE_Input_Material).get(Constants.OS_CONTEXTID).GetByteString();
-	    			}
-		        	
-			        // Start with 1 byte as size of Recipient ID; try with up to 4 bytes in size        
-			        for (int idSize = 1; idSize <= 4; idSize++) {
-			        	
-			        	if (idSize == 4)
-			        		maxIdValue = (1 << 31) - 1;
-			        	else
-			        		maxIdValue = (1 << (idSize * 8)) - 1;
-			        	
-				        for (int j = 0; j <= maxIdValue; j++) {
-				        	
-		        			recipientId = Util.intToBytes(j, idSize);
-		        			
-		        			// The Recipient ID must be different than what offered by the Client in the 'id1' parameter
-		        			if(Arrays.equals(senderId, recipientId))
-		        				continue;
-		        			
-		        			// This Recipient ID is marked as not available to use
-		        			if (usedRecipientIds.get(idSize - 1).contains(j))
-		        				continue;
-		        			
-		        			try {
-					        	// This Recipient ID seems to be available to use 
-				        		if (!usedRecipientIds.get(idSize - 1).contains(j)) {
-				        			
-				        			// Double check in the database of OSCORE Security Contexts
-				        			if (db.getContext(recipientId,  contextId) != null) {
-				        				
-				        				// A Security Context with this Recipient ID exists and was not tracked!
-				        				// Update the local list of used Recipient IDs, then move on to the next candidate
-				        				usedRecipientIds.get(idSize - 1).add(j);
-				        				continue;
-				        				
-				        			}
-				        			else {
-				        				
-				        				// This Recipient ID is actually available at the moment. Add it to the local list
-				        				usedRecipientIds.get(idSize - 1).add(j);
-				        				recipientIdFound = true;
-				        				break;
-				        			}
-				        			
-				        		}
-		        			}
-			        		catch(RuntimeException e) {
-		        				// Multiple Security Contexts with this Recipient ID exist and it was not tracked!
-		        				// Update the local list of used Recipient IDs, then move on to the next candidate
-		        				usedRecipientIds.get(idSize - 1).add(j);
-		        				continue;
-			        		} catch (CoapOSException e) {
-			    		        LOGGER.severe("Error while accessing the database of OSCORE Security Contexts");
-			    	            return msg.failReply(Message.FAIL_INTERNAL_SERVER_ERROR, null);
-							}
-			        			
-				        }
-				        
-				        if (recipientIdFound)
-				        	break;
-				        	
-			        }
+	        	// Candidates come in increasing order, the lowest one available first
+	        	int j;
+	        	while ((j = usedRecipientIds.allocate(idSize)) >= 0) {
+	        		
+	        		recipientId = Util.intToBytes(j, idSize);
+	        		
+	        		// The Recipient ID must be different than what offered by the Client in the 'id1' parameter.
+	        		// Keep it allocated until the search is over, so that it is not offered again
+	        		if (Arrays.equals(senderId, recipientId)) {
+	        			clientIdValue = j;
+	        			continue;
+	        		}
+	        		
+	        		try {
+	        			// Double check in the database of OSCORE Security Contexts
+	        			if (db.getContext(recipientId,  contextId) == null) {
+	        				// This Recipient ID is actually available at the moment
+	        				recipientIdFound = true;
+	        				break;
+	        			}
+	        			// A Security Context with this Recipient ID exists and was not tracked!
+	        			// Keep it marked as used, then move on to the next candidate
+	        		}
+	        		catch(RuntimeException e) {
+	        			// Multiple Security Contexts with this Recipient ID exist and it was not tracked!
+	        			// Keep it marked as used, then move on to the next candidate
+	        			continue;
+	        		} catch (CoapOSException e) {
+	        			usedRecipientIds.release(j, idSize);
+	        			if (clientIdValue >= 0) {
+	        				usedRecipientIds.release(clientIdValue, senderId.length);
+	        			}
+	        			LOGGER.severe("Error while accessing the database of OSCORE Security Contexts");
+	        			return msg.failReply(Message.FAIL_INTERNAL_SERVER_ERROR, null);
+	        		}
 	        	}
 	        }
 	        
+	        if (clientIdValue >= 0) {
+	        	usedRecipientIds.release(clientIdValue, senderId.length);
+	        }
+	        
 		    try {
 		    	if (!recipientIdFound) {
 		            throw new AceException("No Recipient ID available to use");
@@ -544,6 +533,10 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
             cti = TokenRepository.getInstance().addToken(token, claims, this.ctx, sid, exiSeqNum);
         } catch (AceException e) {
             LOGGER.severe("Message processing aborted: " + e.getMessage());
+            // No Security Context will use the Recipient ID allocated above
+            if (firstOscoreAccessToken) {
+                releaseRecipientId(recipientId);
+            }
             CBORObject map = CBORObject.NewMap();
             map.Add(Constants.ERROR, Constants.INVALID_REQUEST);
             map.Add(Constants.ERROR_DESCRIPTION, e.getMessage());
@@ -613,12 +606,33 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
         return msg.successReply(Message.CREATED, rep);
 	}
 	
+	/**
+	 * Get the 'cnf' claim of the token stored by a successful processToken().
+	 * 
+	 * Subclasses use this instead of keeping the claims of the token being
+	 * processed in a field, since tokens are processed concurrently.
+	 * 
+	 * @param reply  the reply of processToken()
+	 * 
+	 * @return  the 'cnf' claim or null if the token is no longer stored
+	 */
+	protected static CBORObject getStoredCnf(Message reply) {
+	    CBORObject rep = CBORObject.DecodeFromBytes(reply.getRawPayload());
+	    CBORObject cti = rep.get(CBORObject.FromObject(Constants.CTI));
+	    if (cti == null || !cti.getType().equals(CBORType.ByteString)) {
+	        return null;
+	    }
+	    Map<Short, CBORObject> claims = TokenRepository.getInstance().getClaims(
+	            Base64.getEncoder().encodeToString(cti.GetByteString()));
+	    return (claims == null) ? null : claims.get(Constants.CNF);
+	}
+	
 	/**
 	 * Extension point for handling other special claims.
 	 * 
 	 * @param claims all claims
 	 */
-	protected synchronized void processOther(Map<Short, CBORObject> claims) {
+	protected void processOther(Map<Short, CBORObject> claims) {
 	    //No processing needed
     }
 
@@ -642,7 +656,7 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
 	 * 
 	 * @throws Exception  when using a not supported key wrap
 	 */
-	protected synchronized Map<Short,CBORObject> processCWT(CBORObject token)
+	protected Map<Short,CBORObject> processCWT(CBORObject token)
 	        throws IntrospectionException, AceException, 
 	        CoseException, Exception {
 	    CWT cwt = CWT.processCOSE(token.EncodeToBytes(), this.ctx);
@@ -670,7 +684,7 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
 	 * @throws AceException
 	 * @throws IntrospectionException 
 	 */
-    protected synchronized Map<Short, CBORObject> processReferenceToken(CBORObject token)
+    protected Map<Short, CBORObject> processReferenceToken(CBORObject token)
                 throws AceException, IntrospectionException {
 		// This should be a CBOR String
         if (token.getType() != CBORType.ByteString) {
@@ -708,7 +722,7 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
      *          -3 : the 'cti' claim is present but it is not formatted as expected
      *          -4 : the Sequence Number encoded in the 'cti' claim is not greater than the stored highest Sequence Number
      */
-    private synchronized int handleExi(Map<Short, CBORObject> claims) {
+    private int handleExi(Map<Short, CBORObject> claims) {
     	
         CBORObject exi = claims.get(Constants.EXI);
         if (exi == null) {
@@ -747,7 +761,7 @@ public class AuthzInfo implements Endpoint, AutoCloseable {
      * Handle cnonce if required
      * @throws AceException 
      */
-    private synchronized void handleCnonce(Map<Short, CBORObject> claims) throws AceException {
+    private void handleCnonce(Map<Short, CBORObject> claims) throws AceException {
         if (this.checkCnonce) {
             CnonceHandler.getInstance().checkNonce(claims);
         }
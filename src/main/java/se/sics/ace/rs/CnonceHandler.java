@@ -33,10 +33,13 @@ package se.sics.ace.rs;
 
 import java.nio.ByteBuffer;
 import java.security.InvalidKeyException;
+import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.SecureRandom;
 import java.util.Arrays;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Logger;
 
 import javax.crypto.Mac;
@@ -47,11 +50,17 @@ import com.upokecenter.cbor.CBORType;
 
 import se.sics.ace.AceException;
 import se.sics.ace.Constants;
+import se.sics.ace.Randomness;
 
 /**
  * This class handles the freshness verification using client-nonces
  * (see Section 5.3.1 of RFC 9200).
  * 
+ * This class is thread-safe and does not lock. The replay window keeps 
+ * one slot per counter value in the window, holding the highest counter 
+ * accepted for that slot. Slots are only ever increased with a 
+ * compare-and-set, so each counter can be accepted at most once.
+ * 
  * @author Ludwig Seitz
  *
  */
@@ -60,7 +69,12 @@ public class CnonceHandler {
     /**
      * The singleton instance
      */
-    private static CnonceHandler singleton = null;
+    private static volatile CnonceHandler singleton = null;
+    
+    /**
+     * The maximum window size
+     */
+    public static final int MAX_WINDOW_SIZE = 65536;
     
     /**
      * The default window size
@@ -68,30 +82,25 @@ public class CnonceHandler {
     private static int defaultWindowSize = 30;
     
     /**
-     * The counter used to generate the cnonces.
-     * -1 means we don't use cnonces.
+     * The HMAC algorithm used for the cnonces
      */
-    private Integer cnonceCounter = -1;
+    private static final String HMAC_ALG = "HmacSHA256";
     
     /**
-     * The last seen nonce
+     * The current key, counter and replay window
      */
-    private int cnonceSeen;
+    private final AtomicReference<Epoch> epoch;
     
     /**
      * The size of the replay window
      */
-    private int cnonceWindowSize;
-
-    /**
-     * Cnonce replay window, 
-     */
-    private int cnonceWindow; 
+    private final int cnonceWindowSize;
     
     /**
-     * Cnonce HMAC key (32 bytes)
+     * The Mac instances of each thread
      */
-    private byte[] cnonceKey;
+    private final ThreadLocal<ThreadMac> macs 
+        = ThreadLocal.withInitial(ThreadMac::new);
    
     /**
      * The logger
@@ -101,28 +110,37 @@ public class CnonceHandler {
     
     /**
      * Create the cnonce handler.
-     * 
-     * @param cnonceReplayWindowSize  the cnonce replay window size (or null to
-     *     use the default)
      */
     protected CnonceHandler() {
-        this.cnonceCounter = 1;
-        this.cnonceSeen = 0;
-        this.cnonceKey = new byte[32];
-        SecureRandom sr = new SecureRandom();
-        sr.nextBytes(this.cnonceKey);  
-        this.cnonceWindow = 0;
-        this.cnonceWindowSize = defaultWindowSize;
+        this(defaultWindowSize);
+    }
+    
+    /**
+     * Create a cnonce handler with a given replay window size.
+     * 
+     * @param windowSize  the size of the replay window
+     */
+    protected CnonceHandler(int windowSize) {
+        if (windowSize < 0 || windowSize > MAX_WINDOW_SIZE) {
+            throw new IllegalArgumentException(
+                    "cnonceWindow size must be between 0 and " 
+                    + MAX_WINDOW_SIZE);
+        }
+        this.cnonceWindowSize = windowSize;
+        this.epoch = new AtomicReference<>(new Epoch(this.cnonceWindowSize));
     }
     
     /**
      * The singleton getter
      * @return  the singleton repository
-     * @throws AceException  if the handler is not initialized
      */
     public static CnonceHandler getInstance() {
         if (singleton == null) {
-            singleton = new CnonceHandler();
+            synchronized (CnonceHandler.class) {
+                if (singleton == null) {
+                    singleton = new CnonceHandler();
+                }
+            }
         }
         return singleton;
     }
@@ -133,14 +151,15 @@ public class CnonceHandler {
      * 
      * @param size  the size of the replay window
      */
-    public static void setDefaultWindowSize(int size) {
+    public static synchronized void setDefaultWindowSize(int size) {
         if (singleton != null) {
             throw new RuntimeException(
                     "Cannot window size after singleton was created");
         }
-        if (size < 0 || size > 32) {
+        if (size < 0 || size > MAX_WINDOW_SIZE) {
             throw new IllegalArgumentException(
-                    "cnonceWindow size must be between 0 and 32");
+                    "cnonceWindow size must be between 0 and " 
+                    + MAX_WINDOW_SIZE);
         }
         defaultWindowSize = size;
     }
@@ -152,9 +171,6 @@ public class CnonceHandler {
      * @throws AceException 
      */
     public void checkNonce(Map<Short, CBORObject> claims) throws AceException {
-        if (this.cnonceCounter == -1) {//Means we are not using the client nonces
-            return;
-        }
         CBORObject cnonce = claims.get(Constants.CNONCE);
         if (cnonce == null) {
             LOGGER.info("Expected a cnonce but found none");
@@ -165,66 +181,64 @@ public class CnonceHandler {
             throw new AceException("Invalid cnonce type");
         }
         byte[] cnonceB = cnonce.GetByteString();
-        if (cnonceB.length != 4+32) {//4 byte for the int counter, 16 bytes HMAC
+        if (cnonceB.length != 4+32) {//4 byte for the int counter, 32 bytes HMAC
             throw new AceException("Invalid cnonce length");
         }
-        byte[] mac = new byte[32];
-        byte[] counter = new byte[4];
-        mac = Arrays.copyOfRange(cnonceB, 0, 32);
-        counter = Arrays.copyOfRange(cnonceB, 32, 36);
+        byte[] mac = Arrays.copyOfRange(cnonceB, 0, 32);
+        byte[] counter = Arrays.copyOfRange(cnonceB, 32, 36);
+        Epoch current = this.epoch.get();
         byte[] macExpected;
         //Verify MAC
         try {
-            Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-
-            SecretKeySpec secret_key = new SecretKeySpec(
-                    this.cnonceKey, "HmacSHA256");
-            sha256_HMAC.init(secret_key);
-
-            macExpected = sha256_HMAC.doFinal(counter);
+            macExpected = mac(current, counter);
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
             LOGGER.severe("Error while verifying cnonce: " + e.getMessage());
             throw new AceException("Nonce verification failed");
         }
 
-        if (!Arrays.equals(mac, macExpected)) {
+        if (!MessageDigest.isEqual(mac, macExpected)) {
             throw new AceException("cnonce invalid");
         }
 
         //Check if nonce is in the replay window
         ByteBuffer b = ByteBuffer.wrap(counter);
         int counterI = b.getInt();
-        checkIncomingCounter(counterI);
+        checkIncomingCounter(current, counterI);
     }
 
     /**
      * Check an incoming cnonce counter
+     * @param current  the epoch the cnonce was created in
      * @param counter
      * @throws AceException
      */
-    private synchronized void checkIncomingCounter(int counter) throws AceException {
-        if (counter > this.cnonceSeen) {
-            // Update the replay window
-            int shift = counter - this.cnonceSeen;
-            this.cnonceWindow = this.cnonceWindow << shift;
-            this.cnonceSeen = counter;
-        } else if (counter == this.cnonceSeen) {
-            throw new AceException("cnonce replayed");
-        } else { // counter < this.cnonceSeen
-            if (counter + this.cnonceWindowSize < this.cnonceSeen) {
+    private void checkIncomingCounter(Epoch current, int counter) 
+            throws AceException {
+        int seen = current.seen.get();
+        if (counter <= 0) {
+            // Cannot happen with a valid MAC
+            throw new AceException("cnonce invalid");
+        }
+        if ((long)counter + this.cnonceWindowSize < seen) {
+            LOGGER.severe("cnonce too old");
+            throw new AceException("cnonce expired");
+        }
+        int slot = counter % current.window.length();
+        while (true) {
+            int old = current.window.get(slot);
+            if (old == counter) {
+                throw new AceException("cnonce replayed");
+            }
+            if (old > counter) {
+                // A newer counter took the slot, this one left the window
                 LOGGER.severe("cnonce too old");
                 throw new AceException("cnonce expired");
             }
-            // seq+replay_window_size > recipient_seq
-            int shift = this.cnonceSeen - counter;
-            int pattern = 1 << shift;
-            int verifier = this.cnonceWindow & pattern;
-            verifier = verifier >> shift;
-            if (verifier == 1) {
-                throw new AceException("cnonce replayed");
+            if (current.window.compareAndSet(slot, old, counter)) {
+                break;
             }
-            this.cnonceWindow = this.cnonceWindow | pattern;
         }
+        current.seen.accumulateAndGet(counter, Math::max);
     }
     
     /**
@@ -238,35 +252,103 @@ public class CnonceHandler {
      */
     public byte[] createNonce() 
             throws NoSuchAlgorithmException, InvalidKeyException {
-        if (this.cnonceCounter == -1) {
-            LOGGER.info("cnonce requested but not configured to handle them");
-            return null;
-        }
-        if (this.cnonceCounter == Integer.MAX_VALUE) {
-            LOGGER.info("cnonce counter wrapped");
-            this.cnonceCounter = 1;
-            this.cnonceSeen = 0;
-            this.cnonceWindow = 0;
+        Epoch current;
+        int counterI;
+        while (true) {
+            current = this.epoch.get();
+            counterI = current.counter.getAndIncrement();
+            if (counterI > 0 && counterI < Integer.MAX_VALUE) {
+                break;
+            }
             //Generate a new key to invalidate the old cnonces
-            this.cnonceKey = new byte[32];
-            new SecureRandom().nextBytes(this.cnonceKey);  
-        } 
+            if (this.epoch.compareAndSet(current, 
+                    new Epoch(this.cnonceWindowSize))) {
+                LOGGER.info("cnonce counter wrapped");
+            }
+        }
 
-        byte[] mac = null;
-        byte[] counter = ByteBuffer.allocate(4).putInt(
-                this.cnonceCounter).array();
-        Mac sha256_HMAC = Mac.getInstance("HmacSHA256");
-        SecretKeySpec secret_key = new SecretKeySpec(
-                this.cnonceKey, "HmacSHA256");
-        sha256_HMAC.init(secret_key);
-        mac = sha256_HMAC.doFinal(counter);  
+        byte[] counter = ByteBuffer.allocate(4).putInt(counterI).array();
+        byte[] mac = mac(current, counter);  
         byte[] nonce = new byte[mac.length + counter.length];
         System.arraycopy(mac,0, nonce, 0, mac.length);
         System.arraycopy(counter, 0, nonce , mac.length, counter.length);
-        this.cnonceCounter++;       
+        return nonce;
+    }
+    
+    /**
+     * Compute the HMAC of a counter with the Mac instance of this thread.
+     * 
+     * @param current  the epoch whose key is used
+     * @param counter  the counter
+     * @return  the HMAC
+     * 
+     * @throws NoSuchAlgorithmException 
+     * @throws InvalidKeyException 
+     */
+    private byte[] mac(Epoch current, byte[] counter) 
+            throws NoSuchAlgorithmException, InvalidKeyException {
+        ThreadMac tm = this.macs.get();
+        if (tm.mac == null) {
+            tm.mac = Mac.getInstance(HMAC_ALG);
+        }
+        if (tm.epoch != current) {
+            tm.mac.init(current.key);
+            tm.epoch = current;
+        }
+        return tm.mac.doFinal(counter);
+    }
+    
+    /**
+     * The key, counter and replay window, which are replaced together when
+     * the counter wraps.
+     */
+    private static final class Epoch {
         
+        /**
+         * Cnonce HMAC key (32 bytes)
+         */
+        final SecretKeySpec key;
         
-        return nonce;
+        /**
+         * The counter used to generate the next cnonce
+         */
+        final AtomicInteger counter = new AtomicInteger(1);
+        
+        /**
+         * The highest counter seen
+         */
+        final AtomicInteger seen = new AtomicInteger(0);
+        
+        /**
+         * The replay window, slot <code>c % length</code> holds the 
+         * highest counter <code>c</code> accepted for that slot
+         */
+        final AtomicIntegerArray window;
+        
+        /**
+         * @param windowSize  the size of the replay window
+         */
+        Epoch(int windowSize) {
+            byte[] k = new byte[32];
+            Randomness.nextBytes(k);
+            this.key = new SecretKeySpec(k, HMAC_ALG);
+            this.window = new AtomicIntegerArray(windowSize + 1);
+        }
+    }
+    
+    /**
+     * The Mac instance of a thread and the epoch it was initialized for
+     */
+    private static final class ThreadMac {
+        
+        /**
+         * The Mac instance, created on first use
+         */
+        Mac mac = null;
+        
+        /**
+         * The epoch whose key the Mac was initialized with
+         */
+        Epoch epoch = null;
     }
-
 }
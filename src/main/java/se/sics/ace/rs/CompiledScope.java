@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.rs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A scope compiled into a map from resources to the bitmask of the 
+ * actions allowed on them. Bit <code>n</code> of the mask is set if the 
+ * action with the code <code>n</code> is allowed, the meaning of the 
+ * codes is defined by the <code>ScopeValidator</code> that compiled 
+ * the scope.
+ *
+ */
+public final class CompiledScope implements ScopeMatcher {
+
+    /**
+     * The empty scope
+     */
+    public static final CompiledScope EMPTY 
+        = new CompiledScope(Collections.<String, Long>emptyMap());
+    
+    /**
+     * Maps the resources to the bitmask of allowed actions
+     */
+    private final Map<String, Long> actions;
+    
+    /**
+     * Constructor.
+     * 
+     * @param actions  maps the resources to the bitmask of allowed actions,
+     *     a resource with an empty mask matches only in 
+     *     <code>matchResource()</code>
+     */
+    public CompiledScope(Map<String, Long> actions) {
+        this.actions = Collections.unmodifiableMap(new HashMap<>(actions));
+    }
+    
+    /**
+     * Add actions to a resource in a map that is being compiled into a 
+     * <code>CompiledScope</code>.
+     * 
+     * @param actions  the map being compiled
+     * @param resourceId  the resource
+     * @param mask  the bitmask of the actions to add
+     */
+    public static void addActions(Map<String, Long> actions, 
+            String resourceId, long mask) {
+        Long old = actions.get(resourceId);
+        actions.put(resourceId, old == null ? mask : old | mask);
+    }
+    
+    /**
+     * Get the bit of an action code.
+     * 
+     * @param actionId  the action code
+     * @return  the bit of that action, 0 if the code is out of range
+     */
+    public static long actionBit(int actionId) {
+        if (actionId < 0 || actionId >= Long.SIZE) {
+            return 0L;
+        }
+        return 1L << actionId;
+    }
+    
+    @Override
+    public boolean match(String resourceId, short actionId) {
+        Long mask = this.actions.get(resourceId);
+        return mask != null && (mask & actionBit(actionId)) != 0;
+    }
+
+    @Override
+    public boolean matchResource(String resourceId) {
+        return this.actions.containsKey(resourceId);
+    }
+}
@@ -0,0 +1,293 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.rs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A trie of resource path patterns, each with a bitmask of the actions
+ * allowed on the resources it matches. 
+ * 
+ * Patterns are paths with segments separated by '/'. A segment 
+ * <code>*</code> matches any single segment, a last segment 
+ * <code>**</code> matches the path before it and any path below it. 
+ * For example <code>sensors/{@literal *}/temp</code> matches 
+ * <code>sensors/1/temp</code> and <code>sensors/**</code> matches 
+ * <code>sensors</code> and <code>sensors/1/temp</code>.
+ * 
+ * Looking up a path takes time proportional to its depth, times the 
+ * number of wildcard segments that can match at the same depth. 
+ * 
+ * The trie is immutable once created.
+ *
+ */
+public final class ResourceTrie implements ScopeMatcher {
+
+    /**
+     * The pattern segment matching any single segment
+     */
+    public static final String WILDCARD = "*";
+    
+    /**
+     * The last pattern segment matching any number of segments
+     */
+    public static final String PREFIX = "**";
+    
+    /**
+     * The root of the trie
+     */
+    private final Node root = new Node();
+    
+    /**
+     * Constructor.
+     * 
+     * @param patterns  maps the resource path patterns to the bitmask of 
+     *     the actions allowed on the matching resources
+     */
+    public ResourceTrie(Map<String, Long> patterns) {
+        for (Map.Entry<String, Long> e : patterns.entrySet()) {
+            add(e.getKey(), e.getValue());
+        }
+        this.root.freeze();
+    }
+    
+    /**
+     * Add a pattern to the trie, only used while constructing it.
+     * 
+     * @param pattern  the resource path pattern
+     * @param mask  the bitmask of the allowed actions
+     */
+    private void add(String pattern, long mask) {
+        String[] segments = split(pattern);
+        Node node = this.root;
+        for (int i=0; i<segments.length; i++) {
+            String segment = segments[i];
+            if (segment.equals(PREFIX) && i == segments.length-1) {
+                node.prefix = true;
+                node.prefixMask |= mask;
+                return;
+            }
+            if (segment.equals(WILDCARD)) {
+                if (node.wildcard == null) {
+                    node.wildcard = new Node();
+                }
+                node = node.wildcard;
+            } else {
+                Node child = node.children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(segment, child);
+                }
+                node = child;
+            }
+        }
+        node.exact = true;
+        node.mask |= mask;
+    }
+    
+    /**
+     * Get the actions allowed on a resource.
+     * 
+     * @param resourceId  the resource path
+     * @return  the bitmask of the allowed actions, or null if no pattern
+     *     matches the resource
+     */
+    public Long getActions(String resourceId) {
+        long[] mask = {0L};
+        if (!lookup(this.root, split(resourceId), 0, mask)) {
+            return null;
+        }
+        return mask[0];
+    }
+    
+    @Override
+    public boolean match(String resourceId, short actionId) {
+        long[] mask = {0L};
+        return lookup(this.root, split(resourceId), 0, mask) 
+                && (mask[0] & CompiledScope.actionBit(actionId)) != 0;
+    }
+
+    @Override
+    public boolean matchResource(String resourceId) {
+        return lookup(this.root, split(resourceId), 0, new long[]{0L});
+    }
+    
+    /**
+     * Check if a pattern of this trie matches any of the resource paths 
+     * of another trie. The patterns of the other trie are treated as 
+     * plain paths.
+     * 
+     * @param resources  the trie of resource paths
+     * @return  true if some pattern of this trie matches a resource
+     */
+    public boolean matchesAny(ResourceTrie resources) {
+        return intersects(this.root, resources.root);
+    }
+    
+    /**
+     * Collect the masks of the patterns below a node matching a path.
+     * 
+     * @param node  the node
+     * @param segments  the path segments
+     * @param i  the index of the segment to match at this node
+     * @param mask  collects the bitmask of the matching patterns
+     * @return  true if a pattern matched
+     */
+    private static boolean lookup(Node node, String[] segments, int i, 
+            long[] mask) {
+        boolean found = false;
+        if (node.prefix) {
+            mask[0] |= node.prefixMask;
+            found = true;
+        }
+        if (i == segments.length) {
+            if (node.exact) {
+                mask[0] |= node.mask;
+                found = true;
+            }
+            return found;
+        }
+        Node child = node.children.get(segments[i]);
+        if (child != null) {
+            found |= lookup(child, segments, i+1, mask);
+        }
+        if (node.wildcard != null) {
+            found |= lookup(node.wildcard, segments, i+1, mask);
+        }
+        return found;
+    }
+    
+    /**
+     * Check if a pattern below a node matches a path below another node.
+     * 
+     * @param patterns  the pattern node
+     * @param paths  the path node
+     * @return  true if a pattern matches a path
+     */
+    private static boolean intersects(Node patterns, Node paths) {
+        if (patterns.prefix && (paths.exact || !paths.children.isEmpty())) {
+            return true;
+        }
+        if (patterns.exact && paths.exact) {
+            return true;
+        }
+        for (Map.Entry<String, Node> e : patterns.children.entrySet()) {
+            Node child = paths.children.get(e.getKey());
+            if (child != null && intersects(e.getValue(), child)) {
+                return true;
+            }
+        }
+        if (patterns.wildcard != null) {
+            for (Node child : paths.children.values()) {
+                if (intersects(patterns.wildcard, child)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Split a resource path into its segments, ignoring leading and 
+     * trailing '/'.
+     * 
+     * @param path  the path
+     * @return  the segments
+     */
+    private static String[] split(String path) {
+        int start = 0;
+        int end = path.length();
+        while (start < end && path.charAt(start) == '/') {
+            start++;
+        }
+        while (end > start && path.charAt(end-1) == '/') {
+            end--;
+        }
+        if (start == end) {
+            return new String[0];
+        }
+        return path.substring(start, end).split("/");
+    }
+    
+    /**
+     * A node of the trie
+     */
+    private static final class Node {
+        
+        /**
+         * The children for literal segments
+         */
+        Map<String, Node> children = new HashMap<>();
+        
+        /**
+         * The child for the single segment wildcard, can be null
+         */
+        Node wildcard = null;
+        
+        /**
+         * True if a pattern ends at this node
+         */
+        boolean exact = false;
+        
+        /**
+         * The actions of the patterns ending at this node
+         */
+        long mask = 0L;
+        
+        /**
+         * True if a prefix pattern ends at this node
+         */
+        boolean prefix = false;
+        
+        /**
+         * The actions of the prefix patterns ending at this node
+         */
+        long prefixMask = 0L;
+        
+        /**
+         * Make the children of this node and its descendants unmodifiable
+         */
+        void freeze() {
+            for (Node child : this.children.values()) {
+                child.freeze();
+            }
+            if (this.wildcard != null) {
+                this.wildcard.freeze();
+            }
+            this.children = this.children.isEmpty() 
+                    ? Collections.<String, Node>emptyMap() 
+                    : Collections.unmodifiableMap(this.children);
+        }
+    }
+}
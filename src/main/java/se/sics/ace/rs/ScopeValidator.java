@@ -93,4 +93,34 @@ public interface ScopeValidator {
      * @throws AceException 
      */
     boolean isScopeMeaningful(CBORObject scope, String aud) throws AceException;
+    
+    /**
+     * Compile the given scope into a matcher. This is done once when a 
+     * token is stored, so that access checks do not need to parse the 
+     * scope again.
+     * 
+     * The default implementation returns a matcher that calls 
+     * <code>scopeMatch()</code> and <code>scopeMatchResource()</code> 
+     * of this validator.
+     * 
+     * @param scope  the scope, as stored in the token
+     * @return  the matcher for this scope
+     * @throws AceException  if the scope is malformed
+     */
+    default ScopeMatcher compile(final CBORObject scope) throws AceException {
+        final ScopeValidator validator = this;
+        return new ScopeMatcher() {
+            @Override
+            public boolean match(String resourceId, short actionId)
+                    throws AceException {
+                return validator.scopeMatch(scope, resourceId, actionId);
+            }
+
+            @Override
+            public boolean matchResource(String resourceId)
+                    throws AceException {
+                return validator.scopeMatchResource(scope, resourceId);
+            }
+        };
+    }
 }
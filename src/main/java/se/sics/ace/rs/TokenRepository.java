@@ -46,6 +46,7 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Scanner;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
 import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
@@ -134,6 +135,12 @@ public class TokenRepository implements AutoCloseable {
 	 */
 	private Map<String, Map<Short, CBORObject>> cti2claims;
 	
+	/**
+	 * Maps the base64 encoded cti to the compiled scope of the 
+	 * corresponding token
+	 */
+	private Map<String, ScopeMatcher> cti2scope;
+	
 	
 	/**
 	 * Map key identifiers collected from the access tokens to keys
@@ -150,6 +157,17 @@ public class TokenRepository implements AutoCloseable {
 	 */
 	private Map<String, String>sid2kid;
 	
+	/**
+	 * Map a DTLS session ID to the kid of the token used in that session,
+	 * so that a resumed session still resolves to its kid
+	 */
+	private Map<String, String>session2kid;
+	
+	/**
+	 * Map a kid to the last DTLS session ID it was used in
+	 */
+	private Map<String, String>kid2session;
+	
 	/**
 	 * Map a subject identity to the base64 encoded cti of a token
 	 */
@@ -283,9 +301,12 @@ public class TokenRepository implements AutoCloseable {
 			        throws IOException, AceException {
 	    this.closed = false;
 	    this.cti2claims = new HashMap<>();
+	    this.cti2scope = new HashMap<>();
 	    this.kid2key = new HashMap<>();
 	    this.cti2kid = new HashMap<>();
 	    this.sid2kid = new HashMap<>();
+	    this.session2kid = new ConcurrentHashMap<>();
+	    this.kid2session = new HashMap<>();
 	    this.sid2cti = new HashMap<>();
 	    this.id2cti = new HashMap<>();
 	    this.sid2id = new HashMap<>();
@@ -362,10 +383,18 @@ public class TokenRepository implements AutoCloseable {
 	public synchronized CBORObject addToken(CBORObject token, Map<Short, CBORObject> claims, 
 	        CwtCryptoCtx ctx, String sid, int exiSeqNum) throws AceException {
 	    
+		// Tokens are admitted concurrently, so the check of /authz-info 
+		// is repeated here atomically
+		if (exiSeqNum >= 0 && exiSeqNum <= this.topExiSequenceNumber) {
+			throw new AceException("The Access Token includes the 'exi' claim,"
+					+ " but the Sequence Number value is too little");
+		}
+		
 		CBORObject so = claims.get(Constants.SCOPE);
 		if (so == null) {
 			throw new AceException("Token has no scope");
 		}
+		ScopeMatcher scopeMatcher = this.scopeValidator.compile(so);
 
 		CBORObject cticb = claims.get(Constants.CTI);
 		String cti = null;
@@ -482,7 +511,7 @@ public class TokenRepository implements AutoCloseable {
 	            	                                   // from the authorization server to the resource server.
 	
 	            	  try {
-						derivedKey = Hkdf.extractExpand(salt, keyDerivationKey, info.EncodeToBytes(), derivedKeySize);
+						derivedKey = Hkdf.extractExpandCached(salt, keyDerivationKey, info.EncodeToBytes(), derivedKeySize);
 					  } catch (InvalidKeyException e) {
 			              LOGGER.severe("Error while deriving a symmetric PoP key: " 
 			                      + e.getMessage());
@@ -759,9 +788,10 @@ public class TokenRepository implements AutoCloseable {
             		db.removeContext(oscCtx);
             	}
             	else {
-		            LOGGER.severe("Unable to retrieve the OSCORE Security Context to delete");
-		            throw new AceException("Unable to retrieve the OSCORE Security Context to delete");
+            		// The context database may have evicted it already
+		            LOGGER.info("The OSCORE Security Context to delete was not found");
             	}
+            	AuthzInfo.releaseRecipientId(oldOscoreRecipientId);
             	
             }
             else {
@@ -815,6 +845,7 @@ public class TokenRepository implements AutoCloseable {
         Map<Short, CBORObject> foo = new HashMap<>();
         foo.putAll(claims);
         this.cti2claims.put(cti, foo);
+        this.cti2scope.put(cti, scopeMatcher);
 	    
         persist();
         
@@ -904,6 +935,7 @@ public class TokenRepository implements AutoCloseable {
 	    
         // Remove the claims
         this.cti2claims.remove(cti);
+        this.cti2scope.remove(cti);
  
 		// Remove the mapping to the pop key
 		this.cti2kid.remove(cti);
@@ -917,6 +949,10 @@ public class TokenRepository implements AutoCloseable {
 		}
 		for (String kid : remove) {
 		    this.kid2key.remove(kid);
+		    String session = this.kid2session.remove(kid);
+		    if (session != null) {
+		        this.session2kid.remove(session);
+		    }
 		}
 		
 		// Remove the mapping from the subject ID to cti
@@ -989,6 +1025,7 @@ public class TokenRepository implements AutoCloseable {
 				try {
 					OSCoreCtx ctx = db.getContext(recipientId, idContext);
 					db.removeContext(ctx);
+					AuthzInfo.releaseRecipientId(recipientId);
 				} catch (CoapOSException e) {
 					e.printStackTrace();
 					LOGGER.severe("Unable to retrieve the OSCORE Security Context to delete");
@@ -1204,9 +1241,14 @@ public class TokenRepository implements AutoCloseable {
                  
              }
 
-             if (this.scopeValidator.scopeMatchResource(scope, resource)) {
+             ScopeMatcher scopeMatcher = this.cti2scope.get(cti);
+             if (scopeMatcher == null) {
+                 scopeMatcher = this.scopeValidator.compile(scope);
+             }
+
+             if (scopeMatcher.matchResource(resource)) {
 
-                 if (this.scopeValidator.scopeMatch(scope, resource, action)) {
+                 if (scopeMatcher.match(resource, action)) {
                 	 
                      //Check if we should introspect this token
                      if (intro != null) {
@@ -1326,6 +1368,43 @@ public class TokenRepository implements AutoCloseable {
 	}
 	
 	
+	/**
+	 * Remember the kid used in a DTLS session, so that it can be found 
+	 * when the session is resumed. Only the last session of each kid is 
+	 * remembered, and the mapping is removed with the kid's tokens.
+	 * 
+	 * @param sessionId  the DTLS session ID
+	 * @param kid  the kid used in that session
+	 */
+	public synchronized void addSession(String sessionId, String kid) {
+	    if (sessionId == null || sessionId.isEmpty() || kid == null
+	            || !this.kid2key.containsKey(kid)) {
+	        return;
+	    }
+	    String old = this.kid2session.put(kid, sessionId);
+	    if (old != null && !old.equals(sessionId)) {
+	        this.session2kid.remove(old);
+	    }
+	    String oldKid = this.session2kid.put(sessionId, kid);
+	    if (oldKid != null && !oldKid.equals(kid)) {
+	        this.kid2session.remove(oldKid, sessionId);
+	    }
+	}
+	
+	/**
+	 * Get the kid by the DTLS session ID.
+	 * 
+	 * @param sessionId  the DTLS session ID
+	 * 
+	 * @return  the kid used in this session, or null if not known
+	 */
+	public String getKidBySession(String sessionId) {
+	    if (sessionId != null) {
+	        return this.session2kid.get(sessionId);
+	    }
+	    return null;
+	}
+	
 	/**
 	 * Get the kid by the CTI.
 	 * 
@@ -1518,7 +1597,7 @@ public class TokenRepository implements AutoCloseable {
 	 * 
 	 * @return  the claims of the token
 	 */
-    public Map<Short, CBORObject> getClaims(String cti) {
+    public synchronized Map<Short, CBORObject> getClaims(String cti) {
     	return this.cti2claims.get(cti);
     }
     
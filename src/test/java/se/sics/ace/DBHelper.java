@@ -40,6 +40,7 @@ import se.sics.ace.examples.SQLDBAdapter;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.sql.Connection;
 import java.sql.SQLException;
 
 /**
@@ -104,6 +105,25 @@ public class DBHelper
         return CoapDBConnector.getInstance(dbAdapter);
     }
 
+    /**
+     * @return  a new connection to the test DB
+     * @throws SQLException
+     */
+    public static Connection getDBConnection() throws SQLException
+    {
+        return dbAdapter.getDBConnection();
+    }
+
+    /**
+     * Create the indexes missing in the test DB, as done when migrating
+     * an existing DB.
+     * @throws AceException
+     */
+    public static void createIndexes() throws AceException
+    {
+        SQLConnector.createIndexes(dbAdapter, dbAdminUser, dbAdminPwd);
+    }
+
     /**
      * Destroy the test DB with the default adapter.
      * @throws AceException
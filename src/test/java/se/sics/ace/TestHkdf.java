@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the HKDF key derivation with and without the cache of 
+ * pseudorandom keys.
+ *
+ */
+public class TestHkdf {
+    
+    /**
+     * Test that the cached derivation gives the same keys as the plain one, 
+     * also for different input keying material with the same salt
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCached() throws Exception {
+        byte[] salt = {0x00, 0x01, 0x02, 0x03};
+        byte[] ikm1 = {0x0b, 0x0b, 0x0b, 0x0b};
+        byte[] ikm2 = {0x0c, 0x0c, 0x0c, 0x0c};
+        byte[] info = {(byte)0xf0, (byte)0xf1};
+        
+        byte[] okm1 = Hkdf.extractExpand(salt, ikm1, info, 42);
+        Assert.assertArrayEquals(okm1, 
+                Hkdf.extractExpandCached(salt, ikm1, info, 42));
+        Assert.assertArrayEquals(okm1, 
+                Hkdf.extractExpandCached(salt, ikm1, info, 42));
+        Assert.assertArrayEquals(Hkdf.extractExpand(salt, ikm2, info, 42), 
+                Hkdf.extractExpandCached(salt, ikm2, info, 42));
+    }
+    
+    /**
+     * Test that an absent salt is accepted by the cached derivation
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNullSalt() throws Exception {
+        byte[] ikm = {0x0b, 0x0b, 0x0b, 0x0b};
+        byte[] info = {(byte)0xf0, (byte)0xf1};
+        
+        byte[] okm = Hkdf.extractExpand(null, ikm, info, 16);
+        Assert.assertArrayEquals(okm, 
+                Hkdf.extractExpandCached(null, ikm, info, 16));
+        Assert.assertArrayEquals(okm, 
+                Hkdf.extractExpandCached(new byte[0], ikm, info, 16));
+    }
+}
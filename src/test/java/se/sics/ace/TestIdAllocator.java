@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Test the Sender and Recipient ID allocator.
+ *
+ */
+public class TestIdAllocator {
+    
+    /**
+     * Test that the lowest free ID is allocated and reused after release
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testAllocateRelease() throws Exception {
+        IdAllocator ids = new IdAllocator();
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(i, ids.allocate(1));
+        }
+        Assert.assertEquals(10, ids.count(1));
+        Assert.assertEquals(0, ids.count(2));
+        
+        Assert.assertTrue(ids.release(3, 1));
+        Assert.assertFalse(ids.release(3, 1));
+        Assert.assertTrue(ids.release(7, 1));
+        Assert.assertEquals(3, ids.allocate(1));
+        Assert.assertEquals(7, ids.allocate(1));
+        Assert.assertEquals(10, ids.allocate(1));
+        
+        Assert.assertTrue(ids.allocate(42, 1));
+        Assert.assertFalse(ids.allocate(42, 1));
+        Assert.assertTrue(ids.isAllocated(42, 1));
+        Assert.assertFalse(ids.isAllocated(42, 2));
+        Assert.assertFalse(ids.allocate(256, 1));
+        Assert.assertEquals(12, ids.getAllocated(1).size());
+    }
+    
+    /**
+     * Test that all IDs of a size can be allocated and nothing more
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testExhaustion() throws Exception {
+        IdAllocator ids = new IdAllocator();
+        Assert.assertTrue(ids.allocate(200, 1));
+        for (int i = 0; i < 255; i++) {
+            Assert.assertNotEquals(200, ids.allocate(1));
+        }
+        Assert.assertTrue(ids.isFull(1));
+        Assert.assertEquals(-1, ids.allocate(1));
+        
+        Assert.assertTrue(ids.release(128, 1));
+        Assert.assertFalse(ids.isFull(1));
+        Assert.assertEquals(128, ids.allocate(1));
+        Assert.assertEquals(-1, ids.allocate(1));
+    }
+    
+    /**
+     * Test IDs beyond the first page of the bitmap
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testLargeIds() throws Exception {
+        IdAllocator ids = new IdAllocator();
+        Assert.assertEquals(Integer.MAX_VALUE, IdAllocator.maxValue(4));
+        Assert.assertTrue(ids.allocate(Integer.MAX_VALUE, 4));
+        Assert.assertFalse(ids.allocate(-1, 4));
+        Assert.assertTrue(ids.isAllocated(Integer.MAX_VALUE, 4));
+        
+        for (int i = 0; i < 70000; i++) {
+            Assert.assertEquals(i, ids.allocate(3));
+        }
+        Assert.assertTrue(ids.release(65536, 3));
+        Assert.assertTrue(ids.release(10, 3));
+        Assert.assertEquals(10, ids.allocate(3));
+        Assert.assertEquals(65536, ids.allocate(3));
+        Assert.assertEquals(70000, ids.allocate(3));
+        Assert.assertEquals(70001, ids.count(3));
+    }
+    
+    /**
+     * Test that a size is full exactly when all its IDs, up to and 
+     * including the largest one, are allocated
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testFull() throws Exception {
+        IdAllocator ids = new IdAllocator();
+        for (int i = 0; i < 65535; i++) {
+            Assert.assertEquals(i, ids.allocate(2));
+        }
+        Assert.assertFalse(ids.isFull(2));
+        Assert.assertEquals(65535, ids.allocate(2));
+        Assert.assertTrue(ids.isFull(2));
+        Assert.assertEquals(65536, ids.count(2));
+        Assert.assertEquals(-1, ids.allocate(2));
+        
+        Assert.assertTrue(ids.allocate(Integer.MAX_VALUE, 4));
+        Assert.assertFalse(ids.isFull(4));
+        Assert.assertEquals(1, ids.count(4));
+    }
+}
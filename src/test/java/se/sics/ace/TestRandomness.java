@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+/**
+ * Test the source of random nonces and keys.
+ *
+ */
+public class TestRandomness {
+    
+    /**
+     * Test that keys from the pool and generated keys look the same
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testKeyPool() throws Exception {
+        int size = Randomness.aesKey().length;
+        Assert.assertEquals(16, size);
+        
+        Randomness.startKeyPool(8);
+        try {
+            Set<CBORObject> keys = new HashSet<>();
+            for (int i = 0; i < 100; i++) {
+                byte[] key = Randomness.aesKey();
+                Assert.assertEquals(size, key.length);
+                Assert.assertTrue(keys.add(CBORObject.FromObject(key)));
+            }
+        } finally {
+            Randomness.stopKeyPool();
+        }
+        Assert.assertEquals(size, Randomness.aesKey().length);
+    }
+    
+    /**
+     * Test that each thread gets its own SecureRandom
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testPerThread() throws Exception {
+        Object[] other = new Object[1];
+        Thread t = new Thread(() -> other[0] = Randomness.get());
+        t.start();
+        t.join();
+        Assert.assertNotNull(other[0]);
+        Assert.assertNotSame(other[0], Randomness.get());
+        Assert.assertSame(Randomness.get(), Randomness.get());
+    }
+}
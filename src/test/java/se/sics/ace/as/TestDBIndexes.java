@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.as;
+
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.DBHelper;
+import se.sics.ace.examples.KissPDP;
+import se.sics.ace.examples.SQLConnector;
+
+/**
+ * Test that the lookups of the SQL connector and of the PDP use the
+ * secondary indexes created with the tables.
+ *
+ * NOTE: The query plans are retrieved with the MySQL EXPLAIN syntax.
+ *
+ */
+public class TestDBIndexes {
+
+    private static SQLConnector db = null;
+    private static KissPDP pdp = null;
+    private static Connection conn = null;
+
+    /**
+     * Set up tests.
+     * @throws AceException
+     * @throws SQLException
+     * @throws IOException
+     */
+    @BeforeClass
+    public static void setUp()
+            throws AceException, SQLException, IOException {
+        DBHelper.setUpDB();
+        db = DBHelper.getSQLConnector();
+        pdp = new KissPDP(db);
+        conn = DBHelper.getDBConnection();
+    }
+
+    /**
+     * Deletes the test DB after the tests
+     * @throws Exception
+     */
+    @AfterClass
+    public static void tearDown() throws Exception {
+        conn.close();
+        pdp.close();
+        DBHelper.tearDownDB();
+    }
+
+    /**
+     * Get the index the query plan uses for a SELECT statement.
+     *
+     * @param query  the SELECT statement
+     * @return  the name of the index used or null if none is used
+     * @throws SQLException
+     */
+    private static String usedIndex(String query) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+                ResultSet result = stmt.executeQuery("EXPLAIN " + query)) {
+            Assert.assertTrue(result.next());
+            return result.getString("key");
+        }
+    }
+
+    /**
+     * Test the index use of the SQLConnector lookups
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testConnectorQueryPlans() throws Exception {
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.audiencesTable, DBConnector.audColumn,
+                DBConnector.rsIdColumn),
+                usedIndex("SELECT " + DBConnector.rsIdColumn + " FROM "
+                        + DBConnector.audiencesTable + " WHERE "
+                        + DBConnector.audColumn + "='aud1' ORDER BY "
+                        + DBConnector.rsIdColumn));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.audiencesTable, DBConnector.rsIdColumn,
+                DBConnector.audColumn),
+                usedIndex("SELECT " + DBConnector.audColumn + " FROM "
+                        + DBConnector.audiencesTable + " WHERE "
+                        + DBConnector.rsIdColumn + "='rs1' ORDER BY "
+                        + DBConnector.audColumn));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.profilesTable, DBConnector.idColumn,
+                DBConnector.profileColumn),
+                usedIndex("SELECT * FROM " + DBConnector.profilesTable
+                        + " WHERE " + DBConnector.idColumn + "='clientA'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.scopesTable, DBConnector.rsIdColumn,
+                DBConnector.scopeColumn),
+                usedIndex("SELECT * FROM " + DBConnector.scopesTable
+                        + " WHERE " + DBConnector.rsIdColumn + "='rs1'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.claimsTable, DBConnector.ctiColumn,
+                DBConnector.claimNameColumn, DBConnector.claimValueColumn),
+                usedIndex("SELECT " + DBConnector.claimNameColumn + ","
+                        + DBConnector.claimValueColumn + " FROM "
+                        + DBConnector.claimsTable + " WHERE "
+                        + DBConnector.ctiColumn + "='token1'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.claimsTable, DBConnector.claimNameColumn,
+                DBConnector.ctiColumn, DBConnector.claimValueColumn),
+                usedIndex("SELECT " + DBConnector.ctiColumn + ","
+                        + DBConnector.claimValueColumn + " FROM "
+                        + DBConnector.claimsTable + " WHERE "
+                        + DBConnector.claimNameColumn + "="
+                        + Constants.EXP));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.cti2clientTable, DBConnector.clientIdColumn,
+                DBConnector.ctiColumn),
+                usedIndex("SELECT " + DBConnector.ctiColumn + " FROM "
+                        + DBConnector.cti2clientTable + " WHERE "
+                        + DBConnector.clientIdColumn + "='clientA'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                DBConnector.grant2RSInfoTable, DBConnector.grantColumn,
+                DBConnector.claimNameColumn, DBConnector.claimValueColumn),
+                usedIndex("SELECT " + DBConnector.claimNameColumn + ","
+                        + DBConnector.claimValueColumn + " FROM "
+                        + DBConnector.grant2RSInfoTable + " WHERE "
+                        + DBConnector.grantColumn + "='grant1'"));
+    }
+
+    /**
+     * Test the index use of the remaining KissPDP SQL paths, i.e. the
+     * revocations and getAllAccess()
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testPdpQueryPlans() throws Exception {
+        Assert.assertEquals(SQLConnector.indexName(
+                KissPDP.tokenTable, DBConnector.idColumn),
+                usedIndex("SELECT * FROM " + KissPDP.tokenTable
+                        + " WHERE " + DBConnector.idColumn + "='clientA'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                KissPDP.introspectTable, DBConnector.idColumn),
+                usedIndex("SELECT * FROM " + KissPDP.introspectTable
+                        + " WHERE " + DBConnector.idColumn + "='rs1'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                KissPDP.accessTable, DBConnector.idColumn,
+                DBConnector.rsIdColumn, DBConnector.scopeColumn),
+                usedIndex("SELECT * FROM " + KissPDP.accessTable
+                        + " WHERE " + DBConnector.idColumn + "='clientA'"));
+        Assert.assertEquals(SQLConnector.indexName(
+                KissPDP.accessTable, DBConnector.idColumn,
+                DBConnector.rsIdColumn, DBConnector.scopeColumn),
+                usedIndex("SELECT * FROM " + KissPDP.accessTable
+                        + " WHERE " + DBConnector.idColumn + "='clientA'"
+                        + " AND " + DBConnector.rsIdColumn + "='rs1'"));
+    }
+
+    /**
+     * Test that migrating a DB recreates a missing index
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testMigration() throws Exception {
+        String index = SQLConnector.indexName(DBConnector.cti2clientTable,
+                DBConnector.clientIdColumn, DBConnector.ctiColumn);
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute("DROP INDEX " + index + " ON "
+                    + DBConnector.cti2clientTable);
+        }
+        Assert.assertNotEquals(index,
+                usedIndex("SELECT " + DBConnector.ctiColumn + " FROM "
+                        + DBConnector.cti2clientTable + " WHERE "
+                        + DBConnector.clientIdColumn + "='clientA'"));
+
+        DBHelper.createIndexes();
+        Assert.assertEquals(index,
+                usedIndex("SELECT " + DBConnector.ctiColumn + " FROM "
+                        + DBConnector.cti2clientTable + " WHERE "
+                        + DBConnector.clientIdColumn + "='clientA'"));
+    }
+}
@@ -321,4 +321,31 @@ public class TestKissPDP {
         pdp.revokeAllAccess("testC");
         assert(pdp.canAccess("testC", Collections.singleton("testRS2"), "testScope3") == null);
     }
+    
+    /**
+     * Test that a new PDP loads the ACLs stored by a previous one
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testReload() throws Exception {
+        pdp.addAccess("testReload", "rs1", "r_temp");
+        pdp.addAccess("testReload", "rs1", "co2");
+        pdp.addAccess("testReload", "rs2", "co2");
+        pdp.revokeAccess("testReload", "rs1", "r_temp");
+        
+        KissPDP pdp2 = new KissPDP(db);
+        assert(pdp2.canAccessToken("clientA"));
+        assert(pdp2.getIntrospectAccessLevel("rs8").equals(
+                PDP.IntrospectAccessLevel.ACTIVE_ONLY));
+        assert(pdp2.canAccess("clientB", Collections.singleton("rs1"), 
+                "r_temp co2").equals("r_temp co2"));
+        assert(pdp2.canAccess("testReload", Collections.singleton("rs1"), 
+                "r_temp co2").equals("co2"));
+        Set<String> rss = new HashSet<>();
+        rss.add("rs1");
+        rss.add("rs2");
+        assert(pdp2.canAccess("testReload", rss, "co2").equals("co2"));
+        pdp.revokeAllAccess("testReload");
+    }
 }
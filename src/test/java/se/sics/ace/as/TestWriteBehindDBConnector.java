@@ -0,0 +1,219 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE,
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.as;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.DBHelper;
+import se.sics.ace.TestConfig;
+import se.sics.ace.examples.SQLConnector;
+
+/**
+ * Test the write-behind database connector.
+ *
+ */
+public class TestWriteBehindDBConnector {
+
+    static String journalFile = TestConfig.testFilePath + "writeBehind.journal";
+
+    static SQLConnector sqlDb = null;
+
+    static WriteBehindDBConnector db = null;
+
+    /**
+     * Set up tests.
+     * @throws SQLException
+     * @throws AceException
+     * @throws IOException
+     */
+    @BeforeClass
+    public static void setUp()
+            throws SQLException, AceException, IOException {
+        DBHelper.setUpDB();
+        sqlDb = DBHelper.getSQLConnector();
+        new File(journalFile).delete();
+        // Use a long delay, so that flushes only happen when asked for
+        db = new WriteBehindDBConnector(sqlDb, journalFile, 3600000L, 1000);
+    }
+
+    /**
+     * Removes DB setup.
+     * @throws AceException
+     */
+    @AfterClass
+    public static void tearDown() throws AceException {
+        db.close();
+        DBHelper.tearDownDB();
+        new File(journalFile).delete();
+    }
+
+    private static Map<Short, CBORObject> makeClaims(byte[] cti, long exp) {
+        Map<Short, CBORObject> claims = new HashMap<>();
+        claims.put(Constants.SCOPE, CBORObject.FromObject("co2"));
+        claims.put(Constants.AUD,  CBORObject.FromObject("sensors"));
+        claims.put(Constants.EXP, CBORObject.FromObject(exp));
+        claims.put(Constants.CTI, CBORObject.FromObject(cti));
+        return claims;
+    }
+
+    /**
+     * Test that a pending token is readable before and after the flush
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testReadPendingToken() throws Exception {
+        db.addToken("wbToken1", makeClaims(new byte[]{0x10}, Long.MAX_VALUE));
+        db.addCti2Client("wbToken1", "clientA");
+
+        Assert.assertTrue(sqlDb.getClaims("wbToken1").isEmpty());
+        Assert.assertEquals(4, db.getClaims("wbToken1").size());
+        Assert.assertEquals("clientA", db.getClient4Cti("wbToken1"));
+        Assert.assertTrue(db.getCtis4Client("clientA").contains("wbToken1"));
+
+        db.flush();
+        Assert.assertEquals(4, sqlDb.getClaims("wbToken1").size());
+        Assert.assertEquals("clientA", sqlDb.getClient4Cti("wbToken1"));
+        Assert.assertEquals(4, db.getClaims("wbToken1").size());
+    }
+
+    /**
+     * Test deleting and purging tokens that have not been flushed yet
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeletePendingToken() throws Exception {
+        db.addToken("wbToken2", makeClaims(new byte[]{0x11}, Long.MAX_VALUE));
+        db.deleteToken("wbToken2");
+        Assert.assertTrue(db.getClaims("wbToken2").isEmpty());
+
+        db.addToken("wbToken3", makeClaims(new byte[]{0x12}, 1000L));
+        db.purgeExpiredTokens(2000L);
+        Assert.assertTrue(db.getClaims("wbToken3").isEmpty());
+
+        db.flush();
+        Assert.assertTrue(sqlDb.getClaims("wbToken2").isEmpty());
+        Assert.assertTrue(sqlDb.getClaims("wbToken3").isEmpty());
+    }
+
+    /**
+     * Test that deleting or purging a pending token also drops its
+     * pending client association
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testDeletePendingClient() throws Exception {
+        db.addToken("wbToken5", makeClaims(new byte[]{0x14}, Long.MAX_VALUE));
+        db.addCti2Client("wbToken5", "clientB");
+        db.deleteToken("wbToken5");
+        Assert.assertNull(db.getClient4Cti("wbToken5"));
+
+        db.addToken("wbToken6", makeClaims(new byte[]{0x15}, 1000L));
+        db.addCti2Client("wbToken6", "clientB");
+        db.purgeExpiredTokens(2000L);
+        Assert.assertNull(db.getClient4Cti("wbToken6"));
+
+        db.flush();
+        Assert.assertNull(sqlDb.getClient4Cti("wbToken5"));
+        Assert.assertNull(sqlDb.getClient4Cti("wbToken6"));
+        Assert.assertFalse(sqlDb.getCtis4Client("clientB").contains("wbToken5"));
+        Assert.assertFalse(sqlDb.getCtis4Client("clientB").contains("wbToken6"));
+    }
+
+    /**
+     * Test that the cti counter is served from the pending value
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testCtiCounter() throws Exception {
+        db.saveCtiCounter(42L);
+        Assert.assertEquals(Long.valueOf(42L), db.getCtiCounter());
+        db.flush();
+        Assert.assertEquals(Long.valueOf(42L), sqlDb.getCtiCounter());
+    }
+
+    /**
+     * Test that records left in a journal are flushed on startup
+     *
+     * @throws Exception
+     */
+    @Test
+    public void testRecoverJournal() throws Exception {
+        String oldJournal = TestConfig.testFilePath + "writeBehindOld.journal";
+        Map<Short, CBORObject> claims
+            = makeClaims(new byte[]{0x13}, Long.MAX_VALUE);
+        StringBuilder sb = new StringBuilder("{\"op\":\"token\",\"cti\":\"wbToken4\",\"claims\":{");
+        boolean first = true;
+        for (Map.Entry<Short, CBORObject> e : claims.entrySet()) {
+            if (!first) {
+                sb.append(",");
+            }
+            first = false;
+            sb.append("\"").append(e.getKey()).append("\":\"");
+            sb.append(Base64.getEncoder().encodeToString(
+                    e.getValue().EncodeToBytes())).append("\"");
+        }
+        sb.append("}}\n");
+        // A record that was only partially written before the crash
+        sb.append("{\"op\":\"client\",\"cti\":\"wbTo");
+        try (FileOutputStream fos = new FileOutputStream(oldJournal)) {
+            fos.write(sb.toString().getBytes(Constants.charset));
+        }
+
+        WriteBehindDBConnector recovered = new WriteBehindDBConnector(
+                sqlDb, oldJournal, 3600000L, 1000);
+        Assert.assertEquals(4, sqlDb.getClaims("wbToken4").size());
+        Assert.assertEquals(0, new File(oldJournal).length());
+        // Nothing is left pending after the recovery
+        recovered.flush();
+        Assert.assertEquals(4, sqlDb.getClaims("wbToken4").size());
+        new File(oldJournal).delete();
+    }
+}
@@ -0,0 +1,530 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.as;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.log4j.AppenderSkeleton;
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.spi.LoggingEvent;
+
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.wso2.balana.finder.AttributeFinder;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.TestConfig;
+import se.sics.ace.examples.XacmlPDP;
+
+/**
+ * Test the XacmlPDP class.
+ * 
+ * The policies are written to a test directory: a token and introspect 
+ * policy not restricted to an audience, one policy for each of the 
+ * audiences rs1 and rs2, and a policy for rs3 that is indeterminate for
+ * any request it is evaluated for.
+ */
+public class TestXacmlPDP {
+
+    /**
+     * The directory the test policies are written to
+     */
+    static String policyDir = TestConfig.testFilePath + "xacml";
+
+    /**
+     * The directory the policies of the reload tests are written to
+     */
+    static String reloadDir = TestConfig.testFilePath + "xacmlReload";
+
+    /**
+     * The PDP under test
+     */
+    private static XacmlPDP pdp = null;
+
+    /**
+     * A PDP with the same policies and no decision cache
+     */
+    private static XacmlPDP uncached = null;
+
+    private static final String NS 
+        = "urn:oasis:names:tc:xacml:3.0:core:schema:wd-17";
+
+    private static final String STRING 
+        = "http://www.w3.org/2001/XMLSchema#string";
+
+    private static final String SUBJECT_CAT 
+        = "urn:oasis:names:tc:xacml:1.0:subject-category:access-subject";
+
+    private static final String RESOURCE_CAT 
+        = "urn:oasis:names:tc:xacml:3.0:attribute-category:resource";
+
+    private static final String ACTION_CAT 
+        = "urn:oasis:names:tc:xacml:3.0:attribute-category:action";
+
+    /**
+     * Set up tests.
+     * 
+     * @throws IOException 
+     * @throws AceException 
+     */
+    @BeforeClass
+    public static void setUp() throws IOException, AceException {
+        new File(policyDir).mkdirs();
+        writePolicy(policyDir, "endpoints", anyOf("<AllOf>" + match(RESOURCE_CAT, 
+                "urn:oasis:names:tc:xacml:1.0:resource:resource-id", "token")
+                + "</AllOf><AllOf>" + match(RESOURCE_CAT, 
+                "urn:oasis:names:tc:xacml:1.0:resource:resource-id", 
+                "introspect") + "</AllOf>"), 
+                permit("token", match(SUBJECT_CAT, 
+                        "urn:oasis:names:tc:xacml:1.0:subject:subject-id", 
+                        "clientA"), 
+                        match(RESOURCE_CAT, 
+                        "urn:oasis:names:tc:xacml:1.0:resource:resource-id",
+                        "token"))
+                + permit("introspect", match(SUBJECT_CAT, 
+                        "urn:oasis:names:tc:xacml:1.0:subject:subject-id", 
+                        "rs1"), 
+                        match(RESOURCE_CAT, 
+                        "urn:oasis:names:tc:xacml:1.0:resource:resource-id",
+                        "introspect")));
+        writePolicy(policyDir, "rs1", anyOf(audience("rs1")),
+                scopeRule("clientA", "r_temp", "r_light")
+                + scopeRule("clientB", "co2"));
+        writePolicy(policyDir, "rs2", anyOf(audience("rs2")),
+                scopeRule("clientA", "r_config"));
+        // An audience that prints like the set {"rs1", "rs2"}
+        writePolicy(policyDir, "rs12", anyOf(audience("rs1, rs2")),
+                scopeRule("clientA", "r_temp"));
+        // The first AnyOf requires an attribute no request carries
+        writePolicy(policyDir, "rs3", anyOf("<AllOf>" + match(ACTION_CAT, "test:missing", 
+                "x").replace("MustBePresent=\"false\"", 
+                        "MustBePresent=\"true\"") + "</AllOf>")
+                + anyOf(audience("rs3")),
+                scopeRule("clientA", "r_temp"));
+        pdp = new XacmlPDP(policyDir, null, null);
+        uncached = new XacmlPDP(policyDir, null, null, 0);
+    }
+
+    /**
+     * Deletes the policies after the tests
+     * 
+     * @throws Exception 
+     */
+    @AfterClass
+    public static void tearDown() throws Exception {
+        pdp.close();
+        uncached.close();
+        deleteDir(policyDir);
+        deleteDir(reloadDir);
+    }
+
+    /**
+     * Delete a policy directory.
+     * 
+     * @param dir  the directory
+     */
+    private static void deleteDir(String dir) {
+        File[] files = new File(dir).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File f : files) {
+            f.delete();
+        }
+        new File(dir).delete();
+    }
+
+    /**
+     * Write a policy file with the deny-unless-permit combining algorithm.
+     * 
+     * @param dir  the policy directory
+     * @param name  the policy name
+     * @param target  the AnyOf elements of the policy target, can be null
+     * @param rules  the rules of the policy
+     * @throws IOException 
+     */
+    static void writePolicy(String dir, String name, String target, 
+            String rules) throws IOException {
+        String policy = "<Policy xmlns=\"" + NS + "\" PolicyId=\"" + name 
+                + "\" RuleCombiningAlgId=\"urn:oasis:names:tc:xacml:3.0:"
+                + "rule-combining-algorithm:deny-unless-permit\""
+                + " Version=\"1.0\"><Target>" 
+                + (target == null ? "" : target) + "</Target>" + rules
+                + "</Policy>";
+        try (FileOutputStream fos = new FileOutputStream(
+                new File(dir, name + ".xml"))) {
+            fos.write(policy.getBytes(Constants.charset));
+        }
+    }
+
+    /**
+     * Create a string-equal Match element.
+     * 
+     * @param category  the attribute category
+     * @param id  the attribute identifier
+     * @param value  the value to match
+     * @return  the Match element
+     */
+    private static String match(String category, String id, String value) {
+        return "<Match MatchId=\"urn:oasis:names:tc:xacml:1.0:function:"
+                + "string-equal\"><AttributeValue DataType=\"" + STRING 
+                + "\">" + value + "</AttributeValue><AttributeDesignator"
+                + " AttributeId=\"" + id + "\" Category=\"" + category 
+                + "\" DataType=\"" + STRING 
+                + "\" MustBePresent=\"false\"/></Match>";
+    }
+
+    /**
+     * Create an AllOf element matching an audience.
+     * 
+     * @param aud  the audience
+     * @return  the AllOf element
+     */
+    private static String audience(String aud) {
+        return "<AllOf>" + match(RESOURCE_CAT, "oauth2:audience", aud) 
+            + "</AllOf>";
+    }
+
+    /**
+     * Wrap AllOf elements into an AnyOf element.
+     * 
+     * @param allOfs  the AllOf elements
+     * @return  the AnyOf element
+     */
+    private static String anyOf(String allOfs) {
+        return "<AnyOf>" + allOfs + "</AnyOf>";
+    }
+
+    /**
+     * Create a rule permitting requests that match all the given Matches.
+     * 
+     * @param id  the rule identifier
+     * @param matches  the Match elements
+     * @return  the Rule element
+     */
+    private static String permit(String id, String... matches) {
+        return "<Rule RuleId=\"" + id + "\" Effect=\"Permit\"><Target>"
+                + anyOf("<AllOf>" + String.join("", matches) + "</AllOf>")
+                + "</Target></Rule>";
+    }
+
+    /**
+     * Create a rule permitting a client any of the given scopes.
+     * 
+     * @param clientId  the client identifier
+     * @param scopes  the scopes
+     * @return  the Rule element
+     */
+    private static String scopeRule(String clientId, String... scopes) {
+        StringBuilder sb = new StringBuilder();
+        for (String scope : scopes) {
+            sb.append("<AllOf>");
+            sb.append(match(ACTION_CAT, "oauth2:scope", scope));
+            sb.append("</AllOf>");
+        }
+        return "<Rule RuleId=\"" + clientId + "\" Effect=\"Permit\"><Target>"
+                + anyOf("<AllOf>" + match(SUBJECT_CAT, 
+                        "urn:oasis:names:tc:xacml:1.0:subject:subject-id",
+                        clientId) + "</AllOf>")
+                + anyOf(sb.toString()) + "</Target></Rule>";
+    }
+
+    /**
+     * Test the decisions of the example policies
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testBaseConfig() throws Exception {
+        Set<String> rs1 = Collections.singleton("rs1");
+        Set<String> rs2 = Collections.singleton("rs2");
+        Assert.assertTrue(pdp.canAccessToken("clientA"));
+        Assert.assertFalse(pdp.canAccessToken("clientB"));
+        Assert.assertEquals(PDP.IntrospectAccessLevel.ACTIVE_AND_CLAIMS,
+                pdp.getIntrospectAccessLevel("rs1"));
+        Assert.assertEquals(PDP.IntrospectAccessLevel.NONE,
+                pdp.getIntrospectAccessLevel("rs2"));
+        Assert.assertEquals("r_temp", pdp.canAccess("clientA", rs1, "r_temp"));
+        Assert.assertEquals("r_config", 
+                pdp.canAccess("clientA", rs2, "r_config"));
+        Assert.assertNull(pdp.canAccess("clientA", rs2, "r_temp"));
+        Assert.assertNull(pdp.canAccess("clientB", rs1, "r_temp"));
+        Assert.assertNull(pdp.canAccess("clientC", rs1, "co2"));
+    }
+
+    /**
+     * Test that cached decisions are the same as uncached ones, also 
+     * when they are asked for repeatedly
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testCachedDecisions() throws Exception {
+        String[] clients = {"clientA", "clientB", "clientC"};
+        String[] auds = {"rs1", "rs2", "rs4"};
+        String[] scopes = {"r_temp", "r_light co2", "r_config r_temp", "co2"};
+        for (int i = 0; i < 2; i++) {
+            for (String clientId : clients) {
+                Assert.assertEquals(uncached.canAccessToken(clientId), 
+                        pdp.canAccessToken(clientId));
+                for (String aud : auds) {
+                    Set<String> audSet = Collections.singleton(aud);
+                    for (String scope : scopes) {
+                        Assert.assertEquals(
+                                uncached.canAccess(clientId, audSet, scope),
+                                pdp.canAccess(clientId, audSet, scope));
+                    }
+                }
+            }
+            for (String rsId : auds) {
+                Assert.assertEquals(uncached.getIntrospectAccessLevel(rsId),
+                        pdp.getIntrospectAccessLevel(rsId));
+            }
+        }
+    }
+
+    /**
+     * Test that decisions cached for a set of audiences are not reused for
+     * another set that prints the same, e.g. {"rs1", "rs2"} and {"rs1, rs2"}
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testCachedAudienceSets() throws Exception {
+        Set<String> rs12 = new TreeSet<>(Arrays.asList("rs1", "rs2"));
+        Set<String> joined = Collections.singleton("rs1, rs2");
+        Assert.assertEquals(rs12.toString(), joined.toString());
+        Assert.assertNull(uncached.canAccess("clientA", rs12, "r_temp"));
+        Assert.assertEquals("r_temp", 
+                uncached.canAccess("clientA", joined, "r_temp"));
+        
+        Assert.assertNull(pdp.canAccess("clientA", rs12, "r_temp"));
+        Assert.assertEquals("r_temp", 
+                pdp.canAccess("clientA", joined, "r_temp"));
+        Assert.assertNull(pdp.canAccess("clientA", rs12, "r_temp"));
+    }
+
+    /**
+     * Test that a policy restricted to another audience is not evaluated.
+     * Evaluating the rs3 policy makes Balana look up an attribute no
+     * request carries, which is detected in its log.
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testAudienceIndex() throws Exception {
+        final AtomicInteger lookups = new AtomicInteger();
+        Logger finderLog = Logger.getLogger(AttributeFinder.class);
+        Level level = finderLog.getLevel();
+        AppenderSkeleton counter = new AppenderSkeleton() {
+            @Override
+            protected void append(LoggingEvent event) {
+                if (String.valueOf(event.getMessage()).contains(
+                        "test:missing")) {
+                    lookups.incrementAndGet();
+                }
+            }
+            @Override
+            public boolean requiresLayout() {
+                return false;
+            }
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+        finderLog.setLevel(Level.DEBUG);
+        finderLog.addAppender(counter);
+        try {
+            Assert.assertEquals("r_temp", pdp.canAccess("clientA", 
+                    Collections.singleton("rs1"), "r_temp"));
+            Assert.assertEquals("r_config", pdp.canAccess("clientA", 
+                    Collections.singleton("rs2"), "r_config"));
+            Assert.assertNull(pdp.canAccess("clientC", 
+                    Collections.singleton("rs4"), "r_temp"));
+            Assert.assertEquals(0, lookups.get());
+            
+            Assert.assertNull(pdp.canAccess("clientA", 
+                    Collections.singleton("rs3"), "r_temp"));
+            Assert.assertTrue(lookups.get() > 0);
+        } finally {
+            finderLog.removeAppender(counter);
+            finderLog.setLevel(level);
+        }
+    }
+
+    /**
+     * Test that a request for several scopes grants the permitted ones, 
+     * in the order they were requested, and nothing if none is permitted
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testMultipleScopes() throws Exception {
+        Set<String> rs1 = Collections.singleton("rs1");
+        Assert.assertEquals("r_light r_temp", 
+                pdp.canAccess("clientA", rs1, "r_light r_config r_temp"));
+        Assert.assertEquals("r_temp r_light", 
+                pdp.canAccess("clientA", rs1, "r_temp r_light"));
+        Assert.assertNull(pdp.canAccess("clientA", rs1, "co2 r_config"));
+        String[] scopes = {"r_temp", "co2", "r_light", "r_config"};
+        StringBuilder expected = new StringBuilder();
+        for (String scope : scopes) {
+            String granted = uncached.canAccess("clientB", rs1, scope);
+            if (granted != null) {
+                if (expected.length() > 0) {
+                    expected.append(" ");
+                }
+                expected.append(granted);
+            }
+        }
+        Assert.assertEquals(expected.toString(), 
+                pdp.canAccess("clientB", rs1, String.join(" ", scopes)));
+    }
+
+    /**
+     * Test reloading changed policies, and keeping the previous policies
+     * when a policy file is invalid
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testReload() throws Exception {
+        Set<String> rs1 = Collections.singleton("rs1");
+        new File(reloadDir).mkdirs();
+        writePolicy(reloadDir, "rs1", anyOf(audience("rs1")),
+                scopeRule("clientA", "r_temp"));
+        try (XacmlPDP reloading = new XacmlPDP(reloadDir, null, null)) {
+            Assert.assertEquals("r_temp", 
+                    reloading.canAccess("clientA", rs1, "r_temp"));
+            Assert.assertNull(reloading.canAccess("clientA", rs1, "r_light"));
+            
+            // The same content does not cause a reload
+            writePolicy(reloadDir, "rs1", anyOf(audience("rs1")),
+                    scopeRule("clientA", "r_temp"));
+            Assert.assertFalse(reloading.reload());
+            
+            writePolicy(reloadDir, "rs1", anyOf(audience("rs1")),
+                    scopeRule("clientA", "r_light"));
+            Assert.assertTrue(reloading.reload());
+            Assert.assertNull(reloading.canAccess("clientA", rs1, "r_temp"));
+            Assert.assertEquals("r_light", 
+                    reloading.canAccess("clientA", rs1, "r_light"));
+            
+            // Balana would skip this file, the previous policies are kept
+            writePolicy(reloadDir, "rs1", anyOf(audience("rs1")),
+                    scopeRule("clientA", "r_temp") 
+                    + "<Rule RuleId=\"broken\"/>");
+            Assert.assertFalse(reloading.reload());
+            Assert.assertEquals("r_light", 
+                    reloading.canAccess("clientA", rs1, "r_light"));
+            try (FileOutputStream fos = new FileOutputStream(
+                    new File(reloadDir, "rs2.xml"))) {
+                fos.write("<Policy".getBytes(Constants.charset));
+            }
+            Assert.assertFalse(reloading.reload());
+            Assert.assertEquals("r_light", 
+                    reloading.canAccess("clientA", rs1, "r_light"));
+            
+            new File(reloadDir, "rs2.xml").delete();
+            writePolicy(reloadDir, "rs1", anyOf(audience("rs1")),
+                    scopeRule("clientA", "r_temp"));
+            Assert.assertTrue(reloading.reload());
+            Assert.assertEquals("r_temp", 
+                    reloading.canAccess("clientA", rs1, "r_temp"));
+        } finally {
+            deleteDir(reloadDir);
+        }
+    }
+
+    /**
+     * Test that an invalid policy file fails the construction
+     * 
+     * @throws Exception 
+     */
+    @Test (expected = AceException.class)
+    public void testInvalidPolicy() throws Exception {
+        String dir = reloadDir + "Invalid";
+        new File(dir).mkdirs();
+        try (FileOutputStream fos = new FileOutputStream(
+                new File(dir, "invalid.xml"))) {
+            fos.write("<Policy".getBytes(Constants.charset));
+        }
+        try {
+            new XacmlPDP(dir, null, null).close();
+        } finally {
+            deleteDir(dir);
+        }
+    }
+
+    /**
+     * Test that a watching PDP reloads changed policies by itself
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testWatch() throws Exception {
+        Set<String> rs1 = Collections.singleton("rs1");
+        String dir = reloadDir + "Watch";
+        new File(dir).mkdirs();
+        writePolicy(dir, "rs1", anyOf(audience("rs1")),
+                scopeRule("clientA", "r_temp"));
+        try (XacmlPDP watching = new XacmlPDP(dir, null, null, 
+                XacmlPDP.DEFAULT_CACHE_SIZE, true)) {
+            Assert.assertEquals("r_temp", 
+                    watching.canAccess("clientA", rs1, "r_temp"));
+            writePolicy(dir, "rs1", anyOf(audience("rs1")),
+                    scopeRule("clientA", "r_light"));
+            long deadline = System.currentTimeMillis() + 20000L;
+            while (watching.canAccess("clientA", rs1, "r_light") == null
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(50);
+            }
+            Assert.assertEquals("r_light", 
+                    watching.canAccess("clientA", rs1, "r_light"));
+            Assert.assertNull(watching.canAccess("clientA", rs1, "r_temp"));
+        } finally {
+            deleteDir(dir);
+        }
+    }
+}
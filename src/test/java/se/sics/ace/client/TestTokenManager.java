@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.client;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.examples.KissTime;
+
+/**
+ * Test the client token cache.
+ *
+ */
+public class TestTokenManager {
+
+    /**
+     * A fetcher counting the tokens it issues
+     */
+    private static class CountingFetcher 
+            implements TokenManager.TokenFetcher {
+        
+        final AtomicInteger count = new AtomicInteger();
+        
+        final long expiresIn;
+        
+        CountingFetcher(long expiresIn) {
+            this.expiresIn = expiresIn;
+        }
+        
+        @Override
+        public CBORObject fetch(CBORObject aud, CBORObject scope)
+                throws AceException {
+            CBORObject res = CBORObject.NewMap();
+            res.Add(Constants.ACCESS_TOKEN, CBORObject.FromObject(
+                    new byte[]{(byte)this.count.incrementAndGet()}));
+            res.Add(Constants.EXPIRES_IN, this.expiresIn);
+            return res;
+        }
+    }
+    
+    /**
+     * A fetcher issuing tokens with a lifetime depending on the scope, and
+     * signalling each token it issues
+     */
+    private static class SignallingFetcher 
+            implements TokenManager.TokenFetcher {
+        
+        final AtomicInteger count = new AtomicInteger();
+        
+        final Map<CBORObject, Long> lifetimes;
+        
+        final BlockingQueue<CBORObject> fetched = new LinkedBlockingQueue<>();
+        
+        SignallingFetcher(Map<CBORObject, Long> lifetimes) {
+            this.lifetimes = lifetimes;
+        }
+        
+        @Override
+        public CBORObject fetch(CBORObject aud, CBORObject scope)
+                throws AceException {
+            CBORObject res = CBORObject.NewMap();
+            res.Add(Constants.ACCESS_TOKEN, CBORObject.FromObject(
+                    new byte[]{(byte)this.count.incrementAndGet()}));
+            res.Add(Constants.EXPIRES_IN, this.lifetimes.get(scope));
+            res.Add(Constants.SCOPE, scope);
+            this.fetched.add(res);
+            return res;
+        }
+        
+        /**
+         * Wait for the next token issued.
+         * 
+         * @return  the AS response
+         * @throws InterruptedException
+         */
+        CBORObject next() throws InterruptedException {
+            CBORObject res = this.fetched.poll(10, TimeUnit.SECONDS);
+            Assert.assertNotNull("Token was not refreshed", res);
+            return res;
+        }
+    }
+    
+    /**
+     * Test that cached tokens are reused until they expire
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCacheAndExpiry() throws Exception {
+        AtomicLong now = new AtomicLong(1000000L);
+        CountingFetcher fetcher = new CountingFetcher(60);
+        CBORObject aud = CBORObject.FromObject("rs1");
+        CBORObject scope = CBORObject.FromObject("r_temp");
+        try (TokenManager tm = new TokenManager(fetcher, now::get)) {
+            CBORObject first = tm.getToken(aud, scope);
+            Assert.assertEquals(first, tm.getToken(aud, scope));
+            Assert.assertEquals(1, fetcher.count.get());
+            
+            tm.getToken(aud, CBORObject.FromObject("co2"));
+            Assert.assertEquals(2, fetcher.count.get());
+            Assert.assertEquals(2, tm.size());
+            
+            now.addAndGet(60000L);
+            Assert.assertNotEquals(first, tm.getToken(aud, scope));
+            Assert.assertEquals(3, fetcher.count.get());
+            
+            tm.invalidate(aud, scope);
+            tm.getToken(aud, scope);
+            Assert.assertEquals(4, fetcher.count.get());
+        }
+    }
+    
+    /**
+     * Test that a bad AS response is rejected and not cached
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testNoToken() throws Exception {
+        try (TokenManager tm = new TokenManager(
+                (aud, scope) -> CBORObject.NewMap(), new KissTime())) {
+            tm.getToken(null, CBORObject.FromObject("r_temp"));
+            Assert.fail("AS response without token was accepted");
+        } catch (AceException e) {
+            Assert.assertEquals("AS response did not contain a token", 
+                    e.getMessage());
+        }
+    }
+    
+    /**
+     * Test that only tokens in use are refreshed in the background
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRefresh() throws Exception {
+        CBORObject aud = CBORObject.FromObject("rs1");
+        CBORObject rTemp = CBORObject.FromObject("r_temp");
+        CBORObject co2 = CBORObject.FromObject("co2");
+        // The refresher is a single thread, so its tasks run in the order 
+        // of their deadlines: 'r_temp' is due at 0.8 s, 1.6 s, ... and 
+        // 'co2' at 1.6 s, 3.2 s, ...
+        Map<CBORObject, Long> lifetimes = new HashMap<>();
+        lifetimes.put(rTemp, 1L);
+        lifetimes.put(co2, 2L);
+        SignallingFetcher fetcher = new SignallingFetcher(lifetimes);
+        try (TokenManager tm = new TokenManager(fetcher, new KissTime())) {
+            tm.getToken(aud, rTemp);
+            tm.getToken(aud, co2);
+            tm.getToken(aud, co2);
+            Assert.assertEquals(2, fetcher.count.get());
+            fetcher.fetched.clear();
+            
+            // Both were used once, so both are refreshed once
+            Assert.assertEquals(rTemp, fetcher.next().get(
+                    CBORObject.FromObject(Constants.SCOPE)));
+            CBORObject refreshed = fetcher.next();
+            Assert.assertEquals(co2, refreshed.get(
+                    CBORObject.FromObject(Constants.SCOPE)));
+            
+            // Only the refreshed 'co2' token is used again, once it is 
+            // cached
+            while (!tm.getToken(aud, co2).equals(refreshed)) {
+                Thread.sleep(1L);
+            }
+            Assert.assertEquals(co2, fetcher.next().get(
+                    CBORObject.FromObject(Constants.SCOPE)));
+            
+            // The unused 'r_temp' token was due before, but not refreshed
+            Assert.assertEquals(5, fetcher.count.get());
+            Assert.assertTrue(fetcher.fetched.isEmpty());
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+
+import org.eclipse.californium.core.CoapResource;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.CoAP.ResponseCode;
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.server.resources.CoapExchange;
+import org.eclipse.californium.elements.config.UdpConfig;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.coap.client.AsyncProfileRequests;
+import se.sics.ace.coap.client.ConnectionManager;
+
+/**
+ * Tests the AsyncProfileRequests class against a plain CoAP server.
+ *
+ */
+public class TestAsyncProfileRequests {
+    
+    static {
+        CoapConfig.register();
+        UdpConfig.register();
+    }
+    
+    private static CoapServer server = null;
+    
+    private static String baseUri = null;
+    
+    private static ConnectionManager manager = null;
+    
+    private static AsyncProfileRequests client = null;
+    
+    /**
+     * Start a server echoing the payload on /authz-info and never 
+     * responding on /silent
+     * 
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        server = new CoapServer();
+        CoapEndpoint ep = new CoapEndpoint.Builder().setInetSocketAddress(
+                new InetSocketAddress("127.0.0.1", 0)).build();
+        server.addEndpoint(ep);
+        server.add(new CoapResource("authz-info") {
+            @Override
+            public void handlePOST(CoapExchange exchange) {
+                exchange.respond(ResponseCode.CREATED, 
+                        exchange.getRequestPayload());
+            }
+        });
+        server.add(new CoapResource("silent") {
+            @Override
+            public void handlePOST(CoapExchange exchange) {
+                // Never respond
+            }
+        });
+        server.start();
+        baseUri = "coap://127.0.0.1:" + ep.getAddress().getPort() + "/";
+        manager = new ConnectionManager();
+        client = new AsyncProfileRequests(manager, 1000L);
+    }
+    
+    /**
+     * Stop the server
+     */
+    @AfterClass
+    public static void tearDown() {
+        client.close();
+        manager.close();
+        server.destroy();
+    }
+    
+    /**
+     * Test many outstanding requests over one endpoint
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testPipelining() throws Exception {
+        List<CompletableFuture<CoapResponse>> futures = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            futures.add(client.postToken(baseUri + "authz-info", 
+                    CBORObject.FromObject(i), Constants.APPLICATION_CWT, null));
+        }
+        for (int i = 0; i < 50; i++) {
+            CoapResponse r = futures.get(i).get();
+            Assert.assertEquals(ResponseCode.CREATED, r.getCode());
+            Assert.assertEquals(i, CBORObject.DecodeFromBytes(
+                    r.getPayload()).AsInt32());
+        }
+        Assert.assertEquals(1, manager.size());
+    }
+    
+    /**
+     * Test that a request without response times out
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testTimeout() throws Exception {
+        CompletableFuture<CoapResponse> f = client.postToken(
+                baseUri + "silent", CBORObject.FromObject(1), 
+                Constants.APPLICATION_CWT, null);
+        try {
+            f.get();
+            Assert.fail("Request did not time out");
+        } catch (ExecutionException e) {
+            Assert.assertTrue(e.getCause() instanceof AceException);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.client;
+
+import java.net.InetSocketAddress;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.Endpoint;
+import org.eclipse.californium.elements.config.UdpConfig;
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.sics.ace.AceException;
+
+/**
+ * Tests the ConnectionManager class.
+ *
+ */
+public class TestConnectionManager {
+    
+    static {
+        CoapConfig.register();
+        UdpConfig.register();
+    }
+    
+    /**
+     * Creates plain CoAP endpoints on an ephemeral port
+     */
+    private static final ConnectionManager.EndpointFactory factory 
+        = () -> new CoapEndpoint.Builder().setInetSocketAddress(
+                new InetSocketAddress(0)).build();
+    
+    /**
+     * Test that endpoints are reused per peer and credential
+     * 
+     * @throws AceException
+     */
+    @Test
+    public void testReuse() throws AceException {
+        try (ConnectionManager manager = new ConnectionManager()) {
+            Endpoint e1 = manager.getEndpoint("coaps://as:5684", "key1", factory);
+            Assert.assertTrue(e1.isStarted());
+            Assert.assertSame(e1, manager.getEndpoint("coaps://as:5684", "key1", factory));
+            Endpoint e2 = manager.getEndpoint("coaps://as:5684", "key2", factory);
+            Endpoint e3 = manager.getEndpoint("coaps://rs:5684", "key1", factory);
+            Assert.assertNotSame(e1, e2);
+            Assert.assertNotSame(e1, e3);
+            Assert.assertEquals(3, manager.size());
+            
+            manager.remove("coaps://as:5684", "key1");
+            Assert.assertFalse(e1.isStarted());
+            Assert.assertEquals(2, manager.size());
+        }
+    }
+    
+    /**
+     * Test that the least recently used endpoint is destroyed when the 
+     * manager is full
+     * 
+     * @throws AceException
+     */
+    @Test
+    public void testBounded() throws AceException {
+        try (ConnectionManager manager = new ConnectionManager(2, 60000L)) {
+            Endpoint e1 = manager.getEndpoint("coap://rs1:5683", null, factory);
+            Endpoint e2 = manager.getEndpoint("coap://rs2:5683", null, factory);
+            manager.getEndpoint("coap://rs1:5683", null, factory);
+            Endpoint e3 = manager.getEndpoint("coap://rs3:5683", null, factory);
+            Assert.assertEquals(2, manager.size());
+            Assert.assertTrue(e1.isStarted());
+            Assert.assertFalse(e2.isStarted());
+            Assert.assertTrue(e3.isStarted());
+        }
+    }
+    
+    /**
+     * Test that idle endpoints are destroyed
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testIdle() throws Exception {
+        try (ConnectionManager manager = new ConnectionManager(10, 50L)) {
+            Endpoint e1 = manager.getEndpoint("coap://rs1:5683", null, factory);
+            Thread.sleep(100L);
+            Endpoint e2 = manager.getEndpoint("coap://rs1:5683", null, factory);
+            Assert.assertNotSame(e1, e2);
+            Assert.assertFalse(e1.isStarted());
+            Assert.assertEquals(1, manager.size());
+        }
+    }
+    
+    /**
+     * Test that idle endpoints are destroyed even if the manager is not 
+     * used anymore
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testIdleWithoutUse() throws Exception {
+        try (ConnectionManager manager = new ConnectionManager(10, 50L)) {
+            Endpoint e1 = manager.getEndpoint("coap://rs1:5683", null, factory);
+            long deadline = System.currentTimeMillis() + 5000L;
+            while (manager.size() > 0 
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(20L);
+            }
+            Assert.assertEquals(0, manager.size());
+            Assert.assertFalse(e1.isStarted());
+        }
+    }
+    
+    /**
+     * Test that creating an endpoint does not block getting the endpoints 
+     * of other peers, and that only one endpoint is kept when two threads 
+     * create one for the same peer
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCreateOutsideLock() throws Exception {
+        try (ConnectionManager manager = new ConnectionManager()) {
+            CountDownLatch creating = new CountDownLatch(1);
+            CountDownLatch release = new CountDownLatch(1);
+            CompletableFuture<Endpoint> slow = CompletableFuture.supplyAsync(
+                    () -> {
+                try {
+                    return manager.getEndpoint("coap://slow:5683", null, 
+                            () -> {
+                                creating.countDown();
+                                try {
+                                    release.await();
+                                } catch (InterruptedException e) {
+                                    throw new AceException(e.getMessage());
+                                }
+                                return factory.create();
+                            });
+                } catch (AceException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            Assert.assertTrue(creating.await(5, TimeUnit.SECONDS));
+            
+            Endpoint fast = manager.getEndpoint("coap://fast:5683", null, factory);
+            Assert.assertTrue(fast.isStarted());
+            Endpoint first = manager.getEndpoint("coap://slow:5683", null, factory);
+            
+            release.countDown();
+            Endpoint second = slow.get(5, TimeUnit.SECONDS);
+            Assert.assertSame(first, second);
+            Assert.assertTrue(first.isStarted());
+            Assert.assertEquals(2, manager.size());
+        }
+    }
+    
+    /**
+     * Test that a failed endpoint is only destroyed if it has not been 
+     * replaced yet, and that the manager cannot be used after closing
+     * 
+     * @throws AceException
+     */
+    @Test
+    public void testRemoveFailed() throws AceException {
+        ConnectionManager manager = new ConnectionManager();
+        Endpoint e1 = manager.getEndpoint("coap://rs1:5683", null, factory);
+        manager.remove("coap://rs1:5683", null, e1);
+        Assert.assertFalse(e1.isStarted());
+        Assert.assertEquals(0, manager.size());
+        
+        Endpoint e2 = manager.getEndpoint("coap://rs1:5683", null, factory);
+        manager.remove("coap://rs1:5683", null, e1);
+        Assert.assertTrue(e2.isStarted());
+        Assert.assertEquals(1, manager.size());
+        
+        // Not a DTLS endpoint, nothing to resume
+        ConnectionManager.resumeSessions(e2);
+        Assert.assertTrue(e2.isStarted());
+        
+        manager.close();
+        Assert.assertFalse(e2.isStarted());
+        Assert.assertThrows(AceException.class, 
+                () -> manager.getEndpoint("coap://rs1:5683", null, factory));
+    }
+    
+    /**
+     * Test extracting the peer from a URI
+     * 
+     * @throws AceException
+     */
+    @Test
+    public void testGetPeer() throws AceException {
+        Assert.assertEquals("coaps://localhost:5684", 
+                ConnectionManager.getPeer("coaps://localhost/token"));
+        Assert.assertEquals("coap://localhost:5683", 
+                ConnectionManager.getPeer("COAP://localhost"));
+        Assert.assertEquals("coap://127.0.0.1:5690", 
+                ConnectionManager.getPeer("coap://127.0.0.1:5690/authz-info"));
+        Assert.assertEquals(ConnectionManager.getPeer("coap://localhost/token"),
+                ConnectionManager.getPeer("coap", 
+                        new InetSocketAddress("localhost", 5683)));
+        Assert.assertEquals("coap://[0:0:0:0:0:0:0:1]:5683", ConnectionManager.getPeer(
+                "coap", new InetSocketAddress("::1", 5683)));
+        Assert.assertThrows(AceException.class, 
+                () -> ConnectionManager.getPeer("not a uri"));
+        Assert.assertThrows(AceException.class, 
+                () -> ConnectionManager.getPeer("http://localhost/token"));
+    }
+}
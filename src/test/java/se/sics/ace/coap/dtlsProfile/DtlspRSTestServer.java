@@ -34,9 +34,6 @@ package se.sics.ace.coap.dtlsProfile;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
@@ -50,13 +47,7 @@ import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
-import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.californium.scandium.config.DtlsConfig;
-import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
-import org.eclipse.californium.scandium.dtls.CertificateType;
-import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
-import org.eclipse.californium.scandium.dtls.x509.AsyncNewAdvancedCertificateVerifier;
-import org.eclipse.californium.scandium.dtls.x509.SingleCertificateProvider;
 
 import com.upokecenter.cbor.CBORObject;
 
@@ -64,9 +55,6 @@ import COSE.AlgorithmID;
 import COSE.KeyKeys;
 import COSE.MessageTag;
 import COSE.OneKey;
-import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
-import org.eclipse.californium.elements.config.CertificateAuthenticationMode;
-import org.eclipse.californium.elements.config.Configuration;
 
 import se.sics.ace.AceException;
 import se.sics.ace.COSEparams;
@@ -74,6 +62,8 @@ import se.sics.ace.Constants;
 import se.sics.ace.TestConfig;
 import se.sics.ace.coap.rs.CoapAuthzInfo;
 import se.sics.ace.coap.rs.CoapDeliverer;
+import se.sics.ace.coap.DtlsSessionConfig;
+import se.sics.ace.coap.rs.dtlsProfile.DtlspEndpointBuilder;
 import se.sics.ace.coap.rs.dtlsProfile.DtlspPskStore;
 import se.sics.ace.cwt.CWT;
 import se.sics.ace.cwt.CwtCryptoCtx;
@@ -237,30 +227,13 @@ public class DtlspRSTestServer {
       rs.add(temp);
       rs.add(authzInfo);
 
-      Configuration dtlsConfig = Configuration.getStandard();
-      dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, CertificateAuthenticationMode.NEEDED);
-      dtlsConfig.set(DtlsConfig.DTLS_CIPHER_SUITES, Arrays.asList(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8,
-    		  													  CipherSuite.TLS_PSK_WITH_AES_128_CCM_8));
-      
-      DtlsConnectorConfig.Builder config = new DtlsConnectorConfig.Builder(dtlsConfig)
-              .setAddress(
-                      new InetSocketAddress(CoAP.DEFAULT_COAP_SECURE_PORT));
-
-        DtlspPskStore psk = new DtlspPskStore(ai);
-        config.setAdvancedPskStore(psk);
-        config.setCertificateIdentityProvider(
-                new SingleCertificateProvider(asymmetric.AsPrivateKey(), asymmetric.AsPublicKey()));
-
-        ArrayList<CertificateType> certTypes = new ArrayList<CertificateType>();
-        certTypes.add(CertificateType.RAW_PUBLIC_KEY);
-        AsyncNewAdvancedCertificateVerifier verifier = new AsyncNewAdvancedCertificateVerifier(new X509Certificate[0],
-                																			   new RawPublicKeyIdentity[0],
-                																			   certTypes);
-        config.setAdvancedCertificateVerifier(verifier);
-
-        DTLSConnector connector = new DTLSConnector(config.build());
-        CoapEndpoint cep = new CoapEndpoint.Builder().setConnector(connector)
-                .setConfiguration(Configuration.getStandard()).build();
+      DtlspPskStore psk = new DtlspPskStore(ai);
+      CoapEndpoint cep = new DtlspEndpointBuilder()
+              .setPort(CoAP.DEFAULT_COAP_SECURE_PORT)
+              .setPskStore(psk)
+              .setAsymmetricKey(asymmetric)
+              .setSessionConfig(new DtlsSessionConfig())
+              .build();
         rs.addEndpoint(cep);
         // Add a CoAP (no 's') endpoint for authz-info
         CoapEndpoint aiep = new CoapEndpoint.Builder().setInetSocketAddress(
@@ -281,7 +254,7 @@ public class DtlspRSTestServer {
      * @throws AceException 
      */
     public static void stop() throws IOException, AceException {
-        rs.stop();
+        rs.destroy();
         ai.close();
         new File(TestConfig.testFilePath + "tokens.json").delete();
     }
@@ -0,0 +1,269 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.dtlsProfile;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.californium.scandium.dtls.ConnectionId;
+import org.eclipse.californium.scandium.dtls.HandshakeResult;
+import org.eclipse.californium.scandium.dtls.PskPublicInformation;
+import org.eclipse.californium.scandium.dtls.PskSecretResult;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import COSE.AlgorithmID;
+import COSE.KeyKeys;
+import COSE.MessageTag;
+import COSE.OneKey;
+import se.sics.ace.AceException;
+import se.sics.ace.COSEparams;
+import se.sics.ace.DBHelper;
+import se.sics.ace.as.AccessTokenFactory;
+import se.sics.ace.coap.as.CoapDBConnector;
+
+/**
+ * Test the PSK cache and the asynchronous PSK lookups of the CoapDBConnector.
+ */
+public class TestCoapDBConnector {
+
+    /**
+     * The first PSK of the client
+     */
+    static byte[] key128a = {'a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n', 'o', 'p'};
+
+    /**
+     * The second PSK of the client
+     */
+    static byte[] key128b = {'q', 'r', 's', 't', 'u', 'v', 'w', 'x', 'y', 'z', 'a', 'b', 'c', 'd', 'e', 'f'};
+
+    /**
+     * The connector under test
+     */
+    private static CoapDBConnector db = null;
+
+    /**
+     * The results returned through the handler of the connector
+     */
+    private static BlockingQueue<HandshakeResult> results 
+        = new LinkedBlockingQueue<>();
+
+    /**
+     * Set up the database with one client and one RS.
+     * 
+     * @throws Exception
+     */
+    @BeforeClass
+    public static void setUp() throws Exception {
+        DBHelper.setUpDB();
+        db = DBHelper.getCoapDBConnector();
+        db.addClient("clientA", Collections.singleton("coap_dtls"), null, 
+                null, Collections.singleton("PSK"), makeKey(key128a), null);
+        addRS();
+    }
+
+    /**
+     * Deletes the test DB.
+     * 
+     * @throws AceException 
+     */
+    @AfterClass
+    public static void tearDown() throws AceException {
+        db.close();
+        DBHelper.tearDownDB();
+    }
+
+    /**
+     * Clear the results and set the handler before each test.
+     */
+    @Before
+    public void setHandler() {
+        results.clear();
+        db.setResultHandler(results::add);
+    }
+
+    /**
+     * Create a symmetric COSE key.
+     * 
+     * @param key  the key bytes
+     * @return  the COSE key
+     * @throws Exception
+     */
+    private static OneKey makeKey(byte[] key) throws Exception {
+        CBORObject keyData = CBORObject.NewMap();
+        keyData.Add(KeyKeys.KeyType.AsCBOR(), KeyKeys.KeyType_Octet);
+        keyData.Add(KeyKeys.Octet_K.AsCBOR(), CBORObject.FromObject(key));
+        return new OneKey(keyData);
+    }
+
+    /**
+     * Add the RS "rs1" with an authentication PSK.
+     * 
+     * @throws Exception
+     */
+    private static void addRS() throws Exception {
+        Set<Short> tokenTypes = new HashSet<>();
+        tokenTypes.add(AccessTokenFactory.CWT_TYPE);
+        Set<COSEparams> cose = new HashSet<>();
+        cose.add(new COSEparams(MessageTag.Encrypt0, 
+                AlgorithmID.AES_CCM_16_128_256, AlgorithmID.Direct));
+        db.addRS("rs1", Collections.singleton("coap_dtls"), 
+                Collections.singleton("r_temp"), Collections.singleton("aud1"),
+                Collections.singleton("PSK"), tokenTypes, cose, 30000L, 
+                makeKey(key128b), makeKey(key128a), null);
+    }
+
+    /**
+     * Request the PSK of an identity.
+     * 
+     * @param identity  the identity
+     * @return  the result if it was returned synchronously or null
+     */
+    private static PskSecretResult request(String identity) {
+        return db.requestPskSecretResult(new ConnectionId(new byte[]{0x01}), 
+                null, new PskPublicInformation(identity), "HmacSHA256", 
+                null, null, false);
+    }
+
+    /**
+     * Request the PSK of an identity, and wait for the result if the 
+     * lookup goes to the database.
+     * 
+     * @param identity  the identity
+     * @return  the key bytes or null if there is no such key
+     * @throws InterruptedException 
+     */
+    private static byte[] lookup(String identity) 
+            throws InterruptedException {
+        PskSecretResult result = request(identity);
+        if (result == null) {
+            HandshakeResult async = results.poll(5, TimeUnit.SECONDS);
+            Assert.assertNotNull(async);
+            result = (PskSecretResult)async;
+        }
+        return result.getSecret() == null 
+                ? null : result.getSecret().getEncoded();
+    }
+
+    /**
+     * Test that a miss completes the result handler and a hit is returned 
+     * synchronously.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCacheHit() throws Exception {
+        db.deleteClient("clientA");
+        db.addClient("clientA", Collections.singleton("coap_dtls"), null, 
+                null, Collections.singleton("PSK"), makeKey(key128a), null);
+        
+        Assert.assertNull(request("clientA"));
+        PskSecretResult miss = (PskSecretResult)results.poll(
+                5, TimeUnit.SECONDS);
+        Assert.assertNotNull(miss);
+        Assert.assertArrayEquals(key128a, miss.getSecret().getEncoded());
+        
+        PskSecretResult hit = request("clientA");
+        Assert.assertNotNull(hit);
+        Assert.assertArrayEquals(key128a, hit.getSecret().getEncoded());
+        Assert.assertTrue(results.isEmpty());
+    }
+
+    /**
+     * Test that changing or deleting a key invalidates the cached one.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        Assert.assertArrayEquals(key128a, lookup("clientA"));
+        Assert.assertArrayEquals(key128b, lookup("rs1"));
+        
+        db.deleteClient("clientA");
+        Assert.assertNull(lookup("clientA"));
+        db.addClient("clientA", Collections.singleton("coap_dtls"), null, 
+                null, Collections.singleton("PSK"), makeKey(key128b), null);
+        Assert.assertArrayEquals(key128b, lookup("clientA"));
+        
+        db.deleteRS("rs1");
+        Assert.assertNull(lookup("rs1"));
+        addRS();
+        Assert.assertArrayEquals(key128b, lookup("rs1"));
+        
+        db.deleteClient("clientA");
+        db.addClient("clientA", Collections.singleton("coap_dtls"), null, 
+                null, Collections.singleton("PSK"), makeKey(key128a), null);
+        Assert.assertArrayEquals(key128a, lookup("clientA"));
+    }
+
+    /**
+     * Test that lookups still in flight when the connector is closed 
+     * complete the result handler.
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCloseWithPendingLookups() throws Exception {
+        Assert.assertArrayEquals(key128a, lookup("clientA"));
+        CoapDBConnector closed = db;
+        synchronized (closed) {
+            // The lookup thread blocks on the database until we close it
+            for (int i = 0; i < 3; i++) {
+                Assert.assertNull(request("unknown" + i));
+            }
+            closed.close();
+        }
+        for (int i = 0; i < 3; i++) {
+            PskSecretResult result = (PskSecretResult)results.poll(
+                    5, TimeUnit.SECONDS);
+            Assert.assertNotNull(result);
+            Assert.assertNull(result.getSecret());
+        }
+        
+        // Lookups after closing fail synchronously, even for cached keys
+        PskSecretResult result = request("clientA");
+        Assert.assertNotNull(result);
+        Assert.assertNull(result.getSecret());
+        
+        db = DBHelper.getCoapDBConnector();
+        Assert.assertNotSame(closed, db);
+    }
+}
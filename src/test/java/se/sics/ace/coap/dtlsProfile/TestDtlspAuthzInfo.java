@@ -35,13 +35,19 @@ import java.io.File;
 import java.io.IOException;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.eclipse.californium.core.coap.CoAP.Code;
@@ -234,6 +240,54 @@ public class TestDtlspAuthzInfo {
                         kid, kid, "temp", Constants.GET, null));
     }
     
+    /**
+     * Test concurrent POSTs of different tokens to /authz-info
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testConcurrentPOSTtoken() throws Exception {
+        int count = 16;
+        CBORObject[] tokens = new CBORObject[count];
+        for (int i = 0; i < count; i++) {
+            Map<Short, CBORObject> params = new HashMap<>(); 
+            params.put(Constants.SCOPE, CBORObject.FromObject("r_temp"));
+            params.put(Constants.AUD, CBORObject.FromObject("aud1"));
+            params.put(Constants.CTI, CBORObject.FromObject(
+                    new byte[]{0x10, (byte)i}));
+            params.put(Constants.ISS, CBORObject.FromObject("TestAS"));
+            OneKey key = new OneKey();
+            key.add(KeyKeys.KeyType, KeyKeys.KeyType_Octet);
+            key.add(KeyKeys.KeyId, CBORObject.FromObject(
+                    new byte[] {0x10, (byte)i}));
+            key.add(KeyKeys.Octet_K, CBORObject.FromObject(key128));
+            CBORObject cnf = CBORObject.NewMap();
+            cnf.Add(Constants.COSE_KEY_CBOR, key.AsCBOR());
+            params.put(Constants.CNF, cnf);
+            tokens[i] = new CWT(params).encode(ctx);
+        }
+        
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<Message>> replies = new ArrayList<>();
+        for (CBORObject token : tokens) {
+            replies.add(pool.submit(() -> ai.processMessage(
+                    new LocalMessage(0, null, null, token))));
+        }
+        for (Future<Message> reply : replies) {
+            Assert.assertEquals(Message.CREATED, 
+                    reply.get(10, TimeUnit.SECONDS).getMessageCode());
+        }
+        pool.shutdown();
+        
+        for (int i = 0; i < count; i++) {
+            String kid = Base64.getEncoder().encodeToString(
+                    new byte[] {0x10, (byte)i});
+            Assert.assertEquals(TokenRepository.OK, 
+                    TokenRepository.getInstance().canAccess(
+                            kid, kid, "temp", Constants.GET, null));
+        }
+    }
+    
     /**
      * Test a POST to /authz-info, followed by an attempt to update
      * access rights by posting a new Access Token over DTLS
@@ -46,8 +46,12 @@ import org.eclipse.californium.core.CoapClient;
 import org.eclipse.californium.core.CoapResponse;
 import org.eclipse.californium.core.coap.CoAP;
 import org.eclipse.californium.core.coap.MediaTypeRegistry;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.elements.DtlsEndpointContext;
+import org.eclipse.californium.elements.EndpointContext;
 import org.eclipse.californium.elements.exception.ConnectorException;
 import org.eclipse.californium.elements.util.Bytes;
+import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.californium.scandium.dtls.HandshakeException;
 import org.junit.AfterClass;
 import org.junit.Assert;
@@ -70,6 +74,7 @@ import se.sics.ace.TestConfig;
 import se.sics.ace.coap.client.DTLSProfileRequests;
 import se.sics.ace.cwt.CWT;
 import se.sics.ace.cwt.CwtCryptoCtx;
+import se.sics.ace.rs.TokenRepository;
 
 /**
  * Tests a client running the DTLS profile.
@@ -244,6 +249,68 @@ public class TestDtlspClient2RS {
         Assert.assertEquals("Hello World!", r.getResponseText());    
     }
         
+    /**
+     * Tests that a resumed DTLS session is still mapped to the kid of 
+     * the token used in the full handshake
+     * @throws CoseException 
+     * @throws AceException 
+     * @throws InvalidCipherTextException 
+     * @throws IllegalStateException 
+     * @throws IOException 
+     * @throws ConnectorException 
+     */
+    @Test
+    public void testResumedSession() throws CoseException, 
+            IllegalStateException, InvalidCipherTextException, AceException,
+            ConnectorException, IOException {
+        Map<Short, CBORObject> params = new HashMap<>(); 
+        params.put(Constants.SCOPE, CBORObject.FromObject("r_helloWorld"));
+        params.put(Constants.AUD, CBORObject.FromObject("aud1"));
+        params.put(Constants.CTI, CBORObject.FromObject("tokenRS".getBytes(Constants.charset)));
+        params.put(Constants.ISS, CBORObject.FromObject("TestAS"));
+        
+        OneKey key = new OneKey();
+        key.add(KeyKeys.KeyType, KeyKeys.KeyType_Octet);
+        String kidStr = "resumeKey";
+        CBORObject kid = CBORObject.FromObject(kidStr.getBytes(Constants.charset));
+        key.add(KeyKeys.KeyId, kid);
+        key.add(KeyKeys.Octet_K, CBORObject.FromObject(key128));
+        CBORObject cnf = CBORObject.NewMap();
+        cnf.Add(Constants.COSE_KEY_CBOR, key.AsCBOR());
+        params.put(Constants.CNF, cnf);
+        CWT token = new CWT(params);
+        CBORObject payload = token.encode(ctx);    
+        CoapClient c = DTLSProfileRequests.getPskClient(new InetSocketAddress("localhost",
+                CoAP.DEFAULT_COAP_SECURE_PORT), payload, key);
+        c.setURI("coaps://localhost/helloWorld");
+        CoapResponse r = c.get();
+        Assert.assertEquals("CONTENT", r.getCode().name());
+        String kidB64 = Base64.getEncoder().encodeToString(
+                kidStr.getBytes(Constants.charset));
+        EndpointContext full = r.advanced().getSourceContext();
+        Bytes sessionId = full.get(DtlsEndpointContext.KEY_SESSION_ID);
+        Assert.assertNotNull(sessionId);
+        Assert.assertFalse(sessionId.isEmpty());
+        Assert.assertEquals(kidB64, TokenRepository.getInstance()
+                .getKidBySession(sessionId.getAsString()));
+        
+        // Do an abbreviated handshake for the next request
+        ((DTLSConnector)((CoapEndpoint)c.getEndpoint()).getConnector())
+            .forceResumeAllSessions();
+        r = c.get();
+        Assert.assertEquals("CONTENT", r.getCode().name());
+        Assert.assertEquals("Hello World!", r.getResponseText());
+        EndpointContext resumed = r.advanced().getSourceContext();
+        Assert.assertEquals(sessionId, 
+                resumed.get(DtlsEndpointContext.KEY_SESSION_ID));
+        Assert.assertNotEquals(
+                full.get(DtlsEndpointContext.KEY_HANDSHAKE_TIMESTAMP),
+                resumed.get(DtlsEndpointContext.KEY_HANDSHAKE_TIMESTAMP));
+        Assert.assertEquals(kidB64, TokenRepository.getInstance()
+                .getKidBySession(sessionId.getAsString()));
+        c.shutdown();
+    }
+        
     /**
      *  Test passing a kid through psk-identity
      * @throws AceException 
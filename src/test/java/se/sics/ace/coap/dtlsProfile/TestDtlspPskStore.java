@@ -39,10 +39,17 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.SecretKey;
 
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.scandium.dtls.ConnectionId;
+import org.eclipse.californium.scandium.dtls.HandshakeResult;
 import org.eclipse.californium.scandium.dtls.PskPublicInformation;
+import org.eclipse.californium.scandium.dtls.PskSecretResult;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -59,6 +66,7 @@ import se.sics.ace.COSEparams;
 import se.sics.ace.Constants;
 import se.sics.ace.TestConfig;
 import se.sics.ace.Util;
+import se.sics.ace.coap.rs.dtlsProfile.DtlspEndpointBuilder;
 import se.sics.ace.coap.rs.dtlsProfile.DtlspPskStore;
 import se.sics.ace.cwt.CWT;
 import se.sics.ace.cwt.CwtCryptoCtx;
@@ -263,5 +271,89 @@ public class TestDtlspPskStore {
                 new PskPublicInformation(pskIdentityStr, pskIdentityBytes)).getEncoded();
         Assert.assertArrayEquals(key128 ,psk);
     }
+    
+    /**
+     * Test that a token in the psk-identity is processed asynchronously
+     * when a result handler is set
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testAsyncToken() throws Exception {
+        Map<Short, CBORObject> params = new HashMap<>(); 
+        params.put(Constants.SCOPE, CBORObject.FromObject("r_co2"));
+        params.put(Constants.AUD, CBORObject.FromObject("rs1"));
+        params.put(Constants.CTI, CBORObject.FromObject(
+                "token4".getBytes(Constants.charset)));
+        params.put(Constants.ISS, CBORObject.FromObject("TestAS"));
+        OneKey key = new OneKey();
+        key.add(KeyKeys.KeyType, KeyKeys.KeyType_Octet);
+        CBORObject kid = CBORObject.FromObject(
+                "asyncKey".getBytes(Constants.charset));
+        key.add(KeyKeys.KeyId, kid);
+        key.add(KeyKeys.Octet_K, CBORObject.FromObject(key128));
+        CBORObject cnf = CBORObject.NewMap();
+        cnf.Add(Constants.COSE_KEY_CBOR, key.AsCBOR());
+        params.put(Constants.CNF, cnf);
+        
+        CWT token = new CWT(params);
+        COSEparams coseP = new COSEparams(MessageTag.Encrypt0, 
+                AlgorithmID.AES_CCM_16_128_128, AlgorithmID.Direct);
+        CwtCryptoCtx ctx = CwtCryptoCtx.encrypt0(key128, 
+                coseP.getAlg().AsCBOR());
+        byte[] pskIdentityBytes = token.encode(ctx).EncodeToBytes();
+        String pskIdentityStr = Base64.getEncoder().encodeToString(pskIdentityBytes);
+        
+        ConnectionId cid = new ConnectionId(new byte[]{0x01});
+        DtlspPskStore asyncStore = new DtlspPskStore(ai, 1, 10);
+        BlockingQueue<HandshakeResult> results = new ArrayBlockingQueue<>(1);
+        asyncStore.setResultHandler(results::add);
+        
+        PskSecretResult res = asyncStore.requestPskSecretResult(cid, null, 
+                new PskPublicInformation(pskIdentityStr, pskIdentityBytes), 
+                null, null, null, false);
+        Assert.assertNull(res);
+        res = (PskSecretResult)results.poll(5, TimeUnit.SECONDS);
+        Assert.assertNotNull(res);
+        Assert.assertArrayEquals(key128, res.getSecret().getEncoded());
+        
+        // The key is now known, so it is resolved synchronously
+        byte[] kidIdentityBytes = Util.buildDtlsPskIdentity(kid.GetByteString());
+        res = asyncStore.requestPskSecretResult(cid, null, 
+                new PskPublicInformation(
+                        Base64.getEncoder().encodeToString(kidIdentityBytes), 
+                        kidIdentityBytes), null, null, null, false);
+        Assert.assertNotNull(res);
+        Assert.assertArrayEquals(key128, res.getSecret().getEncoded());
+        asyncStore.close();
+    }
+
+    /**
+     * Test that destroying an endpoint built with DtlspEndpointBuilder 
+     * stops the token processing of its PSK store
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCloseWithEndpoint() throws Exception {
+        DtlspPskStore asyncStore = new DtlspPskStore(ai, 1, 10);
+        BlockingQueue<HandshakeResult> results = new ArrayBlockingQueue<>(1);
+        asyncStore.setResultHandler(results::add);
+        CoapEndpoint endpoint = new DtlspEndpointBuilder()
+                .setPort(0).setPskStore(asyncStore).build();
+        endpoint.destroy();
+        
+        // An identity that may be a token is no longer processed
+        byte[] identity = CBORObject.FromObject(
+                new byte[]{0x01, 0x02, 0x03}).EncodeToBytes();
+        PskSecretResult res = asyncStore.requestPskSecretResult(
+                new ConnectionId(new byte[]{0x02}), null, 
+                new PskPublicInformation(
+                        Base64.getEncoder().encodeToString(identity), 
+                        identity), null, null, null, false);
+        Assert.assertNotNull(res);
+        Assert.assertNull(res.getSecret());
+        Assert.assertTrue(results.isEmpty());
+    }
 
-}
\ No newline at end of file
+}
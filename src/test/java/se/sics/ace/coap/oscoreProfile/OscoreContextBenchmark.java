@@ -0,0 +1,134 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.oscoreProfile;
+
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.Constants;
+import se.sics.ace.Hkdf;
+import se.sics.ace.coap.rs.oscoreProfile.OscoreSecurityContext;
+
+/**
+ * Measures how many OSCORE Security Contexts per second an RS can 
+ * establish from the OSCORE_Input_Material of Tokens, which limits how 
+ * fast many devices can rejoin at once, and compares the HKDF of
+ * derived PoP keys with and without the cached pseudorandom key.
+ * 
+ * This is not run as part of the tests, run it with:
+ * java se.sics.ace.coap.oscoreProfile.OscoreContextBenchmark [contexts] [threads]
+ *
+ */
+public class OscoreContextBenchmark {
+
+    /**
+     * @param args  the number of contexts and the number of threads
+     * @throws Exception 
+     */
+    public static void main(String[] args) throws Exception {
+        final int contexts = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : 
+            Runtime.getRuntime().availableProcessors();
+        
+        SecureRandom random = new SecureRandom();
+        byte[] ms = new byte[16];
+        random.nextBytes(ms);
+        CBORObject osc = CBORObject.NewMap();
+        osc.Add(Constants.OS_MS, ms);
+        osc.Add(Constants.OS_ID, new byte[]{0x01});
+        osc.Add(Constants.OS_SALT, new byte[]{0x1f, 0x2e, 0x3d, 0x4c});
+        osc.Add(Constants.OS_SERVERID, new byte[]{0x00});
+        osc.Add(Constants.OS_CLIENTID, new byte[]{0x01});
+        final CBORObject cnf = CBORObject.NewMap();
+        cnf.Add(Constants.OSCORE_Input_Material, osc);
+        final byte[] n1 = new byte[8];
+        random.nextBytes(n1);
+        
+        System.out.println(contexts + " contexts, " + threads + " threads:");
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        for (int round=0; round<2; round++) {
+            List<Future<?>> done = new ArrayList<>();
+            long start = System.nanoTime();
+            for (int t=0; t<threads; t++) {
+                final int share = contexts / threads;
+                done.add(pool.submit(() -> {
+                    byte[] n2 = new byte[8];
+                    for (int i=0; i<share; i++) {
+                        n2[0] = (byte)i;
+                        n2[1] = (byte)(i >> 8);
+                        OscoreSecurityContext osCtx 
+                            = new OscoreSecurityContext(cnf);
+                        osCtx.getContext(false, n1, n2);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f : done) {
+                f.get();
+            }
+            long elapsed = System.nanoTime() - start;
+            System.out.println(String.format("%-32s %10d", 
+                    "Contexts per second", 
+                    contexts * 1000000000L / Math.max(1L, elapsed)));
+        }
+        pool.shutdown();
+        
+        byte[] salt = new byte[Hkdf.getHashLen()];
+        byte[] info = new byte[40];
+        for (int round=0; round<2; round++) {
+            long start = System.nanoTime();
+            for (int i=0; i<contexts; i++) {
+                info[0] = (byte)i;
+                Hkdf.extractExpand(salt, ms, info, 16);
+            }
+            long plain = System.nanoTime() - start;
+            start = System.nanoTime();
+            for (int i=0; i<contexts; i++) {
+                info[0] = (byte)i;
+                Hkdf.extractExpandCached(salt, ms, info, 16);
+            }
+            long cached = System.nanoTime() - start;
+            if (round == 1) {
+                System.out.println(String.format("%-32s %10d", 
+                        "HKDF ns per key", plain / contexts));
+                System.out.println(String.format("%-32s %10d", 
+                        "HKDF cached PRK ns per key", cached / contexts));
+            }
+        }
+    }
+}
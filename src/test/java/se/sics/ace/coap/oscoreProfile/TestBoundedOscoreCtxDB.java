@@ -0,0 +1,148 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.oscoreProfile;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.oscore.OSCoreCtx;
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.sics.ace.coap.rs.oscoreProfile.BoundedOscoreCtxDB;
+
+/**
+ * Test the bounded OSCORE context database.
+ *
+ */
+public class TestBoundedOscoreCtxDB {
+
+    private static final byte[] secret = {0x01, 0x02, 0x03, 0x04, 0x05, 
+            0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10};
+    
+    private static OSCoreCtx makeCtx(int rid) throws Exception {
+        return new OSCoreCtx(secret, false, null, new byte[]{0x00}, 
+                new byte[]{(byte)rid}, null, null, null, null, 0);
+    }
+    
+    /**
+     * Test that the least recently used context is evicted at capacity
+     * and that pinned contexts are kept
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCapacity() throws Exception {
+        AtomicLong now = new AtomicLong(1000L);
+        BoundedOscoreCtxDB db = new BoundedOscoreCtxDB(2, 0L, now::get);
+        db.addPinnedContext(makeCtx(0));
+        db.addContext(makeCtx(1));
+        db.addContext(makeCtx(2));
+        Assert.assertNotNull(db.getContext(new byte[]{0x01}));
+        db.addContext(makeCtx(3));
+        
+        Assert.assertEquals(2, db.size());
+        Assert.assertEquals(1L, db.getCapacityEvictions());
+        Assert.assertNotNull(db.getContext(new byte[]{0x00}));
+        Assert.assertNotNull(db.getContext(new byte[]{0x01}));
+        Assert.assertNull(db.getContext(new byte[]{0x02}));
+        Assert.assertNotNull(db.getContext(new byte[]{0x03}));
+        
+        // Removing an evicted context is not an error
+        db.removeContext(null);
+        db.removeContext(makeCtx(3));
+        Assert.assertEquals(1, db.size());
+        Assert.assertNull(db.getContext(new byte[]{0x03}));
+    }
+    
+    /**
+     * Test that contexts are evicted when their token expires or 
+     * when they are idle
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testExpiryAndIdle() throws Exception {
+        AtomicLong now = new AtomicLong(1000L);
+        BoundedOscoreCtxDB db = new BoundedOscoreCtxDB(10, 5000L, now::get);
+        OSCoreCtx expiring = makeCtx(1);
+        db.addContext(expiring);
+        db.setExpiry(expiring, 3000L);
+        db.addContext(makeCtx(2));
+        db.addContext(makeCtx(3));
+        
+        now.set(3500L);
+        Assert.assertNotNull(db.getContext(new byte[]{0x03}));
+        db.purgeExpired();
+        Assert.assertNull(db.getContext(new byte[]{0x01}));
+        Assert.assertEquals(1L, db.getExpiredEvictions());
+        
+        now.set(7000L);
+        db.purgeExpired();
+        Assert.assertNull(db.getContext(new byte[]{0x02}));
+        Assert.assertNotNull(db.getContext(new byte[]{0x03}));
+        Assert.assertEquals(1L, db.getIdleEvictions());
+        Assert.assertEquals(1, db.size());
+    }
+    
+    /**
+     * Test that lookups remove expired contexts without purgeExpired(), 
+     * and never return an expired context
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testPurgeOnLookup() throws Exception {
+        AtomicLong now = new AtomicLong(1000L);
+        BoundedOscoreCtxDB db = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OSCoreCtx ctx1 = makeCtx(1);
+        OSCoreCtx ctx2 = makeCtx(2);
+        db.addContext(ctx1);
+        db.addContext(ctx2);
+        db.setExpiry(ctx1, 1500L);
+        db.setExpiry(ctx2, 1500L);
+        
+        // Looking up another context scans for expired ones
+        now.set(2500L);
+        Assert.assertNull(db.getContext(new byte[]{0x03}));
+        Assert.assertEquals(0, db.size());
+        Assert.assertEquals(2L, db.getExpiredEvictions());
+        
+        // Between two scans, an expired context is removed when found
+        OSCoreCtx ctx4 = makeCtx(4);
+        db.addContext(ctx4);
+        db.setExpiry(ctx4, 2600L);
+        now.set(2700L);
+        Assert.assertNull(db.getContext(new byte[]{0x04}));
+        Assert.assertEquals(0, db.size());
+        Assert.assertEquals(3L, db.getExpiredEvictions());
+    }
+}
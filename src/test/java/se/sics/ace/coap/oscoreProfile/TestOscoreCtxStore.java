@@ -0,0 +1,249 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.coap.oscoreProfile;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.californium.oscore.OSCoreCtx;
+import org.eclipse.californium.oscore.OSException;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Test;
+
+import se.sics.ace.Constants;
+import se.sics.ace.TestConfig;
+import se.sics.ace.coap.rs.oscoreProfile.BoundedOscoreCtxDB;
+import se.sics.ace.coap.rs.oscoreProfile.OscoreCtxStore;
+
+/**
+ * Test saving and restoring OSCORE contexts.
+ *
+ */
+public class TestOscoreCtxStore {
+
+    private static final String ctxFile 
+        = TestConfig.testFilePath + "oscoreContexts.json";
+    
+    private static final byte[] secret = {0x01, 0x02, 0x03, 0x04, 0x05, 
+            0x06, 0x07, 0x08, 0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10};
+    
+    /**
+     * Deletes the context file after the tests
+     */
+    @AfterClass
+    public static void tearDown() {
+        new File(ctxFile).delete();
+        new File(ctxFile + ".journal").delete();
+    }
+    
+    /**
+     * Test that a restored context keeps its keys, does not reuse sender
+     * sequence numbers and rejects replays
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRestore() throws Exception {
+        new File(ctxFile).delete();
+        new File(ctxFile + ".journal").delete();
+        AtomicLong now = new AtomicLong(1000L);
+        BoundedOscoreCtxDB db = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store = new OscoreCtxStore(ctxFile, db, now::get, 100);
+        
+        OSCoreCtx ctx = new OSCoreCtx(secret, false, null, new byte[]{0x00}, 
+                new byte[]{0x01}, null, null, new byte[]{0x11}, 
+                new byte[]{0x22}, 0);
+        db.addContext(ctx);
+        db.setExpiry(ctx, 5000L);
+        OSCoreCtx other = new OSCoreCtx(secret, false, null, 
+                new byte[]{0x00}, new byte[]{0x02}, null, null, null, null, 0);
+        db.addContext(other);
+        OSCoreCtx expiring = new OSCoreCtx(secret, false, null, 
+                new byte[]{0x00}, new byte[]{0x03}, null, null, null, null, 0);
+        db.addContext(expiring);
+        db.setExpiry(expiring, 1500L);
+        
+        for (int i = 0; i < 5; i++) {
+            ctx.increaseSenderSeq();
+        }
+        ctx.checkIncomingSeq(0);
+        ctx.checkIncomingSeq(1);
+        ctx.checkIncomingSeq(3);
+        ctx.checkIncomingSeq(40);
+        Assert.assertTrue(store.checkpoint());
+        Assert.assertFalse(store.checkpoint());
+        ctx.checkIncomingSeq(41);
+        Assert.assertTrue(store.checkpoint());
+        
+        now.set(2000L);
+        BoundedOscoreCtxDB db2 = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store2 = new OscoreCtxStore(ctxFile, db2, now::get, 
+                100);
+        Assert.assertEquals(1, store2.load(
+                c -> c.getRecipientId()[0] != 0x02));
+        Assert.assertEquals(1, db2.size());
+        
+        OSCoreCtx restored = db2.getContext(new byte[]{0x01}, 
+                new byte[]{0x22});
+        Assert.assertNotNull(restored);
+        Assert.assertArrayEquals(ctx.getSenderKey(), restored.getSenderKey());
+        Assert.assertArrayEquals(ctx.getRecipientKey(), 
+                restored.getRecipientKey());
+        Assert.assertEquals(ctx.getSenderSeq() + 100, restored.getSenderSeq());
+        Assert.assertEquals(ctx.getLowestRecipientSeq(), 
+                restored.getLowestRecipientSeq());
+        Assert.assertEquals(ctx.getRecipientReplayWindow(), 
+                restored.getRecipientReplayWindow());
+        Assert.assertEquals(5000L, (long)db2.getContexts().get(0).getValue());
+        try {
+            restored.checkIncomingSeq(40);
+            Assert.fail("Replay was not detected");
+        } catch (OSException e) {
+            Assert.assertEquals("Replay detected", e.getMessage());
+        }
+        restored.checkIncomingSeq(39);
+        store2.close();
+    }
+    
+    /**
+     * Test that added contexts are journaled without rewriting the file, 
+     * and that the next checkpoint replaces the journal
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testJournal() throws Exception {
+        File file = new File(ctxFile);
+        File journal = new File(ctxFile + ".journal");
+        file.delete();
+        journal.delete();
+        AtomicLong now = new AtomicLong(1000L);
+        BoundedOscoreCtxDB db = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store = new OscoreCtxStore(ctxFile, db, now::get, 100);
+        
+        OSCoreCtx ctx1 = new OSCoreCtx(secret, false, null, new byte[]{0x00},
+                new byte[]{0x01}, null, null, null, null, 0);
+        db.addContext(ctx1);
+        db.setExpiry(ctx1, 5000L);
+        store.add(ctx1, 5000L);
+        Assert.assertFalse(file.exists());
+        Assert.assertTrue(journal.exists());
+        // Nothing changed since the context was journaled
+        Assert.assertFalse(store.checkpoint());
+        
+        // A torn last entry is ignored
+        byte[] stale = Files.readAllBytes(journal.toPath());
+        try (FileOutputStream fos = new FileOutputStream(journal, true)) {
+            fos.write("{\"ms\":".getBytes(Constants.charset));
+        }
+        BoundedOscoreCtxDB db2 = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store2 = new OscoreCtxStore(ctxFile, db2, now::get, 
+                100);
+        Assert.assertEquals(1, store2.load(null));
+        OSCoreCtx restored = db2.getContext(new byte[]{0x01});
+        Assert.assertNotNull(restored);
+        Assert.assertEquals(ctx1.getSenderSeq() + 100, restored.getSenderSeq());
+        Assert.assertEquals(5000L, (long)db2.getContexts().get(0).getValue());
+        
+        OSCoreCtx ctx2 = new OSCoreCtx(secret, false, null, new byte[]{0x00},
+                new byte[]{0x02}, null, null, null, null, 0);
+        db.addContext(ctx2);
+        store.add(ctx2, Long.MAX_VALUE);
+        for (int i = 0; i < 60; i++) {
+            ctx1.increaseSenderSeq();
+        }
+        Assert.assertTrue(store.checkpoint());
+        Assert.assertTrue(file.exists());
+        Assert.assertFalse(journal.exists());
+        
+        // A journal left over from before the checkpoint does not bring 
+        // back an older state
+        Files.write(journal.toPath(), stale);
+        BoundedOscoreCtxDB db3 = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store3 = new OscoreCtxStore(ctxFile, db3, now::get, 
+                100);
+        Assert.assertEquals(2, store3.load(null));
+        Assert.assertEquals(160, 
+                db3.getContext(new byte[]{0x01}).getSenderSeq());
+        Assert.assertNotNull(db3.getContext(new byte[]{0x02}));
+    }
+    
+    /**
+     * Test that a context sending more messages than the sequence number 
+     * skip between two checkpoints does not reuse a nonce after a crash
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCrash() throws Exception {
+        new File(ctxFile).delete();
+        new File(ctxFile + ".journal").delete();
+        AtomicLong now = new AtomicLong(1000L);
+        BoundedOscoreCtxDB db = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store = new OscoreCtxStore(ctxFile, db, now::get, 100);
+        
+        OSCoreCtx ctx = store.track(new OSCoreCtx(secret, false, null, 
+                new byte[]{0x00}, new byte[]{0x01}, null, null, null, null, 
+                0));
+        db.addContext(ctx);
+        store.add(ctx, Long.MAX_VALUE);
+        int maxSent = -1;
+        for (int i = 0; i < 250; i++) {
+            maxSent = ctx.getSenderSeq();
+            ctx.increaseSenderSeq();
+        }
+        
+        // No close(), as after a crash
+        BoundedOscoreCtxDB db2 = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store2 = new OscoreCtxStore(ctxFile, db2, now::get, 
+                100);
+        Assert.assertEquals(1, store2.load(null));
+        OSCoreCtx restored = db2.getContext(new byte[]{0x01});
+        Assert.assertTrue(restored.getSenderSeq() > maxSent);
+        
+        // The restored context keeps reserving
+        for (int i = 0; i < 250; i++) {
+            maxSent = restored.getSenderSeq();
+            restored.increaseSenderSeq();
+        }
+        BoundedOscoreCtxDB db3 = new BoundedOscoreCtxDB(10, 0L, now::get);
+        OscoreCtxStore store3 = new OscoreCtxStore(ctxFile, db3, now::get, 
+                100);
+        Assert.assertEquals(1, store3.load(null));
+        Assert.assertTrue(db3.getContext(new byte[]{0x01}).getSenderSeq() 
+                > maxSent);
+        store3.close();
+    }
+}
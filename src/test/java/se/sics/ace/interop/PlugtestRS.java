@@ -34,7 +34,6 @@ package se.sics.ace.interop;
 import java.io.File;
 import java.io.IOException;
 import java.net.InetSocketAddress;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -54,13 +53,6 @@ import org.eclipse.californium.core.coap.CoAP.ResponseCode;
 import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
-import org.eclipse.californium.elements.config.CertificateAuthenticationMode;
-import org.eclipse.californium.elements.config.Configuration;
-import org.eclipse.californium.scandium.DTLSConnector;
-import org.eclipse.californium.scandium.config.DtlsConfig;
-import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
-import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
-import org.eclipse.californium.scandium.dtls.x509.SingleCertificateProvider;
 
 import com.upokecenter.cbor.CBORObject;
 import com.upokecenter.cbor.CBORType;
@@ -77,6 +69,7 @@ import se.sics.ace.Constants;
 import se.sics.ace.TestConfig;
 import se.sics.ace.coap.rs.CoapAuthzInfo;
 import se.sics.ace.coap.rs.CoapDeliverer;
+import se.sics.ace.coap.rs.dtlsProfile.DtlspEndpointBuilder;
 import se.sics.ace.coap.rs.dtlsProfile.DtlspPskStore;
 import se.sics.ace.cwt.CwtCryptoCtx;
 import se.sics.ace.examples.KissTime;
@@ -302,22 +295,12 @@ public class PlugtestRS {
         rs.add(ace);
         rs.add(authzInfo);
 
-        Configuration dtlsConfig = Configuration.getStandard();
-        dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, CertificateAuthenticationMode.NEEDED);
-        dtlsConfig.set(DtlsConfig.DTLS_CIPHER_SUITES, Arrays.asList(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8, CipherSuite.TLS_PSK_WITH_AES_128_CCM_8));
-        
-        DtlsConnectorConfig.Builder config 
-        = new DtlsConnectorConfig.Builder(dtlsConfig).setAddress(
-                new InetSocketAddress(CoAP.DEFAULT_COAP_SECURE_PORT));
-
         DtlspPskStore psk = new DtlspPskStore(ai);
-        config.setAdvancedPskStore(psk);
-        config.setCertificateIdentityProvider(
-                new SingleCertificateProvider(rpk.AsPrivateKey(), rpk.AsPublicKey()));
- 
-        DTLSConnector connector = new DTLSConnector(config.build());
-        CoapEndpoint cep = new CoapEndpoint.Builder().setConnector(connector)
-                .setConfiguration(Configuration.getStandard()).build();
+        CoapEndpoint cep = new DtlspEndpointBuilder()
+                .setPort(CoAP.DEFAULT_COAP_SECURE_PORT)
+                .setPskStore(psk)
+                .setAsymmetricKey(rpk)
+                .build();
         rs.addEndpoint(cep);
         //Add a CoAP (no 's') endpoint for authz-info
         CoapEndpoint aiep = new CoapEndpoint.Builder().setInetSocketAddress(
@@ -332,7 +315,7 @@ public class PlugtestRS {
     }
     
     private static void startRS1() 
-            throws IOException, AceException {
+            throws CoseException, IOException, AceException {
      //Set up DTLSProfileTokenRepository
      Set<Short> r = new HashSet<>();
      r.add(Constants.GET);
@@ -384,18 +367,11 @@ public class PlugtestRS {
      rs.add(ace);
      rs.add(authzInfo);
 
-     Configuration dtlsConfig = Configuration.getStandard();
-     dtlsConfig.set(DtlsConfig.DTLS_CIPHER_SUITES, Arrays.asList(CipherSuite.TLS_PSK_WITH_AES_128_CCM_8));
-     
-     DtlsConnectorConfig.Builder config 
-     = new DtlsConnectorConfig.Builder(dtlsConfig).setAddress(
-             new InetSocketAddress(CoAP.DEFAULT_COAP_SECURE_PORT));
-
      DtlspPskStore psk = new DtlspPskStore(ai);
-     config.setAdvancedPskStore(psk);
-     DTLSConnector connector = new DTLSConnector(config.build());
-     CoapEndpoint cep = new CoapEndpoint.Builder().setConnector(connector)
-             .setConfiguration(Configuration.getStandard()).build();
+     CoapEndpoint cep = new DtlspEndpointBuilder()
+             .setPort(CoAP.DEFAULT_COAP_SECURE_PORT)
+             .setPskStore(psk)
+             .build();
      rs.addEndpoint(cep);
      //Add a CoAP (no 's') endpoint for authz-info
      CoapEndpoint aiep = new CoapEndpoint.Builder().setInetSocketAddress(
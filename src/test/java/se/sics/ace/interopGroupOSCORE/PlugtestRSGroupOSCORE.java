@@ -36,9 +36,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.Provider;
 import java.security.Security;
-import java.security.cert.X509Certificate;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -59,15 +57,8 @@ import org.eclipse.californium.core.network.CoapEndpoint.Builder;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
 import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
-import org.eclipse.californium.elements.config.CertificateAuthenticationMode;
-import org.eclipse.californium.elements.config.Configuration;
-import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.californium.scandium.config.DtlsConfig;
-import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
 import org.eclipse.californium.scandium.dtls.CertificateType;
-import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
-import org.eclipse.californium.scandium.dtls.x509.AsyncNewAdvancedCertificateVerifier;
-import org.eclipse.californium.scandium.dtls.x509.SingleCertificateProvider;
 
 import com.upokecenter.cbor.CBORObject;
 
@@ -85,6 +76,7 @@ import se.sics.ace.GroupcommParameters;
 import se.sics.ace.TestConfig;
 import se.sics.ace.Util;
 import se.sics.ace.coap.rs.CoapDeliverer;
+import se.sics.ace.coap.rs.dtlsProfile.DtlspEndpointBuilder;
 import se.sics.ace.cwt.CWT;
 import se.sics.ace.cwt.CwtCryptoCtx;
 import se.sics.ace.examples.KissTime;
@@ -461,28 +453,16 @@ public class PlugtestRSGroupOSCORE {
   	    rs.add(authzInfo);
   	    
   	    // Setup the DTLS server
-        Configuration dtlsConfig = Configuration.getStandard();
-        dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, CertificateAuthenticationMode.NEEDED);
-        dtlsConfig.set(DtlsConfig.DTLS_CIPHER_SUITES, Arrays.asList(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8, CipherSuite.TLS_PSK_WITH_AES_128_CCM_8));
-
-        DtlsConnectorConfig.Builder config = new DtlsConnectorConfig.Builder(dtlsConfig)
-                .setAddress(new InetSocketAddress(portNumberSec));
-  	    
-   	    DtlspPskStoreGroupOSCORE psk = new DtlspPskStoreGroupOSCORE(ai);
-   	    config.setAdvancedPskStore(psk);
-   	    config.setCertificateIdentityProvider(
-                new SingleCertificateProvider(asymmetric.AsPrivateKey(), asymmetric.AsPublicKey()));
-
    	    ArrayList<CertificateType> certTypes = new ArrayList<CertificateType>();
    	    certTypes.add(CertificateType.RAW_PUBLIC_KEY);
    	    certTypes.add(CertificateType.X_509);
-   	    AsyncNewAdvancedCertificateVerifier verifier = new AsyncNewAdvancedCertificateVerifier(new X509Certificate[0],
-                new RawPublicKeyIdentity[0], certTypes);
-   	    config.setAdvancedCertificateVerifier(verifier);
-
-  	    DTLSConnector connector = new DTLSConnector(config.build());
-  	    CoapEndpoint cep = new Builder().setConnector(connector)
-               .setConfiguration(Configuration.getStandard()).build();
+   	    DtlspPskStoreGroupOSCORE psk = new DtlspPskStoreGroupOSCORE(ai);
+   	    CoapEndpoint cep = new DtlspEndpointBuilder()
+   	            .setPort(portNumberSec)
+   	            .setPskStore(psk)
+   	            .setAsymmetricKey(asymmetric)
+   	            .setCertificateTypes(certTypes)
+   	            .build();
   	    rs.addEndpoint(cep);
   	    
   	    //Add a CoAP (no 's') endpoint for authz-info
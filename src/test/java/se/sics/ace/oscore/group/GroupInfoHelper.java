@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.group;
+
+import com.upokecenter.cbor.CBORObject;
+
+import COSE.AlgorithmID;
+import COSE.KeyKeys;
+import COSE.OneKey;
+import net.i2p.crypto.eddsa.Utils;
+import se.sics.ace.Constants;
+import se.sics.ace.GroupcommParameters;
+import se.sics.ace.oscore.GroupInfo;
+
+/**
+ * Helper creating the OSCORE groups used by the tests of GroupInfo and 
+ * of the classes built on it.
+ *
+ */
+public class GroupInfoHelper {
+    
+    /**
+     * Create a group in group mode only, with ECDSA_256 signatures and 
+     * Sender IDs of 2 bytes.
+     * 
+     * @param name  the name of the group
+     * 
+     * @return  the group, not attached to any store
+     * 
+     * @throws Exception
+     */
+    public static GroupInfo makeGroup(String name) throws Exception {
+        CBORObject signParams = CBORObject.NewArray();
+        CBORObject algCapabilities = CBORObject.NewArray();
+        algCapabilities.Add(KeyKeys.KeyType_EC2);
+        CBORObject keyCapabilities = CBORObject.NewArray();
+        keyCapabilities.Add(KeyKeys.KeyType_EC2);
+        keyCapabilities.Add(KeyKeys.EC2_P256);
+        signParams.Add(algCapabilities);
+        signParams.Add(keyCapabilities);
+        OneKey gmKeyPair = new OneKey(CBORObject.DecodeFromBytes(Utils.hexToBytes(
+                "a60102032620012158202236658ca675bb62d7b24623db0453a3b90533b7c3b221cc1c2c73c4e919d540225820770916bc4c97c3c46604f430b06170c7b3d6062633756628c31180fa3bb65a1b2358204a7b844a4c97ef91ed232aa564c9d5d373f2099647f9e9bd3fe6417a0d0f91ad")));
+        
+        return new GroupInfo(name, 
+                new byte[] {0x01, 0x02, 0x03, 0x04, 0x05, 0x06, 0x07, 0x08, 
+                        0x09, 0x0a, 0x0b, 0x0c, 0x0d, 0x0e, 0x0f, 0x10}, 
+                new byte[] {(byte)0x9e, 0x7c}, 4, 
+                new byte[] {(byte)0xfe, (byte)0xed, (byte)0xca, 0x57}, 
+                2, 0xf05c, "M", "-", AlgorithmID.HMAC_SHA_256, 
+                Constants.COSE_HEADER_PARAM_KCCS, 
+                GroupcommParameters.GROUP_OSCORE_GROUP_MODE_ONLY, 
+                AlgorithmID.AES_CCM_16_64_128, AlgorithmID.ECDSA_256, signParams, 
+                null, null, null, null, gmKeyPair, new byte[] {0x0a}, 3);
+    }
+}
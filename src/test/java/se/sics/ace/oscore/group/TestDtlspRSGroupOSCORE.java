@@ -36,9 +36,6 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.security.Provider;
 import java.security.Security;
-import java.security.cert.X509Certificate;
-import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.HashMap;
@@ -54,13 +51,7 @@ import org.eclipse.californium.core.network.CoapEndpoint;
 import org.eclipse.californium.core.network.CoapEndpoint.Builder;
 import org.eclipse.californium.core.server.resources.CoapExchange;
 import org.eclipse.californium.core.server.resources.Resource;
-import org.eclipse.californium.scandium.DTLSConnector;
 import org.eclipse.californium.scandium.config.DtlsConfig;
-import org.eclipse.californium.scandium.config.DtlsConnectorConfig;
-import org.eclipse.californium.scandium.dtls.CertificateType;
-import org.eclipse.californium.scandium.dtls.cipher.CipherSuite;
-import org.eclipse.californium.scandium.dtls.x509.AsyncNewAdvancedCertificateVerifier;
-import org.eclipse.californium.scandium.dtls.x509.SingleCertificateProvider;
 
 import com.upokecenter.cbor.CBORObject;
 
@@ -69,9 +60,6 @@ import COSE.CoseException;
 import COSE.KeyKeys;
 import COSE.MessageTag;
 import COSE.OneKey;
-import org.eclipse.californium.elements.auth.RawPublicKeyIdentity;
-import org.eclipse.californium.elements.config.CertificateAuthenticationMode;
-import org.eclipse.californium.elements.config.Configuration;
 
 import net.i2p.crypto.eddsa.EdDSASecurityProvider;
 import net.i2p.crypto.eddsa.Utils;
@@ -82,6 +70,7 @@ import se.sics.ace.GroupcommParameters;
 import se.sics.ace.TestConfig;
 import se.sics.ace.Util;
 import se.sics.ace.coap.rs.CoapDeliverer;
+import se.sics.ace.coap.rs.dtlsProfile.DtlspEndpointBuilder;
 import se.sics.ace.cwt.CWT;
 import se.sics.ace.cwt.CwtCryptoCtx;
 import se.sics.ace.examples.KissTime;
@@ -463,28 +452,12 @@ public class TestDtlspRSGroupOSCORE {
   	    rs.add(groupOSCOREGroupCollection);
   	    groupOSCORERootGroupMembership.add(groupMembershipResource);
       
-  	    Configuration dtlsConfig = Configuration.getStandard();
-  	    dtlsConfig.set(DtlsConfig.DTLS_CLIENT_AUTHENTICATION_MODE, CertificateAuthenticationMode.NEEDED);
-  	    dtlsConfig.set(DtlsConfig.DTLS_CIPHER_SUITES, Arrays.asList(CipherSuite.TLS_ECDHE_ECDSA_WITH_AES_128_CCM_8, CipherSuite.TLS_PSK_WITH_AES_128_CCM_8));
-      
-  	    DtlsConnectorConfig.Builder config = new DtlsConnectorConfig.Builder(dtlsConfig)
-              .setAddress(
-                      new InetSocketAddress(CoAP.DEFAULT_COAP_SECURE_PORT));
-
-  	    ArrayList<CertificateType> certTypes = new ArrayList<CertificateType>();
-  	    certTypes.add(CertificateType.RAW_PUBLIC_KEY);
-  	    AsyncNewAdvancedCertificateVerifier verifier = new AsyncNewAdvancedCertificateVerifier(
-                new X509Certificate[0], new RawPublicKeyIdentity[0], certTypes);
-  	    config.setAdvancedCertificateVerifier(verifier);
-
   	    DtlspPskStoreGroupOSCORE psk = new DtlspPskStoreGroupOSCORE(ai);
-  	    config.setAdvancedPskStore(psk);
-  	    config.setCertificateIdentityProvider(
-                new SingleCertificateProvider(asymmetric.AsPrivateKey(), asymmetric.AsPublicKey()));
-
-  	    DTLSConnector connector = new DTLSConnector(config.build());
-  	    CoapEndpoint cep = new Builder().setConnector(connector)
-               .setConfiguration(Configuration.getStandard()).build();
+  	    CoapEndpoint cep = new DtlspEndpointBuilder()
+  	            .setPort(CoAP.DEFAULT_COAP_SECURE_PORT)
+  	            .setPskStore(psk)
+  	            .setAsymmetricKey(asymmetric)
+  	            .build();
   	    rs.addEndpoint(cep);
   	    //Add a CoAP (no 's') endpoint for authz-info
   	    CoapEndpoint aiep = new Builder().setInetSocketAddress(
@@ -0,0 +1,173 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.group;
+
+import java.io.File;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.GroupcommParameters;
+import se.sics.ace.TestConfig;
+import se.sics.ace.Util;
+import se.sics.ace.oscore.FileGroupInfoStore;
+import se.sics.ace.oscore.GroupInfo;
+
+/**
+ * Test the snapshot and journal store of OSCORE groups.
+ *
+ */
+public class TestFileGroupInfoStore {
+
+    private static final String file 
+        = TestConfig.testFilePath + "groups.snapshot";
+    
+    /**
+     * Delete the store files
+     */
+    @Before
+    @After
+    public void deleteFiles() {
+        new File(file).delete();
+        new File(file + ".journal").delete();
+        new File(file + ".tmp").delete();
+    }
+    
+    /**
+     * Test that groups, their members and deletions survive a restart
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRestart() throws Exception {
+        FileGroupInfoStore store = new FileGroupInfoStore(file);
+        Map<String, GroupInfo> groups = store.load();
+        Assert.assertTrue(groups.isEmpty());
+        
+        GroupInfo gp1 = GroupInfoHelper.makeGroup("gp1");
+        gp1.setStatus(true);
+        groups.put("gp1", gp1);
+        groups.put("gp2", GroupInfoHelper.makeGroup("gp2"));
+        store.flush();
+        
+        byte[] sid = gp1.allocateSenderId();
+        String nodeName = gp1.allocateNodeName(sid);
+        int roles = Util.addGroupOSCORERole(0, 
+                GroupcommParameters.GROUP_OSCORE_REQUESTER);
+        Assert.assertTrue(gp1.addGroupMember(sid, nodeName, roles, "clientA"));
+        Assert.assertTrue(gp1.storeAuthCred(sid, 
+                CBORObject.FromObject(new byte[] {0x11, 0x22})));
+        String monitor = gp1.allocateNodeName(null);
+        gp1.incrementVersion();
+        gp1.addStaleSenderIdSet();
+        groups.remove("gp2");
+        store.close();
+        
+        store = new FileGroupInfoStore(file);
+        groups = store.load();
+        Assert.assertEquals(1, groups.size());
+        GroupInfo restored = groups.get("gp1");
+        Assert.assertEquals(gp1.toCBOR(), restored.toCBOR());
+        Assert.assertArrayEquals(gp1.getSignatureEncryptionKey(), 
+                restored.getSignatureEncryptionKey());
+        Assert.assertTrue(restored.getStatus());
+        Assert.assertEquals(nodeName, restored.getGroupMemberName("clientA"));
+        Assert.assertEquals(roles, restored.getGroupMemberRoles(sid));
+        Assert.assertEquals(2, restored.getNumberOfStaleSenderIdsSet());
+        
+        // Allocated Sender IDs and monitor names are not reassigned
+        Assert.assertFalse(restored.allocateSenderId(sid));
+        Assert.assertNotEquals(monitor, restored.allocateNodeName(null));
+        store.close();
+    }
+    
+    /**
+     * Test that in write-through mode membership changes and rekeyings 
+     * survive a crash, i.e. a restart without flush or close
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testWriteThrough() throws Exception {
+        FileGroupInfoStore crashed = new FileGroupInfoStore(file, 
+                FileGroupInfoStore.DEFAULT_COMPACT_RECORDS, true);
+        Map<String, GroupInfo> groups = crashed.load();
+        GroupInfo gp1 = GroupInfoHelper.makeGroup("gp1");
+        groups.put("gp1", gp1);
+        
+        byte[] sid = gp1.allocateSenderId();
+        String nodeName = gp1.allocateNodeName(sid);
+        int roles = Util.addGroupOSCORERole(0, 
+                GroupcommParameters.GROUP_OSCORE_REQUESTER);
+        Assert.assertTrue(gp1.addGroupMember(sid, nodeName, roles, "clientA"));
+        gp1.incrementVersion();
+        
+        FileGroupInfoStore store = new FileGroupInfoStore(file);
+        groups = store.load();
+        GroupInfo restored = groups.get("gp1");
+        Assert.assertEquals(gp1.toCBOR(), restored.toCBOR());
+        Assert.assertEquals(nodeName, restored.getGroupMemberName("clientA"));
+        store.close();
+    }
+    
+    /**
+     * Test that the journal is compacted into the snapshot
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCompaction() throws Exception {
+        FileGroupInfoStore store = new FileGroupInfoStore(file, 4);
+        Map<String, GroupInfo> groups = store.load();
+        GroupInfo gp1 = GroupInfoHelper.makeGroup("gp1");
+        groups.put("gp1", gp1);
+        for (int i = 0; i < 10; i++) {
+            gp1.allocateSenderId();
+            store.flush();
+        }
+        Assert.assertTrue(new File(file).length() > 0);
+        Assert.assertTrue(new File(file + ".journal").length() 
+                < new File(file).length() * 4);
+        store.close();
+        
+        store = new FileGroupInfoStore(file, 4);
+        groups = store.load();
+        Assert.assertEquals(10, groups.get("gp1").getUsedSenderIds()
+                .get(0).size());
+        store.close();
+    }
+}
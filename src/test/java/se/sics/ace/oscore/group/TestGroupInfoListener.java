@@ -0,0 +1,277 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.group;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import org.eclipse.californium.core.CoapClient;
+import org.eclipse.californium.core.CoapHandler;
+import org.eclipse.californium.core.CoapObserveRelation;
+import org.eclipse.californium.core.CoapResponse;
+import org.eclipse.californium.core.CoapServer;
+import org.eclipse.californium.core.coap.Request;
+import org.eclipse.californium.core.config.CoapConfig;
+import org.eclipse.californium.core.network.CoapEndpoint;
+import org.eclipse.californium.core.network.interceptors.MessageInterceptorAdapter;
+import org.eclipse.californium.elements.MapBasedEndpointContext;
+import org.eclipse.californium.elements.MapBasedEndpointContext.Attributes;
+import org.eclipse.californium.oscore.OSCoreEndpointContextInfo;
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import net.i2p.crypto.eddsa.Utils;
+import se.sics.ace.GroupcommParameters;
+import se.sics.ace.Util;
+import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.GroupInfoListener;
+import se.sics.ace.oscore.GroupInfoListener.Event;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupOSCOREGroupMembershipResource;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupOSCORESubResourceCreds;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupOSCORESubResourceNum;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupOSCORESubResourceStaleSids;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupRekeyer;
+
+/**
+ * Test the notifications of changes of OSCORE groups, used to notify the 
+ * observers of the Group Manager resources.
+ *
+ */
+public class TestGroupInfoListener {
+    
+    static {
+        CoapConfig.register();
+    }
+    
+    /**
+     * Test the changes listeners are notified of
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testEvents() throws Exception {
+        GroupInfo group = GroupInfoHelper.makeGroup("gp1");
+        List<Event> events = new ArrayList<>();
+        GroupInfoListener listener = (g, event) -> events.add(event);
+        group.addListener(listener);
+        
+        group.setStatus(true);
+        byte[] sid = group.allocateSenderId();
+        group.addGroupMember(sid, group.allocateNodeName(sid), 
+                Util.addGroupOSCORERole(0, 
+                        GroupcommParameters.GROUP_OSCORE_REQUESTER), 
+                "clientA");
+        group.storeAuthCred(sid, CBORObject.FromObject(new byte[] {0x11}));
+        group.removeGroupMemberBySubject("clientA");
+        Assert.assertArrayEquals(new Event[] {Event.STATUS, Event.CREDS, 
+                Event.CREDS}, events.toArray());
+        
+        // A rekey notifies once, when the new keying material is complete
+        events.clear();
+        byte[][] seen = new byte[1][];
+        group.addListener((g, event) -> seen[0] = g.getSignatureEncryptionKey());
+        GroupRekeyer.rekey(group);
+        Assert.assertArrayEquals(new Event[] {Event.VERSION}, events.toArray());
+        Assert.assertArrayEquals(group.getSignatureEncryptionKey(), seen[0]);
+        
+        group.removeListener(listener);
+        events.clear();
+        group.incrementVersion();
+        Assert.assertTrue(events.isEmpty());
+    }
+    
+    /**
+     * Test that the resources members retrieve updates from are observable
+     */
+    @Test
+    public void testObservable() {
+        HashMap<String, GroupInfo> groups = new HashMap<>();
+        Assert.assertTrue(new GroupOSCORESubResourceNum("num", groups)
+                .isObservable());
+        Assert.assertTrue(new GroupOSCORESubResourceCreds("creds", groups)
+                .isObservable());
+        Assert.assertTrue(new GroupOSCORESubResourceStaleSids("stale-sids", 
+                groups).isObservable());
+    }
+    
+    /**
+     * Test the Observe notifications sent to group members: all at once 
+     * for a rekey run directly, and only to the members in the current 
+     * batch for a rekey run by the rekeyer of the group-membership resource
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testObserveNotifications() throws Exception {
+        Map<String, GroupInfo> groups = new HashMap<>();
+        GroupInfo group = GroupInfoHelper.makeGroup("gp1");
+        group.setStatus(true);
+        groups.put("gp1", group);
+        
+        // Plain CoAP, the server takes the OSCORE Recipient ID of a request 
+        // from the port of the client
+        Map<Integer, String> recipientIds = new ConcurrentHashMap<>();
+        CoapEndpoint serverEndpoint = CoapEndpoint.builder()
+                .setInetSocketAddress(new InetSocketAddress("127.0.0.1", 0))
+                .build();
+        serverEndpoint.addInterceptor(new MessageInterceptorAdapter() {
+            @Override
+            public void receiveRequest(Request request) {
+                String rid = recipientIds.get(
+                        request.getSourceContext().getPeerAddress().getPort());
+                request.setSourceContext(MapBasedEndpointContext.addEntries(
+                        request.getSourceContext(), new Attributes().add(
+                                OSCoreEndpointContextInfo.OSCORE_RECIPIENT_ID, 
+                                rid)));
+            }
+        });
+        CoapServer server = new CoapServer();
+        server.addEndpoint(serverEndpoint);
+        GroupOSCOREGroupMembershipResource membership 
+            = new GroupOSCOREGroupMembershipResource("gp1", groups, 
+                    "ace-group", null, null);
+        membership.add(new GroupOSCORESubResourceNum("num", groups));
+        server.add(membership);
+        GroupRekeyer rekeyer = new GroupRekeyer(0, 1, 1000);
+        membership.setRekeyer(rekeyer);
+        server.start();
+        String uri = "coap://127.0.0.1:" 
+                + serverEndpoint.getAddress().getPort() + "/gp1";
+        
+        List<CoapEndpoint> endpoints = new ArrayList<>();
+        List<CoapObserveRelation> relations = new ArrayList<>();
+        List<BlockingQueue<Integer>> keys = new ArrayList<>();
+        BlockingQueue<Integer> nums = new LinkedBlockingQueue<>();
+        int roles = Util.addGroupOSCORERole(0, 
+                GroupcommParameters.GROUP_OSCORE_REQUESTER);
+        try {
+            for (int i = 1; i <= 2; i++) {
+                byte[] rid = {(byte)i};
+                String subject = Base64.getEncoder().encodeToString(rid);
+                byte[] sid = group.allocateSenderId();
+                Assert.assertTrue(group.addGroupMember(sid, 
+                        group.allocateNodeName(sid), roles, subject));
+                
+                CoapEndpoint endpoint = CoapEndpoint.builder()
+                    .setInetSocketAddress(new InetSocketAddress("127.0.0.1", 0))
+                    .build();
+                endpoint.start();
+                endpoints.add(endpoint);
+                recipientIds.put(endpoint.getAddress().getPort(), 
+                        Utils.bytesToHex(rid));
+                
+                BlockingQueue<Integer> versions = new LinkedBlockingQueue<>();
+                keys.add(versions);
+                CoapClient client = new CoapClient(uri);
+                client.setEndpoint(endpoint);
+                relations.add(client.observe(handler(versions, 
+                        r -> r.get(GroupcommParameters.NUM))));
+                Assert.assertEquals(Integer.valueOf(group.getVersion()), 
+                        versions.poll(5, TimeUnit.SECONDS));
+                
+                if (i == 1) {
+                    client = new CoapClient(uri + "/num");
+                    client.setEndpoint(endpoint);
+                    relations.add(client.observe(handler(nums, r -> r)));
+                    Assert.assertEquals(Integer.valueOf(group.getVersion()), 
+                            nums.poll(5, TimeUnit.SECONDS));
+                }
+            }
+            
+            // A rekey run directly is notified to all observers at once
+            int version = GroupRekeyer.rekey(group);
+            Assert.assertEquals(Integer.valueOf(version), 
+                    keys.get(0).poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(version), 
+                    keys.get(1).poll(5, TimeUnit.SECONDS));
+            Assert.assertEquals(Integer.valueOf(version), 
+                    nums.poll(5, TimeUnit.SECONDS));
+            
+            // A rekey run by the rekeyer is notified to one member per batch
+            rekeyer.rekeyNow(group);
+            version = group.getVersion();
+            Assert.assertEquals(Integer.valueOf(version), 
+                    nums.poll(5, TimeUnit.SECONDS));
+            Thread.sleep(500);
+            Assert.assertEquals(1, keys.get(0).size() + keys.get(1).size());
+            for (BlockingQueue<Integer> versions : keys) {
+                Assert.assertEquals(Integer.valueOf(version), 
+                        versions.poll(5, TimeUnit.SECONDS));
+                Assert.assertNull(versions.poll(500, TimeUnit.MILLISECONDS));
+            }
+        } finally {
+            for (CoapObserveRelation relation : relations) {
+                relation.proactiveCancel();
+            }
+            rekeyer.close();
+            server.destroy();
+            for (CoapEndpoint endpoint : endpoints) {
+                endpoint.destroy();
+            }
+        }
+    }
+    
+    /**
+     * @param versions  the queue to put the versions of the keying material in
+     * @param num  extracts the version from the decoded payload
+     * 
+     * @return  a handler of Observe notifications
+     */
+    private static CoapHandler handler(BlockingQueue<Integer> versions, 
+            Function<CBORObject, CBORObject> num) {
+        return new CoapHandler() {
+            @Override
+            public void onLoad(CoapResponse response) {
+                if (response.isSuccess()) {
+                    versions.add(num.apply(CBORObject.DecodeFromBytes(
+                            response.getPayload())).AsInt32());
+                }
+            }
+            
+            @Override
+            public void onError() {
+                // The test fails on the missing notification
+            }
+        };
+    }
+}
@@ -0,0 +1,95 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.group;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.GroupcommParameters;
+import se.sics.ace.Util;
+import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupRekeyer;
+
+/**
+ * Test the cache of encoded responses of the Group Manager resources.
+ *
+ */
+public class TestGroupInfoResponseCache {
+    
+    /**
+     * Test that responses are encoded once per status of the group
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testInvalidation() throws Exception {
+        GroupInfo group = GroupInfoHelper.makeGroup("gp1");
+        AtomicInteger encodings = new AtomicInteger();
+        
+        byte[] first = group.getEncodedResponse("creds", 
+                () -> CBORObject.FromObject(encodings.incrementAndGet())
+                    .EncodeToBytes());
+        byte[] second = group.getEncodedResponse("creds", 
+                () -> CBORObject.FromObject(encodings.incrementAndGet())
+                    .EncodeToBytes());
+        Assert.assertSame(first, second);
+        Assert.assertEquals(1, encodings.get());
+        
+        // Responses with a different filter are encoded separately
+        group.getEncodedResponse("creds:filter", () -> new byte[] {0x00});
+        Assert.assertSame(first, group.getEncodedResponse("creds", 
+                () -> new byte[] {0x01}));
+        
+        // Any change of the group drops the encoded responses
+        byte[] sid = group.allocateSenderId();
+        group.addGroupMember(sid, group.allocateNodeName(sid), 
+                Util.addGroupOSCORERole(0, 
+                        GroupcommParameters.GROUP_OSCORE_REQUESTER), 
+                "clientA");
+        group.storeAuthCred(sid, CBORObject.FromObject(new byte[] {0x11}));
+        byte[] third = group.getEncodedResponse("creds", 
+                () -> CBORObject.FromObject(encodings.incrementAndGet())
+                    .EncodeToBytes());
+        Assert.assertEquals(2, encodings.get());
+        Assert.assertNotSame(first, third);
+        
+        GroupRekeyer.rekey(group);
+        group.getEncodedResponse("creds", 
+                () -> CBORObject.FromObject(encodings.incrementAndGet())
+                    .EncodeToBytes());
+        Assert.assertEquals(3, encodings.get());
+    }
+}
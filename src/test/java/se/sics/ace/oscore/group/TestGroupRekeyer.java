@@ -0,0 +1,161 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.oscore.group;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.GroupcommParameters;
+import se.sics.ace.Util;
+import se.sics.ace.oscore.GroupInfo;
+import se.sics.ace.oscore.rs.oscoreGroupManager.GroupRekeyer;
+
+/**
+ * Test the rekeying of OSCORE groups.
+ *
+ */
+public class TestGroupRekeyer {
+    
+    private static void addMembers(GroupInfo group, int count) 
+            throws AceException {
+        int roles = Util.addGroupOSCORERole(0, 
+                GroupcommParameters.GROUP_OSCORE_REQUESTER);
+        for (int i = 0; i < count; i++) {
+            byte[] sid = group.allocateSenderId();
+            Assert.assertTrue(group.addGroupMember(sid, 
+                    group.allocateNodeName(sid), roles, "client" + i));
+        }
+    }
+    
+    /**
+     * Test that a rekey changes the keying material, the Group ID, the 
+     * version and the sets of stale Sender IDs
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testRekey() throws Exception {
+        GroupInfo group = GroupInfoHelper.makeGroup("gp1");
+        addMembers(group, 2);
+        byte[] secret = group.getMasterSecret();
+        byte[] salt = group.getMasterSalt();
+        byte[] gid = group.getGroupId();
+        byte[] sek = group.getSignatureEncryptionKey();
+        byte[] leftSid = group.getGroupMemberSenderId("client0").GetByteString();
+        Assert.assertTrue(group.removeGroupMemberBySubject("client0"));
+        
+        Assert.assertEquals(1, GroupRekeyer.rekey(group));
+        Assert.assertFalse(Arrays.equals(secret, group.getMasterSecret()));
+        Assert.assertEquals(secret.length, group.getMasterSecret().length);
+        Assert.assertFalse(Arrays.equals(salt, group.getMasterSalt()));
+        Assert.assertEquals(0xf05d, group.getGroupIdEpoch());
+        Assert.assertFalse(Arrays.equals(gid, group.getGroupId()));
+        Assert.assertFalse(Arrays.equals(sek, 
+                group.getSignatureEncryptionKey()));
+        Assert.assertEquals(2, group.getNumberOfStaleSenderIdsSet());
+        Assert.assertTrue(group.getStaleSenderIds(0).contains(
+                CBORObject.FromObject(leftSid)));
+        Assert.assertTrue(group.getStaleSenderIds(1).isEmpty());
+        
+        // The oldest set of stale Sender IDs is dropped beyond the maximum
+        GroupRekeyer.rekey(group);
+        Assert.assertEquals(3, group.getNumberOfStaleSenderIdsSet());
+        GroupRekeyer.rekey(group);
+        Assert.assertEquals(3, group.getVersion());
+        Assert.assertEquals(3, group.getNumberOfStaleSenderIdsSet());
+        Assert.assertFalse(group.getStaleSenderIds(0).contains(
+                CBORObject.FromObject(leftSid)));
+    }
+    
+    /**
+     * Test that leaves in the same time window result in a single rekey,
+     * distributed in batches to the remaining members
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testCoalesceAndBatches() throws Exception {
+        GroupInfo group = GroupInfoHelper.makeGroup("gp2");
+        addMembers(group, 14);
+        List<List<String>> batches 
+            = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(3);
+        try (GroupRekeyer rekeyer = new GroupRekeyer(200L, 5, 10L)) {
+            rekeyer.addListener((g, version, nodeNames) -> {
+                Assert.assertEquals(1, version);
+                batches.add(new ArrayList<>(nodeNames));
+                done.countDown();
+            });
+            for (int i = 0; i < 3; i++) {
+                group.removeGroupMemberBySubject("client" + i);
+                rekeyer.scheduleRekey(group);
+            }
+            Assert.assertEquals(0, group.getVersion());
+            Assert.assertTrue(done.await(5, TimeUnit.SECONDS));
+        }
+        Assert.assertEquals(1, group.getVersion());
+        Assert.assertEquals(3, batches.size());
+        Set<String> notified = new HashSet<>();
+        for (List<String> batch : batches) {
+            Assert.assertTrue(batch.size() <= 5);
+            notified.addAll(batch);
+        }
+        Assert.assertEquals(group.getGroupMemberNames(), notified);
+        Assert.assertEquals(11, notified.size());
+    }
+    
+    /**
+     * Test that closing the rekeyer runs the scheduled rekeys
+     * 
+     * @throws Exception
+     */
+    @Test
+    public void testClose() throws Exception {
+        GroupInfo group = GroupInfoHelper.makeGroup("gp3");
+        GroupRekeyer rekeyer = new GroupRekeyer(3600000L, 5, 10L);
+        rekeyer.scheduleRekey(group);
+        rekeyer.close();
+        Assert.assertEquals(1, group.getVersion());
+    }
+}
@@ -0,0 +1,146 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.rs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.examples.Aif;
+import se.sics.ace.examples.KissValidator;
+import se.sics.ace.examples.PathScopeValidator;
+
+/**
+ * Compares the time of scope checks for an RS with many resources of the 
+ * form sensors/i/temp, between the KissValidator, Aif and the 
+ * PathScopeValidator. The Kiss and Aif scopes have to enumerate all 
+ * resources, the path scope uses a wildcard.
+ * 
+ * This is not run as part of the tests, run it with:
+ * java se.sics.ace.rs.ScopeValidatorBenchmark [resources] [iterations]
+ *
+ */
+public class ScopeValidatorBenchmark {
+
+    /**
+     * @param args  the number of resources and the number of checks
+     * @throws AceException 
+     */
+    public static void main(String[] args) throws AceException {
+        int resourceCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        
+        Set<String> resources = new HashSet<>();
+        Map<String, Set<Short>> kissResources = new HashMap<>();
+        CBORObject aifScope = CBORObject.NewArray();
+        String[] paths = new String[resourceCount];
+        for (int i=0; i<resourceCount; i++) {
+            paths[i] = "sensors/" + i + "/temp";
+            resources.add(paths[i]);
+            kissResources.put(paths[i], 
+                    Collections.singleton(Constants.GET));
+            CBORObject authz = CBORObject.NewArray();
+            authz.Add(paths[i]);
+            authz.Add(1 << Aif.GET);
+            aifScope.Add(authz);
+        }
+        
+        Map<String, Map<String, Set<Short>>> kissScopes = new HashMap<>();
+        kissScopes.put("r_temp", kissResources);
+        KissValidator kiss = new KissValidator(
+                Collections.singleton("rs1"), kissScopes);
+        CBORObject kissScope = CBORObject.FromObject("r_temp");
+        
+        Aif aif = new Aif(resources);
+        
+        PathScopeValidator path = new PathScopeValidator(resources);
+        CBORObject pathScope = CBORObject.NewArray();
+        CBORObject authz = CBORObject.NewArray();
+        authz.Add("sensors/*/temp");
+        authz.Add(1);
+        pathScope.Add(authz);
+        
+        System.out.println(resourceCount + " resources, " + iterations 
+                + " checks, ns per check:");
+        run("KissValidator scopeMatch", kiss, kissScope, null, paths, 
+                iterations, Constants.GET);
+        run("KissValidator compiled", kiss, kissScope, 
+                kiss.compile(kissScope), paths, iterations, Constants.GET);
+        run("Aif scopeMatch", aif, aifScope, null, paths, 
+                Math.max(1, iterations / 100), Aif.GET);
+        run("Aif compiled", aif, aifScope, aif.compile(aifScope), paths, 
+                iterations, Aif.GET);
+        run("PathScopeValidator scopeMatch", path, pathScope, null, paths, 
+                iterations, Constants.GET);
+        run("PathScopeValidator compiled", path, pathScope, 
+                path.compile(pathScope), paths, iterations, Constants.GET);
+    }
+    
+    /**
+     * Time scope checks, after a warm up round.
+     * 
+     * @param name  the name to print
+     * @param v  the validator
+     * @param scope  the scope
+     * @param matcher  the compiled scope, null to use the validator
+     * @param paths  the resources to check
+     * @param iterations  the number of checks
+     * @param action  the action to check
+     * @throws AceException 
+     */
+    private static void run(String name, ScopeValidator v, CBORObject scope,
+            ScopeMatcher matcher, String[] paths, int iterations, 
+            short action) throws AceException {
+        long elapsed = 0;
+        for (int round=0; round<2; round++) {
+            long start = System.nanoTime();
+            for (int i=0; i<iterations; i++) {
+                String resource = paths[(i * 7919) % paths.length];
+                boolean ok = matcher == null 
+                        ? v.scopeMatch(scope, resource, action)
+                        : matcher.match(resource, action);
+                if (!ok) {
+                    throw new AceException("Scope did not match " + resource);
+                }
+            }
+            elapsed = System.nanoTime() - start;
+        }
+        System.out.println(String.format("%-32s %10d", name, 
+                elapsed / iterations));
+    }
+}
@@ -124,5 +124,26 @@ public class TestAif {
          s.scopeMatch(scope, "sensors/temp", "BLAH");
         
     }
-}
     
+    /**
+     * Test that the compiled scope matches like the validator
+     * 
+     * @throws AceException 
+     */
+    @Test
+    public void testCompiledScope() throws AceException {
+        ScopeMatcher m = s.compile(scope);
+        String[] resources = {"sensors/temp", "config/security", 
+                "sensors/co2", "blah"};
+        short[] actions = {Aif.GET, Aif.POST, Aif.PUT, Aif.DELETE, 
+                Aif.FETCH, Aif.PATCH, Aif.iPATCH};
+        for (String resource : resources) {
+            Assert.assertEquals(s.scopeMatchResource(scope, resource), 
+                    m.matchResource(resource));
+            for (short action : actions) {
+                Assert.assertEquals(s.scopeMatch(scope, resource, action),
+                        m.match(resource, action));
+            }
+        }
+    }
+}
@@ -34,17 +34,31 @@ package se.sics.ace.rs;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.security.InvalidKeyException;
 import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.eclipse.californium.core.coap.CoAP.Code;
+import org.eclipse.californium.core.coap.Request;
 import org.junit.Test;
 
 import com.upokecenter.cbor.CBORObject;
 
+import COSE.AlgorithmID;
 import org.junit.Assert;
 import se.sics.ace.AceException;
 import se.sics.ace.Constants;
+import se.sics.ace.TestConfig;
+import se.sics.ace.cwt.CwtCryptoCtx;
+import se.sics.ace.examples.KissTime;
+import se.sics.ace.examples.KissValidator;
 
 /**
  * Tests the AsRequestCreationHints  class.
@@ -90,5 +104,105 @@ public class TestAsRequestCreationHints {
         Assert.assertEquals("coaps://testAS/token", hints.get(Constants.AS).AsString());
  
     }
+    
+    /**
+     * Test that the encoded hints match the hints created by getHints()
+     * 
+     * @throws AceException
+     * @throws NoSuchAlgorithmException 
+     * @throws InvalidKeyException 
+     */
+    @Test 
+    public void testEncodedHints() throws AceException, InvalidKeyException, NoSuchAlgorithmException {
+        AsRequestCreationHints ai = new AsRequestCreationHints("coaps://testAS/token", "rs1", false, true);
+        String kid = Base64.getEncoder().encodeToString(new byte[]{0x01, 0x02});
+        for (int i = 0; i < 2; i++) { // Second round uses the cached template
+            Map<Short, CBORObject> expected = AsRequestCreationHints.parseHints(ai.getHints(null, kid));
+            Map<Short, CBORObject> hints = AsRequestCreationHints.parseHints(
+                    CBORObject.DecodeFromBytes(ai.getEncodedHints(null, kid)));
+            Assert.assertEquals(expected.keySet(), hints.keySet());
+            Assert.assertEquals(expected.get(Constants.AS), hints.get(Constants.AS));
+            Assert.assertEquals(expected.get(Constants.KID), hints.get(Constants.KID));
+            Assert.assertEquals(expected.get(Constants.AUDIENCE), hints.get(Constants.AUDIENCE));
+            Assert.assertEquals(expected.get(Constants.CNONCE).GetByteString().length,
+                    hints.get(Constants.CNONCE).GetByteString().length);
+        }
+        
+        Map<Short, CBORObject> hints = AsRequestCreationHints.parseHints(
+                CBORObject.DecodeFromBytes(ai.getEncodedHints(null, null)));
+        Assert.assertEquals(3, hints.size());
+        Assert.assertFalse(hints.containsKey(Constants.KID));
+    }
+
+    /**
+     * Test that the encoded hints with scope match the hints created by 
+     * getHints(), and that the cached scopes are dropped when the scopes
+     * change or the token repository is replaced
+     * 
+     * @throws Exception
+     */
+    @Test 
+    public void testScopeTemplate() throws Exception {
+        Set<Short> actions = new HashSet<>();
+        actions.add(Constants.GET);
+        Map<String, Set<Short>> myResource = new HashMap<>();
+        myResource.put("temp", actions);
+        Map<String, Map<String, Set<Short>>> myScopes = new HashMap<>();
+        myScopes.put("r_temp", myResource);
+        final AtomicReference<String> tempScope 
+            = new AtomicReference<>("r_temp");
+        KissValidator valid = new KissValidator(
+                Collections.singleton("aud1"), myScopes) {
+            @Override
+            public CBORObject getScope(String resource, short action) {
+                if (resource.equals("temp") && action == Constants.GET) {
+                    return CBORObject.FromObject(tempScope.get());
+                }
+                return super.getScope(resource, action);
+            }
+        };
+        String tokenFile = TestConfig.testFilePath + "hintsTokens.json";
+        new File(tokenFile).delete();
+        byte[] key128 = {'a', 'b', 'c', 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+        CwtCryptoCtx ctx = CwtCryptoCtx.encrypt0(key128, 
+                AlgorithmID.AES_CCM_16_128_128.AsCBOR());
+        
+        AsRequestCreationHints ai = new AsRequestCreationHints("coaps://testAS/token", "rs1", true, false);
+        Request req = new Request(Code.GET);
+        req.setURI("coap://localhost/temp");
+        try {
+            TokenRepository.create(valid, tokenFile, ctx, null, 0, new KissTime(), "rs1");
+            for (int i = 0; i < 2; i++) { // Second round uses the cached template
+                Map<Short, CBORObject> expected = AsRequestCreationHints.parseHints(ai.getHints(req, null));
+                Map<Short, CBORObject> hints = AsRequestCreationHints.parseHints(
+                        CBORObject.DecodeFromBytes(ai.getEncodedHints(req, null)));
+                Assert.assertEquals(expected, hints);
+                Assert.assertEquals("r_temp", hints.get(Constants.SCOPE).AsString());
+            }
+            
+            // Changed scopes are only seen after invalidating
+            tempScope.set("r_temp2");
+            Assert.assertEquals("r_temp", AsRequestCreationHints.parseHints(
+                    CBORObject.DecodeFromBytes(ai.getEncodedHints(req, null)))
+                    .get(Constants.SCOPE).AsString());
+            ai.invalidate();
+            Assert.assertEquals("r_temp2", AsRequestCreationHints.parseHints(
+                    CBORObject.DecodeFromBytes(ai.getEncodedHints(req, null)))
+                    .get(Constants.SCOPE).AsString());
+            
+            // A new token repository does not use the cached scopes
+            TokenRepository.getInstance().close();
+            tempScope.set("r_temp3");
+            TokenRepository.create(valid, tokenFile, ctx, null, 0, new KissTime(), "rs1");
+            Assert.assertEquals("r_temp3", AsRequestCreationHints.parseHints(
+                    CBORObject.DecodeFromBytes(ai.getEncodedHints(req, null)))
+                    .get(Constants.SCOPE).AsString());
+        } finally {
+            if (TokenRepository.getInstance() != null) {
+                TokenRepository.getInstance().close();
+            }
+            new File(tokenFile).delete();
+        }
+    }
 
 }
@@ -40,7 +40,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bouncycastle.crypto.InvalidCipherTextException;
 import org.eclipse.californium.core.coap.CoAP.Code;
@@ -403,4 +406,81 @@ public class TestCnonce {
        map.Add(Constants.ERROR_DESCRIPTION, "cnonce replayed");
        Assert.assertArrayEquals(map.EncodeToBytes(), response.getRawPayload());      
     }
+    
+    /**
+     * Test nonces created and checked concurrently and out of order
+     * 
+     * @throws Exception 
+     */
+    @Test
+    public void testConcurrentNonces() throws Exception {
+        final int threads = 8;
+        final int perThread = 100;
+        final CnonceHandler handler 
+            = new CnonceHandler(threads * perThread);
+        final byte[][] nonces = new byte[threads * perThread][];
+        // Failures in the workers are asserted on after they are done
+        final Queue<Throwable> failures = new ConcurrentLinkedQueue<>();
+        Thread[] workers = new Thread[threads];
+        for (int t=0; t<threads; t++) {
+            final int offset = t * perThread;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i=0; i<perThread; i++) {
+                            nonces[offset + i] = handler.createNonce();
+                        }
+                    } catch (Exception e) {
+                        failures.add(e);
+                    }
+                }
+            });
+            workers[t].setUncaughtExceptionHandler(
+                    (thread, e) -> failures.add(e));
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        
+        final AtomicInteger accepted = new AtomicInteger(0);
+        for (int t=0; t<threads; t++) {
+            final int offset = t * perThread;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    // Check in reverse order, twice each
+                    for (int i=nonces.length-1; i>=0; i--) {
+                        if (i % threads != offset / perThread) {
+                            continue;
+                        }
+                        Map<Short, CBORObject> claims = new HashMap<>();
+                        claims.put(Constants.CNONCE, 
+                                CBORObject.FromObject(nonces[i]));
+                        for (int j=0; j<2; j++) {
+                            try {
+                                handler.checkNonce(claims);
+                                accepted.incrementAndGet();
+                            } catch (AceException e) {
+                                if (!"cnonce replayed".equals(
+                                        e.getMessage())) {
+                                    failures.add(e);
+                                }
+                            }
+                        }
+                    }
+                }
+            });
+            workers[t].setUncaughtExceptionHandler(
+                    (thread, e) -> failures.add(e));
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        Assert.assertTrue(failures.toString(), failures.isEmpty());
+        Assert.assertEquals(nonces.length, accepted.get());
+    }
 }
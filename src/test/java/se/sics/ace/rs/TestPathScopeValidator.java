@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright (c) 2019, RISE AB
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without 
+ * modification, are permitted provided that the following conditions 
+ * are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, 
+ *    this list of conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, 
+ *    this list of conditions and the following disclaimer in the documentation 
+ *    and/or other materials provided with the distribution.
+ *
+ * 3. Neither the name of the copyright holder nor the names of its
+ *    contributors may be used to endorse or promote products derived from
+ *    this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS 
+ * "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT 
+ * LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR 
+ * A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT 
+ * HOLDER OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, 
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT 
+ * LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, 
+ * DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY 
+ * THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT 
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE 
+ * OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *******************************************************************************/
+package se.sics.ace.rs;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.upokecenter.cbor.CBORObject;
+
+import se.sics.ace.AceException;
+import se.sics.ace.Constants;
+import se.sics.ace.examples.PathScopeValidator;
+
+/**
+ * Tests for the PathScopeValidator class.
+ *
+ */
+public class TestPathScopeValidator {
+
+    private static CBORObject scope;
+    private static PathScopeValidator v;
+    
+    /**
+     * Set up tests.
+     */
+    @BeforeClass
+    public static void setUp()  {
+        Set<String> resources = new HashSet<>();
+        resources.add("sensors/1/temp");
+        resources.add("sensors/2/temp");
+        resources.add("sensors/2/co2");
+        resources.add("config/security");
+        resources.add("actuators/valve");
+        v = new PathScopeValidator(resources);
+        
+        scope = CBORObject.NewArray();
+        CBORObject authz1 = CBORObject.NewArray();
+        authz1.Add("sensors/*/temp");
+        authz1.Add(1); // GET
+        scope.Add(authz1);
+        CBORObject authz2 = CBORObject.NewArray();
+        authz2.Add("config/**");
+        authz2.Add(1|4); // GET and PUT
+        scope.Add(authz2);
+        CBORObject authz3 = CBORObject.NewArray();
+        authz3.Add("sensors/2/temp");
+        authz3.Add(2); // POST
+        scope.Add(authz3);
+    }
+    
+    /**
+     * Test wildcard patterns
+     * 
+     * @throws AceException 
+     */
+    @Test
+    public void testWildcard() throws AceException {
+        Assert.assertTrue(v.scopeMatchResource(scope, "sensors/1/temp"));
+        Assert.assertTrue(v.scopeMatch(scope, "sensors/1/temp", Constants.GET));
+        Assert.assertFalse(v.scopeMatch(scope, "sensors/1/temp", Constants.POST));
+        Assert.assertTrue(v.scopeMatch(scope, "/sensors/42/temp", Constants.GET));
+        Assert.assertFalse(v.scopeMatchResource(scope, "sensors/1/co2"));
+        Assert.assertFalse(v.scopeMatchResource(scope, "sensors/1/temp/raw"));
+        Assert.assertFalse(v.scopeMatchResource(scope, "sensors/temp"));
+        
+        // The exact grant adds to the wildcard grant
+        Assert.assertTrue(v.scopeMatch(scope, "sensors/2/temp", Constants.GET));
+        Assert.assertTrue(v.scopeMatch(scope, "sensors/2/temp", Constants.POST));
+    }
+    
+    /**
+     * Test prefix patterns
+     * 
+     * @throws AceException 
+     */
+    @Test
+    public void testPrefix() throws AceException {
+        Assert.assertTrue(v.scopeMatch(scope, "config", Constants.GET));
+        Assert.assertTrue(v.scopeMatch(scope, "config/security", Constants.PUT));
+        Assert.assertTrue(v.scopeMatch(scope, "config/a/b/c", Constants.GET));
+        Assert.assertFalse(v.scopeMatch(scope, "config/security", Constants.DELETE));
+        Assert.assertFalse(v.scopeMatchResource(scope, "configuration"));
+    }
+    
+    /**
+     * Test a trie built directly with a mask allowing all actions
+     * 
+     * @throws AceException 
+     */
+    @Test
+    public void testAllActions() throws AceException {
+        Map<String, Long> patterns = new HashMap<>();
+        patterns.put("sensors/**", -1L);
+        patterns.put("config", 0L);
+        ResourceTrie trie = new ResourceTrie(patterns);
+        Assert.assertEquals(Long.valueOf(-1L), trie.getActions("sensors/1"));
+        Assert.assertTrue(trie.match("sensors/1", Constants.GET));
+        Assert.assertTrue(trie.match("sensors/1", Constants.DELETE));
+        Assert.assertEquals(Long.valueOf(0L), trie.getActions("config"));
+        Assert.assertFalse(trie.match("config", Constants.GET));
+        Assert.assertTrue(trie.matchResource("config"));
+        Assert.assertNull(trie.getActions("lights"));
+        Assert.assertFalse(trie.match("lights", Constants.GET));
+    }
+    
+    /**
+     * Test if scopes are meaningful for the resources of the RS
+     * 
+     * @throws AceException 
+     */
+    @Test
+    public void testMeaningful() throws AceException {
+        Assert.assertTrue(v.isScopeMeaningful(scope));
+        CBORObject other = CBORObject.NewArray();
+        CBORObject authz = CBORObject.NewArray();
+        authz.Add("lights/*");
+        authz.Add(1);
+        other.Add(authz);
+        Assert.assertFalse(v.isScopeMeaningful(other));
+        authz.set(0, CBORObject.FromObject("actuators/*"));
+        Assert.assertTrue(v.isScopeMeaningful(other));
+    }
+    
+    /**
+     * Test that the scope hints grant the requested action
+     * 
+     * @throws AceException 
+     */
+    @Test
+    public void testGetScope() throws AceException {
+        CBORObject hint = v.getScope("sensors/2/co2", Constants.PUT);
+        Assert.assertTrue(v.scopeMatch(hint, "sensors/2/co2", Constants.PUT));
+        Assert.assertFalse(v.scopeMatch(hint, "sensors/2/co2", Constants.GET));
+    }
+    
+    /**
+     * Test a scope with invalid format
+     * 
+     * @throws AceException 
+     */
+    @Test (expected = AceException.class)
+    public void testInvalidScope() throws AceException {
+        v.compile(CBORObject.FromObject("sensors/1/temp"));
+    }
+}
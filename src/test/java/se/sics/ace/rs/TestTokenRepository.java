@@ -666,6 +666,40 @@ public class TestTokenRepository {
     }
     
     
+    /**
+     * Test the mapping of DTLS sessions to kids
+     * 
+     * @throws AceException 
+     * @throws CoseException 
+     */
+    @Test
+    public void testSessionKid() throws AceException, CoseException {
+        Map<Short, CBORObject> params = new HashMap<>(); 
+        params.put(Constants.SCOPE, CBORObject.FromObject("r_co2"));
+        params.put(Constants.AUD, CBORObject.FromObject("aud1"));
+        params.put(Constants.CTI, CBORObject.FromObject("token2".getBytes(Constants.charset)));
+        params.put(Constants.ISS, CBORObject.FromObject("TestAS"));
+        params.put(Constants.CNF, rpkCnf);
+        tr.addToken(null, params, ctx, null, -1);
+        String kid = Base64.getEncoder().encodeToString(
+                new RawPublicKeyIdentity(asymmetricKey.AsPublicKey()).getName().getBytes());
+        
+        // Unknown kids are not mapped
+        tr.addSession("0102", "otherKey");
+        Assert.assertNull(tr.getKidBySession("0102"));
+        
+        tr.addSession("0102", kid);
+        Assert.assertEquals(kid, tr.getKidBySession("0102"));
+        
+        // Only the last session of a kid is kept
+        tr.addSession("0304", kid);
+        Assert.assertNull(tr.getKidBySession("0102"));
+        Assert.assertEquals(kid, tr.getKidBySession("0304"));
+        
+        tr.removeToken("dG9rZW4y");
+        Assert.assertNull(tr.getKidBySession("0304"));
+    }
+    
     /**
      * Remove lingering token entries
      * @throws AceException 